@@ -0,0 +1,175 @@
+package com.anysoftkeyboard.base.dictionaries;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes dictionaries' state to the disk on a dedicated background thread, so typing (or closing the keyboard)
+ * never waits for the disk. Dictionaries take a copy of the state they want written, and hand it over as a {@link Write}.
+ * <p/>
+ * Writes are keyed: a write replaces the pending (not started yet) write of the same key, so a burst of changes to
+ * the same state is written once, with its latest value. Writes run one at a time, in the order of their (latest)
+ * submission: everything submitted before a write was written (or replaced) by the time it runs.
+ * Use a new key (any new Object) for writes which should never be replaced, like appends.
+ * <p/>
+ * A failed write is logged, and does not stop the writes after it. A write which throws an {@link Error} takes
+ * its thread with it, but the writes after it are still written, on a new thread.
+ * This class is thread-safe.
+ */
+public class DictionaryPersistence {
+    private static final String TAG = "DictionaryPersistence";
+    private static final long WRITER_KEEP_ALIVE_SECONDS = 30;
+
+    public interface Write {
+        /**
+         * Called on the persistence thread. Should write the state which was copied when the write was created.
+         */
+        void write() throws Exception;
+    }
+
+    private static final DictionaryPersistence msInstance = new DictionaryPersistence();
+
+    @NonNull
+    public static DictionaryPersistence getInstance() {
+        return msInstance;
+    }
+
+    private final ThreadPoolExecutor mWriter = new ThreadPoolExecutor(0, 1, WRITER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "DictionaryPersistence");
+        }
+    });
+
+    private final Runnable mDrainPendingWrites = new Runnable() {
+        @Override
+        public void run() {
+            drainPendingWrites();
+        }
+    };
+
+    private final Object mPendingWritesLock = new Object();
+    //in the order of their latest submission
+    private final LinkedHashMap<Object, Write> mPendingWrites = new LinkedHashMap<>();
+    private boolean mDrainScheduled = false;
+    private boolean mWriting = false;
+    private Thread mWritingThread;
+    private long mSubmittedWritesCount;
+    private long mCoalescedWritesCount;
+
+    DictionaryPersistence() {
+    }
+
+    /**
+     * Schedules the write, replacing the pending write of the same key.
+     */
+    public void persist(@NonNull Object key, @NonNull Write write) {
+        synchronized (mPendingWritesLock) {
+            mSubmittedWritesCount++;
+            //removing first, so the write moves to the end of the order
+            if (mPendingWrites.remove(key) != null) mCoalescedWritesCount++;
+            mPendingWrites.put(key, write);
+            if (!mDrainScheduled) {
+                mDrainScheduled = true;
+                mWriter.execute(mDrainPendingWrites);
+            }
+        }
+    }
+
+    private void drainPendingWrites() {
+        boolean drained = false;
+        try {
+            while (true) {
+                final Write write;
+                synchronized (mPendingWritesLock) {
+                    final Iterator<Map.Entry<Object, Write>> pendingWrites = mPendingWrites.entrySet().iterator();
+                    if (!pendingWrites.hasNext()) {
+                        mDrainScheduled = false;
+                        mWriting = false;
+                        mPendingWritesLock.notifyAll();
+                        drained = true;
+                        return;
+                    }
+                    write = pendingWrites.next().getValue();
+                    pendingWrites.remove();
+                    mWriting = true;
+                    mWritingThread = Thread.currentThread();
+                }
+                try {
+                    write.write();
+                } catch (Exception e) {
+                    Log.w(TAG, "Failed to persist " + write, e);
+                }
+            }
+        } finally {
+            //an Error escaped a write (say, out of memory): it kills this thread, but the writes after it
+            //should still be written, and no one should wait forever for this drain to end.
+            if (!drained) onDrainAborted();
+        }
+    }
+
+    private void onDrainAborted() {
+        synchronized (mPendingWritesLock) {
+            mWriting = false;
+            if (mPendingWrites.isEmpty()) {
+                mDrainScheduled = false;
+            } else {
+                //the executor replaces the dying thread
+                mWriter.execute(mDrainPendingWrites);
+            }
+            mPendingWritesLock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until all the writes submitted so far were written. Should not be called on the UI thread.
+     * When called from a write, returns right away: the writes submitted before it were written already.
+     */
+    public void waitForPendingWrites() {
+        synchronized (mPendingWritesLock) {
+            if (mWriting && mWritingThread == Thread.currentThread()) return;
+            try {
+                while (mWriting || !mPendingWrites.isEmpty()) {
+                    mPendingWritesLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while waiting for pending writes.", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the number of writes which were submitted so far.
+     */
+    public long getSubmittedWritesCount() {
+        synchronized (mPendingWritesLock) {
+            return mSubmittedWritesCount;
+        }
+    }
+
+    /**
+     * @return the number of writes which were replaced by a later write of the same key, before they were written.
+     */
+    public long getCoalescedWritesCount() {
+        synchronized (mPendingWritesLock) {
+            return mCoalescedWritesCount;
+        }
+    }
+}
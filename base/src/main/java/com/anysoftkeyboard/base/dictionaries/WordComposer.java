@@ -72,6 +72,23 @@ public class WordComposer {
         mCursorPosition = 0;
     }
 
+    /**
+     * Makes this composer hold the same word as the given one: the keystrokes, the typed word,
+     * the cursor position and the capitalization state.
+     */
+    public void copyFrom(WordComposer other) {
+        reset();
+        for (int codesIndex = 0; codesIndex < other.mCodes.size(); codesIndex++) {
+            mCodes.add(getReusableArray(other.mCodes.get(codesIndex)));
+        }
+        mTypedWord.append(other.mTypedWord);
+        mPreferredWord = other.mPreferredWord;
+        mCursorPosition = other.mCursorPosition;
+        mCapsCount = other.mCapsCount;
+        mAutoCapitalized = other.mAutoCapitalized;
+        mIsFirstCharCapitalized = other.mIsFirstCharCapitalized;
+    }
+
     /**
      * Number of keystrokes in the composing word.
      *
@@ -0,0 +1,202 @@
+package com.anysoftkeyboard.base.dictionaries;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Assigns int IDs to the words of a dictionary, and stores each spelling once, so the dictionary can reference
+ * words by ID instead of keeping copies, and compare words by comparing IDs.
+ * <p/>
+ * Words are reference counted: {@link #intern(CharSequence)} and {@link #acquire(int)} take a reference, and
+ * {@link #release(int)} gives it back. A word is removed once it has no references, and its ID may be reused.
+ * A lexicon belongs to the dictionary which created it (the next-words engine, the abbreviations), so its memory
+ * goes with the dictionary. It is not shared per locale: the user and auto dictionaries keep their words in a trie,
+ * which has no per-word spelling to intern.
+ * Spellings are kept as Strings, not in a packed char arena, since they are handed to the suggestions as Strings,
+ * and an arena would build a new String on every {@link #getWord(int)}.
+ * This class is thread-safe.
+ */
+public class WordsLexicon {
+    public static final int NOT_A_WORD = -1;
+
+    private static final int INITIAL_WORDS_CAPACITY = 256;
+    //rough size, in bytes, of a word's String (without its chars) and its slots in the arrays below
+    private static final int WORD_MEMORY_OVERHEAD = 56;
+
+    //word ID to its spelling, null for a free ID
+    private String[] mWords = new String[INITIAL_WORDS_CAPACITY];
+    private int[] mReferencesCounts = new int[INITIAL_WORDS_CAPACITY];
+    private int[] mWordHashes = new int[INITIAL_WORDS_CAPACITY];
+    //IDs up to here were used at some point
+    private int mIdsCount = 0;
+    private int[] mFreeIds = new int[INITIAL_WORDS_CAPACITY];
+    private int mFreeIdsCount = 0;
+    private int mWordsCount = 0;
+    private long mWordsMemorySize = 0;
+    //open-addressing hash, word ID + 1 (0 is an empty slot). Kept at most half full.
+    private int[] mHashSlots = new int[INITIAL_WORDS_CAPACITY * 2];
+
+    /**
+     * Takes a reference to the word, adding it to the lexicon if needed.
+     *
+     * @return the ID of the word.
+     */
+    public synchronized int intern(@NonNull CharSequence word) {
+        final int hash = hash(word);
+        final int existingWordId = findWordId(word, hash);
+        if (existingWordId != NOT_A_WORD) {
+            mReferencesCounts[existingWordId]++;
+            return existingWordId;
+        }
+
+        if ((mWordsCount + 1) * 2 > mHashSlots.length) {
+            rehash(mHashSlots.length * 2);
+        }
+        final int wordId;
+        if (mFreeIdsCount > 0) {
+            wordId = mFreeIds[--mFreeIdsCount];
+        } else {
+            if (mIdsCount == mWords.length) growIds(mWords.length * 2);
+            wordId = mIdsCount++;
+        }
+        final String spelling = word.toString();
+        mWords[wordId] = spelling;
+        mReferencesCounts[wordId] = 1;
+        mWordHashes[wordId] = hash;
+        mHashSlots[findEmptySlot(mHashSlots, hash)] = wordId + 1;
+        mWordsCount++;
+        mWordsMemorySize += getWordMemorySize(spelling);
+        return wordId;
+    }
+
+    /**
+     * Takes another reference to the word of the given ID.
+     */
+    public synchronized void acquire(int wordId) {
+        if (mWords[wordId] == null) throw new IllegalArgumentException("Word ID " + wordId + " is not in the lexicon.");
+        mReferencesCounts[wordId]++;
+    }
+
+    /**
+     * Gives back a reference to the word of the given ID. The word is removed when it has no more references.
+     */
+    public synchronized void release(int wordId) {
+        final String spelling = mWords[wordId];
+        if (spelling == null) throw new IllegalArgumentException("Word ID " + wordId + " is not in the lexicon.");
+        if (--mReferencesCounts[wordId] > 0) return;
+
+        removeFromHash(wordId);
+        mWords[wordId] = null;
+        mFreeIds[mFreeIdsCount++] = wordId;
+        mWordsCount--;
+        mWordsMemorySize -= getWordMemorySize(spelling);
+    }
+
+    /**
+     * @return the ID of the word, or {@link #NOT_A_WORD} if it is not in the lexicon. Does not take a reference.
+     */
+    public synchronized int getId(@NonNull CharSequence word) {
+        return findWordId(word, hash(word));
+    }
+
+    /**
+     * @return the spelling of the word. The same instance is returned for as long as the word is in the lexicon.
+     */
+    @NonNull
+    public synchronized String getWord(int wordId) {
+        final String spelling = mWords[wordId];
+        if (spelling == null) throw new IllegalArgumentException("Word ID " + wordId + " is not in the lexicon.");
+        return spelling;
+    }
+
+    /**
+     * @return the number of words in the lexicon.
+     */
+    public synchronized int size() {
+        return mWordsCount;
+    }
+
+    /**
+     * @return a rough estimate of the memory, in bytes, the words of the lexicon take.
+     */
+    public synchronized long getEstimatedMemorySize() {
+        return mWordsMemorySize;
+    }
+
+    private static long getWordMemorySize(String spelling) {
+        return WORD_MEMORY_OVERHEAD + 2L * spelling.length();
+    }
+
+    private int findWordId(CharSequence word, int hash) {
+        final int mask = mHashSlots.length - 1;
+        for (int slot = hash & mask; mHashSlots[slot] != 0; slot = (slot + 1) & mask) {
+            final int wordId = mHashSlots[slot] - 1;
+            if (mWordHashes[wordId] == hash && isSameWord(mWords[wordId], word)) return wordId;
+        }
+        return NOT_A_WORD;
+    }
+
+    private static boolean isSameWord(String spelling, CharSequence word) {
+        final int length = word.length();
+        if (spelling.length() != length) return false;
+        for (int charIndex = 0; charIndex < length; charIndex++) {
+            if (spelling.charAt(charIndex) != word.charAt(charIndex)) return false;
+        }
+        return true;
+    }
+
+    private void removeFromHash(int wordId) {
+        final int mask = mHashSlots.length - 1;
+        int hole = mWordHashes[wordId] & mask;
+        while (mHashSlots[hole] != wordId + 1) hole = (hole + 1) & mask;
+        //moving back the words after the hole, which would not be found past it anymore
+        for (int slot = (hole + 1) & mask; mHashSlots[slot] != 0; slot = (slot + 1) & mask) {
+            final int homeSlot = mWordHashes[mHashSlots[slot] - 1] & mask;
+            if (((slot - homeSlot) & mask) >= ((slot - hole) & mask)) {
+                mHashSlots[hole] = mHashSlots[slot];
+                hole = slot;
+            }
+        }
+        mHashSlots[hole] = 0;
+    }
+
+    private void growIds(int capacity) {
+        final String[] words = new String[capacity];
+        System.arraycopy(mWords, 0, words, 0, mIdsCount);
+        mWords = words;
+        mReferencesCounts = copyOf(mReferencesCounts, capacity);
+        mWordHashes = copyOf(mWordHashes, capacity);
+        //every ID may be free at the same time
+        mFreeIds = copyOf(mFreeIds, capacity);
+    }
+
+    private void rehash(int capacity) {
+        final int[] hashSlots = new int[capacity];
+        for (int wordId = 0; wordId < mIdsCount; wordId++) {
+            if (mWords[wordId] != null) hashSlots[findEmptySlot(hashSlots, mWordHashes[wordId])] = wordId + 1;
+        }
+        mHashSlots = hashSlots;
+    }
+
+    //Arrays.copyOf is not available in API 7
+    private static int[] copyOf(int[] array, int newLength) {
+        final int[] newArray = new int[newLength];
+        System.arraycopy(array, 0, newArray, 0, Math.min(array.length, newLength));
+        return newArray;
+    }
+
+    private static int findEmptySlot(int[] hashSlots, int hash) {
+        final int mask = hashSlots.length - 1;
+        int slot = hash & mask;
+        while (hashSlots[slot] != 0) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private static int hash(CharSequence word) {
+        //same as String.hashCode, with the high bits spread into the low bits used for the slots
+        int hash = 0;
+        for (int charIndex = 0; charIndex < word.length(); charIndex++) {
+            hash = 31 * hash + word.charAt(charIndex);
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2016 Menny Even-Danan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.anysoftkeyboard.dictionaries;
+
+import com.anysoftkeyboard.base.dictionaries.WordComposer;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A stream of keystrokes, as a user would type them: words are picked by their frequency in the
+ * words-list, some keys are mistyped and deleted, and each key reports its neighbouring keys as
+ * the possible codes (like the keyboard view does).
+ * <p/>
+ * The words-list is read from the file at the <code>ask.benchmarks.words</code> system property, or
+ * from <code>english_dictionary/words_merged.xml</code> (relative to the working folder).
+ */
+final class KeystrokesStream {
+    static final int DELETE = -5;
+    static final int SEPARATOR = ' ';
+
+    private static final String WORDS_FILE_PROPERTY = "ask.benchmarks.words";
+    private static final String DEFAULT_WORDS_FILE = "english_dictionary/words_merged.xml";
+    private static final Pattern WORD_PATTERN = Pattern.compile("<w f=\"(\\d+)\">([^<]+)</w>");
+    private static final String[] QWERTY_ROWS = {"qwertyuiop", "asdfghjkl", "zxcvbnm"};
+    private static final int KEYSTROKES_COUNT = 64 * 1024;
+    private static final float TYPO_PROBABILITY = 0.03f;
+
+    final List<String> words = new ArrayList<>();
+    final List<Integer> frequencies = new ArrayList<>();
+
+    private final int[] mKeystrokes = new int[KEYSTROKES_COUNT];
+    private final int[][] mNearbyCodes = new int[Character.MAX_VALUE + 1][];
+    private int mNextKeystroke;
+
+    KeystrokesStream(long seed) throws IOException {
+        readWords(System.getProperty(WORDS_FILE_PROPERTY, DEFAULT_WORDS_FILE));
+        createKeystrokes(new Random(seed));
+    }
+
+    private void readWords(String wordsFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(wordsFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = WORD_PATTERN.matcher(line);
+                if (matcher.find()) {
+                    frequencies.add(Integer.valueOf(matcher.group(1)));
+                    words.add(matcher.group(2));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (words.size() == 0) throw new IOException("No words found in " + wordsFile);
+    }
+
+    private void createKeystrokes(Random random) {
+        //words are picked by their frequency
+        final long[] cumulativeFrequencies = new long[words.size()];
+        long totalFrequency = 0;
+        for (int wordIndex = 0; wordIndex < words.size(); wordIndex++) {
+            totalFrequency += frequencies.get(wordIndex);
+            cumulativeFrequencies[wordIndex] = totalFrequency;
+        }
+
+        int keystrokeIndex = 0;
+        while (keystrokeIndex < KEYSTROKES_COUNT) {
+            int wordIndex = Arrays.binarySearch(cumulativeFrequencies, (long) (random.nextDouble() * totalFrequency));
+            if (wordIndex < 0) wordIndex = -(wordIndex + 1);
+            final String word = words.get(Math.min(wordIndex, words.size() - 1));
+            for (int charIndex = 0; charIndex < word.length() && keystrokeIndex < KEYSTROKES_COUNT - 2; charIndex++) {
+                final char c = word.charAt(charIndex);
+                final int[] nearbyCodes = getNearbyCodes(c);
+                if (nearbyCodes.length > 1 && random.nextFloat() < TYPO_PROBABILITY) {
+                    mKeystrokes[keystrokeIndex++] = nearbyCodes[1 + random.nextInt(nearbyCodes.length - 1)];
+                    mKeystrokes[keystrokeIndex++] = DELETE;
+                }
+                mKeystrokes[keystrokeIndex++] = c;
+            }
+            if (keystrokeIndex < KEYSTROKES_COUNT) mKeystrokes[keystrokeIndex++] = SEPARATOR;
+        }
+    }
+
+    /**
+     * The key's code first, and then its neighbours on a QWERTY layout.
+     */
+    int[] getNearbyCodes(char c) {
+        if (mNearbyCodes[c] == null) {
+            final char lowerC = Character.toLowerCase(c);
+            final int[] codes = new int[9];
+            int codesCount = 0;
+            codes[codesCount++] = c;
+            for (int row = 0; row < QWERTY_ROWS.length; row++) {
+                final int column = QWERTY_ROWS[row].indexOf(lowerC);
+                if (column < 0) continue;
+                for (int nearbyRow = Math.max(0, row - 1); nearbyRow <= Math.min(QWERTY_ROWS.length - 1, row + 1); nearbyRow++) {
+                    final String keys = QWERTY_ROWS[nearbyRow];
+                    for (int nearbyColumn = Math.max(0, column - 1); nearbyColumn <= Math.min(keys.length() - 1, column + 1); nearbyColumn++) {
+                        final char nearbyKey = keys.charAt(nearbyColumn);
+                        if (nearbyKey != lowerC) codes[codesCount++] = nearbyKey;
+                    }
+                }
+            }
+            mNearbyCodes[c] = Arrays.copyOf(codes, codesCount);
+        }
+        return mNearbyCodes[c];
+    }
+
+    /**
+     * The next keystroke: a character, {@link #DELETE} or {@link #SEPARATOR}. The stream repeats.
+     */
+    int nextKeystroke() {
+        final int keystroke = mKeystrokes[mNextKeystroke];
+        mNextKeystroke = (mNextKeystroke + 1) % KEYSTROKES_COUNT;
+        return keystroke;
+    }
+
+    /**
+     * Types the next keystroke into the composer, like the keyboard does.
+     */
+    void typeNextKeystroke(WordComposer composer) {
+        final int keystroke = nextKeystroke();
+        if (keystroke == DELETE) {
+            composer.deleteLast();
+        } else if (keystroke == SEPARATOR) {
+            composer.reset();
+        } else {
+            composer.add(keystroke, getNearbyCodes((char) keystroke));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2016 Menny Even-Danan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.anysoftkeyboard.dictionaries;
+
+import com.anysoftkeyboard.base.dictionaries.WordComposer;
+
+import org.kxml2.io.KXmlParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up the typed word in the English {@link AutoText}, on every keystroke - the way
+ * Suggest.getSuggestions does it when auto-text is enabled.
+ * <p/>
+ * The auto-text is read from the file at the <code>ask.benchmarks.autotext</code> system property, or
+ * from <code>src/main/res/xml/en_autotext.xml</code> (relative to the working folder).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AutoTextBenchmark {
+    private static final String AUTO_TEXT_FILE_PROPERTY = "ask.benchmarks.autotext";
+    private static final String DEFAULT_AUTO_TEXT_FILE = "src/main/res/xml/en_autotext.xml";
+
+    private KeystrokesStream mKeystrokes;
+    private WordComposer mWordComposer;
+    private AutoText mAutoText;
+    private final StringBuilder mLowerTypedWord = new StringBuilder(32);
+
+    @Setup
+    public void setup() throws IOException, XmlPullParserException {
+        mKeystrokes = new KeystrokesStream(42);
+        mWordComposer = new WordComposer();
+        InputStream inputStream = new FileInputStream(System.getProperty(AUTO_TEXT_FILE_PROPERTY, DEFAULT_AUTO_TEXT_FILE));
+        try {
+            KXmlParser parser = new KXmlParser();
+            parser.setInput(inputStream, "UTF-8");
+            mAutoText = new AutoText(parser);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Benchmark
+    public String lookupKeystroke() {
+        mKeystrokes.typeNextKeystroke(mWordComposer);
+        //Suggest looks up the lower-cased typed word
+        final CharSequence typedWord = mWordComposer.getTypedWord();
+        mLowerTypedWord.setLength(0);
+        for (int charIndex = 0; charIndex < typedWord.length(); charIndex++) {
+            mLowerTypedWord.append(Character.toLowerCase(typedWord.charAt(charIndex)));
+        }
+        return mAutoText.lookup(mLowerTypedWord, 0, mLowerTypedWord.length());
+    }
+}
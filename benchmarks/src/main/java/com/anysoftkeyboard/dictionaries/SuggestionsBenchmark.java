@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016 Menny Even-Danan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.anysoftkeyboard.dictionaries;
+
+import com.anysoftkeyboard.base.dictionaries.Dictionary;
+import com.anysoftkeyboard.base.dictionaries.WordComposer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole keystroke-to-suggestions path of the main dictionary: typing the keystroke, looking
+ * it up, and merging the words into the ranked {@link CandidatesBuffer} which Suggest hands to
+ * the candidates view (with the typed word at the top).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SuggestionsBenchmark {
+    private static final int MAX_SUGGESTIONS = 12;
+    //same as BTreeDictionary.MAX_WORD_LENGTH
+    private static final int MAX_WORD_LENGTH = 32;
+    //same as Dictionary.FULL_WORD_FREQ_MULTIPLIER
+    private static final int FULL_WORD_FREQ_MULTIPLIER = 3;
+
+    private KeystrokesStream mKeystrokes;
+    private WordComposer mWordComposer;
+    private WordsTrie mTrie;
+    private WordsTrieLookup mLookup;
+    private CandidatesBuffer mCandidates;
+    private Dictionary.WordCallback mCallback;
+
+    @Setup
+    public void setup() throws IOException {
+        mKeystrokes = new KeystrokesStream(42);
+        mWordComposer = new WordComposer();
+        mTrie = new WordsTrie(256);
+        for (int wordIndex = 0; wordIndex < mKeystrokes.words.size(); wordIndex++) {
+            mTrie.addWord(mKeystrokes.words.get(wordIndex), mKeystrokes.frequencies.get(wordIndex));
+        }
+        mLookup = new WordsTrieLookup(MAX_WORD_LENGTH, FULL_WORD_FREQ_MULTIPLIER, false);
+        //same sizes as Suggest
+        mCandidates = new CandidatesBuffer(3 * MAX_SUGGESTIONS + 2, MAX_SUGGESTIONS, false);
+        mCallback = new Dictionary.WordCallback() {
+            @Override
+            public boolean addWord(char[] word, int wordOffset, int wordLength, int frequency, Dictionary from) {
+                mCandidates.add(word, wordOffset, wordLength, frequency, false);
+                return true;
+            }
+        };
+    }
+
+    @Benchmark
+    public List<CharSequence> suggestionsForKeystroke() {
+        mKeystrokes.typeNextKeystroke(mWordComposer);
+        mCandidates.clear();
+        if (mWordComposer.length() > 0) {
+            mLookup.getWords(mTrie, mWordComposer, mCallback, null);
+            mCandidates.insert(0, mWordComposer.getTypedWord());
+        }
+        return mCandidates.asList();
+    }
+}
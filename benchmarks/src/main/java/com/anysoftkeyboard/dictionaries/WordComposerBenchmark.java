@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016 Menny Even-Danan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.anysoftkeyboard.dictionaries;
+
+import com.anysoftkeyboard.base.dictionaries.WordComposer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typing a single keystroke into the {@link WordComposer}. This is the baseline cost of a
+ * keystroke, before any dictionary is queried.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordComposerBenchmark {
+    private KeystrokesStream mKeystrokes;
+    private WordComposer mWordComposer;
+
+    @Setup
+    public void setup() throws IOException {
+        mKeystrokes = new KeystrokesStream(42);
+        mWordComposer = new WordComposer();
+    }
+
+    @Benchmark
+    public int typeKeystroke() {
+        mKeystrokes.typeNextKeystroke(mWordComposer);
+        return mWordComposer.length();
+    }
+}
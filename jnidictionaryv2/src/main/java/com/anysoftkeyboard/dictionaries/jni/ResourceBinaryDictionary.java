@@ -17,9 +17,11 @@
 package com.anysoftkeyboard.dictionaries.jni;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.XmlRes;
 import android.util.Log;
 
@@ -28,11 +30,13 @@ import com.anysoftkeyboard.base.dictionaries.WordComposer;
 import com.anysoftkeyboard.base.utils.GCUtils;
 import com.anysoftkeyboard.base.utils.CompatUtils;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 /**
@@ -50,21 +54,27 @@ public class ResourceBinaryDictionary extends Dictionary {
     private static final String TAG = "ASK_ResBinDict";
     private static final int MAX_ALTERNATIVES = 16;
     private static final int MAX_WORDS = 18;
+    private static final int MAX_BIGRAMS = 18;
     private static final boolean ENABLE_MISSED_CHARACTERS = true;
     private final Context mAppContext;
     private final int mDictResId;
     private int mDictLength;
+    private int mDictCopiedLength;
     private final int[] mInputCodes = new int[MAX_WORD_LENGTH * MAX_ALTERNATIVES];
     private final char[] mOutputChars = new char[MAX_WORD_LENGTH * MAX_WORDS];
     private final int[] mFrequencies = new int[MAX_WORDS];
+    private final char[] mPreviousWordChars = new char[MAX_WORD_LENGTH];
+    private final int[] mBigramInputCodes = new int[MAX_ALTERNATIVES];
+    private final char[] mBigramOutputChars = new char[MAX_WORD_LENGTH * MAX_BIGRAMS];
+    private final int[] mBigramFrequencies = new int[MAX_BIGRAMS];
 
     /**
      * NOTE!
-     * Keep a reference to the native dict direct buffer in Java to avoid
-     * unexpected de-allocation of the direct buffer.
+     * Keep a reference to the native dict direct buffers (mapped or copied) in Java to avoid
+     * unexpected de-allocation of the direct buffers.
      */
     @SuppressWarnings("FieldCanBeLocal")
-    private ByteBuffer mNativeDictDirectBuffer;
+    private ByteBuffer[] mNativeDictDirectBuffers;
     private volatile long mNativeDict;
 
     /**
@@ -80,7 +90,7 @@ public class ResourceBinaryDictionary extends Dictionary {
         mDictResId = resId;
     }
 
-    private native long openNative(ByteBuffer bb, int typedLetterMultiplier, int fullWordMultiplier);
+    private native long openNative(ByteBuffer[] dictParts, int typedLetterMultiplier, int fullWordMultiplier);
 
     private native void closeNative(long dictPointer);
 
@@ -88,6 +98,8 @@ public class ResourceBinaryDictionary extends Dictionary {
 
     private native int getSuggestionsNative(long dictPointer, int[] inputCodes, int codesSize, char[] outputChars, int[] frequencies, int maxWordLength, int maxWords, int maxAlternatives, int skipPos, int[] nextLettersFrequencies, int nextLettersSize);
 
+    private native int getBigramsNative(long dictPointer, char[] previousWord, int previousWordLength, int[] inputCodes, int codesSize, char[] outputChars, int[] frequencies, int maxWordLength, int maxBigrams, int maxAlternatives);
+
     @Override
     protected void loadAllResources() {
         Resources pkgRes = mAppContext.getResources();
@@ -121,46 +133,83 @@ public class ResourceBinaryDictionary extends Dictionary {
     }
 
     private void loadDictionaryFromResource(int[] resId) {
-        InputStream[] is = null;
-        try {
-            // merging separated dictionary into one if dictionary is separated
-            int total = 0;
-            is = new InputStream[resId.length];
-            for (int i = 0; i < resId.length; i++) {
-                // http://ponystyle.com/blog/2010/03/26/dealing-with-asset-compression-in-android-apps/
-                // NOTE: the resource file can not be larger than 1MB
-                is[i] = mAppContext.getResources().openRawResource(resId[i]);
-                if (isClosed()) return;
-                final int dictSize = is[i].available();
-                Log.d(TAG, "Will load a resource dictionary id " + resId[i] + " whose size is " + dictSize + " bytes.");
-                total += dictSize;
+        final Resources resources = mAppContext.getResources();
+        // each part is handed to the native side as is, there is no need to merge them.
+        final ByteBuffer[] parts = new ByteBuffer[resId.length];
+        int total = 0;
+        int copied = 0;
+        for (int i = 0; i < resId.length; i++) {
+            parts[i] = mapDictionaryPart(resources, resId[i]);
+            if (parts[i] == null) {
+                //compressed resources can not be mapped, so we'll have to copy those.
+                parts[i] = readDictionaryPart(resources, resId[i]);
+                if (parts[i] != null) copied += parts[i].capacity();
             }
+            if (parts[i] == null || isClosed()) return;
+            total += parts[i].capacity();
+        }
+
+        mNativeDictDirectBuffers = parts;
+        mNativeDict = openNative(parts, Dictionary.TYPED_LETTER_MULTIPLIER, Dictionary.FULL_WORD_FREQ_MULTIPLIER);
+        mDictLength = total;
+        mDictCopiedLength = copied;
+    }
 
-            mNativeDictDirectBuffer = ByteBuffer.allocateDirect(total).order(ByteOrder.nativeOrder());
-            int got = 0;
-            for (int i = 0; i < resId.length; i++) {
-                got += Channels.newChannel(is[i]).read(mNativeDictDirectBuffer);
-                if (isClosed()) return;
+    @Nullable
+    private static ByteBuffer mapDictionaryPart(Resources resources, int resId) {
+        AssetFileDescriptor fileDescriptor = null;
+        FileInputStream inputStream = null;
+        try {
+            // this will fail if the resource is compressed in the package file
+            fileDescriptor = resources.openRawResourceFd(resId);
+            if (fileDescriptor == null) return null;
+            inputStream = fileDescriptor.createInputStream();
+            final FileChannel channel = inputStream.getChannel();
+            Log.d(TAG, "Will map a resource dictionary id " + resId + " whose size is " + fileDescriptor.getLength() + " bytes.");
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, fileDescriptor.getStartOffset(), fileDescriptor.getLength()).order(ByteOrder.nativeOrder());
+        } catch (Resources.NotFoundException e) {
+            Log.d(TAG, "Resource dictionary id " + resId + " can not be mapped (probably compressed). Will read it.");
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to map resource dictionary id " + resId + ": " + e.getMessage());
+            return null;
+        } finally {
+            try {
+                if (inputStream != null) inputStream.close();
+                else if (fileDescriptor != null) fileDescriptor.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close resource file descriptor");
             }
-            if (got != total) {
-                Log.e(TAG, "Read " + got + " bytes, expected " + total);
-            } else {
-                mNativeDict = openNative(mNativeDictDirectBuffer, Dictionary.TYPED_LETTER_MULTIPLIER, Dictionary.FULL_WORD_FREQ_MULTIPLIER);
-                mDictLength = total;
+        }
+    }
+
+    @Nullable
+    private static ByteBuffer readDictionaryPart(Resources resources, int resId) {
+        InputStream is = null;
+        try {
+            // http://ponystyle.com/blog/2010/03/26/dealing-with-asset-compression-in-android-apps/
+            // NOTE: the resource file can not be larger than 1MB
+            is = resources.openRawResource(resId);
+            final int dictSize = is.available();
+            Log.d(TAG, "Will load a resource dictionary id " + resId + " whose size is " + dictSize + " bytes.");
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(dictSize).order(ByteOrder.nativeOrder());
+            final int got = Channels.newChannel(is).read(buffer);
+            if (got != dictSize) {
+                Log.e(TAG, "Read " + got + " bytes, expected " + dictSize);
+                return null;
             }
+            return buffer;
         } catch (IOException e) {
             Log.w(TAG, "No available memory for binary dictionary: " + e.getMessage());
+            return null;
         } finally {
-            if (is != null) {
-                for (InputStream i1 : is) {
-                    try {
-                        if (i1 != null) i1.close();
-                    } catch (IOException e) {
-                        Log.w(TAG, "Failed to close input stream");
-                    }
-                }
+            try {
+                if (is != null) is.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close input stream");
             }
-
         }
     }
 
@@ -212,6 +261,43 @@ public class ResourceBinaryDictionary extends Dictionary {
         }
     }
 
+    /**
+     * Reports the words which the dictionary's bigram table lists as following the given word.
+     * Words are reported through the callback ordered by their bigram frequency (highest first).
+     * The buffers handed to the callback are reused by the next call, so they should not be kept.
+     *
+     * @param previousWord the word to find continuations for
+     * @param callback     the callback object to send continuations to
+     */
+    public void getNextWords(final CharSequence previousWord, final WordCallback callback) {
+        if (mNativeDict == 0 || isClosed()) return;
+        final int previousWordLength = previousWord.length();
+        if (previousWordLength == 0 || previousWordLength > MAX_WORD_LENGTH - 1) return;
+
+        for (int i = 0; i < previousWordLength; i++) {
+            mPreviousWordChars[i] = previousWord.charAt(i);
+        }
+        Arrays.fill(mBigramInputCodes, -1);
+        Arrays.fill(mBigramOutputChars, (char) 0);
+        Arrays.fill(mBigramFrequencies, 0);
+
+        //no typed codes: the native side will report every continuation of the previous word
+        getBigramsNative(mNativeDict, mPreviousWordChars, previousWordLength, mBigramInputCodes, 0, mBigramOutputChars, mBigramFrequencies, MAX_WORD_LENGTH, MAX_BIGRAMS, MAX_ALTERNATIVES);
+
+        boolean requestContinue = true;
+        for (int j = 0; j < MAX_BIGRAMS && requestContinue; j++) {
+            if (mBigramFrequencies[j] < 1) break;
+            int start = j * MAX_WORD_LENGTH;
+            int len = 0;
+            while (len < MAX_WORD_LENGTH && mBigramOutputChars[start + len] != 0) {
+                len++;
+            }
+            if (len > 0) {
+                requestContinue = callback.addWord(mBigramOutputChars, start, len, mBigramFrequencies[j], this);
+            }
+        }
+    }
+
     @Override
     public boolean isValidWord(CharSequence word) {
         if (word == null || mNativeDict == 0) return false;
@@ -223,6 +309,14 @@ public class ResourceBinaryDictionary extends Dictionary {
         return mDictLength; // This value is initialized on the call to
     }
 
+    /**
+     * @return the bytes of the dictionary which were copied to native memory, since their resources
+     * are compressed and can not be mapped. Mapped parts are not included: the system can drop their pages.
+     */
+    public int getCopiedSize() {
+        return mDictCopiedLength;
+    }
+
     protected void closeAllResources() {
         if (mNativeDict != 0) {
             closeNative(mNativeDict);
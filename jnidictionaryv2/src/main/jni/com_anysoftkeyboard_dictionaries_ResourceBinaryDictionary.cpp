@@ -39,15 +39,27 @@ static void throwException(JNIEnv *env, const char* ex, const char* fmt, int dat
 }
 
 static jlong nativeime_ResourceBinaryDictionary_open
-        (JNIEnv *env, jobject object, jobject dictDirectBuffer,
+        (JNIEnv *env, jobject object, jobjectArray dictDirectBuffers,
          jint typedLetterMultiplier, jint fullWordMultiplier)
 {
-    void *dict = env->GetDirectBufferAddress(dictDirectBuffer);
-    if (dict == NULL) {
-        fprintf(stderr, "DICT: Dictionary buffer is null\n");
+    const int partsCount = env->GetArrayLength(dictDirectBuffers);
+    if (partsCount == 0) {
+        fprintf(stderr, "DICT: No dictionary buffers\n");
         return 0;
     }
-    Dictionary *dictionary = new Dictionary(dict, typedLetterMultiplier, fullWordMultiplier);
+    void *parts[partsCount];
+    int partsSizes[partsCount];
+    for (int i = 0; i < partsCount; i++) {
+        jobject dictDirectBuffer = env->GetObjectArrayElement(dictDirectBuffers, i);
+        parts[i] = env->GetDirectBufferAddress(dictDirectBuffer);
+        partsSizes[i] = (int) env->GetDirectBufferCapacity(dictDirectBuffer);
+        env->DeleteLocalRef(dictDirectBuffer);
+        if (parts[i] == NULL) {
+            fprintf(stderr, "DICT: Dictionary buffer is null\n");
+            return 0;
+        }
+    }
+    Dictionary *dictionary = new Dictionary(parts, partsSizes, partsCount, typedLetterMultiplier, fullWordMultiplier);
     return (jlong) dictionary;
 }
 
@@ -128,11 +140,11 @@ static void nativeime_ResourceBinaryDictionary_close
 // ----------------------------------------------------------------------------
 
 static JNINativeMethod gMethods[] = {
-    {"openNative",           "(Ljava/nio/ByteBuffer;II)J",(void*)nativeime_ResourceBinaryDictionary_open},
+    {"openNative",           "([Ljava/nio/ByteBuffer;II)J",(void*)nativeime_ResourceBinaryDictionary_open},
     {"closeNative",          "(J)V",            (void*)nativeime_ResourceBinaryDictionary_close},
     {"getSuggestionsNative", "(J[II[C[IIIII[II)I",  (void*)nativeime_ResourceBinaryDictionary_getSuggestions},
-    {"isValidWordNative",    "(J[CI)Z",         (void*)nativeime_ResourceBinaryDictionary_isValidWord}/*,
-    {"getBigramsNative",    "(I[CI[II[C[IIII)I",         (void*)nativeime_ResourceBinaryDictionary_getBigrams}*/
+    {"isValidWordNative",    "(J[CI)Z",         (void*)nativeime_ResourceBinaryDictionary_isValidWord},
+    {"getBigramsNative",     "(J[CI[II[C[IIII)I", (void*)nativeime_ResourceBinaryDictionary_getBigrams}
 };
 
 static int registerNativeMethods(JNIEnv* env, const char* className,
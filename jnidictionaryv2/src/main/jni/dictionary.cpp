@@ -34,9 +34,22 @@
 
 namespace nativeime {
 
-Dictionary::Dictionary(void *dict, int typedLetterMultiplier, int fullWordMultiplier)
+Dictionary::Dictionary(void **dictParts, int *dictPartsSizes, int dictPartsCount,
+        int typedLetterMultiplier, int fullWordMultiplier)
 {
-    mDict = (unsigned char*) dict;
+    // the parts are kept where they are (usually, mapped straight out of the package file),
+    // and addresses are resolved against the part that contains them.
+    mDictPartsCount = dictPartsCount;
+    mDictParts = new unsigned char*[dictPartsCount];
+    mDictPartsEnds = new int[dictPartsCount];
+    int end = 0;
+    for (int i = 0; i < dictPartsCount; i++) {
+        mDictParts[i] = (unsigned char*) dictParts[i];
+        end += dictPartsSizes[i];
+        mDictPartsEnds[i] = end;
+    }
+    mDict = mDictParts[0];
+    mDictFirstPartEnd = mDictPartsEnds[0];
     mTypedLetterMultiplier = typedLetterMultiplier;
     mFullWordMultiplier = fullWordMultiplier;
     getVersionNumber();
@@ -44,6 +57,20 @@ Dictionary::Dictionary(void *dict, int typedLetterMultiplier, int fullWordMultip
 
 Dictionary::~Dictionary()
 {
+    delete[] mDictParts;
+    delete[] mDictPartsEnds;
+}
+
+unsigned char
+Dictionary::byteAtLaterPart(int pos)
+{
+    for (int i = 1; i < mDictPartsCount; i++) {
+        if (pos < mDictPartsEnds[i]) {
+            return mDictParts[i][pos - mDictPartsEnds[i - 1]];
+        }
+    }
+    // out of the dictionary bounds. Zero reads as an empty node.
+    return 0;
 }
 
 int Dictionary::getSuggestions(int *codes, int codesSize, unsigned short *outWords, int *frequencies,
@@ -97,8 +124,8 @@ Dictionary::registerNextLetter(unsigned short c)
 void
 Dictionary::getVersionNumber()
 {
-    mVersion = (mDict[0] & 0xFF);
-    mBigram = (mDict[1] & 0xFF);
+    mVersion = (byteAt(0) & 0xFF);
+    mBigram = (byteAt(1) & 0xFF);
     LOGI("IN NATIVE SUGGEST Version: %d Bigram : %d \n", mVersion, mBigram);
 }
 
@@ -112,10 +139,10 @@ Dictionary::checkIfDictVersionIsLatest()
 unsigned short
 Dictionary::getChar(int *pos)
 {
-    unsigned short ch = (unsigned short) (mDict[(*pos)++] & 0xFF);
+    unsigned short ch = (unsigned short) (byteAt((*pos)++) & 0xFF);
     // If the code is 255, then actual 16 bit code follows (in big endian)
     if (ch == 0xFF) {
-        ch = ((mDict[*pos] & 0xFF) << 8) | (mDict[*pos + 1] & 0xFF);
+        ch = ((byteAt(*pos) & 0xFF) << 8) | (byteAt(*pos + 1) & 0xFF);
         (*pos) += 2;
     }
     return ch;
@@ -125,12 +152,12 @@ int
 Dictionary::getAddress(int *pos)
 {
     int address = 0;
-    if ((mDict[*pos] & FLAG_ADDRESS_MASK) == 0) {
+    if ((byteAt(*pos) & FLAG_ADDRESS_MASK) == 0) {
         *pos += 1;
     } else {
-        address += (mDict[*pos] & (ADDRESS_MASK >> 16)) << 16;
-        address += (mDict[*pos + 1] & 0xFF) << 8;
-        address += (mDict[*pos + 2] & 0xFF);
+        address += (byteAt(*pos) & (ADDRESS_MASK >> 16)) << 16;
+        address += (byteAt(*pos + 1) & 0xFF) << 8;
+        address += (byteAt(*pos + 2) & 0xFF);
         *pos += 3;
     }
     return address;
@@ -139,16 +166,16 @@ Dictionary::getAddress(int *pos)
 int
 Dictionary::getFreq(int *pos)
 {
-    int freq = mDict[(*pos)++] & 0xFF;
+    int freq = byteAt((*pos)++) & 0xFF;
 
     if (checkIfDictVersionIsLatest()) {
         // skipping bigram
-        int bigramExist = (mDict[*pos] & FLAG_BIGRAM_READ);
+        int bigramExist = (byteAt(*pos) & FLAG_BIGRAM_READ);
         if (bigramExist > 0) {
             int nextBigramExist = 1;
             while (nextBigramExist > 0) {
                 (*pos) += 3;
-                nextBigramExist = (mDict[(*pos)++] & FLAG_BIGRAM_CONTINUED);
+                nextBigramExist = (byteAt((*pos)++) & FLAG_BIGRAM_CONTINUED);
             }
         } else {
             (*pos)++;
@@ -379,9 +406,9 @@ Dictionary::getBigramAddress(int *pos, bool advance)
 {
     int address = 0;
 
-    address += (mDict[*pos] & 0x3F) << 16;
-    address += (mDict[*pos + 1] & 0xFF) << 8;
-    address += (mDict[*pos + 2] & 0xFF);
+    address += (byteAt(*pos) & 0x3F) << 16;
+    address += (byteAt(*pos + 1) & 0xFF) << 8;
+    address += (byteAt(*pos + 2) & 0xFF);
 
     if (advance) {
         *pos += 3;
@@ -393,7 +420,7 @@ Dictionary::getBigramAddress(int *pos, bool advance)
 int
 Dictionary::getBigramFreq(int *pos)
 {
-    int freq = mDict[(*pos)++] & FLAG_BIGRAM_FREQ;
+    int freq = byteAt((*pos)++) & FLAG_BIGRAM_FREQ;
 
     return freq;
 }
@@ -420,15 +447,15 @@ Dictionary::getBigrams(unsigned short *prevWord, int prevWordLength, int *codes,
         }
 
         int bigramCount = 0;
-        int bigramExist = (mDict[pos] & FLAG_BIGRAM_READ);
+        int bigramExist = (byteAt(pos) & FLAG_BIGRAM_READ);
         if (bigramExist > 0) {
             int nextBigramExist = 1;
             while (nextBigramExist > 0 && bigramCount < maxBigrams) {
                 int bigramAddress = getBigramAddress(&pos, true);
-                int frequency = (FLAG_BIGRAM_FREQ & mDict[pos]);
+                int frequency = (FLAG_BIGRAM_FREQ & byteAt(pos));
                 // search for all bigrams and store them
                 searchForTerminalNode(bigramAddress, frequency);
-                nextBigramExist = (mDict[pos++] & FLAG_BIGRAM_CONTINUED);
+                nextBigramExist = (byteAt(pos++) & FLAG_BIGRAM_CONTINUED);
                 bigramCount++;
             }
         }
@@ -459,7 +486,7 @@ Dictionary::searchForTerminalNode(int addressLookingFor, int frequency)
             word[depth] = (unsigned short) followingChar;
         }
         pos = followDownBranchAddress; // pos start at count
-        int count = mDict[pos] & 0xFF;
+        int count = byteAt(pos) & 0xFF;
         LOGI("count - %d\n",count);
         pos++;
         for (int i = 0; i < count; i++) {
@@ -479,7 +506,7 @@ Dictionary::searchForTerminalNode(int addressLookingFor, int frequency)
                         }
                     } else {
                         followDownBranchAddress = addr;
-                        followingChar = (char)(0xFF & mDict[pos-1]);
+                        followingChar = (char)(0xFF & byteAt(pos-1));
                         if (firstAddress) {
                             firstAddress = false;
                             haveToSearchAll = false;
@@ -490,7 +517,7 @@ Dictionary::searchForTerminalNode(int addressLookingFor, int frequency)
             } else if (getFirstBitOfByte(&pos)) { // terminal
                 if (addressLookingFor == (pos-1)) { // found !!
                     depth++;
-                    word[depth] = (0xFF & mDict[pos-1]);
+                    word[depth] = (0xFF & byteAt(pos-1));
                     found = true;
                     break;
                 }
@@ -507,7 +534,7 @@ Dictionary::searchForTerminalNode(int addressLookingFor, int frequency)
                             }
                         } else {
                             followDownBranchAddress = addr;
-                            followingChar = (char)(0xFF & mDict[pos-1]);
+                            followingChar = (char)(0xFF & byteAt(pos-1));
                             if (firstAddress) {
                                 firstAddress = false;
                                 haveToSearchAll = true;
@@ -520,12 +547,12 @@ Dictionary::searchForTerminalNode(int addressLookingFor, int frequency)
                 }
 
                 // skipping bigram
-                int bigramExist = (mDict[pos] & FLAG_BIGRAM_READ);
+                int bigramExist = (byteAt(pos) & FLAG_BIGRAM_READ);
                 if (bigramExist > 0) {
                     int nextBigramExist = 1;
                     while (nextBigramExist > 0) {
                         pos += 3;
-                        nextBigramExist = (mDict[pos++] & FLAG_BIGRAM_CONTINUED);
+                        nextBigramExist = (byteAt(pos++) & FLAG_BIGRAM_CONTINUED);
                     }
                 } else {
                     pos++;
@@ -549,6 +576,9 @@ Dictionary::checkFirstCharacter(unsigned short *word)
     // Checks whether this word starts with same character or neighboring characters of
     // what user typed.
 
+    // nothing was typed yet (next-word prediction), so every continuation is acceptable
+    if (mInputLength == 0) return true;
+
     int *inputCodes = mInputCodes;
     int maxAlt = mMaxAlternatives;
     while (maxAlt > 0) {
@@ -35,7 +35,8 @@ namespace nativeime {
 
 class Dictionary {
 public:
-    Dictionary(void *dict, int typedLetterMultipler, int fullWordMultiplier);
+    Dictionary(void **dictParts, int *dictPartsSizes, int dictPartsCount,
+            int typedLetterMultipler, int fullWordMultiplier);
     int getSuggestions(int *codes, int codesSize, unsigned short *outWords, int *frequencies,
             int maxWordLength, int maxWords, int maxAlternatives, int skipPos,
             int *nextLetters, int nextLettersSize);
@@ -57,10 +58,15 @@ private:
     int getBigramFreq(int *pos);
     void searchForTerminalNode(int address, int frequency);
 
-    bool getFirstBitOfByte(int *pos) { return (mDict[*pos] & 0x80) > 0; }
-    bool getSecondBitOfByte(int *pos) { return (mDict[*pos] & 0x40) > 0; }
-    bool getTerminal(int *pos) { return (mDict[*pos] & FLAG_TERMINAL_MASK) > 0; }
-    int getCount(int *pos) { return mDict[(*pos)++] & 0xFF; }
+    // single-part dictionaries (and the first part of multi-part ones) are read directly
+    unsigned char byteAt(int pos) {
+        return pos < mDictFirstPartEnd ? mDict[pos] : byteAtLaterPart(pos);
+    }
+    unsigned char byteAtLaterPart(int pos);
+    bool getFirstBitOfByte(int *pos) { return (byteAt(*pos) & 0x80) > 0; }
+    bool getSecondBitOfByte(int *pos) { return (byteAt(*pos) & 0x40) > 0; }
+    bool getTerminal(int *pos) { return (byteAt(*pos) & FLAG_TERMINAL_MASK) > 0; }
+    int getCount(int *pos) { return byteAt((*pos)++) & 0xFF; }
     unsigned short getChar(int *pos);
     int wideStrLen(unsigned short *str);
 
@@ -75,6 +81,10 @@ private:
     void registerNextLetter(unsigned short c);
 
     unsigned char *mDict;
+    int mDictFirstPartEnd;
+    unsigned char **mDictParts;
+    int *mDictPartsEnds;
+    int mDictPartsCount;
     void *mAsset;
 
     int *mFrequencies;
@@ -0,0 +1,209 @@
+package com.anysoftkeyboard.nextword;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.ArrayMap;
+import android.util.Log;
+
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the next-words as {@link NextWordsContainer}s on the Java heap, within a memory budget.
+ * Stored next-words are only read when they are needed.
+ * The engine has its own {@link WordsLexicon}, whose words are charged to the memory budget too.
+ */
+class JavaNextWordsEngine implements NextWordsEngine {
+    private static final String TAG = "JavaNextWordsEngine";
+
+    private final WordsLexicon mLexicon = new WordsLexicon();
+    private final ArrayMap<String, NextWordsContainer> mNextWordMap = new ArrayMap<>();
+    //next-words which were stored, but were not needed yet
+    private StoredNextWords mStoredNextWords = StoredNextWords.EMPTY;
+
+    private final NextWordsEvictionPolicy mEvictionPolicy;
+    private final long mMemoryBudget;
+    private long mEstimatedMemorySize;
+    private int mEvictionsCount;
+
+    /**
+     * @param evictionPolicy decides which word's next-words are dropped when over the memory budget.
+     * @param memoryBudget   the (estimated) memory, in bytes, the next-words may take.
+     */
+    JavaNextWordsEngine(@NonNull NextWordsEvictionPolicy evictionPolicy, long memoryBudget) {
+        mEvictionPolicy = evictionPolicy;
+        mMemoryBudget = memoryBudget;
+    }
+
+    @Override
+    public void load(@NonNull NextWordsStorage storage) {
+        //next-words are read from the file only when they are needed
+        mStoredNextWords.release();
+        mStoredNextWords = storage.loadStoredNextWords(mLexicon);
+    }
+
+    @Override
+    public void markNextWordAsUsed(@NonNull String word, @NonNull String nextWord) {
+        NextWordsContainer wordSet = getNextWordsContainer(word);
+        if (wordSet == null) {
+            wordSet = new NextWordsContainer(mLexicon, word);
+            putNextWordsContainer(wordSet);
+        }
+
+        final int previousMemorySize = wordSet.getEstimatedMemorySize();
+        wordSet.markWordAsUsed(nextWord);
+        mEstimatedMemorySize += wordSet.getEstimatedMemorySize() - previousMemorySize;
+        ensureMemoryBudget(wordSet);
+    }
+
+    @Override
+    public int getNextWords(@NonNull String word, int minWordUsage, @NonNull String[] nextWords, @NonNull int[] usedCounts, int maxResults) {
+        NextWordsContainer nextSet = getNextWordsContainer(word);
+        if (nextSet == null) return WORD_NOT_FOUND;
+
+        int suggestionsCount = 0;
+        for (int nextWordIndex = 0; nextWordIndex < nextSet.size() && suggestionsCount < maxResults; nextWordIndex++) {
+            final int usedCount = nextSet.getUsedCount(nextWordIndex);
+            if (usedCount < minWordUsage) continue;
+
+            nextWords[suggestionsCount] = nextSet.getNextWord(nextWordIndex);
+            usedCounts[suggestionsCount] = usedCount;
+            suggestionsCount++;
+        }
+        return suggestionsCount;
+    }
+
+    /**
+     * @return the next-words of the given word, reading them from the stored next-words if needed.
+     */
+    @Nullable
+    private NextWordsContainer getNextWordsContainer(String word) {
+        NextWordsContainer wordSet = mNextWordMap.get(word);
+        if (wordSet != null) {
+            mEvictionPolicy.onUsed(wordSet);
+        } else if (mStoredNextWords.size() > 0) {
+            wordSet = mStoredNextWords.take(word);
+            if (wordSet != null) {
+                if (Utils.DEBUG) Log.d(TAG, "Loaded " + wordSet);
+                putNextWordsContainer(wordSet);
+            }
+        }
+        return wordSet;
+    }
+
+    private void putNextWordsContainer(NextWordsContainer wordSet) {
+        mNextWordMap.put(wordSet.word, wordSet);
+        mEvictionPolicy.onAdded(wordSet);
+        mEstimatedMemorySize += wordSet.getEstimatedMemorySize();
+        ensureMemoryBudget(wordSet);
+    }
+
+    /**
+     * Evicts next-words, as the policy decides, until they fit in the memory budget.
+     *
+     * @param inUse next-words which should not be evicted now. The others are evicted instead.
+     */
+    private void ensureMemoryBudget(NextWordsContainer inUse) {
+        while (getEstimatedMemorySize() > mMemoryBudget) {
+            final NextWordsContainer candidate = mEvictionPolicy.getEvictionCandidate(inUse);
+            //only the next-words in use are left
+            if (candidate == null) return;
+            if (Utils.DEBUG) Log.d(TAG, "Evicting " + candidate.word);
+            mNextWordMap.remove(candidate.word);
+            mEvictionPolicy.onRemoved(candidate);
+            mEstimatedMemorySize -= candidate.getEstimatedMemorySize();
+            candidate.release();
+            mEvictionsCount++;
+        }
+    }
+
+    /**
+     * Reads all the stored next-words which were not needed yet.
+     */
+    private void loadAllStoredNextWords() {
+        if (mStoredNextWords.size() == 0) return;
+        for (NextWordsContainer container : mStoredNextWords) {
+            if (Utils.DEBUG) Log.d(TAG, "Loaded " + container);
+            putNextWordsContainer(container);
+        }
+        mStoredNextWords = StoredNextWords.EMPTY;
+    }
+
+    @NonNull
+    @Override
+    public Snapshot takeSnapshot() {
+        //copying only the in-memory next-words, the stored ones are read when the snapshot is serialized
+        final List<NextWordsContainer> nextWords = new ArrayList<>(mNextWordMap.size());
+        for (int index = 0; index < mNextWordMap.size(); index++) {
+            nextWords.add(mNextWordMap.valueAt(index).copy());
+        }
+        final StoredNextWords storedNextWords = mStoredNextWords.copy();
+        return new Snapshot() {
+            @NonNull
+            @Override
+            public byte[] serialize(@NonNull NextWordsStorage storage) {
+                try {
+                    for (NextWordsContainer container : storedNextWords) {
+                        nextWords.add(container);
+                    }
+                    return storage.serializeNextWords(nextWords);
+                } finally {
+                    //the copies hold lexicon references
+                    for (NextWordsContainer container : nextWords) {
+                        container.release();
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        for (int index = 0; index < mNextWordMap.size(); index++) {
+            mNextWordMap.valueAt(index).release();
+        }
+        mNextWordMap.clear();
+        mEvictionPolicy.clear();
+        mEstimatedMemorySize = 0;
+        mStoredNextWords.release();
+        mStoredNextWords = StoredNextWords.EMPTY;
+    }
+
+    @Override
+    public void close() {
+        //everything is on the heap, and will be collected with the engine
+    }
+
+    @Override
+    public int getFirstWordsCount() {
+        loadAllStoredNextWords();
+        return mNextWordMap.size();
+    }
+
+    @Override
+    public int getSecondWordsCount() {
+        loadAllStoredNextWords();
+        int secondWordCount = 0;
+        for (int index = 0; index < mNextWordMap.size(); index++) {
+            secondWordCount += mNextWordMap.valueAt(index).size();
+        }
+        return secondWordCount;
+    }
+
+    @Override
+    public int getEvictionsCount() {
+        return mEvictionsCount;
+    }
+
+    @Override
+    public long getEstimatedMemorySize() {
+        return mEstimatedMemorySize + mLexicon.getEstimatedMemorySize();
+    }
+
+    @Override
+    public long getMemoryBudget() {
+        return mMemoryBudget;
+    }
+}
@@ -0,0 +1,176 @@
+package com.anysoftkeyboard.nextword;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Evicts the word whose next-words were used least frequently (and least recently, between equally
+ * used words). Usage counts decay: they are halved periodically, so words which were used a lot a long
+ * time ago will not stay forever.
+ * <p/>
+ * Containers are kept in a list of frequency buckets, each holding its containers in usage order, so
+ * using a container moves it to the next bucket in constant time, and the candidate is the first
+ * container of the first bucket.
+ */
+public class LfuNextWordsEvictionPolicy implements NextWordsEvictionPolicy {
+    private static final int MIN_DECAY_PERIOD = 256;
+
+    private final IdentityHashMap<NextWordsContainer, Node> mNodes = new IdentityHashMap<>();
+    private Bucket mFirstBucket;
+    private int mUsagesSinceDecay;
+
+    private static class Node {
+        final NextWordsContainer container;
+        Bucket bucket;
+        Node previous;
+        Node next;
+
+        Node(NextWordsContainer container) {
+            this.container = container;
+        }
+    }
+
+    private static class Bucket {
+        int frequency;
+        Bucket previous;
+        Bucket next;
+        Node first;
+        Node last;
+
+        Bucket(int frequency) {
+            this.frequency = frequency;
+        }
+    }
+
+    @Override
+    public void onAdded(@NonNull NextWordsContainer container) {
+        final Node node = new Node(container);
+        mNodes.put(container, node);
+        Bucket bucket = mFirstBucket;
+        if (bucket == null || bucket.frequency != 1) {
+            bucket = insertBucketAfter(null, 1);
+        }
+        appendNode(bucket, node);
+    }
+
+    @Override
+    public void onUsed(@NonNull NextWordsContainer container) {
+        final Node node = mNodes.get(container);
+        if (node == null) return;
+        final Bucket bucket = node.bucket;
+        Bucket nextBucket = bucket.next;
+        if (nextBucket == null || nextBucket.frequency != bucket.frequency + 1) {
+            nextBucket = insertBucketAfter(bucket, bucket.frequency + 1);
+        }
+        removeNode(node);
+        appendNode(nextBucket, node);
+
+        mUsagesSinceDecay++;
+        if (mUsagesSinceDecay >= Math.max(MIN_DECAY_PERIOD, 2 * mNodes.size())) decay();
+    }
+
+    @Override
+    public void onRemoved(@NonNull NextWordsContainer container) {
+        final Node node = mNodes.remove(container);
+        if (node != null) removeNode(node);
+    }
+
+    @Nullable
+    @Override
+    public NextWordsContainer getEvictionCandidate(@Nullable NextWordsContainer excluded) {
+        if (mFirstBucket == null) return null;
+        final Node candidate = mFirstBucket.first;
+        if (candidate.container != excluded) return candidate.container;
+        //the one after the excluded container, in its bucket or in the next one
+        if (candidate.next != null) return candidate.next.container;
+        return mFirstBucket.next == null ? null : mFirstBucket.next.first.container;
+    }
+
+    @Override
+    public void clear() {
+        mNodes.clear();
+        mFirstBucket = null;
+        mUsagesSinceDecay = 0;
+    }
+
+    /**
+     * Halves all the frequencies. Since the period is longer than the number of containers, this is
+     * constant time per usage, amortized.
+     */
+    private void decay() {
+        mUsagesSinceDecay = 0;
+        Bucket bucket = mFirstBucket;
+        while (bucket != null) {
+            bucket.frequency = Math.max(1, bucket.frequency / 2);
+            final Bucket previous = bucket.previous;
+            if (previous != null && previous.frequency == bucket.frequency) {
+                //merging into the previous bucket, after its (less used) containers
+                Node node = bucket.first;
+                while (node != null) {
+                    node.bucket = previous;
+                    node = node.next;
+                }
+                previous.last.next = bucket.first;
+                bucket.first.previous = previous.last;
+                previous.last = bucket.last;
+                previous.next = bucket.next;
+                if (bucket.next != null) bucket.next.previous = previous;
+            }
+            bucket = bucket.next;
+        }
+    }
+
+    private Bucket insertBucketAfter(@Nullable Bucket previous, int frequency) {
+        final Bucket bucket = new Bucket(frequency);
+        bucket.previous = previous;
+        if (previous == null) {
+            bucket.next = mFirstBucket;
+            mFirstBucket = bucket;
+        } else {
+            bucket.next = previous.next;
+            previous.next = bucket;
+        }
+        if (bucket.next != null) bucket.next.previous = bucket;
+        return bucket;
+    }
+
+    private static void appendNode(Bucket bucket, Node node) {
+        node.bucket = bucket;
+        node.previous = bucket.last;
+        node.next = null;
+        if (bucket.last == null) {
+            bucket.first = node;
+        } else {
+            bucket.last.next = node;
+        }
+        bucket.last = node;
+    }
+
+    private void removeNode(Node node) {
+        final Bucket bucket = node.bucket;
+        if (node.previous == null) {
+            bucket.first = node.next;
+        } else {
+            node.previous.next = node.next;
+        }
+        if (node.next == null) {
+            bucket.last = node.previous;
+        } else {
+            node.next.previous = node.previous;
+        }
+        node.previous = null;
+        node.next = null;
+        if (bucket.first == null) removeBucket(bucket);
+    }
+
+    private void removeBucket(Bucket bucket) {
+        if (bucket.previous == null) {
+            mFirstBucket = bucket.next;
+        } else {
+            bucket.previous.next = bucket.next;
+        }
+        if (bucket.next != null) bucket.next.previous = bucket.previous;
+    }
+}
@@ -0,0 +1,46 @@
+package com.anysoftkeyboard.nextword;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Evicts the word whose next-words were used least recently.
+ */
+public class LruNextWordsEvictionPolicy implements NextWordsEvictionPolicy {
+    //containers do not override equals, so this is by identity. Ordered by access.
+    private final LinkedHashMap<NextWordsContainer, NextWordsContainer> mContainers = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public void onAdded(@NonNull NextWordsContainer container) {
+        mContainers.put(container, container);
+    }
+
+    @Override
+    public void onUsed(@NonNull NextWordsContainer container) {
+        mContainers.get(container);
+    }
+
+    @Override
+    public void onRemoved(@NonNull NextWordsContainer container) {
+        mContainers.remove(container);
+    }
+
+    @Nullable
+    @Override
+    public NextWordsContainer getEvictionCandidate(@Nullable NextWordsContainer excluded) {
+        final Iterator<NextWordsContainer> iterator = mContainers.keySet().iterator();
+        while (iterator.hasNext()) {
+            final NextWordsContainer container = iterator.next();
+            if (container != excluded) return container;
+        }
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        mContainers.clear();
+    }
+}
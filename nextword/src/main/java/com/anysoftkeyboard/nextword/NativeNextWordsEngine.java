@@ -0,0 +1,149 @@
+package com.anysoftkeyboard.nextword;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * Keeps the next-words off the Java heap, in the native anysoftkey_next_word_jni library:
+ * words are interned once into IDs, and each word keeps an ordered array of (next-word ID, usage count) pairs.
+ * The native side reads and writes the same (version 2) storage format as {@link NextWordsFileParserV2}.
+ * The native memory is kept within a budget, as {@link JavaNextWordsEngine} does: when over it, the next-words of the
+ * least recently used words (other than the one in use) are evicted, and the words no longer referenced are freed.
+ * <p/>
+ * Use {@link #isAvailable()} before creating it, the library may be missing on some devices.
+ * The native memory is freed by {@link #close()}, after which the engine can not be used.
+ */
+class NativeNextWordsEngine implements NextWordsEngine {
+    private static final String TAG = "NativeNextWordsEngine";
+
+    private static final boolean msLibraryLoaded;
+
+    static {
+        boolean loaded = false;
+        try {
+            System.loadLibrary("anysoftkey_next_word_jni");
+            loaded = true;
+        } catch (UnsatisfiedLinkError ule) {
+            Log.w(TAG, "Could not load native library anysoftkey_next_word_jni. Will use the Java engine.", ule);
+        } catch (Throwable t) {
+            Log.w(TAG, "Failed to load native library anysoftkey_next_word_jni. Will use the Java engine.", t);
+        }
+        msLibraryLoaded = loaded;
+    }
+
+    private long mNativeDict;
+    private final long mMemoryBudget;
+
+    static boolean isAvailable() {
+        return msLibraryLoaded;
+    }
+
+    /**
+     * @param memoryBudget the memory, in bytes, the native next-words may take.
+     */
+    NativeNextWordsEngine(long memoryBudget) {
+        mNativeDict = openNative();
+        mMemoryBudget = memoryBudget;
+        setMemoryBudgetNative(mNativeDict, memoryBudget);
+    }
+
+    private static native long openNative();
+
+    private static native boolean loadNative(long dictPointer, byte[] storedNextWords);
+
+    private static native void markNextWordAsUsedNative(long dictPointer, String word, String nextWord);
+
+    private static native int getNextWordsNative(long dictPointer, String word, int minWordUsage, String[] nextWords, int[] usedCounts, int maxResults);
+
+    private static native byte[] serializeNative(long dictPointer);
+
+    private static native void clearNative(long dictPointer);
+
+    private static native void closeNative(long dictPointer);
+
+    private static native int getFirstWordsCountNative(long dictPointer);
+
+    private static native int getSecondWordsCountNative(long dictPointer);
+
+    private static native long getMemorySizeNative(long dictPointer);
+
+    private static native void setMemoryBudgetNative(long dictPointer, long memoryBudget);
+
+    private static native int getEvictionsCountNative(long dictPointer);
+
+    private long getNativeDict() {
+        if (mNativeDict == 0) throw new IllegalStateException("The native next-words engine was closed.");
+        return mNativeDict;
+    }
+
+    @Override
+    public void load(@NonNull NextWordsStorage storage) {
+        final byte[] storedNextWords = storage.loadSerializedNextWords();
+        if (storedNextWords == null) {
+            clearNative(getNativeDict());
+        } else if (!loadNative(getNativeDict(), storedNextWords)) {
+            Log.w(TAG, "Failed to load the stored next-words. Starting with no next-words.");
+        }
+    }
+
+    @Override
+    public void markNextWordAsUsed(@NonNull String word, @NonNull String nextWord) {
+        markNextWordAsUsedNative(getNativeDict(), word, nextWord);
+    }
+
+    @Override
+    public int getNextWords(@NonNull String word, int minWordUsage, @NonNull String[] nextWords, @NonNull int[] usedCounts, int maxResults) {
+        return getNextWordsNative(getNativeDict(), word, minWordUsage, nextWords, usedCounts, maxResults);
+    }
+
+    @NonNull
+    @Override
+    public Snapshot takeSnapshot() {
+        //serializing the native next-words is a copy off the Java heap, so only writing them is left for later
+        final byte[] serializedNextWords = serializeNative(getNativeDict());
+        return new Snapshot() {
+            @NonNull
+            @Override
+            public byte[] serialize(@NonNull NextWordsStorage storage) {
+                return serializedNextWords;
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        clearNative(getNativeDict());
+    }
+
+    @Override
+    public void close() {
+        if (mNativeDict == 0) return;
+        closeNative(mNativeDict);
+        mNativeDict = 0;
+    }
+
+    @Override
+    public int getFirstWordsCount() {
+        return getFirstWordsCountNative(getNativeDict());
+    }
+
+    @Override
+    public int getSecondWordsCount() {
+        return getSecondWordsCountNative(getNativeDict());
+    }
+
+    @Override
+    public int getEvictionsCount() {
+        return getEvictionsCountNative(getNativeDict());
+    }
+
+    @Override
+    public long getEstimatedMemorySize() {
+        return getMemorySizeNative(getNativeDict());
+    }
+
+    @Override
+    public long getMemoryBudget() {
+        return mMemoryBudget;
+    }
+}
@@ -1,91 +1,85 @@
 package com.anysoftkeyboard.nextword;
 
 import android.content.Context;
-import android.support.v4.util.ArrayMap;
-import android.util.Log;
 
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Random;
 
 public class NextWordDictionary {
     private static final String TAG = "NextWordDictionary";
 
-    private static final Random msRandom = new Random();
-
     private static final int MAX_NEXT_SUGGESTIONS = 8;
-    private static final int MAX_NEXT_WORD_CONTAINERS = 900;
-
-    /*
-    static {
-        try {
-            System.loadLibrary("anysoftkey_next_word_jni");
-        } catch (UnsatisfiedLinkError ule) {
-            Log.e(TAG, "******** Could not load native library anysoftkey_next_word_jni ********");
-            Log.e(TAG, "******** Could not load native library anysoftkey_next_word_jni ********", ule);
-            Log.e(TAG, "******** Could not load native library anysoftkey_next_word_jni ********");
-        } catch (Throwable t) {
-            Log.e(TAG, "******** Failed to load native dictionary anysoftkey_next_word_jni ********");
-            Log.e(TAG, "******** Failed to load native dictionary anysoftkey_next_word_jni *******", t);
-            Log.e(TAG, "******** Failed to load native dictionary anysoftkey_next_word_jni ********");
-        }
-    }
-    */
 
     private final NextWordsStorage mStorage;
+    private final NextWordsJournal mJournal;
+    private final NextWordsEngine mEngine;
 
     private String mPreviousWord = null;
 
-    private final ArrayMap<String, NextWordsContainer> mNextWordMap = new ArrayMap<>();
+    private int mLookupsCount;
+    private int mLookupHitsCount;
 
     private final String[] mReusableNextWordsResponse = new String[MAX_NEXT_SUGGESTIONS];
+    private final int[] mReusableNextWordsUsages = new int[MAX_NEXT_SUGGESTIONS];
     private final SimpleIterable mReusableNextWordsIterable;
 
-    //private volatile long mNativeDict;
-
+    /**
+     * Keeps the next-words on the Java heap, within a memory budget, evicting the least frequently used words.
+     */
     public NextWordDictionary(Context context, String locale) {
-        mStorage = new NextWordsStorage(context, locale);
-        mReusableNextWordsIterable = new SimpleIterable(mReusableNextWordsResponse);
-        //mNativeDict = openNative("next_words_"+locale+".txt");
+        this(context, locale, false);
     }
 
-    /*
-    private static native long openNative(String filename);
+    /**
+     * @param preferNativeEngine keep the next-words off the Java heap, if the native engine is available.
+     *                           Otherwise, they are kept on the Java heap. Either way, within the same memory budget.
+     */
+    public NextWordDictionary(Context context, String locale, boolean preferNativeEngine) {
+        this(context, locale, preferNativeEngine && NativeNextWordsEngine.isAvailable() ?
+                new NativeNextWordsEngine(Utils.getNextWordsMemoryBudget(context)) :
+                new JavaNextWordsEngine(new LfuNextWordsEvictionPolicy(), Utils.getNextWordsMemoryBudget(context)));
+    }
 
-    private static native void loadNative(long dictPointer);
+    /**
+     * Keeps the next-words on the Java heap.
+     *
+     * @param evictionPolicy decides which word's next-words are dropped when over the memory budget.
+     * @param memoryBudget   the (estimated) memory, in bytes, the next-words may take.
+     */
+    public NextWordDictionary(Context context, String locale, NextWordsEvictionPolicy evictionPolicy, long memoryBudget) {
+        this(context, locale, new JavaNextWordsEngine(evictionPolicy, memoryBudget));
+    }
 
-    private static native void clearNative(long dictPointer);
+    NextWordDictionary(Context context, String locale, NextWordsEngine engine) {
+        mEngine = engine;
+        mStorage = new NextWordsStorage(context, locale);
+        mJournal = new NextWordsJournal(mStorage);
+        mReusableNextWordsIterable = new SimpleIterable(mReusableNextWordsResponse);
+    }
+
+    /**
+     * @return true if the next-words can be kept off the Java heap, by the native engine.
+     */
+    public static boolean isNativeEngineAvailable() {
+        return NativeNextWordsEngine.isAvailable();
+    }
 
-    private static native void closeNative(long dictPointer);
-    */
     public Iterable<String> getNextWords(String currentWord, int maxResults, final int minWordUsage) {
         maxResults = Math.min(MAX_NEXT_SUGGESTIONS, maxResults);
+        dropNextWordsIfStorageCleared();
         //firstly, updating the relations to the previous word
         if (mPreviousWord != null) {
-            NextWordsContainer previousSet = mNextWordMap.get(mPreviousWord);
-            if (previousSet == null) {
-                if (mNextWordMap.size() > MAX_NEXT_WORD_CONTAINERS) {
-                    String randomWordToDelete = mNextWordMap.keyAt(msRandom.nextInt(mNextWordMap.size()));
-                    mNextWordMap.remove(randomWordToDelete);
-                }
-                previousSet = new NextWordsContainer(mPreviousWord);
-                mNextWordMap.put(mPreviousWord, previousSet);
-            }
-
-            previousSet.markWordAsUsed(currentWord);
+            mEngine.markNextWordAsUsed(mPreviousWord, currentWord);
+            mJournal.append(mPreviousWord, currentWord);
+            if (mJournal.needsCompaction()) compact();
         }
 
         //secondly, get a list of suggestions
-        NextWordsContainer nextSet = mNextWordMap.get(currentWord);
-        int suggestionsCount = 0;
-        if (nextSet != null) {
-            for (NextWord nextWord : nextSet.getNextWordSuggestions()) {
-                if (nextWord.getUsedCount() < minWordUsage) continue;
-
-                mReusableNextWordsResponse[suggestionsCount] = nextWord.nextWord;
-                suggestionsCount++;
-                if (suggestionsCount == maxResults) break;
-            }
+        int suggestionsCount = mEngine.getNextWords(currentWord, minWordUsage, mReusableNextWordsResponse, mReusableNextWordsUsages, maxResults);
+        mLookupsCount++;
+        if (suggestionsCount == NextWordsEngine.WORD_NOT_FOUND) {
+            suggestionsCount = 0;
+        } else {
+            mLookupHitsCount++;
         }
 
         mPreviousWord = currentWord;
@@ -94,17 +88,52 @@ public class NextWordDictionary {
         return mReusableNextWordsIterable;
     }
 
+    /**
+     * The stored next-words may be cleared (from the settings) while this dictionary is open.
+     * Its next-words are dropped then, so they will not be stored again.
+     */
+    private void dropNextWordsIfStorageCleared() {
+        if (mJournal.restartIfStorageCleared()) {
+            resetSentence();
+            mEngine.clear();
+        }
+    }
+
+    private void compact() {
+        mJournal.compact(mEngine.takeSnapshot());
+    }
+
+    /**
+     * @return the usage count of the word at the given position of the last {@link #getNextWords(String, int, int)} response.
+     */
+    public int getNextWordUsage(int suggestionIndex) {
+        return mReusableNextWordsUsages[suggestionIndex];
+    }
+
+    /**
+     * Writes the recent usages to the journal (in the background). The whole next-words file is
+     * only rewritten if the journal grew large enough.
+     */
     public void close() {
-        //closeNative(mNativeDict);
-        mStorage.storeNextWords(mNextWordMap.values());
+        dropNextWordsIfStorageCleared();
+        if (mJournal.needsCompaction()) {
+            compact();
+        } else {
+            mJournal.flush();
+        }
+        mEngine.close();
     }
 
     public void load() {
-        //loadNative(mNativeDict);
-        for (NextWordsContainer container : mStorage.loadStoredNextWords()) {
-            if (Utils.DEBUG) Log.d(TAG, "Loaded " + container);
-            mNextWordMap.put(container.word, container);
-        }
+        NextWordsJournal.waitForPendingWrites();
+        mEngine.load(mStorage);
+        //the usages since the next-words file was written
+        mJournal.load(new NextWordsJournal.Listener() {
+            @Override
+            public void onNextWordUsed(String word, String nextWord) {
+                mEngine.markNextWordAsUsed(word, nextWord);
+            }
+        });
     }
 
     public void resetSentence() {
@@ -112,21 +141,14 @@ public class NextWordDictionary {
     }
 
     public NextWordStatistics dumpDictionaryStatistics() {
-        int firstWordCount = 0;
-        int secondWordCount = 0;
-
-        for (Map.Entry<String, NextWordsContainer> entry : mNextWordMap.entrySet()) {
-            firstWordCount++;
-            secondWordCount += entry.getValue().getNextWordSuggestions().size();
-        }
-
-        return new NextWordStatistics(firstWordCount, secondWordCount);
+        return new NextWordStatistics(mEngine.getFirstWordsCount(), mEngine.getSecondWordsCount(),
+                mLookupsCount, mLookupHitsCount, mEngine.getEvictionsCount(), mEngine.getEstimatedMemorySize(), mEngine.getMemoryBudget());
     }
 
     public void clearData() {
-        //clearNative(mNativeDict);
         resetSentence();
-        mNextWordMap.clear();
+        mEngine.clear();
+        compact();
     }
 
     private static class SimpleIterable implements Iterable<String> {
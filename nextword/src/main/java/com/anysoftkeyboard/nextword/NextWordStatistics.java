@@ -3,9 +3,32 @@ package com.anysoftkeyboard.nextword;
 public class NextWordStatistics {
     public final int firstWordCount;
     public final int secondWordCount;
+    //lookups of a word's next-words, since the dictionary was loaded
+    public final int lookupsCount;
+    public final int lookupHitsCount;
+    public final int evictionsCount;
+    public final long estimatedMemorySize;
+    //0 when the next-words are not bound by a (Java heap) memory budget
+    public final long memoryBudget;
 
     public NextWordStatistics(int firstWordCount, int secondWordCount) {
+        this(firstWordCount, secondWordCount, 0, 0, 0, 0, 0);
+    }
+
+    public NextWordStatistics(int firstWordCount, int secondWordCount, int lookupsCount, int lookupHitsCount, int evictionsCount, long estimatedMemorySize, long memoryBudget) {
         this.firstWordCount = firstWordCount;
         this.secondWordCount = secondWordCount;
+        this.lookupsCount = lookupsCount;
+        this.lookupHitsCount = lookupHitsCount;
+        this.evictionsCount = evictionsCount;
+        this.estimatedMemorySize = estimatedMemorySize;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return the part of the lookups which found next-words, between 0 and 1.
+     */
+    public float getLookupHitRate() {
+        return lookupsCount == 0 ? 0f : lookupHitsCount / (float) lookupsCount;
     }
 }
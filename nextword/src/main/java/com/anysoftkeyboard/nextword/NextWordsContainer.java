@@ -1,53 +1,196 @@
 package com.anysoftkeyboard.nextword;
 
-import android.support.v4.util.ArrayMap;
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * The words which were typed after {@link #word}, kept ordered by {@link NextWord.NextWordComparator}
+ * as their usage counts change: a word which was used moves past the words it now out-counts, so
+ * reading the ordered next-words never sorts or allocates.
+ * Words with the same usage count keep the order they reached it in.
+ * Next-words are kept as IDs of the dictionary's {@link WordsLexicon}, so their spelling is stored once,
+ * and finding a next-word compares ints. The container holds a lexicon reference to each of its next-words,
+ * until it is {@link #release() released}.
+ */
 public class NextWordsContainer {
-
-    private static final NextWord.NextWordComparator msNextWordComparator = new NextWord.NextWordComparator();
+    private static final int INITIAL_CAPACITY = 4;
+    //rough sizes, in bytes, of the objects behind a container and a next-word (an ID and a usage count).
+    //The next-word's spelling is charged to the lexicon.
+    private static final int CONTAINER_MEMORY_OVERHEAD = 96;
+    private static final int NEXT_WORD_MEMORY_OVERHEAD = 8;
 
     public final String word;
-    private final List<NextWord> mOrderedNextWord = new ArrayList<>();
-    private final Map<CharSequence, NextWord> mNextWordLookup = new ArrayMap<>();
+    private final WordsLexicon mLexicon;
+    //ordered by usage count
+    private int[] mNextWordIds;
+    private int[] mUsedCounts;
+    private int mNextWordsCount;
+    private int mEstimatedMemorySize;
 
-    public NextWordsContainer(String word) {
+    public NextWordsContainer(WordsLexicon lexicon, String word) {
         this.word = word;
+        mLexicon = lexicon;
+        mEstimatedMemorySize = CONTAINER_MEMORY_OVERHEAD + 2 * word.length();
+        mNextWordIds = new int[INITIAL_CAPACITY];
+        mUsedCounts = new int[INITIAL_CAPACITY];
     }
 
-    public NextWordsContainer(String word, List<String> nextWords) {
+    public NextWordsContainer(WordsLexicon lexicon, String word, List<String> nextWords) {
         this.word = word;
-        int frequency = nextWords.size();
+        mLexicon = lexicon;
+        mEstimatedMemorySize = CONTAINER_MEMORY_OVERHEAD + 2 * word.length();
+        final int frequency = nextWords.size();
+        mNextWordIds = new int[Math.max(INITIAL_CAPACITY, frequency)];
+        mUsedCounts = new int[mNextWordIds.length];
+        //all have the same usage, so this is already ordered
         for (String nextWordText : nextWords) {
-            NextWord nextWord = new NextWord(nextWordText, frequency);
-            mNextWordLookup.put(nextWordText, nextWord);
-            mOrderedNextWord.add(nextWord);
+            mNextWordIds[mNextWordsCount] = lexicon.intern(nextWordText);
+            mUsedCounts[mNextWordsCount] = frequency;
+            mNextWordsCount++;
+            mEstimatedMemorySize += NEXT_WORD_MEMORY_OVERHEAD;
+        }
+    }
+
+    private NextWordsContainer(NextWordsContainer other) {
+        this.word = other.word;
+        mLexicon = other.mLexicon;
+        mNextWordIds = new int[Math.max(INITIAL_CAPACITY, other.mNextWordsCount)];
+        System.arraycopy(other.mNextWordIds, 0, mNextWordIds, 0, other.mNextWordsCount);
+        for (int index = 0; index < other.mNextWordsCount; index++) {
+            mLexicon.acquire(mNextWordIds[index]);
         }
+        mUsedCounts = new int[mNextWordIds.length];
+        System.arraycopy(other.mUsedCounts, 0, mUsedCounts, 0, other.mNextWordsCount);
+        mNextWordsCount = other.mNextWordsCount;
+        mEstimatedMemorySize = other.mEstimatedMemorySize;
+    }
+
+    /**
+     * @return a copy of this container, which does not change when this container changes.
+     * It holds its own lexicon references, so it should be released too.
+     */
+    NextWordsContainer copy() {
+        return new NextWordsContainer(this);
     }
 
     public void markWordAsUsed(String word) {
-        NextWord nextWord = mNextWordLookup.get(word);
-        if (nextWord == null) {
-            nextWord = new NextWord(word);
-            mNextWordLookup.put(word, nextWord);
-            mOrderedNextWord.add(nextWord);
+        final int nextWordId = mLexicon.getId(word);
+        final int index = nextWordId == WordsLexicon.NOT_A_WORD ? -1 : indexOf(nextWordId);
+        if (index < 0) {
+            addNewWord(mLexicon.intern(word));
         } else {
-            nextWord.markAsUsed();
+            //bubbling the word past the words it out-counts now
+            final int usedCount = mUsedCounts[index] + 1;
+            int newIndex = index;
+            while (newIndex + 1 < mNextWordsCount && mUsedCounts[newIndex + 1] < usedCount) {
+                mNextWordIds[newIndex] = mNextWordIds[newIndex + 1];
+                mUsedCounts[newIndex] = mUsedCounts[newIndex + 1];
+                newIndex++;
+            }
+            mNextWordIds[newIndex] = nextWordId;
+            mUsedCounts[newIndex] = usedCount;
+        }
+    }
+
+    private void addNewWord(int nextWordId) {
+        if (mNextWordsCount == mNextWordIds.length) grow();
+        //a new word was used once, so it goes after the other once-used words
+        int index = 0;
+        while (index < mNextWordsCount && mUsedCounts[index] <= 1) index++;
+        System.arraycopy(mNextWordIds, index, mNextWordIds, index + 1, mNextWordsCount - index);
+        System.arraycopy(mUsedCounts, index, mUsedCounts, index + 1, mNextWordsCount - index);
+        mNextWordIds[index] = nextWordId;
+        mUsedCounts[index] = 1;
+        mNextWordsCount++;
+        mEstimatedMemorySize += NEXT_WORD_MEMORY_OVERHEAD;
+    }
+
+    /**
+     * Adds a stored next-word after all the others. Stored next-words should be added in their stored order.
+     * The container takes over the given lexicon reference to the next-word.
+     */
+    void appendNextWord(int nextWordId, int usedCount) {
+        if (mNextWordsCount == mNextWordIds.length) grow();
+        mNextWordIds[mNextWordsCount] = nextWordId;
+        mUsedCounts[mNextWordsCount] = usedCount;
+        mNextWordsCount++;
+        mEstimatedMemorySize += NEXT_WORD_MEMORY_OVERHEAD;
+    }
+
+    /**
+     * Gives back the lexicon references to the next-words, and removes them.
+     * Should be called when the container is dropped.
+     */
+    void release() {
+        for (int index = 0; index < mNextWordsCount; index++) {
+            mLexicon.release(mNextWordIds[index]);
         }
+        mEstimatedMemorySize -= NEXT_WORD_MEMORY_OVERHEAD * mNextWordsCount;
+        mNextWordsCount = 0;
     }
 
-    public List<NextWord> getNextWordSuggestions() {
-        Collections.sort(mOrderedNextWord, msNextWordComparator);
+    private void grow() {
+        final int capacity = mNextWordsCount * 2;
+        int[] nextWordIds = new int[capacity];
+        System.arraycopy(mNextWordIds, 0, nextWordIds, 0, mNextWordsCount);
+        mNextWordIds = nextWordIds;
+        int[] usedCounts = new int[capacity];
+        System.arraycopy(mUsedCounts, 0, usedCounts, 0, mNextWordsCount);
+        mUsedCounts = usedCounts;
+    }
+
+    private int indexOf(int nextWordId) {
+        for (int index = 0; index < mNextWordsCount; index++) {
+            if (mNextWordIds[index] == nextWordId) return index;
+        }
+        return -1;
+    }
 
-        return mOrderedNextWord;
+    /**
+     * @return the number of next-words.
+     */
+    public int size() {
+        return mNextWordsCount;
+    }
+
+    /**
+     * @return the next-word at the given position, ordered by {@link NextWord.NextWordComparator}.
+     * It is the lexicon's instance, so this does not allocate.
+     */
+    public String getNextWord(int index) {
+        return mLexicon.getWord(mNextWordIds[index]);
+    }
+
+    /**
+     * @return the lexicon ID of the next-word at the given position.
+     */
+    int getNextWordId(int index) {
+        return mNextWordIds[index];
+    }
+
+    /**
+     * @return the usage count of the next-word at the given position.
+     */
+    public int getUsedCount(int index) {
+        return mUsedCounts[index];
+    }
+
+    /**
+     * @return a rough estimate of the memory, in bytes, this container takes.
+     */
+    public int getEstimatedMemorySize() {
+        return mEstimatedMemorySize;
     }
 
     @Override
     public String toString() {
-        return "("+word+") -> ["+mOrderedNextWord.toString()+"]";
+        StringBuilder builder = new StringBuilder();
+        builder.append('(').append(word).append(") -> [");
+        for (int index = 0; index < mNextWordsCount; index++) {
+            if (index > 0) builder.append(", ");
+            builder.append('[').append(getNextWord(index)).append(':').append(mUsedCounts[index]).append(']');
+        }
+        return builder.append(']').toString();
     }
 }
@@ -0,0 +1,66 @@
+package com.anysoftkeyboard.nextword;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Where {@link NextWordDictionary} keeps the next-words it learned, and how it looks them up.
+ * Either on the Java heap ({@link JavaNextWordsEngine}) or off-heap ({@link NativeNextWordsEngine}).
+ * <p/>
+ * Engines are not thread-safe, they are used from the same thread as the {@link NextWordDictionary}.
+ */
+interface NextWordsEngine {
+    /**
+     * Returned by {@link #getNextWords(String, int, String[], int[], int)} when the word has no next-words.
+     */
+    int WORD_NOT_FOUND = -1;
+
+    /**
+     * A copy of all the next-words, taken on the engine's thread, which is serialized later, on another thread,
+     * while the engine keeps changing.
+     */
+    interface Snapshot {
+        /**
+         * @return the copied next-words, serialized in the current storage file format.
+         */
+        @NonNull
+        byte[] serialize(@NonNull NextWordsStorage storage);
+    }
+
+    /**
+     * Reads the stored next-words. Pending writes should be waited for first.
+     */
+    void load(@NonNull NextWordsStorage storage);
+
+    void markNextWordAsUsed(@NonNull String word, @NonNull String nextWord);
+
+    /**
+     * Fills the given arrays with the next-words of the word (and their usage counts),
+     * ordered by {@link NextWord.NextWordComparator}.
+     *
+     * @return the number of next-words which were filled, or {@link #WORD_NOT_FOUND}.
+     */
+    int getNextWords(@NonNull String word, int minWordUsage, @NonNull String[] nextWords, @NonNull int[] usedCounts, int maxResults);
+
+    /**
+     * @return a copy of all the next-words, for storing them in the background.
+     */
+    @NonNull
+    Snapshot takeSnapshot();
+
+    void clear();
+
+    /**
+     * Releases the resources of the engine. It should not be used after it was closed.
+     */
+    void close();
+
+    int getFirstWordsCount();
+
+    int getSecondWordsCount();
+
+    int getEvictionsCount();
+
+    long getEstimatedMemorySize();
+
+    long getMemoryBudget();
+}
@@ -0,0 +1,25 @@
+package com.anysoftkeyboard.nextword;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Decides which word's next-words will be dropped when the {@link NextWordDictionary} is over its
+ * memory budget. All operations should take constant (amortized) time.
+ */
+public interface NextWordsEvictionPolicy {
+    void onAdded(@NonNull NextWordsContainer container);
+
+    void onUsed(@NonNull NextWordsContainer container);
+
+    void onRemoved(@NonNull NextWordsContainer container);
+
+    /**
+     * @param excluded a container which can not be evicted now, like the one which is being used.
+     * @return the container which should be evicted next, other than the excluded one, or null if there are none.
+     */
+    @Nullable
+    NextWordsContainer getEvictionCandidate(@Nullable NextWordsContainer excluded);
+
+    void clear();
+}
@@ -2,13 +2,18 @@ package com.anysoftkeyboard.nextword;
 
 import android.support.annotation.NonNull;
 
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 interface NextWordsFileParser {
+    /**
+     * @param lexicon where the loaded next-words are spelled.
+     */
     @NonNull
-    Iterable<NextWordsContainer> loadStoredNextWords(InputStream inputStream) throws IOException;
+    StoredNextWords loadStoredNextWords(@NonNull WordsLexicon lexicon, InputStream inputStream) throws IOException;
 
     void storeNextWords(@NonNull Iterable<NextWordsContainer> nextWords, OutputStream outputStream) throws IOException;
 }
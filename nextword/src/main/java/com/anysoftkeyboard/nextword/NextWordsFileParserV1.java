@@ -3,6 +3,8 @@ package com.anysoftkeyboard.nextword;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -22,7 +24,7 @@ public class NextWordsFileParserV1 implements NextWordsFileParser {
 
     @NonNull
     @Override
-    public Iterable<NextWordsContainer> loadStoredNextWords(@NonNull InputStream inputStream) throws IOException {
+    public StoredNextWords loadStoredNextWords(@NonNull WordsLexicon lexicon, @NonNull InputStream inputStream) throws IOException {
         final byte[] buffer = new byte[256];
         //assuming that VERSION was read, and InputStream points to the next byte
         LinkedList<NextWordsContainer> loadedEntries = new LinkedList<>();
@@ -35,10 +37,10 @@ public class NextWordsFileParserV1 implements NextWordsFileParser {
             while (nextWordsCount > nextWords.size() && null != (nextWord = readWord(buffer, inputStream))) {
                 nextWords.add(nextWord);
             }
-            loadedEntries.add(new NextWordsContainer(word, nextWords));
+            loadedEntries.add(new NextWordsContainer(lexicon, word, nextWords));
         }
 
-        return loadedEntries;
+        return new StoredNextWords.Loaded(loadedEntries);
     }
 
     @Nullable
@@ -59,12 +61,10 @@ public class NextWordsFileParserV1 implements NextWordsFileParser {
         outputStream.write(1/*VERSION*/);
         for (NextWordsContainer nextWordsContainer : nextWords) {
             writeWord(outputStream, nextWordsContainer.word);
-            int maxWordsToStore = Math.min(12/*the maximum words we want to store*/, nextWordsContainer.getNextWordSuggestions().size());
+            final int maxWordsToStore = Math.min(12/*the maximum words we want to store*/, nextWordsContainer.size());
             outputStream.write(maxWordsToStore);
-            for (NextWord nextWord : nextWordsContainer.getNextWordSuggestions()) {
-                writeWord(outputStream, nextWord.nextWord);
-                maxWordsToStore--;
-                if (maxWordsToStore == 0) break;
+            for (int nextWordIndex = 0; nextWordIndex < maxWordsToStore; nextWordIndex++) {
+                writeWord(outputStream, nextWordsContainer.getNextWord(nextWordIndex));
             }
         }
     }
@@ -0,0 +1,286 @@
+package com.anysoftkeyboard.nextword;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.ArrayMap;
+import android.util.Log;
+
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * File structure (all numbers are unsigned LEB128 varints, all strings are UTF8):
+ * [1 byte VERSION (HAS TO BE 2]
+ * [STRINGS] - all the words, each stored once
+ * [strings count] [UTF8 length] [n bytes UTF8 word] ... more strings
+ * [INDEX] - a word's next-words can be read without reading the others
+ * [entries count] [word string index] [offset of the entry, from the start of ENTRIES] ... more index items
+ * [ENTRIES]
+ * [count of next words] [next word string index] [next word usage count] ... more next-words
+ * ... more entries
+ * Next-words are stored in their container's order.
+ */
+public class NextWordsFileParserV2 implements NextWordsFileParser {
+    static final int VERSION = 2;
+    private static final String TAG = "NextWordsFileParserV2";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @NonNull
+    @Override
+    public StoredNextWords loadStoredNextWords(@NonNull WordsLexicon lexicon, @NonNull InputStream inputStream) throws IOException {
+        //assuming that VERSION was read, and InputStream points to the next byte
+        final ByteArrayOutputStream fileBytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) > 0) {
+            fileBytes.write(buffer, 0, read);
+        }
+        return new LazyStoredNextWords(lexicon, fileBytes.toByteArray());
+    }
+
+    @Override
+    public void storeNextWords(@NonNull Iterable<NextWordsContainer> nextWords, @NonNull OutputStream outputStream) throws IOException {
+        final ArrayMap<String, Integer> stringIndices = new ArrayMap<>();
+        final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        int entriesCount = 0;
+        for (NextWordsContainer container : nextWords) {
+            writeVarInt(index, getStringIndex(container.word, stringIndices, strings));
+            writeVarInt(index, entries.size());
+            entriesCount++;
+
+            final int nextWordsCount = container.size();
+            writeVarInt(entries, nextWordsCount);
+            for (int nextWordIndex = 0; nextWordIndex < nextWordsCount; nextWordIndex++) {
+                writeVarInt(entries, getStringIndex(container.getNextWord(nextWordIndex), stringIndices, strings));
+                writeVarInt(entries, container.getUsedCount(nextWordIndex));
+            }
+        }
+
+        //assuming output stream is pointing to the start of the file
+        outputStream.write(VERSION);
+        writeVarInt(outputStream, stringIndices.size());
+        strings.writeTo(outputStream);
+        writeVarInt(outputStream, entriesCount);
+        index.writeTo(outputStream);
+        entries.writeTo(outputStream);
+    }
+
+    private static int getStringIndex(String word, ArrayMap<String, Integer> stringIndices, ByteArrayOutputStream strings) throws IOException {
+        Integer stringIndex = stringIndices.get(word);
+        if (stringIndex == null) {
+            stringIndex = stringIndices.size();
+            stringIndices.put(word, stringIndex);
+            final byte[] wordBytes = word.getBytes(UTF8);
+            writeVarInt(strings, wordBytes.length);
+            strings.write(wordBytes);
+        }
+        return stringIndex;
+    }
+
+    private static void writeVarInt(OutputStream outputStream, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            outputStream.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        outputStream.write(value);
+    }
+
+    /**
+     * Reads the strings and the index when loaded, and an entry only when its word is taken.
+     */
+    private static class LazyStoredNextWords implements StoredNextWords {
+        private final WordsLexicon mLexicon;
+        private final byte[] mFileBytes;
+        private final int[] mStringOffsets;
+        //word to the offset of its entry, for the entries which were not taken
+        private final ArrayMap<String, Integer> mEntryOffsets;
+        private int mPosition;
+
+        LazyStoredNextWords(@NonNull WordsLexicon lexicon, @NonNull byte[] fileBytes) throws IOException {
+            mLexicon = lexicon;
+            mFileBytes = fileBytes;
+            mPosition = 0;
+            //every count is checked against the bytes left, since a corrupt file could ask for any size.
+            //a string takes at least one byte (its length)
+            final int stringsCount = readCount(1);
+            mStringOffsets = new int[stringsCount];
+            for (int stringIndex = 0; stringIndex < stringsCount; stringIndex++) {
+                mStringOffsets[stringIndex] = mPosition;
+                final int length = readCount(1);
+                mPosition += length;
+            }
+
+            //an index item takes at least two bytes (string index and offset)
+            final int entriesCount = readCount(2);
+            final int[] entriesWords = new int[entriesCount];
+            final int[] entriesOffsets = new int[entriesCount];
+            for (int entryIndex = 0; entryIndex < entriesCount; entryIndex++) {
+                entriesWords[entryIndex] = readStringIndex();
+                entriesOffsets[entryIndex] = readVarInt();
+            }
+            final int entriesStart = mPosition;
+            for (int entryIndex = 0; entryIndex < entriesCount; entryIndex++) {
+                if (entriesOffsets[entryIndex] >= mFileBytes.length - entriesStart) {
+                    throw new IOException("Next-words entry offset " + entriesOffsets[entryIndex] + " is out of the file.");
+                }
+            }
+            mEntryOffsets = new ArrayMap<>(entriesCount);
+            for (int entryIndex = 0; entryIndex < entriesCount; entryIndex++) {
+                mEntryOffsets.put(getString(entriesWords[entryIndex]), entriesStart + entriesOffsets[entryIndex]);
+            }
+        }
+
+        private LazyStoredNextWords(@NonNull LazyStoredNextWords other) {
+            //the file bytes are never changed, so they are shared
+            mLexicon = other.mLexicon;
+            mFileBytes = other.mFileBytes;
+            mStringOffsets = other.mStringOffsets;
+            mEntryOffsets = new ArrayMap<>(other.mEntryOffsets);
+            mPosition = 0;
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            int shift = 0;
+            while (true) {
+                if (mPosition >= mFileBytes.length) throw new IOException("Truncated next-words file.");
+                final int b = mFileBytes[mPosition++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    //all the numbers in the file are unsigned
+                    if (value < 0) throw new IOException("Malformed varint in next-words file.");
+                    return value;
+                }
+                shift += 7;
+                if (shift > 28) throw new IOException("Malformed varint in next-words file.");
+            }
+        }
+
+        /**
+         * Reads a count of items, each taking at least the given number of bytes, so the count is
+         * bounded by the bytes left in the file.
+         */
+        private int readCount(int minItemBytes) throws IOException {
+            final int count = readVarInt();
+            if (count > (mFileBytes.length - mPosition) / minItemBytes) {
+                throw new IOException("Next-words count " + count + " is more than the file has.");
+            }
+            return count;
+        }
+
+        private int readStringIndex() throws IOException {
+            final int stringIndex = readVarInt();
+            if (stringIndex >= mStringOffsets.length) throw new IOException("Unknown string index " + stringIndex);
+            return stringIndex;
+        }
+
+        private String getString(int stringIndex) throws IOException {
+            mPosition = mStringOffsets[stringIndex];
+            final int length = readVarInt();
+            return new String(mFileBytes, mPosition, length, UTF8);
+        }
+
+        /**
+         * @return the lexicon ID of the string, with a reference taken for the caller.
+         */
+        private int internString(int stringIndex) throws IOException {
+            return mLexicon.intern(getString(stringIndex));
+        }
+
+        @Nullable
+        private NextWordsContainer readEntry(@NonNull String word, int entryOffset) {
+            final NextWordsContainer container = new NextWordsContainer(mLexicon, word);
+            try {
+                mPosition = entryOffset;
+                //a next-word takes at least two bytes (string index and usage count)
+                final int nextWordsCount = readCount(2);
+                for (int nextWordIndex = 0; nextWordIndex < nextWordsCount; nextWordIndex++) {
+                    final int stringIndex = readStringIndex();
+                    final int usedCount = readVarInt();
+                    //internString moves the position
+                    final int position = mPosition;
+                    container.appendNextWord(internString(stringIndex), usedCount);
+                    mPosition = position;
+                }
+                return container;
+            } catch (IOException e) {
+                //a broken entry is not a reason to lose all the others
+                Log.w(TAG, e);
+                Log.w(TAG, String.format("Failed to read the next-words of %s.", word));
+                container.release();
+                return null;
+            }
+        }
+
+        @Nullable
+        @Override
+        public NextWordsContainer take(@NonNull String word) {
+            final Integer entryOffset = mEntryOffsets.remove(word);
+            if (entryOffset == null) return null;
+            return readEntry(word, entryOffset);
+        }
+
+        @Override
+        public int size() {
+            return mEntryOffsets.size();
+        }
+
+        @NonNull
+        @Override
+        public StoredNextWords copy() {
+            return new LazyStoredNextWords(this);
+        }
+
+        @Override
+        public void release() {
+            //entries are interned only when they are read
+            mEntryOffsets.clear();
+        }
+
+        @Override
+        public Iterator<NextWordsContainer> iterator() {
+            return new Iterator<NextWordsContainer>() {
+                private int mIndex = 0;
+                private NextWordsContainer mNext = findNext();
+
+                @Nullable
+                private NextWordsContainer findNext() {
+                    while (mIndex < mEntryOffsets.size()) {
+                        final NextWordsContainer container = readEntry(mEntryOffsets.keyAt(mIndex), mEntryOffsets.valueAt(mIndex));
+                        mIndex++;
+                        if (container != null) return container;
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return mNext != null;
+                }
+
+                @Override
+                public NextWordsContainer next() {
+                    if (mNext == null) throw new NoSuchElementException();
+                    final NextWordsContainer next = mNext;
+                    mNext = findNext();
+                    return next;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("Not supporting remove right now");
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package com.anysoftkeyboard.nextword;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads next-words files sequentially, holding only what is needed for the current entry,
+ * so maintenance (statistics, pruning) does not depend on the size of the files.
+ * See {@link NextWordsFileParserV1} and {@link NextWordsFileParserV2} for the file structures.
+ */
+class NextWordsFileScanner {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    static class Summary {
+        int firstWordCount;
+        int secondWordCount;
+        final List<NextWordsFileStatistics.NextWordUsage> topNextWords = new ArrayList<>();
+    }
+
+    private NextWordsFileScanner() {
+    }
+
+    /**
+     * Counts the words of a version 2 file, and finds its most used next-words.
+     * The entries are read in one pass, keeping the string indices of the top next-words,
+     * and then only those strings are read.
+     */
+    @NonNull
+    static Summary scanV2(@NonNull File file, int maxTopNextWords) throws IOException {
+        final Summary summary = new Summary();
+        final TopNextWords topNextWords = new TopNextWords(maxTopNextWords);
+        PositionInputStream inputStream = new PositionInputStream(file);
+        try {
+            readVersion(inputStream, NextWordsFileParserV2.VERSION);
+            skipStrings(inputStream);
+            final int entriesCount = inputStream.readVarInt();
+            //the words are only needed for the top next-words. They are read from the index, in parallel to the entries
+            final long indexStart = inputStream.getPosition();
+            for (int entryIndex = 0; entryIndex < entriesCount; entryIndex++) {
+                inputStream.readVarInt();
+                inputStream.readVarInt();
+            }
+            PositionInputStream indexStream = maxTopNextWords == 0 ? null : new PositionInputStream(file);
+            try {
+                if (indexStream != null) indexStream.skipTo(indexStart);
+                for (int entryIndex = 0; entryIndex < entriesCount; entryIndex++) {
+                    final int wordIndex = indexStream == null ? 0 : indexStream.readVarInt();
+                    if (indexStream != null) indexStream.readVarInt();
+                    final int nextWordsCount = inputStream.readVarInt();
+                    summary.firstWordCount++;
+                    summary.secondWordCount += nextWordsCount;
+                    for (int nextWordIndex = 0; nextWordIndex < nextWordsCount; nextWordIndex++) {
+                        final int nextWordStringIndex = inputStream.readVarInt();
+                        topNextWords.offer(wordIndex, nextWordStringIndex, inputStream.readVarInt());
+                    }
+                }
+            } finally {
+                if (indexStream != null) indexStream.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        if (topNextWords.mSize > 0) {
+            final String[] strings = readStrings(file, topNextWords);
+            for (int topIndex = 0; topIndex < topNextWords.mSize; topIndex++) {
+                summary.topNextWords.add(new NextWordsFileStatistics.NextWordUsage(
+                        strings[2 * topIndex], strings[2 * topIndex + 1], topNextWords.mUsedCounts[topIndex]));
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Counts the words of a version 1 file, and finds its most used next-words.
+     */
+    @NonNull
+    static Summary scanV1(@NonNull File file, int maxTopNextWords) throws IOException {
+        final Summary summary = new Summary();
+        final byte[] buffer = new byte[256];
+        final String[] topWords = new String[maxTopNextWords];
+        final String[] topNextWords = new String[maxTopNextWords];
+        final int[] topUsedCounts = new int[maxTopNextWords];
+        int topSize = 0;
+        PositionInputStream inputStream = new PositionInputStream(file);
+        try {
+            readVersion(inputStream, 1);
+            String word;
+            while (null != (word = readV1Word(buffer, inputStream))) {
+                final int nextWordsCount = inputStream.read();
+                if (nextWordsCount <= 0) break;
+                summary.firstWordCount++;
+                String nextWord;
+                for (int nextWordIndex = 0; nextWordIndex < nextWordsCount && null != (nextWord = readV1Word(buffer, inputStream)); nextWordIndex++) {
+                    summary.secondWordCount++;
+                    //as loaded, all the next-words of a version 1 entry are used as many times as there are next-words
+                    final int topIndex = findTopIndex(topUsedCounts, topSize, nextWordsCount);
+                    if (topIndex < 0) continue;
+                    if (topSize < maxTopNextWords) topSize++;
+                    shiftDown(topWords, topIndex, topSize);
+                    shiftDown(topNextWords, topIndex, topSize);
+                    System.arraycopy(topUsedCounts, topIndex, topUsedCounts, topIndex + 1, topSize - topIndex - 1);
+                    topWords[topIndex] = word;
+                    topNextWords[topIndex] = nextWord;
+                    topUsedCounts[topIndex] = nextWordsCount;
+                }
+            }
+        } finally {
+            inputStream.close();
+        }
+        for (int topIndex = 0; topIndex < topSize; topIndex++) {
+            summary.topNextWords.add(new NextWordsFileStatistics.NextWordUsage(topWords[topIndex], topNextWords[topIndex], topUsedCounts[topIndex]));
+        }
+        return summary;
+    }
+
+    /**
+     * Writes a copy of the version 2 source file without the next-words which were used less than minUsedCount times,
+     * and without the words which are left with no next-words. The strings are copied as they are, they will be
+     * compacted the next time the next-words are stored from a dictionary.
+     * The new index is gathered in memory (a few bytes per kept word), the entries are written aside
+     * into entriesFile, and only then assembled into destination.
+     *
+     * @return the number of next-words removed.
+     */
+    static int pruneV2(@NonNull File source, @NonNull File destination, @NonNull File entriesFile, int minUsedCount) throws IOException {
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        int keptEntriesCount = 0;
+        int removedNextWordsCount = 0;
+        final long stringsStart;
+        final long stringsEnd;
+        PositionInputStream inputStream = new PositionInputStream(source);
+        try {
+            readVersion(inputStream, NextWordsFileParserV2.VERSION);
+            stringsStart = inputStream.getPosition();
+            skipStrings(inputStream);
+            stringsEnd = inputStream.getPosition();
+            final int entriesCount = inputStream.readVarInt();
+            final long indexStart = inputStream.getPosition();
+            for (int entryIndex = 0; entryIndex < entriesCount; entryIndex++) {
+                inputStream.readVarInt();
+                inputStream.readVarInt();
+            }
+            //the index is read in parallel to the entries, by another stream
+            PositionInputStream indexStream = new PositionInputStream(source);
+            OutputStream entries = new BufferedOutputStream(new FileOutputStream(entriesFile), BUFFER_SIZE);
+            try {
+                indexStream.skipTo(indexStart);
+                long entriesLength = 0;
+                //an entry's next-words are few, they are kept until it is known how many are left
+                int[] nextWords = new int[32];
+                for (int entryIndex = 0; entryIndex < entriesCount; entryIndex++) {
+                    final int wordIndex = indexStream.readVarInt();
+                    indexStream.readVarInt();
+                    final int nextWordsCount = inputStream.readVarInt();
+                    int keptNextWordsCount = 0;
+                    for (int nextWordIndex = 0; nextWordIndex < nextWordsCount; nextWordIndex++) {
+                        final int nextWordStringIndex = inputStream.readVarInt();
+                        final int usedCount = inputStream.readVarInt();
+                        if (usedCount < minUsedCount) continue;
+                        if (2 * keptNextWordsCount + 2 > nextWords.length) {
+                            final int[] grown = new int[nextWords.length * 2];
+                            System.arraycopy(nextWords, 0, grown, 0, nextWords.length);
+                            nextWords = grown;
+                        }
+                        nextWords[2 * keptNextWordsCount] = nextWordStringIndex;
+                        nextWords[2 * keptNextWordsCount + 1] = usedCount;
+                        keptNextWordsCount++;
+                    }
+                    removedNextWordsCount += nextWordsCount - keptNextWordsCount;
+                    if (keptNextWordsCount == 0) continue;
+
+                    writeVarInt(index, wordIndex);
+                    writeVarInt(index, (int) entriesLength);
+                    keptEntriesCount++;
+                    entriesLength += writeVarInt(entries, keptNextWordsCount);
+                    for (int valueIndex = 0; valueIndex < 2 * keptNextWordsCount; valueIndex++) {
+                        entriesLength += writeVarInt(entries, nextWords[valueIndex]);
+                    }
+                }
+            } finally {
+                indexStream.close();
+                entries.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(destination), BUFFER_SIZE);
+        try {
+            outputStream.write(NextWordsFileParserV2.VERSION);
+            copy(source, stringsStart, stringsEnd - stringsStart, outputStream);
+            writeVarInt(outputStream, keptEntriesCount);
+            index.writeTo(outputStream);
+            copy(entriesFile, 0, entriesFile.length(), outputStream);
+        } finally {
+            outputStream.close();
+        }
+        return removedNextWordsCount;
+    }
+
+    private static void readVersion(PositionInputStream inputStream, int expectedVersion) throws IOException {
+        final int version = inputStream.read();
+        if (version != expectedVersion) throw new IOException("Expected version " + expectedVersion + " but found " + version);
+    }
+
+    private static void skipStrings(PositionInputStream inputStream) throws IOException {
+        final int stringsCount = inputStream.readVarInt();
+        for (int stringIndex = 0; stringIndex < stringsCount; stringIndex++) {
+            inputStream.skipFully(inputStream.readVarInt());
+        }
+    }
+
+    /**
+     * @return the strings of the top next-words, word and next-word interleaved.
+     */
+    private static String[] readStrings(File file, TopNextWords topNextWords) throws IOException {
+        final String[] strings = new String[2 * topNextWords.mSize];
+        int maxStringIndex = 0;
+        for (int topIndex = 0; topIndex < topNextWords.mSize; topIndex++) {
+            maxStringIndex = Math.max(maxStringIndex, Math.max(topNextWords.mWordIndices[topIndex], topNextWords.mNextWordIndices[topIndex]));
+        }
+        PositionInputStream inputStream = new PositionInputStream(file);
+        try {
+            readVersion(inputStream, NextWordsFileParserV2.VERSION);
+            final int stringsCount = inputStream.readVarInt();
+            if (maxStringIndex >= stringsCount) throw new IOException("Unknown string index " + maxStringIndex);
+            byte[] buffer = new byte[64];
+            for (int stringIndex = 0; stringIndex <= maxStringIndex; stringIndex++) {
+                final int length = inputStream.readVarInt();
+                if (!topNextWords.hasString(stringIndex)) {
+                    inputStream.skipFully(length);
+                    continue;
+                }
+                if (length > buffer.length) buffer = new byte[length];
+                inputStream.readFully(buffer, length);
+                final String string = new String(buffer, 0, length, UTF8);
+                for (int topIndex = 0; topIndex < topNextWords.mSize; topIndex++) {
+                    if (topNextWords.mWordIndices[topIndex] == stringIndex) strings[2 * topIndex] = string;
+                    if (topNextWords.mNextWordIndices[topIndex] == stringIndex) strings[2 * topIndex + 1] = string;
+                }
+            }
+        } finally {
+            inputStream.close();
+        }
+        return strings;
+    }
+
+    private static String readV1Word(byte[] buffer, InputStream inputStream) throws IOException {
+        final int bytesToRead = inputStream.read();
+        if (bytesToRead < 1) return null;
+        final int actualReadBytes = inputStream.read(buffer, 0, bytesToRead);
+        if (bytesToRead == actualReadBytes) {
+            return new String(buffer, 0, bytesToRead);
+        } else {
+            return null;
+        }
+    }
+
+    private static void copy(File file, long start, long length, OutputStream outputStream) throws IOException {
+        PositionInputStream inputStream = new PositionInputStream(file);
+        try {
+            inputStream.skipTo(start);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (length > 0) {
+                final int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, length));
+                if (read < 0) throw new EOFException();
+                outputStream.write(buffer, 0, read);
+                length -= read;
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @return the number of bytes written.
+     */
+    private static int writeVarInt(OutputStream outputStream, int value) throws IOException {
+        int written = 1;
+        while ((value & ~0x7F) != 0) {
+            outputStream.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            written++;
+        }
+        outputStream.write(value);
+        return written;
+    }
+
+    /**
+     * @return where a next-word with the given usage should be placed in the ordered top, or -1 if it is not in the top.
+     * Next-words with the same usage keep the order they were read in.
+     */
+    private static int findTopIndex(int[] topUsedCounts, int topSize, int usedCount) {
+        int topIndex = topSize;
+        while (topIndex > 0 && topUsedCounts[topIndex - 1] < usedCount) topIndex--;
+        return topIndex < topUsedCounts.length ? topIndex : -1;
+    }
+
+    private static void shiftDown(Object[] array, int from, int size) {
+        System.arraycopy(array, from, array, from + 1, size - from - 1);
+    }
+
+    /**
+     * The most used next-words, as string indices, ordered by their usage.
+     */
+    private static class TopNextWords {
+        final int[] mWordIndices;
+        final int[] mNextWordIndices;
+        final int[] mUsedCounts;
+        int mSize;
+
+        TopNextWords(int maxSize) {
+            mWordIndices = new int[maxSize];
+            mNextWordIndices = new int[maxSize];
+            mUsedCounts = new int[maxSize];
+        }
+
+        void offer(int wordIndex, int nextWordIndex, int usedCount) {
+            final int topIndex = findTopIndex(mUsedCounts, mSize, usedCount);
+            if (topIndex < 0) return;
+            if (mSize < mUsedCounts.length) mSize++;
+            final int moved = mSize - topIndex - 1;
+            System.arraycopy(mWordIndices, topIndex, mWordIndices, topIndex + 1, moved);
+            System.arraycopy(mNextWordIndices, topIndex, mNextWordIndices, topIndex + 1, moved);
+            System.arraycopy(mUsedCounts, topIndex, mUsedCounts, topIndex + 1, moved);
+            mWordIndices[topIndex] = wordIndex;
+            mNextWordIndices[topIndex] = nextWordIndex;
+            mUsedCounts[topIndex] = usedCount;
+        }
+
+        boolean hasString(int stringIndex) {
+            for (int topIndex = 0; topIndex < mSize; topIndex++) {
+                if (mWordIndices[topIndex] == stringIndex || mNextWordIndices[topIndex] == stringIndex) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A buffered file stream which knows where in the file it is.
+     */
+    private static class PositionInputStream extends BufferedInputStream {
+        private long mPosition;
+
+        PositionInputStream(File file) throws IOException {
+            super(new FileInputStream(file), BUFFER_SIZE);
+        }
+
+        long getPosition() {
+            return mPosition;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) mPosition++;
+            return b;
+        }
+
+        @Override
+        public synchronized int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            final int read = super.read(buffer, offset, length);
+            if (read > 0) mPosition += read;
+            return read;
+        }
+
+        @Override
+        public synchronized long skip(long byteCount) throws IOException {
+            final long skipped = super.skip(byteCount);
+            if (skipped > 0) mPosition += skipped;
+            return skipped;
+        }
+
+        void skipTo(long position) throws IOException {
+            skipFully(position - mPosition);
+        }
+
+        void skipFully(long byteCount) throws IOException {
+            while (byteCount > 0) {
+                long skipped = skip(byteCount);
+                if (skipped <= 0) {
+                    //skip may stop short without reaching the end
+                    if (read() < 0) throw new EOFException("Truncated next-words file.");
+                    skipped = 1;
+                }
+                byteCount -= skipped;
+            }
+        }
+
+        void readFully(byte[] buffer, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                final int read = read(buffer, offset, length - offset);
+                if (read < 0) throw new EOFException("Truncated next-words file.");
+                offset += read;
+            }
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            int shift = 0;
+            while (true) {
+                final int b = read();
+                if (b < 0) throw new EOFException("Truncated next-words file.");
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+                shift += 7;
+                if (shift > 28) throw new IOException("Malformed varint in next-words file.");
+            }
+        }
+    }
+}
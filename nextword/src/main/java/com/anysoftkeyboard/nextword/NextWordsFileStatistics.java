@@ -0,0 +1,52 @@
+package com.anysoftkeyboard.nextword;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Statistics of the stored next-words of a locale, as read from its files,
+ * without loading the next-words into a dictionary.
+ */
+public class NextWordsFileStatistics {
+    public static final NextWordsFileStatistics EMPTY = new NextWordsFileStatistics(0, 0, 0, 0, 0, Collections.<NextWordUsage>emptyList());
+
+    public final int firstWordCount;
+    public final int secondWordCount;
+    //usages recorded since the next-words file was last written. These are not counted in the word counts.
+    public final int journalUsagesCount;
+    public final long fileSize;
+    public final long journalSize;
+    //the most used next-words, most used first
+    @NonNull
+    public final List<NextWordUsage> topNextWords;
+
+    public NextWordsFileStatistics(int firstWordCount, int secondWordCount, int journalUsagesCount, long fileSize, long journalSize, @NonNull List<NextWordUsage> topNextWords) {
+        this.firstWordCount = firstWordCount;
+        this.secondWordCount = secondWordCount;
+        this.journalUsagesCount = journalUsagesCount;
+        this.fileSize = fileSize;
+        this.journalSize = journalSize;
+        this.topNextWords = Collections.unmodifiableList(topNextWords);
+    }
+
+    public static class NextWordUsage {
+        @NonNull
+        public final String word;
+        @NonNull
+        public final String nextWord;
+        public final int usedCount;
+
+        public NextWordUsage(@NonNull String word, @NonNull String nextWord, int usedCount) {
+            this.word = word;
+            this.nextWord = nextWord;
+            this.usedCount = usedCount;
+        }
+
+        @Override
+        public String toString() {
+            return word + " " + nextWord + " (" + usedCount + ")";
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.anysoftkeyboard.nextword;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.anysoftkeyboard.base.dictionaries.DictionaryPersistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Write-behind journal of the next-word usages, so learned next-words survive the process being killed
+ * without rewriting the whole next-words file.
+ * Usages are buffered in memory and appended to the journal file in batches, by {@link DictionaryPersistence}.
+ * Once the journal grows past {@link #COMPACTION_THRESHOLD_BYTES}, a snapshot of all the next-words
+ * replaces the next-words file (also in the background), and the journal starts over.
+ * <p/>
+ * Journal structure (each entry is one usage of NEXT_WORD after WORD):
+ * [1 byte Word length] [n bytes UTF8 word] [1 byte Next word length] [n bytes UTF8 next word]
+ * ... more entries
+ * <p/>
+ * This class is not thread-safe, it should be used from the same thread as the {@link NextWordDictionary}.
+ */
+class NextWordsJournal {
+    static final int EVENTS_PER_BATCH = 16;
+    static final long COMPACTION_THRESHOLD_BYTES = 32 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_WORD_BYTES = 255;
+
+    interface Listener {
+        void onNextWordUsed(String word, String nextWord);
+    }
+
+    private final NextWordsStorage mStorage;
+
+    private byte[] mPendingEvents = new byte[EVENTS_PER_BATCH * 16];
+    private int mPendingEventsLength;
+    private int mPendingEventsCount;
+    private long mJournalSize;
+    //the storage's clears count when these usages started, writes are skipped once it was cleared again
+    private int mStorageClearsCount;
+
+    NextWordsJournal(@NonNull NextWordsStorage storage) {
+        mStorage = storage;
+        mStorageClearsCount = storage.getClearsCount();
+    }
+
+    /**
+     * Replays the stored journal into the listener. Pending writes should be waited for first.
+     */
+    void load(@NonNull Listener listener) {
+        mStorageClearsCount = mStorage.getClearsCount();
+        mJournalSize = mStorage.loadJournal(listener);
+    }
+
+    /**
+     * Checks whether the stored next-words were cleared (see {@link NextWordsStorage#clear()}) since
+     * the journal was loaded. If so, the pending usages are dropped and the journal starts over.
+     *
+     * @return true if the stored next-words were cleared, and the usages recorded so far should be dropped too.
+     */
+    boolean restartIfStorageCleared() {
+        final int storageClearsCount = mStorage.getClearsCount();
+        if (storageClearsCount == mStorageClearsCount) return false;
+        mStorageClearsCount = storageClearsCount;
+        clearPendingEvents();
+        mJournalSize = 0;
+        return true;
+    }
+
+    /**
+     * Blocks until all the requested writes (of all journals) were done.
+     */
+    static void waitForPendingWrites() {
+        DictionaryPersistence.getInstance().waitForPendingWrites();
+    }
+
+    /**
+     * Records a usage of nextWord after word. It will be written with the rest of its batch.
+     */
+    void append(@NonNull String word, @NonNull String nextWord) {
+        final byte[] wordBytes = word.getBytes(UTF8);
+        final byte[] nextWordBytes = nextWord.getBytes(UTF8);
+        if (!isStorable(wordBytes) || !isStorable(nextWordBytes)) return;
+
+        final int eventLength = 2 + wordBytes.length + nextWordBytes.length;
+        if (mPendingEventsLength + eventLength > mPendingEvents.length) {
+            final byte[] pendingEvents = new byte[Math.max(mPendingEvents.length * 2, mPendingEventsLength + eventLength)];
+            System.arraycopy(mPendingEvents, 0, pendingEvents, 0, mPendingEventsLength);
+            mPendingEvents = pendingEvents;
+        }
+        mPendingEventsLength = writeWord(wordBytes, mPendingEvents, mPendingEventsLength);
+        mPendingEventsLength = writeWord(nextWordBytes, mPendingEvents, mPendingEventsLength);
+        mPendingEventsCount++;
+
+        if (mPendingEventsCount >= EVENTS_PER_BATCH) flush();
+    }
+
+    private static boolean isStorable(byte[] wordBytes) {
+        return wordBytes.length > 0 && wordBytes.length <= MAX_WORD_BYTES;
+    }
+
+    private static int writeWord(byte[] wordBytes, byte[] buffer, int offset) {
+        buffer[offset] = (byte) wordBytes.length;
+        System.arraycopy(wordBytes, 0, buffer, offset + 1, wordBytes.length);
+        return offset + 1 + wordBytes.length;
+    }
+
+    /**
+     * Writes the pending usages to the journal, in the background.
+     */
+    void flush() {
+        if (mPendingEventsLength == 0) return;
+        final byte[] events = new byte[mPendingEventsLength];
+        System.arraycopy(mPendingEvents, 0, events, 0, mPendingEventsLength);
+        mJournalSize += events.length;
+        clearPendingEvents();
+        final int storageClearsCount = mStorageClearsCount;
+        //appends are never replaced, each batch has its own key
+        DictionaryPersistence.getInstance().persist(new Object(), new DictionaryPersistence.Write() {
+            @Override
+            public void write() {
+                if (mStorage.getClearsCount() != storageClearsCount) return;
+                mStorage.appendToJournal(events);
+            }
+        });
+    }
+
+    private void clearPendingEvents() {
+        mPendingEventsLength = 0;
+        mPendingEventsCount = 0;
+    }
+
+    boolean needsCompaction() {
+        return mJournalSize + mPendingEventsLength >= COMPACTION_THRESHOLD_BYTES;
+    }
+
+    /**
+     * Replaces the next-words file with the given snapshot, and starts a new journal, in the background.
+     * The snapshot should include all the usages recorded so far. The journal is only deleted once the
+     * snapshot was stored, so a failed store loses nothing.
+     */
+    void compact(@NonNull final NextWordsEngine.Snapshot snapshot) {
+        //the snapshot has the pending usages too, but they should be in the journal until it is stored
+        flush();
+        mJournalSize = 0;
+        final int storageClearsCount = mStorageClearsCount;
+        //a newer snapshot replaces a pending one, and is written after the appends which were submitted before it
+        DictionaryPersistence.getInstance().persist(mStorage, new DictionaryPersistence.Write() {
+            @Override
+            public void write() {
+                if (mStorage.getClearsCount() != storageClearsCount) return;
+                if (mStorage.storeSerializedNextWords(snapshot.serialize(mStorage))) {
+                    mStorage.deleteJournal();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the journal entries from the stream, stopping at the first partial entry.
+     */
+    static void readEvents(@NonNull InputStream inputStream, @NonNull Listener listener) throws IOException {
+        final byte[] buffer = new byte[MAX_WORD_BYTES];
+        String word;
+        while (null != (word = readWord(buffer, inputStream))) {
+            final String nextWord = readWord(buffer, inputStream);
+            if (nextWord == null) break;
+            listener.onNextWordUsed(word, nextWord);
+        }
+    }
+
+    /**
+     * Counts the journal entries in the stream, without decoding them, stopping at the first partial entry.
+     */
+    static int countEvents(@NonNull InputStream inputStream) throws IOException {
+        int eventsCount = 0;
+        while (skipWord(inputStream) && skipWord(inputStream)) {
+            eventsCount++;
+        }
+        return eventsCount;
+    }
+
+    private static boolean skipWord(@NonNull InputStream inputStream) throws IOException {
+        final int bytesToSkip = inputStream.read();
+        if (bytesToSkip < 1) return false;
+        int skippedBytes = 0;
+        while (skippedBytes < bytesToSkip) {
+            final long skipped = inputStream.skip(bytesToSkip - skippedBytes);
+            if (skipped > 0) {
+                skippedBytes += skipped;
+            } else if (inputStream.read() >= 0) {
+                skippedBytes++;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private static String readWord(@NonNull byte[] buffer, @NonNull InputStream inputStream) throws IOException {
+        final int bytesToRead = inputStream.read();
+        if (bytesToRead < 1) return null;
+        int actualReadBytes = 0;
+        while (actualReadBytes < bytesToRead) {
+            final int read = inputStream.read(buffer, actualReadBytes, bytesToRead - actualReadBytes);
+            if (read < 0) return null;
+            actualReadBytes += read;
+        }
+        return new String(buffer, 0, bytesToRead, UTF8);
+    }
+}
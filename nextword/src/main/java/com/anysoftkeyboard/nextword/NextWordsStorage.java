@@ -2,29 +2,49 @@ package com.anysoftkeyboard.nextword;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Collections;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class NextWordsStorage {
 
     private static final String TAG = "NextWordsStorage";
+    //how many times the stored next-words of each locale were cleared, so open dictionaries know to drop theirs
+    private static final Map<String, Integer> msClearsCounts = new HashMap<>();
     private final Context mContext;
     private final String mLocale;
     private final String mNextWordsStorageFilename;
+    private final String mNextWordsJournalFilename;
 
     public NextWordsStorage(@NonNull Context context, @NonNull String locale) {
         mContext = context;
         mLocale = locale;
         mNextWordsStorageFilename = "next_words_"+mLocale+".txt";
+        mNextWordsJournalFilename = "next_words_"+mLocale+".journal";
     }
 
+    /**
+     * Opens the stored next-words. Version 1 files are read too, and will be replaced
+     * with the current version the next time the next-words are stored.
+     *
+     * @param lexicon where the next-words are spelled, as they are read.
+     */
     @NonNull
-    public Iterable<NextWordsContainer> loadStoredNextWords() {
+    public StoredNextWords loadStoredNextWords(@NonNull WordsLexicon lexicon) {
         FileInputStream inputStream = null;
         try {
             if (Utils.DEBUG) Log.d(TAG, "Loading words from "+mNextWordsStorageFilename);
@@ -32,26 +52,29 @@ public class NextWordsStorage {
             final int version = inputStream.read();
             if (version < 1) {
                 Log.w(TAG, "Failed to read version from file "+mNextWordsStorageFilename);
-                return Collections.emptyList();
+                return StoredNextWords.EMPTY;
             }
             final NextWordsFileParser parser;
             switch (version) {
                 case 1:
                     parser = new NextWordsFileParserV1();
                     break;
+                case NextWordsFileParserV2.VERSION:
+                    parser = new NextWordsFileParserV2();
+                    break;
                 default:
                     Log.w(TAG, String.format("Version %d is not supported!", version));
-                    return Collections.emptyList();
+                    return StoredNextWords.EMPTY;
             }
-            return parser.loadStoredNextWords(inputStream);
+            return parser.loadStoredNextWords(lexicon, inputStream);
         } catch (FileNotFoundException e) {
             Log.w(TAG, e);
             Log.w(TAG, String.format("Failed to find %s. Maybe it's just the first time.", mNextWordsStorageFilename));
-            return Collections.emptyList();
+            return StoredNextWords.EMPTY;
         } catch (IOException e) {
             Log.w(TAG, e);
             Log.w(TAG, String.format("Failed to open %s. Maybe it's just the first time.", mNextWordsStorageFilename));
-            return Collections.emptyList();
+            return StoredNextWords.EMPTY;
         } finally {
             if (inputStream != null) try {
                 inputStream.close();
@@ -60,18 +83,93 @@ public class NextWordsStorage {
         }
     }
 
+    /**
+     * Reads the stored next-words file as is, for engines which parse it themselves.
+     * Older versions are converted to the current version.
+     *
+     * @return the stored next-words, serialized in the current version, or null if there are none.
+     */
+    @Nullable
+    byte[] loadSerializedNextWords() {
+        final File storageFile = mContext.getFileStreamPath(mNextWordsStorageFilename);
+        if (!storageFile.exists()) return null;
+        final ByteArrayOutputStream fileBytes = new ByteArrayOutputStream((int) storageFile.length());
+        InputStream inputStream = null;
+        try {
+            if (Utils.DEBUG) Log.d(TAG, "Reading words from "+mNextWordsStorageFilename);
+            inputStream = new FileInputStream(storageFile);
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                fileBytes.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            Log.w(TAG, String.format("Failed to read %s.", mNextWordsStorageFilename));
+            return null;
+        } finally {
+            if (inputStream != null) try {
+                inputStream.close();
+            } catch (IOException e) {
+            }
+        }
+        final byte[] serializedNextWords = fileBytes.toByteArray();
+        if (serializedNextWords.length == 0) return null;
+        if (serializedNextWords[0] == NextWordsFileParserV2.VERSION) return serializedNextWords;
+        //an older version, which will be replaced the next time the next-words are stored
+        return serializeNextWords(loadStoredNextWords(new WordsLexicon()));
+    }
+
     public void storeNextWords(@NonNull Iterable<NextWordsContainer> nextWords) {
-        NextWordsFileParser parser = new NextWordsFileParserV1();
+        storeSerializedNextWords(serializeNextWords(nextWords));
+    }
+
+    /**
+     * Serializes the next-words into memory, so they can be stored later, by another thread,
+     * while the next-words keep changing.
+     */
+    @NonNull
+    byte[] serializeNextWords(@NonNull Iterable<NextWordsContainer> nextWords) {
+        NextWordsFileParser parser = new NextWordsFileParserV2();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            parser.storeNextWords(nextWords, outputStream);
+        } catch (IOException e) {
+            //not going to happen with an in-memory stream
+            throw new IllegalStateException(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Replaces the stored next-words with the given serialized next-words. The file is written
+     * aside and then renamed, so a kill while writing will not leave a partial file.
+     * If storing fails, the stored next-words are left as they were.
+     *
+     * @return true if the next-words were stored.
+     */
+    boolean storeSerializedNextWords(@NonNull byte[] serializedNextWords) {
+        final File storageFile = mContext.getFileStreamPath(mNextWordsStorageFilename);
+        final File tempFile = new File(storageFile.getPath() + ".tmp");
         FileOutputStream outputStream = null;
         try {
             Log.d(TAG, "Storing next-words into "+mNextWordsStorageFilename);
-            outputStream = mContext.openFileOutput(mNextWordsStorageFilename, Context.MODE_PRIVATE);
-            parser.storeNextWords(nextWords, outputStream);
+            outputStream = new FileOutputStream(tempFile);
+            outputStream.write(serializedNextWords);
             outputStream.flush();
+            outputStream.close();
+            outputStream = null;
+            if (!tempFile.renameTo(storageFile)) {
+                Log.w(TAG, String.format("Failed to rename %s. Deleting", tempFile));
+                tempFile.delete();
+                return false;
+            }
+            return true;
         } catch (IOException e) {
             Log.w(TAG, e);
-            Log.w(TAG, String.format("Failed to store to %s. Deleting", mNextWordsStorageFilename));
-            mContext.deleteFile(mNextWordsStorageFilename);
+            Log.w(TAG, String.format("Failed to store to %s. Keeping the stored next-words.", mNextWordsStorageFilename));
+            tempFile.delete();
+            return false;
         } catch(NullPointerException npe) {
             //related to https://github.com/AnySoftKeyboard/AnySoftKeyboard/issues/528
             //after reading http://stackoverflow.com/questions/10259421/nullpointerexception-at-openfileoutput-in-activity
@@ -79,6 +177,7 @@ public class NextWordsStorage {
             //I'm guessing that there is not much I can do here :(
             Log.w(TAG, npe);
             Log.w(TAG, String.format("Failed to store to %s with an NPE.", mNextWordsStorageFilename));
+            return false;
         } finally {
             if (outputStream != null) try {
                 outputStream.close();
@@ -87,4 +186,201 @@ public class NextWordsStorage {
             }
         }
     }
+
+    /**
+     * Appends the encoded events to the journal file.
+     */
+    void appendToJournal(@NonNull byte[] events) {
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = mContext.openFileOutput(mNextWordsJournalFilename, Context.MODE_APPEND);
+            outputStream.write(events);
+            outputStream.flush();
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            Log.w(TAG, String.format("Failed to append to %s.", mNextWordsJournalFilename));
+        } catch(NullPointerException npe) {
+            //see storeSerializedNextWords
+            Log.w(TAG, npe);
+            Log.w(TAG, String.format("Failed to append to %s with an NPE.", mNextWordsJournalFilename));
+        } finally {
+            if (outputStream != null) try {
+                outputStream.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close output stream while in finally.", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the journal's events into the given listener.
+     *
+     * @return the size of the journal, in bytes.
+     */
+    long loadJournal(@NonNull NextWordsJournal.Listener listener) {
+        final File journalFile = mContext.getFileStreamPath(mNextWordsJournalFilename);
+        if (!journalFile.exists()) return 0;
+        InputStream inputStream = null;
+        try {
+            if (Utils.DEBUG) Log.d(TAG, "Replaying words from "+mNextWordsJournalFilename);
+            inputStream = new BufferedInputStream(new FileInputStream(journalFile));
+            NextWordsJournal.readEvents(inputStream, listener);
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            Log.w(TAG, String.format("Failed to read %s.", mNextWordsJournalFilename));
+        } finally {
+            if (inputStream != null) try {
+                inputStream.close();
+            } catch (IOException e) {
+            }
+        }
+        return journalFile.length();
+    }
+
+    void deleteJournal() {
+        mContext.deleteFile(mNextWordsJournalFilename);
+    }
+
+    /**
+     * Reads the statistics of the stored next-words from the files, one entry at a time,
+     * so it takes the same (small) memory for any size of files. Pending journal writes are waited for.
+     * Should not be called on the UI thread.
+     *
+     * @param maxTopNextWords how many of the most used next-words to report.
+     */
+    @NonNull
+    public NextWordsFileStatistics readStatistics(int maxTopNextWords) {
+        NextWordsJournal.waitForPendingWrites();
+        final File storageFile = mContext.getFileStreamPath(mNextWordsStorageFilename);
+        final File journalFile = mContext.getFileStreamPath(mNextWordsJournalFilename);
+        if (!storageFile.exists() && !journalFile.exists()) return NextWordsFileStatistics.EMPTY;
+
+        NextWordsFileScanner.Summary summary = new NextWordsFileScanner.Summary();
+        if (storageFile.exists()) {
+            try {
+                final int version = readVersion(storageFile);
+                if (version == NextWordsFileParserV2.VERSION) {
+                    summary = NextWordsFileScanner.scanV2(storageFile, maxTopNextWords);
+                } else if (version == 1) {
+                    summary = NextWordsFileScanner.scanV1(storageFile, maxTopNextWords);
+                } else {
+                    Log.w(TAG, String.format("Version %d is not supported!", version));
+                }
+            } catch (IOException e) {
+                Log.w(TAG, e);
+                Log.w(TAG, String.format("Failed to read statistics from %s.", mNextWordsStorageFilename));
+            }
+        }
+
+        int journalUsagesCount = 0;
+        if (journalFile.exists()) {
+            InputStream inputStream = null;
+            try {
+                inputStream = new BufferedInputStream(new FileInputStream(journalFile));
+                journalUsagesCount = NextWordsJournal.countEvents(inputStream);
+            } catch (IOException e) {
+                Log.w(TAG, e);
+                Log.w(TAG, String.format("Failed to read %s.", mNextWordsJournalFilename));
+            } finally {
+                if (inputStream != null) try {
+                    inputStream.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        return new NextWordsFileStatistics(summary.firstWordCount, summary.secondWordCount, journalUsagesCount,
+                storageFile.length(), journalFile.length(), summary.topNextWords);
+    }
+
+    /**
+     * Deletes the stored next-words and the journal, without reading them.
+     * A dictionary of this locale which is open drops its next-words the next time it is used,
+     * and its writes which were not done yet are skipped, so they will not bring back cleared usages.
+     */
+    public void clear() {
+        synchronized (msClearsCounts) {
+            msClearsCounts.put(mLocale, getClearsCount() + 1);
+        }
+        //writes which started before the count changed are done before the files are deleted
+        NextWordsJournal.waitForPendingWrites();
+        if (Utils.DEBUG) Log.d(TAG, "Deleting "+mNextWordsStorageFilename);
+        mContext.deleteFile(mNextWordsStorageFilename);
+        deleteJournal();
+    }
+
+    /**
+     * Removes the stored next-words which were used less than minUsedCount times, and the words left
+     * without next-words. Version 2 files are rewritten one entry at a time, aside, and then renamed.
+     * The journal is not changed, and a dictionary of this locale which is open keeps its next-words (they
+     * replace the pruned file when it compacts). Should not be called on the UI thread.
+     *
+     * @return the number of next-words removed.
+     */
+    public int pruneNextWords(int minUsedCount) {
+        NextWordsJournal.waitForPendingWrites();
+        final File storageFile = mContext.getFileStreamPath(mNextWordsStorageFilename);
+        if (!storageFile.exists()) return 0;
+        final File tempFile = new File(storageFile.getPath() + ".tmp");
+        final File entriesFile = new File(storageFile.getPath() + ".entries");
+        try {
+            final int version = readVersion(storageFile);
+            if (version != NextWordsFileParserV2.VERSION) {
+                //older versions are small (at most 12 next-words per word), and are replaced by the current version anyway
+                return pruneLoadedNextWords(minUsedCount);
+            }
+            final int removedNextWordsCount = NextWordsFileScanner.pruneV2(storageFile, tempFile, entriesFile, minUsedCount);
+            if (removedNextWordsCount > 0 && !tempFile.renameTo(storageFile)) {
+                Log.w(TAG, String.format("Failed to rename %s.", tempFile));
+                return 0;
+            }
+            return removedNextWordsCount;
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            Log.w(TAG, String.format("Failed to prune %s.", mNextWordsStorageFilename));
+            return 0;
+        } finally {
+            tempFile.delete();
+            entriesFile.delete();
+        }
+    }
+
+    private int pruneLoadedNextWords(int minUsedCount) {
+        final List<NextWordsContainer> prunedNextWords = new ArrayList<>();
+        int removedNextWordsCount = 0;
+        final WordsLexicon lexicon = new WordsLexicon();
+        for (NextWordsContainer container : loadStoredNextWords(lexicon)) {
+            final NextWordsContainer prunedContainer = new NextWordsContainer(lexicon, container.word);
+            for (int nextWordIndex = 0; nextWordIndex < container.size(); nextWordIndex++) {
+                if (container.getUsedCount(nextWordIndex) < minUsedCount) {
+                    removedNextWordsCount++;
+                } else {
+                    lexicon.acquire(container.getNextWordId(nextWordIndex));
+                    prunedContainer.appendNextWord(container.getNextWordId(nextWordIndex), container.getUsedCount(nextWordIndex));
+                }
+            }
+            if (prunedContainer.size() > 0) prunedNextWords.add(prunedContainer);
+        }
+        if (removedNextWordsCount > 0) storeNextWords(prunedNextWords);
+        return removedNextWordsCount;
+    }
+
+    /**
+     * @return how many times the stored next-words of this locale were cleared, by any storage instance.
+     */
+    int getClearsCount() {
+        synchronized (msClearsCounts) {
+            final Integer clearsCount = msClearsCounts.get(mLocale);
+            return clearsCount == null ? 0 : clearsCount;
+        }
+    }
+
+    private static int readVersion(@NonNull File file) throws IOException {
+        final InputStream inputStream = new FileInputStream(file);
+        try {
+            return inputStream.read();
+        } finally {
+            inputStream.close();
+        }
+    }
 }
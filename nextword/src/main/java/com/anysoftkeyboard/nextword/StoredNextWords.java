@@ -0,0 +1,89 @@
+package com.anysoftkeyboard.nextword;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Next-words which were read from the storage. Depending on the file format, a word's next-words
+ * may only be read when they are asked for.
+ * Iterating returns the next-words which were not taken yet.
+ */
+public interface StoredNextWords extends Iterable<NextWordsContainer> {
+
+    StoredNextWords EMPTY = new Loaded(Collections.<NextWordsContainer>emptyList());
+
+    /**
+     * @return the stored next-words of the given word, or null if there are none (or they were already taken).
+     */
+    @Nullable
+    NextWordsContainer take(@NonNull String word);
+
+    /**
+     * @return the number of words whose next-words were not taken yet.
+     */
+    int size();
+
+    /**
+     * @return a copy of the next-words which were not taken yet. It can be read on another thread.
+     */
+    @NonNull
+    StoredNextWords copy();
+
+    /**
+     * Gives back the lexicon references of the next-words which were not taken. Should be called when they are dropped.
+     */
+    void release();
+
+    /**
+     * Next-words which were all read into memory.
+     */
+    class Loaded implements StoredNextWords {
+        private final ArrayMap<String, NextWordsContainer> mContainers = new ArrayMap<>();
+
+        Loaded(@NonNull Iterable<NextWordsContainer> containers) {
+            for (NextWordsContainer container : containers) {
+                mContainers.put(container.word, container);
+            }
+        }
+
+        @Nullable
+        @Override
+        public NextWordsContainer take(@NonNull String word) {
+            return mContainers.remove(word);
+        }
+
+        @Override
+        public int size() {
+            return mContainers.size();
+        }
+
+        @NonNull
+        @Override
+        public StoredNextWords copy() {
+            final List<NextWordsContainer> containers = new ArrayList<>(mContainers.size());
+            for (int index = 0; index < mContainers.size(); index++) {
+                containers.add(mContainers.valueAt(index).copy());
+            }
+            return new Loaded(containers);
+        }
+
+        @Override
+        public void release() {
+            for (int index = 0; index < mContainers.size(); index++) {
+                mContainers.valueAt(index).release();
+            }
+            mContainers.clear();
+        }
+
+        @Override
+        public Iterator<NextWordsContainer> iterator() {
+            return mContainers.values().iterator();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.anysoftkeyboard.nextword;
 
+import android.app.ActivityManager;
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.support.annotation.NonNull;
@@ -10,6 +12,7 @@ import java.lang.annotation.RetentionPolicy;
 
 public class Utils {
     public static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final long MIN_NEXT_WORDS_MEMORY_BUDGET = 128 * 1024;
     public static final String NEXT_WORD_SUGGESTION_OFF = "off";
     public static final String NEXT_WORD_SUGGESTION_WORDS = "words";
     public static final String NEXT_WORD_SUGGESTION_WORDS_AND_PUNCTUATIONS = "words_punctuations";
@@ -60,6 +63,24 @@ public class Utils {
         }
     }
 
+    /**
+     * @return true if the next-words should be kept off the Java heap, by the native engine (when it is available).
+     */
+    public static boolean getNextWordsNativeEngineFromPrefs(@NonNull Resources resources, @NonNull SharedPreferences defaultSharedPreferences) {
+        final boolean defaultValue = resources.getBoolean(R.bool.settings_default_next_words_native_engine);
+        final String prefsKey = resources.getString(R.string.settings_key_next_words_native_engine);
+        return defaultSharedPreferences.getBoolean(prefsKey, defaultValue);
+    }
+
+    /**
+     * @return the memory, in bytes, the next-words of a locale may take. Scales with the app's heap size.
+     */
+    public static long getNextWordsMemoryBudget(@NonNull Context context) {
+        final ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        final long memoryClassBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+        return Math.max(MIN_NEXT_WORDS_MEMORY_BUDGET, memoryClassBytes / 128);
+    }
+
     public static int getNextWordSuggestionMinUsageFromPrefs(@NonNull Resources resources, @NonNull SharedPreferences defaultSharedPreferences) {
         switch (getNextWordSuggestionAggressivenessFromPrefs(resources, defaultSharedPreferences)) {
             case NEXT_WORD_SUGGESTION_AGGRESSIVENESS_MINIMAL:
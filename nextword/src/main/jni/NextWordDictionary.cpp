@@ -1,20 +1,630 @@
+#include <stdlib.h>
+#include <string.h>
+
 #include "NextWordDictionary.h"
 
-NextWordDictionary::NextWordDictionary(const char * dictFilename)
-        :mDictFilename(dictFilename) {
+#define STORAGE_VERSION 2
+#define INITIAL_WORDS_CAPACITY 64
+#define INITIAL_CHARS_CAPACITY 512
+#define REPLACEMENT_CHAR 0xFFFD
+
+// ----------------------------------------------------------------------------
+// UTF8 <-> UTF16, and unsigned LEB128 varints, as NextWordsFileParserV2 stores them.
+
+struct ByteBuffer {
+    unsigned char *data;
+    size_t length;
+    size_t capacity;
+    bool failed;
+
+    ByteBuffer() : data(NULL), length(0), capacity(0), failed(false) {
+    }
+
+    ~ByteBuffer() {
+        free(data);
+    }
+
+    void write(const unsigned char *bytes, size_t count) {
+        if (failed || count == 0) return;
+        if (length + count > capacity) {
+            size_t newCapacity = capacity == 0 ? 256 : capacity * 2;
+            while (newCapacity < length + count) newCapacity *= 2;
+            unsigned char *newData = (unsigned char *) realloc(data, newCapacity);
+            if (newData == NULL) {
+                failed = true;
+                return;
+            }
+            data = newData;
+            capacity = newCapacity;
+        }
+        memcpy(data + length, bytes, count);
+        length += count;
+    }
+
+    void writeByte(unsigned char value) {
+        write(&value, 1);
+    }
+
+    void writeVarInt(unsigned int value) {
+        unsigned char bytes[5];
+        size_t count = 0;
+        while (value > 0x7F) {
+            bytes[count++] = (unsigned char) ((value & 0x7F) | 0x80);
+            value >>= 7;
+        }
+        bytes[count++] = (unsigned char) value;
+        write(bytes, count);
+    }
+
+    void writeUtf8(const unsigned short *chars, unsigned int length) {
+        for (unsigned int index = 0; index < length; index++) {
+            unsigned int codePoint = chars[index];
+            if (codePoint >= 0xD800 && codePoint <= 0xDBFF && index + 1 < length
+                && chars[index + 1] >= 0xDC00 && chars[index + 1] <= 0xDFFF) {
+                codePoint = 0x10000 + ((codePoint - 0xD800) << 10) + (chars[index + 1] - 0xDC00);
+                index++;
+            } else if (codePoint >= 0xD800 && codePoint <= 0xDFFF) {
+                // a lone surrogate, Java encodes those as '?'
+                codePoint = '?';
+            }
+            unsigned char bytes[4];
+            size_t count;
+            if (codePoint < 0x80) {
+                bytes[0] = (unsigned char) codePoint;
+                count = 1;
+            } else if (codePoint < 0x800) {
+                bytes[0] = (unsigned char) (0xC0 | (codePoint >> 6));
+                bytes[1] = (unsigned char) (0x80 | (codePoint & 0x3F));
+                count = 2;
+            } else if (codePoint < 0x10000) {
+                bytes[0] = (unsigned char) (0xE0 | (codePoint >> 12));
+                bytes[1] = (unsigned char) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[2] = (unsigned char) (0x80 | (codePoint & 0x3F));
+                count = 3;
+            } else {
+                bytes[0] = (unsigned char) (0xF0 | (codePoint >> 18));
+                bytes[1] = (unsigned char) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[2] = (unsigned char) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[3] = (unsigned char) (0x80 | (codePoint & 0x3F));
+                count = 4;
+            }
+            write(bytes, count);
+        }
+    }
+};
+
+struct ByteReader {
+    const unsigned char *data;
+    size_t length;
+    size_t position;
+
+    ByteReader(const unsigned char *data, size_t length) : data(data), length(length), position(0) {
+    }
+
+    bool readVarInt(unsigned int *value) {
+        unsigned int result = 0;
+        for (unsigned int shift = 0; shift < 35; shift += 7) {
+            if (position >= length) return false;
+            const unsigned char byte = data[position++];
+            result |= ((unsigned int) (byte & 0x7F)) << shift;
+            if ((byte & 0x80) == 0) {
+                *value = result;
+                return true;
+            }
+        }
+        return false;
+    }
+};
+
+/**
+ * decodes the UTF8 bytes into the chars buffer, which should have room for length chars.
+ * @return the number of decoded chars.
+ */
+static unsigned int decodeUtf8(const unsigned char *bytes, size_t length, unsigned short *chars) {
+    unsigned int charsCount = 0;
+    size_t index = 0;
+    while (index < length) {
+        const unsigned char lead = bytes[index];
+        unsigned int codePoint;
+        size_t continuationBytes;
+        if (lead < 0x80) {
+            codePoint = lead;
+            continuationBytes = 0;
+        } else if ((lead & 0xE0) == 0xC0) {
+            codePoint = lead & 0x1F;
+            continuationBytes = 1;
+        } else if ((lead & 0xF0) == 0xE0) {
+            codePoint = lead & 0x0F;
+            continuationBytes = 2;
+        } else if ((lead & 0xF8) == 0xF0) {
+            codePoint = lead & 0x07;
+            continuationBytes = 3;
+        } else {
+            chars[charsCount++] = REPLACEMENT_CHAR;
+            index++;
+            continue;
+        }
+        index++;
+        bool valid = index + continuationBytes <= length;
+        for (size_t continuation = 0; valid && continuation < continuationBytes; continuation++) {
+            const unsigned char byte = bytes[index + continuation];
+            if ((byte & 0xC0) != 0x80) valid = false;
+            codePoint = (codePoint << 6) | (byte & 0x3F);
+        }
+        if (!valid) {
+            chars[charsCount++] = REPLACEMENT_CHAR;
+            continue;
+        }
+        index += continuationBytes;
+        if (codePoint >= 0x10000) {
+            codePoint -= 0x10000;
+            chars[charsCount++] = (unsigned short) (0xD800 + (codePoint >> 10));
+            chars[charsCount++] = (unsigned short) (0xDC00 + (codePoint & 0x3FF));
+        } else {
+            chars[charsCount++] = (unsigned short) codePoint;
+        }
+    }
+    return charsCount;
+}
+
+struct WordUsage {
+    unsigned int lastUsed;
+    unsigned int wordId;
+};
+
+static int compareWordUsages(const void *first, const void *second) {
+    const unsigned int firstLastUsed = ((const WordUsage *) first)->lastUsed;
+    const unsigned int secondLastUsed = ((const WordUsage *) second)->lastUsed;
+    if (firstLastUsed == secondLastUsed) return 0;
+    return firstLastUsed < secondLastUsed ? -1 : 1;
+}
+
+static unsigned int hashWord(const unsigned short *word, unsigned int length) {
+    // FNV-1a
+    unsigned int hash = 2166136261u;
+    for (unsigned int index = 0; index < length; index++) {
+        hash ^= word[index];
+        hash *= 16777619u;
+    }
+    return hash;
+}
+
+// ----------------------------------------------------------------------------
+
+NextWordDictionary::NextWordDictionary()
+        : mChars(NULL), mCharsLength(0), mCharsCapacity(0),
+          mWordOffsets(NULL), mWordLengths(NULL), mContainers(NULL), mLastUsed(NULL), mUsageClock(0),
+          mWordsCount(0), mWordsCapacity(0),
+          mHashSlots(NULL), mHashCapacity(0),
+          mFirstWordsCount(0), mSecondWordsCount(0),
+          mContainersMemorySize(0), mMemoryBudget(0), mEvictionsCount(0) {
 }
 
 NextWordDictionary::~NextWordDictionary() {
+    clear();
+}
+
+void NextWordDictionary::clear() {
+    for (unsigned int wordId = 0; wordId < mWordsCount; wordId++) {
+        delete mContainers[wordId];
+    }
+    free(mChars);
+    free(mWordOffsets);
+    free(mWordLengths);
+    free(mContainers);
+    free(mLastUsed);
+    free(mHashSlots);
+    mChars = NULL;
+    mCharsLength = mCharsCapacity = 0;
+    mWordOffsets = NULL;
+    mWordLengths = NULL;
+    mContainers = NULL;
+    mLastUsed = NULL;
+    mWordsCount = mWordsCapacity = 0;
+    mHashSlots = NULL;
+    mHashCapacity = 0;
+    mFirstWordsCount = mSecondWordsCount = 0;
+    mContainersMemorySize = 0;
 }
 
-void NextWordDictionary::close() {
+void NextWordDictionary::setMemoryBudget(size_t memoryBudget) {
+    mMemoryBudget = memoryBudget;
+    ensureMemoryBudget(-1);
+}
 
+int NextWordDictionary::findWordId(const unsigned short *word, unsigned int length, unsigned int hash) const {
+    if (mHashCapacity == 0) return -1;
+    const unsigned int mask = mHashCapacity - 1;
+    for (unsigned int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        const int wordId = mHashSlots[slot];
+        if (wordId < 0) return -1;
+        if (mWordLengths[wordId] == length
+            && memcmp(mChars + mWordOffsets[wordId], word, length * sizeof(unsigned short)) == 0) {
+            return wordId;
+        }
+    }
 }
 
-void NextWordDictionary::load() {
+bool NextWordDictionary::growWords() {
+    const unsigned int capacity = mWordsCapacity == 0 ? INITIAL_WORDS_CAPACITY : mWordsCapacity * 2;
+    unsigned int *offsets = (unsigned int *) realloc(mWordOffsets, capacity * sizeof(unsigned int));
+    if (offsets == NULL) return false;
+    mWordOffsets = offsets;
+    unsigned int *lengths = (unsigned int *) realloc(mWordLengths, capacity * sizeof(unsigned int));
+    if (lengths == NULL) return false;
+    mWordLengths = lengths;
+    NextWordsContainer **containers = (NextWordsContainer **) realloc(mContainers, capacity * sizeof(NextWordsContainer *));
+    if (containers == NULL) return false;
+    mContainers = containers;
+    unsigned int *lastUsed = (unsigned int *) realloc(mLastUsed, capacity * sizeof(unsigned int));
+    if (lastUsed == NULL) return false;
+    mLastUsed = lastUsed;
+    mWordsCapacity = capacity;
+    return true;
+}
 
+bool NextWordDictionary::growHash() {
+    // keeping the hash at most half full, so probing stays short
+    const unsigned int capacity = mHashCapacity == 0 ? INITIAL_WORDS_CAPACITY * 2 : mHashCapacity * 2;
+    int *slots = (int *) malloc(capacity * sizeof(int));
+    if (slots == NULL) return false;
+    fillHash(slots, capacity);
+    free(mHashSlots);
+    mHashSlots = slots;
+    mHashCapacity = capacity;
+    return true;
 }
 
-void NextWordDictionary::clear() {
+void NextWordDictionary::fillHash(int *slots, unsigned int capacity) const {
+    memset(slots, 0xFF, capacity * sizeof(int));
+    const unsigned int mask = capacity - 1;
+    for (unsigned int wordId = 0; wordId < mWordsCount; wordId++) {
+        unsigned int slot = hashWord(mChars + mWordOffsets[wordId], mWordLengths[wordId]) & mask;
+        while (slots[slot] >= 0) slot = (slot + 1) & mask;
+        slots[slot] = (int) wordId;
+    }
+}
+
+int NextWordDictionary::internWord(const unsigned short *word, unsigned int length) {
+    const unsigned int hash = hashWord(word, length);
+    const int existingWordId = findWordId(word, length, hash);
+    if (existingWordId >= 0) return existingWordId;
+
+    if (mWordsCount == mWordsCapacity && !growWords()) return -1;
+    if ((mWordsCount + 1) * 2 > mHashCapacity && !growHash()) return -1;
+    if (mCharsLength + length > mCharsCapacity) {
+        size_t capacity = mCharsCapacity == 0 ? INITIAL_CHARS_CAPACITY : mCharsCapacity * 2;
+        while (capacity < mCharsLength + length) capacity *= 2;
+        unsigned short *chars = (unsigned short *) realloc(mChars, capacity * sizeof(unsigned short));
+        if (chars == NULL) return -1;
+        mChars = chars;
+        mCharsCapacity = capacity;
+    }
+
+    const unsigned int wordId = mWordsCount++;
+    memcpy(mChars + mCharsLength, word, length * sizeof(unsigned short));
+    mWordOffsets[wordId] = (unsigned int) mCharsLength;
+    mWordLengths[wordId] = length;
+    mContainers[wordId] = NULL;
+    mLastUsed[wordId] = 0;
+    mCharsLength += length;
+
+    const unsigned int mask = mHashCapacity - 1;
+    unsigned int slot = hash & mask;
+    while (mHashSlots[slot] >= 0) slot = (slot + 1) & mask;
+    mHashSlots[slot] = (int) wordId;
+    return (int) wordId;
+}
+
+NextWordsContainer *NextWordDictionary::getOrCreateContainer(unsigned int wordId) {
+    if (mContainers[wordId] == NULL) {
+        mContainers[wordId] = new NextWordsContainer();
+        mFirstWordsCount++;
+        mContainersMemorySize += mContainers[wordId]->getMemorySize();
+    }
+    mLastUsed[wordId] = ++mUsageClock;
+    return mContainers[wordId];
+}
+
+void NextWordDictionary::evictContainer(unsigned int wordId) {
+    NextWordsContainer *container = mContainers[wordId];
+    mContainersMemorySize -= container->getMemorySize();
+    mFirstWordsCount--;
+    mSecondWordsCount -= container->size();
+    delete container;
+    mContainers[wordId] = NULL;
+    mEvictionsCount++;
+}
+
+/**
+ * removes the words which have no next-words and are not the next-word of any word, giving the remaining
+ * words new IDs. The arrays are reallocated for the remaining words.
+ * @param trackedWordId a word ID to update to its new ID, -1 if it was removed.
+ * @return false if out of memory, in which case nothing was changed.
+ */
+bool NextWordDictionary::compactWords(int *trackedWordId) {
+    if (mWordsCount == 0) return true;
+    int *newWordIds = (int *) malloc(mWordsCount * sizeof(int));
+    if (newWordIds == NULL) return false;
+    memset(newWordIds, 0xFF, mWordsCount * sizeof(int));
+    for (unsigned int wordId = 0; wordId < mWordsCount; wordId++) {
+        const NextWordsContainer *container = mContainers[wordId];
+        if (container == NULL) continue;
+        newWordIds[wordId] = 0;
+        for (unsigned int index = 0; index < container->size(); index++) {
+            newWordIds[container->get(index).nextWordId] = 0;
+        }
+    }
+    unsigned int keptWordsCount = 0;
+    size_t keptCharsLength = 0;
+    for (unsigned int wordId = 0; wordId < mWordsCount; wordId++) {
+        if (newWordIds[wordId] < 0) continue;
+        newWordIds[wordId] = (int) keptWordsCount++;
+        keptCharsLength += mWordLengths[wordId];
+    }
+    if (keptWordsCount == mWordsCount) {
+        free(newWordIds);
+        return true;
+    }
+
+    unsigned int wordsCapacity = INITIAL_WORDS_CAPACITY;
+    while (wordsCapacity < keptWordsCount) wordsCapacity *= 2;
+    size_t charsCapacity = INITIAL_CHARS_CAPACITY;
+    while (charsCapacity < keptCharsLength) charsCapacity *= 2;
+    unsigned short *chars = (unsigned short *) malloc(charsCapacity * sizeof(unsigned short));
+    unsigned int *offsets = (unsigned int *) malloc(wordsCapacity * sizeof(unsigned int));
+    unsigned int *lengths = (unsigned int *) malloc(wordsCapacity * sizeof(unsigned int));
+    NextWordsContainer **containers = (NextWordsContainer **) malloc(wordsCapacity * sizeof(NextWordsContainer *));
+    unsigned int *lastUsed = (unsigned int *) malloc(wordsCapacity * sizeof(unsigned int));
+    int *hashSlots = (int *) malloc(wordsCapacity * 2 * sizeof(int));
+    if (chars == NULL || offsets == NULL || lengths == NULL || containers == NULL || lastUsed == NULL || hashSlots == NULL) {
+        free(chars);
+        free(offsets);
+        free(lengths);
+        free(containers);
+        free(lastUsed);
+        free(hashSlots);
+        free(newWordIds);
+        return false;
+    }
+
+    size_t charsLength = 0;
+    for (unsigned int wordId = 0; wordId < mWordsCount; wordId++) {
+        const int newWordId = newWordIds[wordId];
+        if (newWordId < 0) continue;
+        memcpy(chars + charsLength, mChars + mWordOffsets[wordId], mWordLengths[wordId] * sizeof(unsigned short));
+        offsets[newWordId] = (unsigned int) charsLength;
+        lengths[newWordId] = mWordLengths[wordId];
+        containers[newWordId] = mContainers[wordId];
+        if (containers[newWordId] != NULL) containers[newWordId]->remapNextWords(newWordIds);
+        lastUsed[newWordId] = mLastUsed[wordId];
+        charsLength += mWordLengths[wordId];
+    }
+    if (trackedWordId != NULL && *trackedWordId >= 0) *trackedWordId = newWordIds[*trackedWordId];
+    free(newWordIds);
+
+    free(mChars);
+    free(mWordOffsets);
+    free(mWordLengths);
+    free(mContainers);
+    free(mLastUsed);
+    free(mHashSlots);
+    mChars = chars;
+    mCharsLength = charsLength;
+    mCharsCapacity = charsCapacity;
+    mWordOffsets = offsets;
+    mWordLengths = lengths;
+    mContainers = containers;
+    mLastUsed = lastUsed;
+    mWordsCount = keptWordsCount;
+    mWordsCapacity = wordsCapacity;
+    mHashSlots = hashSlots;
+    mHashCapacity = wordsCapacity * 2;
+    fillHash(mHashSlots, mHashCapacity);
+    return true;
+}
+
+void NextWordDictionary::ensureMemoryBudget(int inUseWordId) {
+    if (mMemoryBudget == 0 || getMemorySize() <= mMemoryBudget) return;
+    const size_t targetMemorySize = mMemoryBudget - mMemoryBudget / 4;
+    while (getMemorySize() > targetMemorySize) {
+        WordUsage *candidates = (WordUsage *) malloc((mFirstWordsCount + 1) * sizeof(WordUsage));
+        if (candidates == NULL) return;
+        unsigned int candidatesCount = 0;
+        for (unsigned int wordId = 0; wordId < mWordsCount; wordId++) {
+            if (mContainers[wordId] == NULL || (int) wordId == inUseWordId) continue;
+            candidates[candidatesCount].lastUsed = mLastUsed[wordId];
+            candidates[candidatesCount].wordId = wordId;
+            candidatesCount++;
+        }
+        // only the next-words in use are left
+        if (candidatesCount == 0) {
+            free(candidates);
+            return;
+        }
+        qsort(candidates, candidatesCount, sizeof(WordUsage), compareWordUsages);
+        // the words are only freed by compacting, so evicting (roughly) the excess, and then compacting.
+        // The arrays shrink by halves, so at most half of the next-words are evicted before checking again.
+        const size_t excess = getMemorySize() - targetMemorySize;
+        const unsigned int maxEvictionsCount = (candidatesCount + 1) / 2;
+        size_t evictedMemorySize = 0;
+        for (unsigned int index = 0; index < maxEvictionsCount && evictedMemorySize < excess; index++) {
+            const unsigned int wordId = candidates[index].wordId;
+            evictedMemorySize += mContainers[wordId]->getMemorySize()
+                                 + mWordLengths[wordId] * sizeof(unsigned short)
+                                 + 3 * sizeof(unsigned int) + sizeof(NextWordsContainer *) + 2 * sizeof(int);
+            evictContainer(wordId);
+        }
+        free(candidates);
+        if (!compactWords(&inUseWordId)) return;
+    }
+}
+
+void NextWordDictionary::markNextWordAsUsed(const unsigned short *word, unsigned int wordLength,
+                                            const unsigned short *nextWord, unsigned int nextWordLength) {
+    const int wordId = internWord(word, wordLength);
+    if (wordId < 0) return;
+    const int nextWordId = internWord(nextWord, nextWordLength);
+    if (nextWordId < 0) return;
+
+    NextWordsContainer *container = getOrCreateContainer((unsigned int) wordId);
+    const unsigned int previousSize = container->size();
+    const size_t previousMemorySize = container->getMemorySize();
+    container->markWordAsUsed((unsigned int) nextWordId);
+    mSecondWordsCount += container->size() - previousSize;
+    mContainersMemorySize += container->getMemorySize() - previousMemorySize;
+    ensureMemoryBudget(wordId);
+}
+
+void NextWordDictionary::appendNextWord(unsigned int wordId, unsigned int nextWordId, unsigned int usedCount) {
+    NextWordsContainer *container = getOrCreateContainer(wordId);
+    const unsigned int previousSize = container->size();
+    const size_t previousMemorySize = container->getMemorySize();
+    container->appendNextWord(nextWordId, usedCount);
+    mSecondWordsCount += container->size() - previousSize;
+    mContainersMemorySize += container->getMemorySize() - previousMemorySize;
+}
+
+const NextWordsContainer *NextWordDictionary::getNextWords(const unsigned short *word, unsigned int length) {
+    const int wordId = findWordId(word, length, hashWord(word, length));
+    if (wordId < 0) return NULL;
+    if (mContainers[wordId] != NULL) mLastUsed[wordId] = ++mUsageClock;
+    return mContainers[wordId];
+}
+
+const unsigned short *NextWordDictionary::getWord(unsigned int wordId, unsigned int *length) const {
+    *length = mWordLengths[wordId];
+    return mChars + mWordOffsets[wordId];
+}
+
+size_t NextWordDictionary::getMemorySize() const {
+    return sizeof(NextWordDictionary)
+           + mCharsCapacity * sizeof(unsigned short)
+           + mWordsCapacity * (3 * sizeof(unsigned int) + sizeof(NextWordsContainer *))
+           + mHashCapacity * sizeof(int)
+           + mContainersMemorySize;
+}
+
+bool NextWordDictionary::load(const unsigned char *data, size_t length) {
+    clear();
+    if (length < 1 || data[0] != STORAGE_VERSION) return false;
+    ByteReader reader(data + 1, length - 1);
+
+    // STRINGS
+    unsigned int stringsCount;
+    if (!reader.readVarInt(&stringsCount) || stringsCount > reader.length) return false;
+    unsigned int *stringIds = (unsigned int *) malloc((stringsCount + 1) * sizeof(unsigned int));
+    if (stringIds == NULL) return false;
+    unsigned short *chars = NULL;
+    size_t charsCapacity = 0;
+    bool valid = true;
+    for (unsigned int stringIndex = 0; valid && stringIndex < stringsCount; stringIndex++) {
+        unsigned int bytesLength;
+        if (!reader.readVarInt(&bytesLength) || bytesLength > reader.length - reader.position) {
+            valid = false;
+            break;
+        }
+        // UTF8 never takes less bytes than UTF16 chars
+        if (bytesLength > charsCapacity) {
+            charsCapacity = bytesLength * 2;
+            unsigned short *newChars = (unsigned short *) realloc(chars, charsCapacity * sizeof(unsigned short));
+            if (newChars == NULL) {
+                valid = false;
+                break;
+            }
+            chars = newChars;
+        }
+        const unsigned int charsLength = decodeUtf8(reader.data + reader.position, bytesLength, chars);
+        reader.position += bytesLength;
+        const int wordId = internWord(chars, charsLength);
+        if (wordId < 0) valid = false;
+        stringIds[stringIndex] = (unsigned int) wordId;
+    }
+    free(chars);
+
+    // INDEX
+    unsigned int entriesCount = 0;
+    if (valid && (!reader.readVarInt(&entriesCount) || entriesCount > reader.length)) valid = false;
+    unsigned int *index = valid ? (unsigned int *) malloc((entriesCount * 2 + 1) * sizeof(unsigned int)) : NULL;
+    if (index == NULL) valid = false;
+    for (unsigned int entry = 0; valid && entry < entriesCount; entry++) {
+        if (!reader.readVarInt(&index[entry * 2]) || !reader.readVarInt(&index[entry * 2 + 1])
+            || index[entry * 2] >= stringsCount) {
+            valid = false;
+        }
+    }
+
+    // ENTRIES
+    const size_t entriesStart = reader.position;
+    for (unsigned int entry = 0; valid && entry < entriesCount; entry++) {
+        if (index[entry * 2 + 1] > reader.length - entriesStart) {
+            valid = false;
+            break;
+        }
+        reader.position = entriesStart + index[entry * 2 + 1];
+        const unsigned int wordId = stringIds[index[entry * 2]];
+        unsigned int nextWordsCount;
+        if (!reader.readVarInt(&nextWordsCount)) {
+            valid = false;
+            break;
+        }
+        for (unsigned int nextWordIndex = 0; nextWordIndex < nextWordsCount; nextWordIndex++) {
+            unsigned int nextWordStringIndex;
+            unsigned int usedCount;
+            if (!reader.readVarInt(&nextWordStringIndex) || !reader.readVarInt(&usedCount)
+                || nextWordStringIndex >= stringsCount) {
+                valid = false;
+                break;
+            }
+            appendNextWord(wordId, stringIds[nextWordStringIndex], usedCount);
+        }
+    }
+
+    free(index);
+    free(stringIds);
+    if (!valid) clear();
+    else ensureMemoryBudget(-1);
+    return valid;
+}
+
+unsigned char *NextWordDictionary::serialize(size_t *length) const {
+    // word IDs are the string indices, so all the words are stored
+    ByteBuffer entries;
+    ByteBuffer index;
+    unsigned int entriesCount = 0;
+    for (unsigned int wordId = 0; wordId < mWordsCount; wordId++) {
+        const NextWordsContainer *container = mContainers[wordId];
+        if (container == NULL) continue;
+        index.writeVarInt(wordId);
+        index.writeVarInt((unsigned int) entries.length);
+        entriesCount++;
+
+        entries.writeVarInt(container->size());
+        for (unsigned int nextWordIndex = 0; nextWordIndex < container->size(); nextWordIndex++) {
+            const NextWordEntry &nextWord = container->get(nextWordIndex);
+            entries.writeVarInt(nextWord.nextWordId);
+            entries.writeVarInt(nextWord.usedCount);
+        }
+    }
+
+    ByteBuffer file;
+    file.writeByte(STORAGE_VERSION);
+    file.writeVarInt(mWordsCount);
+    ByteBuffer wordBytes;
+    for (unsigned int wordId = 0; wordId < mWordsCount; wordId++) {
+        wordBytes.length = 0;
+        wordBytes.writeUtf8(mChars + mWordOffsets[wordId], mWordLengths[wordId]);
+        file.writeVarInt((unsigned int) wordBytes.length);
+        file.write(wordBytes.data, wordBytes.length);
+    }
+    file.writeVarInt(entriesCount);
+    file.write(index.data, index.length);
+    file.write(entries.data, entries.length);
 
+    if (file.failed || wordBytes.failed || index.failed || entries.failed) return NULL;
+    *length = file.length;
+    unsigned char *data = file.data;
+    // the caller owns the data now
+    file.data = NULL;
+    return data;
 }
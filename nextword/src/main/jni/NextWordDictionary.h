@@ -1,26 +1,106 @@
 #ifndef ANYSOFTKEYBOARD_NEXTWORDDICTIONARY_H
 #define ANYSOFTKEYBOARD_NEXTWORDDICTIONARY_H
 
+#include <stddef.h>
 
+#include "NextWordsContainer.h"
+
+/**
+ * The next-words of all the words, off the Java heap.
+ * Each word is stored once (as UTF-16) and is referred to by its ID. The IDs are found through
+ * an open-addressing hash of the words.
+ * The next-words are read from, and written to, the version 2 next-words storage format.
+ *
+ * With a memory budget, the next-words of the least recently used words are evicted when the memory is over
+ * the budget, never those of the word being used. Evicting goes down to three quarters of the budget, and then
+ * the words which are left unreferenced are compacted away, so compacting is not done on every usage.
+ */
 class NextWordDictionary {
 private:
-    const char * mDictFilename;
+    unsigned short *mChars;
+    size_t mCharsLength;
+    size_t mCharsCapacity;
+
+    unsigned int *mWordOffsets;
+    unsigned int *mWordLengths;
+    // indexed by word ID, NULL if the word has no next-words
+    NextWordsContainer **mContainers;
+    // indexed by word ID, the usage clock when the word's next-words were last used
+    unsigned int *mLastUsed;
+    unsigned int mUsageClock;
+    unsigned int mWordsCount;
+    unsigned int mWordsCapacity;
+
+    // word IDs, -1 for an empty slot. The capacity is a power of two
+    int *mHashSlots;
+    unsigned int mHashCapacity;
+
+    unsigned int mFirstWordsCount;
+    unsigned int mSecondWordsCount;
+
+    size_t mContainersMemorySize;
+    // 0 for no budget
+    size_t mMemoryBudget;
+    unsigned int mEvictionsCount;
+
+    int findWordId(const unsigned short *word, unsigned int length, unsigned int hash) const;
+    int internWord(const unsigned short *word, unsigned int length);
+    bool growWords();
+    bool growHash();
+    void fillHash(int *slots, unsigned int capacity) const;
+    NextWordsContainer *getOrCreateContainer(unsigned int wordId);
+    void appendNextWord(unsigned int wordId, unsigned int nextWordId, unsigned int usedCount);
+    void evictContainer(unsigned int wordId);
+    bool compactWords(int *trackedWordId);
+    void ensureMemoryBudget(int inUseWordId);
+
+    // not copyable
+    NextWordDictionary(const NextWordDictionary &);
+    NextWordDictionary &operator=(const NextWordDictionary &);
 public:
-    NextWordDictionary(const char * dictFilename);
+    NextWordDictionary();
+
+    /**
+     * loads the next-words from a (version 2) next-words file, replacing the next-words in memory.
+     */
+    bool load(const unsigned char *data, size_t length);
+
     /**
-     * loads the data from the file into memory
+     * writes the next-words in memory as a (version 2) next-words file.
+     * @return a malloc'ed buffer, which the caller should free, or NULL if out of memory.
      */
-    void load();
+    unsigned char *serialize(size_t *length) const;
+
+    void markNextWordAsUsed(const unsigned short *word, unsigned int wordLength,
+                            const unsigned short *nextWord, unsigned int nextWordLength);
+
     /**
-     * writes the data in memory to file
+     * @return the next-words of the given word, or NULL if it has none.
      */
-    void close();
+    const NextWordsContainer *getNextWords(const unsigned short *word, unsigned int length);
+
+    const unsigned short *getWord(unsigned int wordId, unsigned int *length) const;
 
     /**
      * clears the next-word memory.
      */
     void clear();
 
+    /**
+     * @param memoryBudget the memory, in bytes, the next-words may take, or 0 for no budget.
+     */
+    void setMemoryBudget(size_t memoryBudget);
+
+    size_t getMemoryBudget() const { return mMemoryBudget; }
+
+    unsigned int getEvictionsCount() const { return mEvictionsCount; }
+
+    unsigned int getFirstWordsCount() const { return mFirstWordsCount; }
+
+    unsigned int getSecondWordsCount() const { return mSecondWordsCount; }
+
+    size_t getMemorySize() const;
+
     ~NextWordDictionary();
 };
 
@@ -2,4 +2,70 @@
 // Created by Menny Even Danan on 11/15/15.
 //
 
+#include <stdlib.h>
+#include <string.h>
+
 #include "NextWordsContainer.h"
+
+#define INITIAL_CAPACITY 4
+
+NextWordsContainer::NextWordsContainer()
+        : mEntries(NULL), mCount(0), mCapacity(0) {
+}
+
+NextWordsContainer::~NextWordsContainer() {
+    free(mEntries);
+}
+
+bool NextWordsContainer::ensureCapacity(unsigned int capacity) {
+    if (capacity <= mCapacity) return true;
+    unsigned int newCapacity = mCapacity == 0 ? INITIAL_CAPACITY : mCapacity * 2;
+    if (newCapacity < capacity) newCapacity = capacity;
+    NextWordEntry *entries = (NextWordEntry *) realloc(mEntries, newCapacity * sizeof(NextWordEntry));
+    if (entries == NULL) return false;
+    mEntries = entries;
+    mCapacity = newCapacity;
+    return true;
+}
+
+void NextWordsContainer::markWordAsUsed(unsigned int nextWordId) {
+    unsigned int index = 0;
+    while (index < mCount && mEntries[index].nextWordId != nextWordId) index++;
+
+    if (index == mCount) {
+        if (!ensureCapacity(mCount + 1)) return;
+        // a new word was used once, so it goes after the other once-used words
+        index = 0;
+        while (index < mCount && mEntries[index].usedCount <= 1) index++;
+        memmove(mEntries + index + 1, mEntries + index, (mCount - index) * sizeof(NextWordEntry));
+        mEntries[index].nextWordId = nextWordId;
+        mEntries[index].usedCount = 1;
+        mCount++;
+    } else {
+        // bubbling the word past the words it out-counts now
+        const unsigned int usedCount = mEntries[index].usedCount + 1;
+        while (index + 1 < mCount && mEntries[index + 1].usedCount < usedCount) {
+            mEntries[index] = mEntries[index + 1];
+            index++;
+        }
+        mEntries[index].nextWordId = nextWordId;
+        mEntries[index].usedCount = usedCount;
+    }
+}
+
+void NextWordsContainer::appendNextWord(unsigned int nextWordId, unsigned int usedCount) {
+    if (!ensureCapacity(mCount + 1)) return;
+    mEntries[mCount].nextWordId = nextWordId;
+    mEntries[mCount].usedCount = usedCount;
+    mCount++;
+}
+
+void NextWordsContainer::remapNextWords(const int *newWordIds) {
+    for (unsigned int index = 0; index < mCount; index++) {
+        mEntries[index].nextWordId = (unsigned int) newWordIds[mEntries[index].nextWordId];
+    }
+}
+
+size_t NextWordsContainer::getMemorySize() const {
+    return sizeof(NextWordsContainer) + mCapacity * sizeof(NextWordEntry);
+}
@@ -5,9 +5,53 @@
 #ifndef ANYSOFTKEYBOARD_NEXTWORDSCONTAINER_H
 #define ANYSOFTKEYBOARD_NEXTWORDSCONTAINER_H
 
+#include <stddef.h>
 
+struct NextWordEntry {
+    unsigned int nextWordId;
+    unsigned int usedCount;
+};
+
+/**
+ * The next-words of one word, as (next-word ID, usage count) pairs.
+ * Kept in the same order as the Java NextWordsContainer: ascending by usage count,
+ * and words with the same usage count keep the order they reached it in.
+ */
 class NextWordsContainer {
+private:
+    NextWordEntry *mEntries;
+    unsigned int mCount;
+    unsigned int mCapacity;
+
+    bool ensureCapacity(unsigned int capacity);
+    // not copyable
+    NextWordsContainer(const NextWordsContainer &);
+    NextWordsContainer &operator=(const NextWordsContainer &);
+public:
+    NextWordsContainer();
+
+    /**
+     * counts a usage of the next-word, moving it past the next-words it out-counts now.
+     */
+    void markWordAsUsed(unsigned int nextWordId);
+
+    /**
+     * adds a stored next-word after all the others.
+     */
+    void appendNextWord(unsigned int nextWordId, unsigned int usedCount);
+
+    /**
+     * replaces every next-word ID with its new ID, from the given old-to-new IDs map.
+     */
+    void remapNextWords(const int *newWordIds);
+
+    unsigned int size() const { return mCount; }
+
+    const NextWordEntry &get(unsigned int index) const { return mEntries[index]; }
+
+    size_t getMemorySize() const;
 
+    ~NextWordsContainer();
 };
 
 
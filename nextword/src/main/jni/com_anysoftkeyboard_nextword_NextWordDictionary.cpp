@@ -15,50 +15,153 @@
 ** limitations under the License.
 */
 
-#include <stdio.h>
 #include <assert.h>
 
 #include <cstdlib>
-#include <cstdio> // for fopen() etc.
 
 #include <jni.h>
 
 #include "NextWordDictionary.h"
 
+// same as NextWordsEngine.WORD_NOT_FOUND
+#define WORD_NOT_FOUND -1
+
 // ----------------------------------------------------------------------------
 
-static jlong nativeime_NextWordDictionary_open(JNIEnv *env, jclass clazz, jstring filename)
+static jlong nativeime_NextWordDictionary_open(JNIEnv * /* env */, jclass /* clazz */)
 {
-    NextWordDictionary *dictionary = new NextWordDictionary(env->GetStringUTFChars(filename, 0));
+    NextWordDictionary *dictionary = new NextWordDictionary();
     return (jlong) dictionary;
 }
 
-static void nativeime_NextWordDictionary_close(JNIEnv *env, jclass clazz, jlong dict)
+static void nativeime_NextWordDictionary_close(JNIEnv * /* env */, jclass /* clazz */, jlong dict)
 {
     NextWordDictionary *dictionary = (NextWordDictionary*) dict;
-    dictionary->close();
     delete dictionary;
 }
 
-static void nativeime_NextWordDictionary_load(JNIEnv *env, jclass clazz, jlong dict)
+static jboolean nativeime_NextWordDictionary_load(JNIEnv *env, jclass /* clazz */, jlong dict, jbyteArray storedNextWords)
+{
+    NextWordDictionary *dictionary = (NextWordDictionary*) dict;
+    const jsize length = env->GetArrayLength(storedNextWords);
+    jbyte *data = env->GetByteArrayElements(storedNextWords, NULL);
+    if (data == NULL) return JNI_FALSE;
+    const bool loaded = dictionary->load((const unsigned char*) data, (size_t) length);
+    env->ReleaseByteArrayElements(storedNextWords, data, JNI_ABORT);
+    return loaded ? JNI_TRUE : JNI_FALSE;
+}
+
+static void nativeime_NextWordDictionary_markNextWordAsUsed(JNIEnv *env, jclass /* clazz */, jlong dict, jstring word, jstring nextWord)
 {
     NextWordDictionary *dictionary = (NextWordDictionary*) dict;
-    dictionary->load();
+    const jchar *wordChars = env->GetStringChars(word, NULL);
+    if (wordChars == NULL) return;
+    const jchar *nextWordChars = env->GetStringChars(nextWord, NULL);
+    if (nextWordChars != NULL) {
+        dictionary->markNextWordAsUsed(wordChars, (unsigned int) env->GetStringLength(word),
+                                       nextWordChars, (unsigned int) env->GetStringLength(nextWord));
+        env->ReleaseStringChars(nextWord, nextWordChars);
+    }
+    env->ReleaseStringChars(word, wordChars);
+}
+
+static jint nativeime_NextWordDictionary_getNextWords(JNIEnv *env, jclass /* clazz */, jlong dict, jstring word, jint minWordUsage,
+        jobjectArray nextWords, jintArray usedCounts, jint maxResults)
+{
+    NextWordDictionary *dictionary = (NextWordDictionary*) dict;
+    const jchar *wordChars = env->GetStringChars(word, NULL);
+    if (wordChars == NULL) return WORD_NOT_FOUND;
+    const NextWordsContainer *container = dictionary->getNextWords(wordChars, (unsigned int) env->GetStringLength(word));
+    env->ReleaseStringChars(word, wordChars);
+    if (container == NULL) return WORD_NOT_FOUND;
+
+    jint nextWordsCount = 0;
+    for (unsigned int index = 0; index < container->size() && nextWordsCount < maxResults; index++) {
+        const NextWordEntry &entry = container->get(index);
+        const jint usedCount = (jint) entry.usedCount;
+        if (usedCount < minWordUsage) continue;
+
+        unsigned int nextWordLength;
+        const unsigned short *nextWordChars = dictionary->getWord(entry.nextWordId, &nextWordLength);
+        jstring nextWord = env->NewString(nextWordChars, (jsize) nextWordLength);
+        if (nextWord == NULL) break;
+        env->SetObjectArrayElement(nextWords, nextWordsCount, nextWord);
+        env->DeleteLocalRef(nextWord);
+        env->SetIntArrayRegion(usedCounts, nextWordsCount, 1, &usedCount);
+        nextWordsCount++;
+    }
+    return nextWordsCount;
 }
 
-static void nativeime_NextWordDictionary_clear(JNIEnv *env, jclass clazz, jlong dict)
+static jbyteArray nativeime_NextWordDictionary_serialize(JNIEnv *env, jclass /* clazz */, jlong dict)
+{
+    NextWordDictionary *dictionary = (NextWordDictionary*) dict;
+    size_t length = 0;
+    unsigned char *data = dictionary->serialize(&length);
+    if (data == NULL) {
+        env->ThrowNew(env->FindClass("java/lang/OutOfMemoryError"), "Failed to serialize next-words");
+        return NULL;
+    }
+    jbyteArray serialized = env->NewByteArray((jsize) length);
+    if (serialized != NULL) env->SetByteArrayRegion(serialized, 0, (jsize) length, (const jbyte*) data);
+    free(data);
+    return serialized;
+}
+
+static void nativeime_NextWordDictionary_clear(JNIEnv * /* env */, jclass /* clazz */, jlong dict)
 {
     NextWordDictionary *dictionary = (NextWordDictionary*) dict;
     dictionary->clear();
 }
 
+static jint nativeime_NextWordDictionary_getFirstWordsCount(JNIEnv * /* env */, jclass /* clazz */, jlong dict)
+{
+    NextWordDictionary *dictionary = (NextWordDictionary*) dict;
+    return (jint) dictionary->getFirstWordsCount();
+}
+
+static jint nativeime_NextWordDictionary_getSecondWordsCount(JNIEnv * /* env */, jclass /* clazz */, jlong dict)
+{
+    NextWordDictionary *dictionary = (NextWordDictionary*) dict;
+    return (jint) dictionary->getSecondWordsCount();
+}
+
+static jlong nativeime_NextWordDictionary_getMemorySize(JNIEnv * /* env */, jclass /* clazz */, jlong dict)
+{
+    NextWordDictionary *dictionary = (NextWordDictionary*) dict;
+    return (jlong) dictionary->getMemorySize();
+}
+
+static void nativeime_NextWordDictionary_setMemoryBudget(JNIEnv * /* env */, jclass /* clazz */, jlong dict, jlong memoryBudget)
+{
+    NextWordDictionary *dictionary = (NextWordDictionary*) dict;
+    dictionary->setMemoryBudget((size_t) memoryBudget);
+}
+
+static jint nativeime_NextWordDictionary_getEvictionsCount(JNIEnv * /* env */, jclass /* clazz */, jlong dict)
+{
+    NextWordDictionary *dictionary = (NextWordDictionary*) dict;
+    return (jint) dictionary->getEvictionsCount();
+}
+
 // ----------------------------------------------------------------------------
 
+// the JDK's jni.h declares the name and signature as char*, Android's as const char*
+#define NATIVE_METHOD(name, signature, function) { const_cast<char*>(name), const_cast<char*>(signature), (void*) function }
+
 static JNINativeMethod gMethods[] = {
-    {"openNative",           "(Ljava/lang/String;)J",(void*)nativeime_NextWordDictionary_open},
-    {"closeNative",          "(J)V",                 (void*)nativeime_NextWordDictionary_close},
-    {"loadNative",           "(J)V",                 (void*)nativeime_NextWordDictionary_load},
-    {"clearNative",          "(J)V",                 (void*)nativeime_NextWordDictionary_clear}
+    NATIVE_METHOD("openNative",                  "()J",                                                 nativeime_NextWordDictionary_open),
+    NATIVE_METHOD("closeNative",                 "(J)V",                                                nativeime_NextWordDictionary_close),
+    NATIVE_METHOD("loadNative",                  "(J[B)Z",                                              nativeime_NextWordDictionary_load),
+    NATIVE_METHOD("markNextWordAsUsedNative",    "(JLjava/lang/String;Ljava/lang/String;)V",            nativeime_NextWordDictionary_markNextWordAsUsed),
+    NATIVE_METHOD("getNextWordsNative",          "(JLjava/lang/String;I[Ljava/lang/String;[II)I",       nativeime_NextWordDictionary_getNextWords),
+    NATIVE_METHOD("serializeNative",             "(J)[B",                                               nativeime_NextWordDictionary_serialize),
+    NATIVE_METHOD("clearNative",                 "(J)V",                                                nativeime_NextWordDictionary_clear),
+    NATIVE_METHOD("getFirstWordsCountNative",    "(J)I",                                                nativeime_NextWordDictionary_getFirstWordsCount),
+    NATIVE_METHOD("getSecondWordsCountNative",   "(J)I",                                                nativeime_NextWordDictionary_getSecondWordsCount),
+    NATIVE_METHOD("getMemorySizeNative",         "(J)J",                                                nativeime_NextWordDictionary_getMemorySize),
+    NATIVE_METHOD("setMemoryBudgetNative",       "(JJ)V",                                               nativeime_NextWordDictionary_setMemoryBudget),
+    NATIVE_METHOD("getEvictionsCountNative",     "(J)I",                                                nativeime_NextWordDictionary_getEvictionsCount)
 };
 
 static int registerNativeMethods(JNIEnv* env, const char* className,
@@ -67,43 +170,30 @@ static int registerNativeMethods(JNIEnv* env, const char* className,
     jclass clazz;
 
     clazz = env->FindClass(className);
-    if (clazz == NULL) {
-        fprintf(stderr,
-            "Native registration unable to find class '%s'\n", className);
-        return JNI_FALSE;
-    }
-    if (env->RegisterNatives(clazz, gMethods, numMethods) < 0) {
-        fprintf(stderr, "RegisterNatives failed for '%s'\n", className);
-        return JNI_FALSE;
-    }
+    if (clazz == NULL) return JNI_FALSE;
+    if (env->RegisterNatives(clazz, gMethods, numMethods) < 0) return JNI_FALSE;
 
     return JNI_TRUE;
 }
 
 static int registerNatives(JNIEnv *env)
 {
-    const char* const kClassPathName = "com/anysoftkeyboard/nextword/NextWordDictionary";
+    const char* const kClassPathName = "com/anysoftkeyboard/nextword/NativeNextWordsEngine";
     return registerNativeMethods(env, kClassPathName, gMethods, sizeof(gMethods) / sizeof(gMethods[0]));
 }
 
 /*
- * Returns the JNI version on success, -1 on failure.
+ * Returns the JNI version on success, -1 on failure (which fails System.loadLibrary, and is reported by the Java side).
  */
-jint JNI_OnLoad(JavaVM* vm, void* reserved)
+jint JNI_OnLoad(JavaVM* vm, void* /* reserved */)
 {
     JNIEnv* env = NULL;
     jint result = -1;
 
-    if (vm->GetEnv((void**) &env, JNI_VERSION_1_4) != JNI_OK) {
-        fprintf(stderr, "ERROR: GetEnv failed\n");
-        goto bail;
-    }
+    if (vm->GetEnv((void**) &env, JNI_VERSION_1_4) != JNI_OK) goto bail;
     assert(env != NULL);
 
-    if (!registerNatives(env)) {
-        fprintf(stderr, "ERROR: BinaryDictionary native registration failed\n");
-        goto bail;
-    }
+    if (!registerNatives(env)) goto bail;
 
     /* success -- return valid version number */
     result = JNI_VERSION_1_4;
@@ -63,6 +63,7 @@ import com.anysoftkeyboard.base.dictionaries.Dictionary;
 import com.anysoftkeyboard.base.dictionaries.WordComposer;
 import com.anysoftkeyboard.devicespecific.Clipboard;
 import com.anysoftkeyboard.dictionaries.DictionaryAddOnAndBuilder;
+import com.anysoftkeyboard.dictionaries.DictionaryCache;
 import com.anysoftkeyboard.dictionaries.ExternalDictionaryFactory;
 import com.anysoftkeyboard.dictionaries.Suggest;
 import com.anysoftkeyboard.dictionaries.TextEntryState;
@@ -79,6 +80,7 @@ import com.anysoftkeyboard.keyboards.physical.MyMetaKeyKeyListener;
 import com.anysoftkeyboard.keyboards.views.AnyKeyboardView;
 import com.anysoftkeyboard.keyboards.views.CandidateView;
 import com.anysoftkeyboard.keyboards.views.OnKeyboardActionListener;
+import com.anysoftkeyboard.keyboards.views.RenderConfig;
 import com.anysoftkeyboard.quicktextkeys.QuickTextKey;
 import com.anysoftkeyboard.quicktextkeys.QuickTextKeyFactory;
 import com.anysoftkeyboard.receivers.PackagesChangedReceiver;
@@ -2232,7 +2234,8 @@ public abstract class AnySoftKeyboard extends InputMethodService implements
         setSuggestions(stringList, false, typedWordValid, correctionAvailable);
         if (stringList.size() > 0) {
             if (correctionAvailable && !typedWordValid && stringList.size() > 1) {
-                mWord.setPreferredWord(stringList.get(1));
+                //a copy, since the suggestions are views over Suggest's candidates buffer, which is re-used on the next lookup.
+                mWord.setPreferredWord(stringList.get(1).toString());
             } else {
                 mWord.setPreferredWord(typedWord);
             }
@@ -2338,6 +2341,9 @@ public abstract class AnySoftKeyboard extends InputMethodService implements
             suggestion = suggestion.toString().toUpperCase(getCurrentKeyboard().getLocale());
         } else if (preferCapitalization() || (mKeyboardSwitcher.isAlphabetMode() && mShiftKeyState.isActive())) {
             suggestion = Character.toUpperCase(suggestion.charAt(0)) + suggestion.subSequence(1, suggestion.length()).toString();
+        } else {
+            //suggestions are views over Suggest's candidates buffer, which will be re-used for the next word.
+            suggestion = suggestion.toString();
         }
 
         mWord.setPreferredWord(suggestion);
@@ -2701,6 +2707,7 @@ public abstract class AnySoftKeyboard extends InputMethodService implements
         mSuggest.setCorrectionMode(mQuickFixes, mShowSuggestions,
                 calculatedCommonalityMaxLengthDiff, calculatedCommonalityMaxDistance,
                 sp.getInt(getString(R.string.settings_key_min_length_for_word_correction__), 2));
+        mSuggest.setParallelLookupDeadline(sp.getInt(getString(R.string.settings_key_parallel_lookup_deadline), 0));
 
         mDoNotFlipQuickTextKeyAndPopupFunctionality = sp.getBoolean(
                 getString(R.string.settings_key_do_not_flip_quick_key_codes_functionality),
@@ -2887,6 +2894,7 @@ public abstract class AnySoftKeyboard extends InputMethodService implements
         AnyApplication.requestBackupToCloud();
 
         loadSettings();
+        if (mCandidateView != null) mCandidateView.setRenderConfig(RenderConfig.create(mAskPrefs));
 
         if (key.startsWith(KeyboardAddOnAndBuilder.KEYBOARD_PREF_PREFIX) ||
                 key.startsWith("dictionary_") ||
@@ -2951,6 +2959,7 @@ public abstract class AnySoftKeyboard extends InputMethodService implements
     public void onLowMemory() {
         Log.w(TAG, "The OS has reported that it is low on memory!. I'll try to clear some cache.");
         mKeyboardSwitcher.onLowMemory();
+        DictionaryCache.getInstance().evictIdleDictionaries();
         super.onLowMemory();
     }
 
@@ -16,9 +16,6 @@
 
 package com.anysoftkeyboard.dictionaries;
 
-import android.content.res.Resources;
-import android.content.res.XmlResourceParser;
-import com.anysoftkeyboard.utils.XmlUtils;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -68,24 +65,29 @@ public class AutoText {
     //private Locale mLocale;
     //private int mSize;
 
-    AutoText(Resources resources, int resId) {
+    /**
+     * Reads the words from the parser, which is left open. Does not use Android classes,
+     * so it can be exercised on a plain JVM (see the benchmarks module).
+     */
+    AutoText(XmlPullParser parser) {
         //mLocale = locale;
         //init(resources);
 
-        XmlResourceParser parser = resources.getXml(resId);
-
         StringBuilder right = new StringBuilder(RIGHT);
         mTrie = new char[DEFAULT];
         mTrie[TRIE_ROOT] = TRIE_NULL;
         mTrieUsed = TRIE_ROOT + 1;
 
         try {
-            XmlUtils.beginDocument(parser, "words");
+            nextElement(parser);
+            if (!"words".equals(parser.getName())) {
+                throw new XmlPullParserException("Unexpected start tag: found " + parser.getName() + ", expected words");
+            }
             String odest = "";
             char ooff = 0;
 
             while (true) {
-                XmlUtils.nextElement(parser);
+                nextElement(parser);
 
                 String element = parser.getName();
                 if (element == null || !(element.equals("word"))) {
@@ -112,13 +114,21 @@ public class AutoText {
             throw new RuntimeException(e);
         } catch (IOException e) {
             throw new RuntimeException(e);
-        } finally {
-            parser.close();
         }
 
         mText = right.toString();
     }
 
+    /**
+     * Same as XmlUtils.nextElement, which uses Android classes.
+     */
+    private static void nextElement(XmlPullParser parser) throws XmlPullParserException, IOException {
+        int type;
+        while ((type = parser.next()) != XmlPullParser.START_TAG && type != XmlPullParser.END_DOCUMENT) {
+            ;
+        }
+    }
+
     public String lookup(CharSequence src, final int start, final int end) {
         int here = mTrie[TRIE_ROOT];
 
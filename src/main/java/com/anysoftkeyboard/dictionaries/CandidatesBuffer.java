@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2016 Menny Even-Danan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.anysoftkeyboard.dictionaries;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A fixed-capacity list of suggestion candidates, kept by score (or by arrival order).
+ * All candidates are stored in one char arena, with a fixed-size slot for each candidate,
+ * so adding, inserting and removing candidates does not allocate.
+ * The candidates can be read through a {@link CharSequence} view of each slot. Note that a view
+ * will show a different candidate once the buffer is changed.
+ * <p/>
+ * This class does not use Android classes, so it can be exercised on a plain JVM (see the benchmarks module).
+ */
+final class CandidatesBuffer {
+    /**
+     * Longer dictionary words are ignored.
+     */
+    static final int MAX_CANDIDATE_LENGTH = 48;
+
+    private final int mCapacity;
+    private final int mRankLimit;
+    private final boolean mKeepArrivalOrder;
+    private final char[] mArena;
+    //the arena slot of each candidate, by rank. Slots at mCount and above are free.
+    private final int[] mSlots;
+    //by rank
+    private final int[] mScores;
+    //by arena slot
+    private final int[] mLengths;
+    //by arena slot. Texts which are too long for the arena are referenced, rather than copied.
+    private final CharSequence[] mExternalTexts;
+    private int mCount;
+
+    private CandidateText[] mTexts;
+    private List<CharSequence> mList;
+
+    CandidatesBuffer(int capacity, boolean keepArrivalOrder) {
+        this(capacity, capacity, keepArrivalOrder);
+    }
+
+    /**
+     * @param rankLimit how many candidates {@link #add(char[], int, int, int, boolean)} keeps. The rest of
+     *                  the capacity is left for {@link #insert(int, CharSequence)}.
+     */
+    CandidatesBuffer(int capacity, int rankLimit, boolean keepArrivalOrder) {
+        mCapacity = capacity;
+        mRankLimit = Math.min(capacity, rankLimit);
+        mKeepArrivalOrder = keepArrivalOrder;
+        mArena = new char[capacity * MAX_CANDIDATE_LENGTH];
+        mSlots = new int[capacity];
+        for (int slot = 0; slot < capacity; slot++) {
+            mSlots[slot] = slot;
+        }
+        mScores = new int[capacity];
+        mLengths = new int[capacity];
+        mExternalTexts = new CharSequence[capacity];
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    void clear() {
+        for (int rank = 0; rank < mCount; rank++) {
+            mExternalTexts[mSlots[rank]] = null;
+        }
+        mCount = 0;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    char[] getChars() {
+        return mArena;
+    }
+
+    /**
+     * The offset of the candidate in {@link #getChars()}. Only valid for candidates which were
+     * added with {@link #add(char[], int, int, int, boolean)}.
+     */
+    int getOffset(int rank) {
+        return mSlots[rank] * MAX_CANDIDATE_LENGTH;
+    }
+
+    int getLength(int rank) {
+        return mLengths[mSlots[rank]];
+    }
+
+    int getScore(int rank) {
+        return mScores[rank];
+    }
+
+    /**
+     * Adds a candidate, using the same ordering rules as the suggestions list: by score, then
+     * shorter words first, then by arrival. A first-place candidate goes to the top regardless of
+     * its score.
+     *
+     * @return the rank the candidate was added at, or -1 if it was not kept.
+     */
+    int add(char[] word, int offset, int length, int score, boolean firstPlace) {
+        if (length <= 0 || length > MAX_CANDIDATE_LENGTH) return -1;
+
+        int pos;
+        if (mKeepArrivalOrder) {
+            if (mCount >= mRankLimit) return -1;
+            pos = mCount;
+        } else if (firstPlace) {
+            pos = 0;
+        } else {
+            if (mCount >= mRankLimit && mScores[mRankLimit - 1] >= score) return -1;
+            pos = 0;
+            while (pos < mCount) {
+                if (mScores[pos] < score || (mScores[pos] == score && length < getLength(pos))) {
+                    break;
+                }
+                pos++;
+            }
+            if (pos >= mRankLimit) return -1;
+        }
+
+        final int slot = takeSlot(pos, mCount >= mRankLimit);
+        mScores[pos] = score;
+        mLengths[slot] = length;
+        mExternalTexts[slot] = null;
+        System.arraycopy(word, offset, mArena, slot * MAX_CANDIDATE_LENGTH, length);
+        return pos;
+    }
+
+    /**
+     * Inserts the text at the given rank, regardless of scores. If the buffer is full, the last
+     * candidate is dropped.
+     */
+    void insert(int rank, CharSequence text) {
+        if (rank >= mCapacity) return;
+        final int slot = takeSlot(rank, mCount == mCapacity);
+        mScores[rank] = 0;
+        setText(slot, text);
+    }
+
+    /**
+     * Replaces the text of the candidate at the given rank, keeping its rank and score.
+     */
+    void set(int rank, CharSequence text) {
+        setText(mSlots[rank], text);
+    }
+
+    private void setText(int slot, CharSequence text) {
+        final int length = text.length();
+        mLengths[slot] = length;
+        if (length > MAX_CANDIDATE_LENGTH) {
+            mExternalTexts[slot] = text.toString();
+        } else {
+            mExternalTexts[slot] = null;
+            final int offset = slot * MAX_CANDIDATE_LENGTH;
+            for (int charIndex = 0; charIndex < length; charIndex++) {
+                mArena[offset + charIndex] = text.charAt(charIndex);
+            }
+        }
+    }
+
+    void remove(int rank) {
+        final int slot = mSlots[rank];
+        mExternalTexts[slot] = null;
+        System.arraycopy(mSlots, rank + 1, mSlots, rank, mCount - rank - 1);
+        System.arraycopy(mScores, rank + 1, mScores, rank, mCount - rank - 1);
+        mCount--;
+        mSlots[mCount] = slot;
+    }
+
+    private int takeSlot(int rank, boolean dropLast) {
+        final int slot;
+        if (dropLast) {
+            //dropping the last candidate, and re-using its slot
+            slot = mSlots[mCount - 1];
+            mExternalTexts[slot] = null;
+        } else {
+            slot = mSlots[mCount];
+            mCount++;
+        }
+        System.arraycopy(mSlots, rank, mSlots, rank + 1, mCount - rank - 1);
+        System.arraycopy(mScores, rank, mScores, rank + 1, mCount - rank - 1);
+        mSlots[rank] = slot;
+        return slot;
+    }
+
+    /**
+     * @return a read-only view of the candidates, by rank.
+     */
+    List<CharSequence> asList() {
+        if (mList == null) {
+            mTexts = new CandidateText[mCapacity];
+            for (int slot = 0; slot < mCapacity; slot++) {
+                mTexts[slot] = new CandidateText(slot);
+            }
+            mList = new CandidatesList();
+        }
+        return mList;
+    }
+
+    private class CandidatesList extends AbstractList<CharSequence> implements RandomAccess {
+        @Override
+        public CharSequence get(int rank) {
+            if (rank < 0 || rank >= mCount) throw new IndexOutOfBoundsException("No candidate at " + rank);
+            return mTexts[mSlots[rank]];
+        }
+
+        @Override
+        public int size() {
+            return mCount;
+        }
+    }
+
+    private class CandidateText implements CharSequence {
+        private final int mSlot;
+
+        CandidateText(int slot) {
+            mSlot = slot;
+        }
+
+        @Override
+        public int length() {
+            return mLengths[mSlot];
+        }
+
+        @Override
+        public char charAt(int index) {
+            final CharSequence externalText = mExternalTexts[mSlot];
+            if (externalText != null) return externalText.charAt(index);
+            return mArena[mSlot * MAX_CANDIDATE_LENGTH + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            final CharSequence externalText = mExternalTexts[mSlot];
+            if (externalText != null) return externalText.toString();
+            return new String(mArena, mSlot * MAX_CANDIDATE_LENGTH, mLengths[mSlot]);
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.anysoftkeyboard.dictionaries;
 
 import android.content.Context;
+import android.content.res.XmlResourceParser;
 import com.anysoftkeyboard.addons.AddOnImpl;
 import com.anysoftkeyboard.base.dictionaries.Dictionary;
 import com.anysoftkeyboard.dictionaries.jni.BinaryDictionary;
@@ -81,11 +82,14 @@ public class DictionaryAddOnAndBuilder extends AddOnImpl {
         if (mAutoTextResId == INVALID_RES_ID) {
             return null;
         } else {
+            XmlResourceParser parser = getPackageContext().getResources().getXml(mAutoTextResId);
             try {
-                return new AutoText(getPackageContext().getResources(), mAutoTextResId);
+                return new AutoText(parser);
             } catch (OutOfMemoryError e) {
                 Log.i(TAG, "Failed to create the AutoText dictionary.");
                 return null;
+            } finally {
+                parser.close();
             }
         }
     }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016 Menny Even-Danan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.anysoftkeyboard.dictionaries;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.util.ArrayMap;
+import android.support.v4.util.LruCache;
+
+import com.anysoftkeyboard.base.dictionaries.Dictionary;
+import com.anysoftkeyboard.dictionaries.jni.ResourceBinaryDictionary;
+import com.anysoftkeyboard.utils.Log;
+
+import java.util.Map;
+
+/**
+ * A process-wide registry of loaded dictionaries.
+ * Dictionaries are reference-counted while in use, and when released they are kept
+ * (up to a memory budget) so switching back to a recently used language does not reload them.
+ * Idle dictionaries are limited by two budgets: one for the Java heap, and one for the native memory
+ * binary dictionaries copy their words to. Mapped binary dictionaries are not counted in the latter,
+ * since the system can drop their pages.
+ */
+public class DictionaryCache {
+    private static final String TAG = "ASK DictCache";
+
+    /**
+     * Used for dictionaries that can not tell their size.
+     */
+    private static final int DEFAULT_DICTIONARY_SIZE = 256 * 1024;
+    /**
+     * The Java side of a binary dictionary is only its suggestions buffers, its words are mapped or native.
+     */
+    private static final int BINARY_DICTIONARY_HEAP_SIZE = 16 * 1024;
+    /**
+     * A couple of large binary dictionaries, which had to be copied since their resources are compressed.
+     */
+    private static final long NATIVE_MEMORY_BUDGET = 16 * 1024 * 1024;
+
+    private static final DictionaryCache msInstance = new DictionaryCache(Runtime.getRuntime().maxMemory() / 8, NATIVE_MEMORY_BUDGET);
+
+    public static DictionaryCache getInstance() {
+        return msInstance;
+    }
+
+    public interface DictionaryCreator {
+        @NonNull
+        Dictionary createDictionary() throws Exception;
+    }
+
+    private static class SharedDictionary {
+        final Dictionary dictionary;
+        int references;
+
+        SharedDictionary(Dictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+    }
+
+    private final ArrayMap<String, SharedDictionary> mInUseDictionaries = new ArrayMap<>();
+    private final LruCache<String, Dictionary> mIdleDictionaries;
+    private final long mNativeMemoryBudget;
+    //the native memory of each idle dictionary, as it was when it became idle
+    private final ArrayMap<String, Integer> mIdleNativeSizes = new ArrayMap<>();
+    private long mIdleNativeSize = 0;
+
+    @VisibleForTesting
+    DictionaryCache(long heapBudget, long nativeMemoryBudget) {
+        final int maxSize = (int) Math.min(Integer.MAX_VALUE, Math.max(DEFAULT_DICTIONARY_SIZE, heapBudget));
+        mNativeMemoryBudget = nativeMemoryBudget;
+        mIdleDictionaries = new LruCache<String, Dictionary>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Dictionary dictionary) {
+                return getHeapSize(dictionary);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Dictionary oldDictionary, Dictionary newDictionary) {
+                final Integer nativeSize = mIdleNativeSizes.remove(key);
+                if (nativeSize != null) mIdleNativeSize -= nativeSize;
+                //removing an idle dictionary to use it again, should not close it
+                if (evicted || (newDictionary != null && newDictionary != oldDictionary)) {
+                    Log.d(TAG, "Closing idle dictionary %s", key);
+                    oldDictionary.close();
+                }
+            }
+        };
+    }
+
+    @VisibleForTesting
+    int getHeapSize(Dictionary dictionary) {
+        return dictionary instanceof ResourceBinaryDictionary ? BINARY_DICTIONARY_HEAP_SIZE : DEFAULT_DICTIONARY_SIZE;
+    }
+
+    @VisibleForTesting
+    int getNativeSize(Dictionary dictionary) {
+        return dictionary instanceof ResourceBinaryDictionary ? ((ResourceBinaryDictionary) dictionary).getCopiedSize() : 0;
+    }
+
+    /**
+     * Returns the dictionary registered under the given key, creating (and loading) it if needed.
+     * Each call should be matched by a call to {@link #release(Dictionary)}.
+     */
+    @NonNull
+    public synchronized Dictionary acquire(@NonNull String key, @NonNull DictionaryCreator creator) throws Exception {
+        SharedDictionary shared = mInUseDictionaries.get(key);
+        if (shared == null || shared.dictionary.isClosed()) {
+            Dictionary dictionary = mIdleDictionaries.remove(key);
+            if (dictionary == null || dictionary.isClosed()) {
+                Log.d(TAG, "Creating dictionary for %s", key);
+                dictionary = creator.createDictionary();
+                DictionaryASyncLoader loader = new DictionaryASyncLoader(null);
+                loader.execute(dictionary);
+            } else {
+                Log.d(TAG, "Reusing idle dictionary for %s", key);
+            }
+            shared = new SharedDictionary(dictionary);
+            mInUseDictionaries.put(key, shared);
+        }
+        shared.references++;
+        return shared.dictionary;
+    }
+
+    /**
+     * Marks one usage of the given dictionary as done. When no one uses the dictionary, it is kept
+     * in the idle cache until it is evicted.
+     */
+    public synchronized void release(@Nullable Dictionary dictionary) {
+        if (dictionary == null) return;
+        for (int sharedIndex = 0; sharedIndex < mInUseDictionaries.size(); sharedIndex++) {
+            SharedDictionary shared = mInUseDictionaries.valueAt(sharedIndex);
+            if (shared.dictionary == dictionary) {
+                shared.references--;
+                if (shared.references <= 0) {
+                    final String key = mInUseDictionaries.keyAt(sharedIndex);
+                    mInUseDictionaries.removeAt(sharedIndex);
+                    if (!dictionary.isClosed()) addIdleDictionary(key, dictionary);
+                }
+                return;
+            }
+        }
+        //not a shared dictionary
+        dictionary.close();
+    }
+
+    private void addIdleDictionary(String key, Dictionary dictionary) {
+        mIdleDictionaries.put(key, dictionary);
+        //it might have been evicted right away
+        if (mIdleDictionaries.get(key) != dictionary) return;
+        final int nativeSize = getNativeSize(dictionary);
+        if (nativeSize <= 0) return;
+        mIdleNativeSizes.put(key, nativeSize);
+        mIdleNativeSize += nativeSize;
+        while (mIdleNativeSize > mNativeMemoryBudget) {
+            //the snapshot is ordered from the least recently used
+            String evictedKey = null;
+            for (Map.Entry<String, Dictionary> idleDictionary : mIdleDictionaries.snapshot().entrySet()) {
+                if (mIdleNativeSizes.containsKey(idleDictionary.getKey())) {
+                    evictedKey = idleDictionary.getKey();
+                    break;
+                }
+            }
+            if (evictedKey == null) return;
+            Log.d(TAG, "Closing idle dictionary %s, over the native memory budget", evictedKey);
+            mIdleDictionaries.remove(evictedKey).close();
+        }
+    }
+
+    /**
+     * Closes all dictionaries which are not in use.
+     */
+    public synchronized void evictIdleDictionaries() {
+        mIdleDictionaries.evictAll();
+    }
+}
@@ -17,6 +17,8 @@
 package com.anysoftkeyboard.dictionaries;
 
 import android.database.ContentObserver;
+import android.net.Uri;
+import android.support.annotation.Nullable;
 
 import com.anysoftkeyboard.IndirectlyInstantiated;
 import com.anysoftkeyboard.utils.Log;
@@ -49,6 +51,14 @@ public class DictionaryContentObserver extends ContentObserver {
 
     @Override
     public void onChange(boolean self) {
+        onStorageChanged(self, null);
+    }
+
+    /**
+     * @param changedUri the URI of the changed row, if the provider reported it. When null,
+     *                   the dictionary will look for changes in all of its storage.
+     */
+    protected void onStorageChanged(boolean self, @Nullable Uri changedUri) {
         BTreeDictionary dictionary = mDictionary.get();
         if (dictionary == null) return;
         if (self) {
@@ -56,6 +66,6 @@ public class DictionaryContentObserver extends ContentObserver {
             return;
         }
 
-        dictionary.onStorageChanged();
+        dictionary.onStorageChanged(changedUri);
     }
 }
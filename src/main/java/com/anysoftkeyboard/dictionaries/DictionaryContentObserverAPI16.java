@@ -28,6 +28,7 @@ public class DictionaryContentObserverAPI16 extends DictionaryContentObserver {
 
     @Override
     public void onChange(boolean selfChange, Uri uri) {
-        super.onChange(selfChange);
+        //since API16 we know which row was changed, so the dictionary can sync only that row
+        onStorageChanged(selfChange, uri);
     }
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2016 Menny Even-Danan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.anysoftkeyboard.dictionaries;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.anysoftkeyboard.base.dictionaries.Dictionary;
+import com.anysoftkeyboard.base.dictionaries.WordComposer;
+import com.anysoftkeyboard.utils.Log;
+
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries several dictionaries for the same typed word concurrently, on a small worker pool.
+ * Each source reports into its own {@link CandidatesBuffer}, and looks up its own copy of the typed word.
+ * A source which did not finish by the lookup's deadline is dropped for that lookup.
+ * <p/>
+ * Dictionaries are not thread-safe: while a worker still uses a dictionary, it is not handed to
+ * another lookup, and the caller should {@link #waitForDictionary(Dictionary)} before using it.
+ */
+class ParallelWordsLookup {
+    private static final String TAG = "ASK ParallelLookup";
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final SourceLookup[] mSources;
+    private final Object mPendingLock = new Object();
+    private int mPendingLookups;
+    private int mGeneration;
+
+    ParallelWordsLookup(int sourcesCount) {
+        mSources = new SourceLookup[sourcesCount];
+        for (int sourceIndex = 0; sourceIndex < sourcesCount; sourceIndex++) {
+            mSources[sourceIndex] = new SourceLookup();
+        }
+        //no core threads: the workers will go away when the user is not typing.
+        mExecutor = new ThreadPoolExecutor(0, sourcesCount, WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            private int mWorkersCount = 0;
+
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                mWorkersCount++;
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                        runnable.run();
+                    }
+                }, "ParallelWordsLookup-" + mWorkersCount);
+            }
+        });
+    }
+
+    /**
+     * Starts a new lookup. Sources which are still busy with a previous lookup are not waited for.
+     */
+    void beginLookup() {
+        synchronized (mPendingLock) {
+            mGeneration++;
+            mPendingLookups = 0;
+        }
+    }
+
+    /**
+     * Starts looking up the typed word in the given dictionary.
+     *
+     * @param capacity         how many candidates to keep for this source
+     * @param keepArrivalOrder keep the candidates in the order the dictionary reported them, rather than by score
+     * @param lowerTypedWord   the typed word, in lower-case. A candidate matching it is always kept.
+     * @param deadline         uptime (in milliseconds) after which the dictionary is asked to stop
+     */
+    void startLookup(int sourceIndex, @Nullable Dictionary dictionary, WordComposer composer, int capacity, boolean keepArrivalOrder, CharSequence lowerTypedWord, Locale locale, long deadline) {
+        final SourceLookup source = mSources[sourceIndex];
+        synchronized (mPendingLock) {
+            if (source.mRunning) {
+                Log.d(TAG, "Source %d is still busy with a previous lookup in %s. Skipping it.", sourceIndex, source.mDictionary);
+                source.mCompleted = false;
+                return;
+            }
+            source.mCompleted = false;
+            source.mDictionary = null;
+            if (dictionary == null) return;
+            if (isBusyLocked(dictionary)) {
+                Log.d(TAG, "Dictionary %s is still busy with a previous lookup. Skipping it.", dictionary);
+                return;
+            }
+            source.mDictionary = dictionary;
+            source.mRunning = true;
+            source.mGeneration = mGeneration;
+            mPendingLookups++;
+        }
+
+        if (source.mCandidates == null || source.mCandidates.getCapacity() != capacity) {
+            source.mCandidates = new CandidatesBuffer(capacity, keepArrivalOrder);
+        } else {
+            source.mCandidates.clear();
+        }
+        //the worker keeps its own copies, since the caller keeps changing its word while the worker may still run.
+        source.mComposer.copyFrom(composer);
+        source.mLowerTypedWord.setLength(0);
+        source.mLowerTypedWord.append(lowerTypedWord);
+        source.mLocale = locale;
+        source.mDeadline = deadline;
+        try {
+            mExecutor.execute(source);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Could not start a lookup for %s.", dictionary);
+            onLookupFinished(source, false);
+        }
+    }
+
+    /**
+     * Blocks until all started lookups are done, or the deadline has passed.
+     */
+    void waitForLookups(long deadline) {
+        synchronized (mPendingLock) {
+            long timeLeft = deadline - SystemClock.uptimeMillis();
+            while (mPendingLookups > 0 && timeLeft > 0) {
+                try {
+                    mPendingLock.wait(timeLeft);
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while waiting for lookups.");
+                    return;
+                }
+                timeLeft = deadline - SystemClock.uptimeMillis();
+            }
+            if (mPendingLookups > 0) {
+                Log.d(TAG, "%d dictionaries did not finish in time.", mPendingLookups);
+            }
+        }
+    }
+
+    /**
+     * Blocks until no worker uses the given dictionary, so it can be used (or changed) by the caller.
+     * Workers which missed their deadline may still be using their dictionary.
+     */
+    void waitForDictionary(@Nullable Dictionary dictionary) {
+        if (dictionary == null) return;
+        boolean interrupted = false;
+        synchronized (mPendingLock) {
+            while (isBusyLocked(dictionary)) {
+                try {
+                    mPendingLock.wait();
+                } catch (InterruptedException e) {
+                    //the dictionary can not be used before the worker is done with it, so we keep waiting.
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * @return true if a worker still uses the given dictionary.
+     */
+    boolean isBusy(@Nullable Dictionary dictionary) {
+        if (dictionary == null) return false;
+        synchronized (mPendingLock) {
+            return isBusyLocked(dictionary);
+        }
+    }
+
+    /**
+     * Should be called while holding mPendingLock.
+     */
+    private boolean isBusyLocked(@NonNull Dictionary dictionary) {
+        for (SourceLookup source : mSources) {
+            if (source.mRunning && source.mDictionary == dictionary) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the candidates the source reported in this lookup, or null if it did not complete in time.
+     */
+    @Nullable
+    CandidatesBuffer getCandidates(int sourceIndex) {
+        final SourceLookup source = mSources[sourceIndex];
+        return source.mCompleted ? source.mCandidates : null;
+    }
+
+    private void onLookupFinished(SourceLookup source, boolean completed) {
+        synchronized (mPendingLock) {
+            source.mCompleted = completed;
+            source.mRunning = false;
+            if (source.mGeneration == mGeneration) {
+                mPendingLookups--;
+            }
+            //waking up the lookup, and anyone waiting for this source's dictionary
+            mPendingLock.notifyAll();
+        }
+    }
+
+    private class SourceLookup implements Runnable, Dictionary.WordCallback {
+        //guarded by mPendingLock
+        private boolean mRunning;
+        private volatile boolean mCompleted;
+        private Dictionary mDictionary;
+        private CandidatesBuffer mCandidates;
+        private final WordComposer mComposer = new WordComposer();
+        private final StringBuilder mLowerTypedWord = new StringBuilder(CandidatesBuffer.MAX_CANDIDATE_LENGTH);
+        private Locale mLocale;
+        private long mDeadline;
+        private int mGeneration;
+
+        @Override
+        public void run() {
+            boolean completed = false;
+            try {
+                mDictionary.getWords(mComposer, this);
+                completed = SystemClock.uptimeMillis() <= mDeadline;
+            } finally {
+                onLookupFinished(this, completed);
+            }
+        }
+
+        @Override
+        public boolean addWord(char[] word, int wordOffset, int wordLength, int frequency, Dictionary from) {
+            if (SystemClock.uptimeMillis() > mDeadline) return false;
+            mCandidates.add(word, wordOffset, wordLength, frequency,
+                    Suggest.compareCaseInsensitive(mLowerTypedWord, word, wordOffset, wordLength, mLocale));
+            return true;
+        }
+    }
+}
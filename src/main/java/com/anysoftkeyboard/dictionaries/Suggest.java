@@ -17,12 +17,14 @@
 package com.anysoftkeyboard.dictionaries;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import com.anysoftkeyboard.base.dictionaries.Dictionary;
 import com.anysoftkeyboard.base.dictionaries.WordComposer;
+import com.anysoftkeyboard.dictionaries.jni.ResourceBinaryDictionary;
 import com.anysoftkeyboard.dictionaries.sqlite.AbbreviationsDictionary;
 import com.anysoftkeyboard.base.utils.CompatUtils;
 import com.anysoftkeyboard.utils.IMEUtil;
@@ -30,7 +32,6 @@ import com.anysoftkeyboard.utils.Log;
 import com.menny.android.anysoftkeyboard.BuildConfig;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
@@ -42,6 +43,18 @@ import java.util.Locale;
 public class Suggest implements Dictionary.WordCallback {
     private static final String TAG = "ASK Suggest";
 
+    /**
+     * How many bigram-frequency points a single usage of a learned next-word is worth, when
+     * learned next-words are merged with the main dictionary's bigram continuations.
+     */
+    private static final int LEARNED_NEXT_WORD_USAGE_SCORE = 16;
+
+    private static final int SOURCE_CONTACTS = 0;
+    private static final int SOURCE_USER = 1;
+    private static final int SOURCE_MAIN = 2;
+    private static final int SOURCE_ABBREVIATIONS = 3;
+    private static final int SOURCES_COUNT = 4;
+
     private Dictionary mMainDict;
     @NonNull
     private Locale mLocale = Locale.getDefault();
@@ -64,16 +77,19 @@ public class Suggest implements Dictionary.WordCallback {
     @Nullable
     private List<String> mLocaleSpecificPunctuations = null;
 
-    private int[] mPriorities = new int[mPrefMaxSuggestions];
-    private final List<CharSequence> mSuggestions = new ArrayList<>();
+    //room for the top dictionary words, and the typed, next, exploded and auto-text words inserted at the top
+    private CandidatesBuffer mCandidates = createCandidatesBuffer(mPrefMaxSuggestions);
     private final List<CharSequence> mNextSuggestions = new ArrayList<>();
+    private int[] mNextSuggestionsScores = new int[mPrefMaxSuggestions];
     // private boolean mIncludeTypedWordIfValid;
-    private List<CharSequence> mStringPool = new ArrayList<>();
     // private Context mContext;
     private boolean mHaveCorrection;
     private CharSequence mOriginalWord;
-    private final List<String> mExplodedAbbreviations = new ArrayList<>();
-    private String mLowerOriginalWord;
+    private CandidatesBuffer mExplodedAbbreviations = new CandidatesBuffer(mPrefMaxSuggestions, true);
+    //the main dictionary's continuations of the previous word, which are in mNextSuggestions as views
+    private CandidatesBuffer mBigramContinuations = new CandidatesBuffer(mPrefMaxSuggestions, true);
+    private final StringBuilder mLowerOriginalWord = new StringBuilder(CandidatesBuffer.MAX_CANDIDATE_LENGTH);
+    private final int[] mEditDistanceRows = new int[3 * (CandidatesBuffer.MAX_CANDIDATE_LENGTH + 1)];
 
     // TODO: Remove these member variables by passing more context to addWord()
     // callback method
@@ -86,6 +102,10 @@ public class Suggest implements Dictionary.WordCallback {
 
     private int mCommonalityMaxLengthDiff = 1;
     private int mCommonalityMaxDistance = 1;
+
+    @Nullable
+    private ParallelWordsLookup mParallelLookup;
+    private int mParallelLookupDeadline;
     private final DictionaryASyncLoader.Listener mContactsDictionaryListener = new DictionaryASyncLoader.Listener() {
         @Override
         public void onDictionaryLoadingDone(Dictionary dictionary) {}
@@ -98,12 +118,40 @@ public class Suggest implements Dictionary.WordCallback {
         }
     };
 
+    private final Dictionary.WordCallback mBigramsCallback = new Dictionary.WordCallback() {
+        @Override
+        public boolean addWord(char[] word, int wordOffset, int wordLength, int frequency, Dictionary from) {
+            final List<CharSequence> nextSuggestions = mNextSuggestions;
+            final int[] scores = mNextSuggestionsScores;
+            final int count = nextSuggestions.size();
+            //continuations are reported by descending frequency, so once one does not fit, none will.
+            if (count == mPrefMaxSuggestions && scores[count - 1] >= frequency) return false;
+
+            for (int suggestionIndex = 0; suggestionIndex < count; suggestionIndex++) {
+                if (same(nextSuggestions.get(suggestionIndex), word, wordOffset, wordLength))
+                    return true;
+            }
+            if (wordLength > CandidatesBuffer.MAX_CANDIDATE_LENGTH) return true;
+            //a continuation only pushes out learned words, so no more than mPrefMaxSuggestions are kept.
+            final int rank = mBigramContinuations.add(word, wordOffset, wordLength, frequency, false);
+            if (rank < 0) return false;
+
+            int pos = count;
+            while (pos > 0 && scores[pos - 1] < frequency) pos--;
+            if (count == mPrefMaxSuggestions) nextSuggestions.remove(count - 1);
+            System.arraycopy(scores, pos, scores, pos + 1, nextSuggestions.size() - pos);
+            scores[pos] = frequency;
+            nextSuggestions.add(pos, mBigramContinuations.asList().get(rank));
+            return true;
+        }
+    };
+
     public Suggest(Context context) {
         mDictionaryFactory = createDictionaryFactory();
-        for (int i = 0; i < mPrefMaxSuggestions; i++) {
-            StringBuilder sb = new StringBuilder(32);
-            mStringPool.add(sb);
-        }
+    }
+
+    private static CandidatesBuffer createCandidatesBuffer(int maxSuggestions) {
+        return new CandidatesBuffer(3 * maxSuggestions + 2, maxSuggestions, false);
     }
 
     @NonNull
@@ -120,23 +168,44 @@ public class Suggest implements Dictionary.WordCallback {
         mCommonalityMaxDistance = maxDistance;
     }
 
+    /**
+     * Sets how long (in milliseconds) to wait for the dictionaries on each keystroke, when they
+     * are queried concurrently. A dictionary which is slower than that is dropped for that
+     * keystroke. Zero (or less) queries the dictionaries one after the other, and waits for all.
+     */
+    public void setParallelLookupDeadline(int deadline) {
+        mParallelLookupDeadline = deadline;
+        if (deadline > 0 && mParallelLookup == null) {
+            mParallelLookup = new ParallelWordsLookup(SOURCES_COUNT);
+        }
+    }
+
     /**
      * Sets an optional user dictionary resource to be loaded. The user
      * dictionary is consulted before the main dictionary, if set.
      */
     public void setUserDictionary(Dictionary userDictionary) {
-        if (mUserDictionary != userDictionary && mUserDictionary != null)
+        if (mUserDictionary != userDictionary && mUserDictionary != null) {
+            waitForLookupOf(mUserDictionary);
             mUserDictionary.close();
+        }
 
         mUserDictionary = (UserDictionary) userDictionary;
     }
 
     public void closeDictionaries() {
         Log.d(TAG, "closeDictionaries");
-        if (mMainDict != null) mMainDict.close();
+        waitForLookupOf(mMainDict);
+        waitForLookupOf(mAbbreviationDictionary);
+        waitForLookupOf(mContactsDictionary);
+        waitForLookupOf(mUserDictionary);
+        final DictionaryCache dictionaryCache = DictionaryCache.getInstance();
+        dictionaryCache.release(mMainDict);
         mMainDict = null;
-        if (mAbbreviationDictionary != null) mAbbreviationDictionary.close();
+        dictionaryCache.release(mAbbreviationDictionary);
         mAbbreviationDictionary = null;
+        //no dictionary is needed until the keyboard is used again, so the idle ones are not kept either.
+        dictionaryCache.evictIdleDictionaries();
         if (mAutoDictionary != null) mAutoDictionary.close();
         mAutoDictionary = null;
         if (mContactsDictionary != null) mContactsDictionary.close();
@@ -145,41 +214,52 @@ public class Suggest implements Dictionary.WordCallback {
         mUserDictionary = null;
     }
 
-    public void setMainDictionary(Context askContext, @Nullable DictionaryAddOnAndBuilder dictionaryBuilder) {
+    public void setMainDictionary(final Context askContext, @Nullable final DictionaryAddOnAndBuilder dictionaryBuilder) {
         Log.d(TAG, "Suggest: Got main dictionary! Type: " + ((dictionaryBuilder == null) ? "NULL" : dictionaryBuilder.getName()));
-        if (mMainDict != null) {
-            mMainDict.close();
-            mMainDict = null;
-        }
+        //the new dictionaries are acquired before the old ones are released, so a shared dictionary is not closed and re-created.
+        final Dictionary previousMainDictionary = mMainDict;
+        final Dictionary previousAbbreviationDictionary = mAbbreviationDictionary;
+        mMainDict = null;
+        mAbbreviationDictionary = null;
         mLocale = CompatUtils.getLocaleForLanguageTag(dictionaryBuilder == null ? null : dictionaryBuilder.getLanguage());
 
-        if (mAbbreviationDictionary != null) {
-            mAbbreviationDictionary.close();
-            mAbbreviationDictionary = null;
-        }
-
         if (dictionaryBuilder == null) {
-            mMainDict = null;
             mAutoText = null;
-            mAbbreviationDictionary = null;
             mLocaleSpecificPunctuations = null;
         } else {
+            final DictionaryCache dictionaryCache = DictionaryCache.getInstance();
+            final String language = dictionaryBuilder.getLanguage();
             try {
-                System.gc();
-
-                mMainDict = dictionaryBuilder.createDictionary();
-                DictionaryASyncLoader loader = new DictionaryASyncLoader(null);
-                loader.execute(mMainDict);
+                mMainDict = dictionaryCache.acquire(dictionaryBuilder.getId() + ":" + language, new DictionaryCache.DictionaryCreator() {
+                    @NonNull
+                    @Override
+                    public Dictionary createDictionary() throws Exception {
+                        return dictionaryBuilder.createDictionary();
+                    }
+                });
             } catch (Exception e) {
                 e.printStackTrace();
             }
             mAutoText = dictionaryBuilder.createAutoText();
             mLocaleSpecificPunctuations = dictionaryBuilder.createInitialSuggestions();
 
-            mAbbreviationDictionary = new AbbreviationsDictionary(askContext, dictionaryBuilder.getLanguage());
-            DictionaryASyncLoader loader = new DictionaryASyncLoader(null);
-            loader.execute(mAbbreviationDictionary);
+            try {
+                mAbbreviationDictionary = dictionaryCache.acquire("abbreviations:" + language, new DictionaryCache.DictionaryCreator() {
+                    @NonNull
+                    @Override
+                    public Dictionary createDictionary() {
+                        return new AbbreviationsDictionary(askContext, language);
+                    }
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
+
+        waitForLookupOf(previousMainDictionary);
+        waitForLookupOf(previousAbbreviationDictionary);
+        DictionaryCache.getInstance().release(previousMainDictionary);
+        DictionaryCache.getInstance().release(previousAbbreviationDictionary);
     }
 
     /**
@@ -189,6 +269,7 @@ public class Suggest implements Dictionary.WordCallback {
         if (!enabled && mContactsDictionary != null) {
             // had one, but now config says it should be off
             Log.i(TAG, "Contacts dictionary has been disabled! Closing resources.");
+            waitForLookupOf(mContactsDictionary);
             mContactsDictionary.close();
             mContactsDictionary = null;
         } else if (enabled && mContactsDictionary == null) {
@@ -219,21 +300,20 @@ public class Suggest implements Dictionary.WordCallback {
                     "maxSuggestions must be between 1 and 100");
         }
         mPrefMaxSuggestions = maxSuggestions;
-        mPriorities = new int[mPrefMaxSuggestions];
-        collectGarbage();
-        while (mStringPool.size() < mPrefMaxSuggestions) {
-            StringBuilder sb = new StringBuilder(32);
-            mStringPool.add(sb);
-        }
+        mCandidates = createCandidatesBuffer(mPrefMaxSuggestions);
+        mExplodedAbbreviations = new CandidatesBuffer(mPrefMaxSuggestions, true);
+        mBigramContinuations = new CandidatesBuffer(mPrefMaxSuggestions, true);
+        mNextSuggestionsScores = new int[mPrefMaxSuggestions];
     }
 
-    private boolean haveSufficientCommonality(String typedWord, CharSequence toBeAutoPickedSuggestion) {
+    private boolean haveSufficientCommonality(CharSequence typedWord, CharSequence toBeAutoPickedSuggestion) {
         final int originalLength = typedWord.length();
         final int suggestionLength = toBeAutoPickedSuggestion.length();
         final int lengthDiff = suggestionLength - originalLength;
 
         return lengthDiff <= mCommonalityMaxLengthDiff &&
-                IMEUtil.editDistance(typedWord, toBeAutoPickedSuggestion) <= mCommonalityMaxDistance;
+                suggestionLength <= CandidatesBuffer.MAX_CANDIDATE_LENGTH &&
+                IMEUtil.editDistance(typedWord, toBeAutoPickedSuggestion, mEditDistanceRows) <= mCommonalityMaxDistance;
     }
 
     public void resetNextWordSentence() {
@@ -254,11 +334,34 @@ public class Suggest implements Dictionary.WordCallback {
         }
 
         mNextSuggestions.clear();
+        mBigramContinuations.clear();
         mIsAllUpperCase = inAllUpperCaseState;
 
         //only adding VALID words
         if (isValidWord(previousWord)) {
-            mUserDictionary.getNextWords(previousWord.toString().toLowerCase(mLocale), mPrefMaxSuggestions, mNextSuggestions, mLocaleSpecificPunctuations);
+            final String lowerPreviousWord = previousWord.toString().toLowerCase(mLocale);
+            final int learnedCount = mUserDictionary.getNextWords(lowerPreviousWord, mPrefMaxSuggestions, mNextSuggestions, mNextSuggestionsScores);
+            //ordering the learned words by score, so the main dictionary's bigrams can be merged into them
+            for (int learnedIndex = 0; learnedIndex < learnedCount; learnedIndex++) {
+                final CharSequence learnedWord = mNextSuggestions.get(learnedIndex);
+                final int score = mNextSuggestionsScores[learnedIndex] * LEARNED_NEXT_WORD_USAGE_SCORE;
+                int pos = learnedIndex;
+                while (pos > 0 && mNextSuggestionsScores[pos - 1] < score) {
+                    mNextSuggestionsScores[pos] = mNextSuggestionsScores[pos - 1];
+                    mNextSuggestions.set(pos, mNextSuggestions.get(pos - 1));
+                    pos--;
+                }
+                mNextSuggestionsScores[pos] = score;
+                mNextSuggestions.set(pos, learnedWord);
+            }
+
+            if (mMainDictionaryEnabled && mMainDict instanceof ResourceBinaryDictionary) {
+                //the native bigrams state is shared with the words lookup, which may still run on a worker.
+                waitForLookupOf(mMainDict);
+                ((ResourceBinaryDictionary) mMainDict).getNextWords(lowerPreviousWord, mBigramsCallback);
+            }
+
+            mUserDictionary.getNextWordsFallbackSuggestions(mPrefMaxSuggestions - mNextSuggestions.size(), mNextSuggestions, mLocaleSpecificPunctuations);
             if (BuildConfig.DEBUG) {
                 Log.d(TAG, "getNextSuggestions for '%s' (capital? %s):", previousWord, mIsAllUpperCase);
                 for (int suggestionIndex=0; suggestionIndex<mNextSuggestions.size(); suggestionIndex++) {
@@ -283,46 +386,57 @@ public class Suggest implements Dictionary.WordCallback {
      * @return list of suggestions.
      */
     public List<CharSequence> getSuggestions(WordComposer wordComposer, boolean includeTypedWordIfValid) {
+        final CandidatesBuffer candidates = mCandidates;
+        final List<CharSequence> suggestions = candidates.asList();
         mExplodedAbbreviations.clear();
+        candidates.clear();
         mHaveCorrection = false;
         mIsFirstCharCapitalized = wordComposer.isFirstCharCapitalized();
         mIsAllUpperCase = wordComposer.isAllUpperCase();
-        collectGarbage();
-        Arrays.fill(mPriorities, 0);
 
         // Save a lowercase version of the original word
         mOriginalWord = wordComposer.getTypedWord();
-        if (mOriginalWord.length() > 0) {
-            mOriginalWord = mOriginalWord.toString();
-            mLowerOriginalWord = mOriginalWord.toString().toLowerCase(mLocale);
+        mLowerOriginalWord.setLength(0);
+        if (isPerCharCaseMapping(mOriginalWord, mLocale)) {
+            for (int charIndex = 0; charIndex < mOriginalWord.length(); charIndex++) {
+                mLowerOriginalWord.append(Character.toLowerCase(mOriginalWord.charAt(charIndex)));
+            }
         } else {
-            mLowerOriginalWord = "";
+            mLowerOriginalWord.append(mOriginalWord.toString().toLowerCase(mLocale));
         }
 
         // Search the dictionary only if there are at least mMinimumWordLengthToStartCorrecting (configurable)
         // characters
         if (wordComposer.length() >= mMinimumWordLengthToStartCorrecting) {
-            if (mContactsDictionary != null) {
-                mContactsDictionary.getWords(wordComposer, this);
-            }
+            if (mParallelLookupDeadline > 0 && mParallelLookup != null) {
+                getWordsInParallel(mParallelLookup, wordComposer);
+            } else {
+                if (mContactsDictionary != null) {
+                    waitForLookupOf(mContactsDictionary);
+                    mContactsDictionary.getWords(wordComposer, this);
+                }
 
-            if (mUserDictionary != null) {
-                mUserDictionary.getWords(wordComposer, this);
-            }
+                if (mUserDictionary != null) {
+                    waitForLookupOf(mUserDictionary);
+                    mUserDictionary.getWords(wordComposer, this);
+                }
 
-            if (mSuggestions.size() > 0 && isValidWord(mOriginalWord)) {
-                mHaveCorrection = true;
-            }
+                if (candidates.size() > 0 && isValidWord(mOriginalWord)) {
+                    mHaveCorrection = true;
+                }
 
-            if (mMainDict != null) {
-                mMainDict.getWords(wordComposer, this);
-            }
+                if (mMainDict != null) {
+                    waitForLookupOf(mMainDict);
+                    mMainDict.getWords(wordComposer, this);
+                }
 
-            if (mAutoTextEnabled && mAbbreviationDictionary != null) {
-                mAbbreviationDictionary.getWords(wordComposer, this);
+                if (mAutoTextEnabled && mAbbreviationDictionary != null) {
+                    waitForLookupOf(mAbbreviationDictionary);
+                    mAbbreviationDictionary.getWords(wordComposer, this);
+                }
             }
 
-            if (/*mMainDictionaryEnabled &&*/ mSuggestions.size() > 0) {
+            if (/*mMainDictionaryEnabled &&*/ candidates.size() > 0) {
                 mHaveCorrection = true;
             }
         }
@@ -330,27 +444,26 @@ public class Suggest implements Dictionary.WordCallback {
         //now, we'll look at the next-words-suggestions list, and add all the ones that begins
         //with the typed word. These suggestions are top priority, so they will be added
         //at the top of the list
-        final int typedWordLength = mLowerOriginalWord.length();
         //since the next-word-suggestions are order by usage, we'd like to add them at the
         //same order
         int nextWordInsertionIndex = 0;
-        for (CharSequence nextWordSuggestion : mNextSuggestions) {
-            if (nextWordSuggestion.length() >= typedWordLength && nextWordSuggestion.subSequence(0, typedWordLength).equals(mOriginalWord)) {
-                mSuggestions.add(nextWordInsertionIndex, nextWordSuggestion);
+        for (int nextWordIndex = 0; nextWordIndex < mNextSuggestions.size(); nextWordIndex++) {
+            final CharSequence nextWordSuggestion = mNextSuggestions.get(nextWordIndex);
+            if (startsWith(nextWordSuggestion, mOriginalWord)) {
+                candidates.insert(nextWordInsertionIndex, nextWordSuggestion);
                 nextWordInsertionIndex++;//next next-word will have lower usage, so it should be added after this one.
             }
         }
 
         //adding the typed word at the head of the suggestions list
-        if (!TextUtils.isEmpty(mOriginalWord)) {
-            mSuggestions.add(0, mOriginalWord.toString());
+        if (mOriginalWord.length() > 0) {
+            candidates.insert(0, mOriginalWord);
 
             if (mExplodedAbbreviations.size() > 0) {
                 //typed at zero, exploded at 1 index. These are super high priority
-                int explodedWordInsertionIndex = 1;
-                for (String explodedWord : mExplodedAbbreviations) {
-                    mSuggestions.add(explodedWordInsertionIndex, explodedWord);
-                    explodedWordInsertionIndex++;
+                final List<CharSequence> explodedWords = mExplodedAbbreviations.asList();
+                for (int explodedWordIndex = 0; explodedWordIndex < explodedWords.size(); explodedWordIndex++) {
+                    candidates.insert(explodedWordIndex + 1, explodedWords.get(explodedWordIndex));
                 }
 
                 mHaveCorrection = true;//so the exploded text will be auto-committed.
@@ -362,122 +475,194 @@ public class Suggest implements Dictionary.WordCallback {
             // Is there an AutoText correction?
             // Is that correction already the current prediction (or original
             // word)?
-            boolean canAdd = (!TextUtils.isEmpty(autoText)) && (!TextUtils.equals(autoText, mOriginalWord));
+            boolean canAdd = (!TextUtils.isEmpty(autoText)) && (!sameText(autoText, mOriginalWord));
             if (canAdd) {
                 mHaveCorrection = true;
-                if (mSuggestions.size() == 0) {
-                    mSuggestions.add(mOriginalWord);
+                if (candidates.size() == 0) {
+                    candidates.insert(0, mOriginalWord);
                 }
-                mSuggestions.add(1, autoText);
+                candidates.insert(1, autoText);
             }
         }
 
         //removing possible duplicates to typed.
-        int maxSearchIndex = Math.min(5, mSuggestions.size());
+        int maxSearchIndex = Math.min(5, candidates.size());
         for (int suggestionIndex = 1; suggestionIndex<maxSearchIndex; suggestionIndex++) {
-            if (TextUtils.equals(mOriginalWord, mSuggestions.get(suggestionIndex))) {
-                mSuggestions.remove(suggestionIndex);
+            if (sameText(mOriginalWord, suggestions.get(suggestionIndex))) {
+                candidates.remove(suggestionIndex);
                 maxSearchIndex--;
             }
         }
 
         // Check if the first suggestion has a minimum number of characters in common
-        if (mHaveCorrection && mMainDictionaryEnabled && mSuggestions.size() > 1 && mExplodedAbbreviations.size() == 0) {
-            if (!haveSufficientCommonality(mLowerOriginalWord, mSuggestions.get(1))) {
+        if (mHaveCorrection && mMainDictionaryEnabled && candidates.size() > 1 && mExplodedAbbreviations.size() == 0) {
+            if (!haveSufficientCommonality(mLowerOriginalWord, suggestions.get(1))) {
                 mHaveCorrection = false;
             }
         }
-        return mSuggestions;
+        return suggestions;
+    }
+
+    private static boolean sameText(CharSequence text, CharSequence otherText) {
+        return text.length() == otherText.length() && startsWith(text, otherText);
+    }
+
+    private static boolean startsWith(CharSequence text, CharSequence prefix) {
+        final int prefixLength = prefix.length();
+        if (text.length() < prefixLength) return false;
+        for (int charIndex = 0; charIndex < prefixLength; charIndex++) {
+            if (text.charAt(charIndex) != prefix.charAt(charIndex)) return false;
+        }
+        return true;
+    }
+
+    private void getWordsInParallel(ParallelWordsLookup lookup, WordComposer wordComposer) {
+        final long deadline = SystemClock.uptimeMillis() + mParallelLookupDeadline;
+        lookup.beginLookup();
+        lookup.startLookup(SOURCE_CONTACTS, mContactsDictionary, wordComposer, mPrefMaxSuggestions, false, mLowerOriginalWord, mLocale, deadline);
+        lookup.startLookup(SOURCE_USER, mUserDictionary, wordComposer, mPrefMaxSuggestions, false, mLowerOriginalWord, mLocale, deadline);
+        lookup.startLookup(SOURCE_MAIN, mMainDict, wordComposer, mPrefMaxSuggestions, false, mLowerOriginalWord, mLocale, deadline);
+        //exploded abbreviations are used in the order they were reported
+        lookup.startLookup(SOURCE_ABBREVIATIONS, mAutoTextEnabled ? mAbbreviationDictionary : null, wordComposer, mPrefMaxSuggestions, true, mLowerOriginalWord, mLocale, deadline);
+        lookup.waitForLookups(deadline);
+
+        //merging in the same order the dictionaries are queried one after the other
+        addCandidates(lookup.getCandidates(SOURCE_CONTACTS), mContactsDictionary);
+        addCandidates(lookup.getCandidates(SOURCE_USER), mUserDictionary);
+        //not waiting for dictionaries which missed the deadline, as their words were dropped too.
+        if (mCandidates.size() > 0 && isValidWord(mOriginalWord, false)) {
+            mHaveCorrection = true;
+        }
+        addCandidates(lookup.getCandidates(SOURCE_MAIN), mMainDict);
+        addCandidates(lookup.getCandidates(SOURCE_ABBREVIATIONS), mAbbreviationDictionary);
+    }
+
+    /**
+     * Waits for a concurrent lookup which may still use the dictionary (one which missed its
+     * deadline), so the dictionary can be used, or changed, on this thread.
+     */
+    private void waitForLookupOf(@Nullable Dictionary dictionary) {
+        if (mParallelLookup != null) mParallelLookup.waitForDictionary(dictionary);
+    }
+
+    private boolean isIdle(@Nullable Dictionary dictionary) {
+        return mParallelLookup == null || !mParallelLookup.isBusy(dictionary);
+    }
+
+    private void addCandidates(@Nullable CandidatesBuffer candidates, Dictionary from) {
+        if (candidates == null) return;
+        final char[] chars = candidates.getChars();
+        for (int candidateIndex = 0; candidateIndex < candidates.size(); candidateIndex++) {
+            addWord(chars, candidates.getOffset(candidateIndex), candidates.getLength(candidateIndex), candidates.getScore(candidateIndex), from);
+        }
     }
 
     public boolean hasMinimalCorrection() {
         return mHaveCorrection;
     }
 
-    private static boolean compareCaseInsensitive(
-            final String lowerOriginalWord, final char[] word,
-            final int offset, final int length) {
-        final int originalLength = lowerOriginalWord.length();
+    private static boolean same(final CharSequence suggestion, final char[] word, final int offset, final int length) {
+        if (suggestion.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (suggestion.charAt(i) != word[offset + i]) return false;
+        }
+        return true;
+    }
 
-        if (originalLength == length) {
-            for (int i = 0; i < originalLength; i++) {
+    static boolean compareCaseInsensitive(
+            final CharSequence lowerOriginalWord, final char[] word,
+            final int offset, final int length, final Locale locale) {
+        if (isPerCharCaseMapping(word, offset, length, locale)) {
+            if (lowerOriginalWord.length() != length) return false;
+            for (int i = 0; i < length; i++) {
                 if (lowerOriginalWord.charAt(i) != Character.toLowerCase(word[offset + i])) {
                     return false;
                 }
             }
             return true;
         }
-        return false;
+        //the locale's lower-case may differ from the per-character one, and may even change the length
+        return new String(word, offset, length).toLowerCase(locale).contentEquals(lowerOriginalWord);
+    }
+
+    /**
+     * Whether mapping the case of each character on its own gives the same result as the locale's
+     * case mapping. This is the case for ASCII words, except for the dotted and dotless i of
+     * Turkish and Azerbaijani.
+     */
+    private static boolean isPerCharCaseMapping(final CharSequence word, final Locale locale) {
+        for (int charIndex = 0; charIndex < word.length(); charIndex++) {
+            if (word.charAt(charIndex) > 0x7F) return false;
+        }
+        return !isTurkicLocale(locale);
+    }
+
+    private static boolean isPerCharCaseMapping(final char[] word, final int offset, final int length, final Locale locale) {
+        for (int charIndex = offset; charIndex < offset + length; charIndex++) {
+            if (word[charIndex] > 0x7F) return false;
+        }
+        return !isTurkicLocale(locale);
+    }
+
+    private static boolean isTurkicLocale(final Locale locale) {
+        final String language = locale.getLanguage();
+        return "tr".equals(language) || "az".equals(language);
     }
 
     @Override
     public boolean addWord(final char[] word, final int offset,
                            final int length, final int freq, final Dictionary from) {
         if (from == mAbbreviationDictionary) {
-            mExplodedAbbreviations.add(new String(word, offset, length));
+            mExplodedAbbreviations.add(word, offset, length, freq, false);
             return true;
         }
-        int pos = 0;
-        final int[] priorities = mPriorities;
-        final int prefMaxSuggestions = mPrefMaxSuggestions;
-        // Check if it's the same word, only caps are different
-        if (compareCaseInsensitive(mLowerOriginalWord, word, offset, length)) {
-            pos = 0;
-        } else {
-            // Check the last one's priority and bail
-            if (priorities[prefMaxSuggestions - 1] >= freq)
-                return true;
-            while (pos < prefMaxSuggestions) {
-                if (priorities[pos] < freq
-                        || (priorities[pos] == freq && length < mSuggestions
-                        .get(pos).length())) {
-                    break;
+        // Same word, only caps are different? It goes to the top.
+        final int rank = mCandidates.add(word, offset, length, freq, compareCaseInsensitive(mLowerOriginalWord, word, offset, length, mLocale));
+        if (rank >= 0 && (mIsAllUpperCase || mIsFirstCharCapitalized)) {
+            final char[] chars = mCandidates.getChars();
+            final int candidateOffset = mCandidates.getOffset(rank);
+            final int capitalizedLength = mIsAllUpperCase ? length : 1;
+            if (isPerCharCaseMapping(chars, candidateOffset, capitalizedLength, mLocale)) {
+                for (int charIndex = candidateOffset; charIndex < candidateOffset + capitalizedLength; charIndex++) {
+                    chars[charIndex] = Character.toUpperCase(chars[charIndex]);
                 }
-                pos++;
-            }
-        }
-
-        if (pos >= prefMaxSuggestions) {
-            return true;
-        }
-        System.arraycopy(priorities, pos, priorities, pos + 1, prefMaxSuggestions - pos - 1);
-        priorities[pos] = freq;
-        int poolSize = mStringPool.size();
-        StringBuilder sb = poolSize > 0 ? (StringBuilder) mStringPool
-                .remove(poolSize - 1) : new StringBuilder(32);
-        sb.setLength(0);
-        if (mIsAllUpperCase) {
-            sb.append(new String(word, offset, length).toUpperCase(mLocale));
-        } else if (mIsFirstCharCapitalized) {
-            sb.append(Character.toUpperCase(word[offset]));
-            if (length > 1) {
-                sb.append(word, offset + 1, length - 1);
-            }
-        } else {
-            sb.append(word, offset, length);
-        }
-        mSuggestions.add(pos, sb);
-        if (mSuggestions.size() > prefMaxSuggestions) {
-            CharSequence garbage = mSuggestions.remove(prefMaxSuggestions);
-            if (garbage instanceof StringBuilder) {
-                mStringPool.add(garbage);
+            } else {
+                //the upper-case may be longer (German sharp s), so the candidate is replaced
+                final String candidate = new String(chars, candidateOffset, length);
+                final int firstCharLength = Character.charCount(candidate.codePointAt(0));
+                mCandidates.set(rank, mIsAllUpperCase ?
+                        candidate.toUpperCase(mLocale) :
+                        candidate.substring(0, firstCharLength).toUpperCase(mLocale) + candidate.substring(firstCharLength));
             }
         }
         return true;
     }
 
     public boolean isValidWord(final CharSequence word) {
+        return isValidWord(word, true);
+    }
+
+    /**
+     * @param waitForLookups whether to wait for dictionaries which are still used by a concurrent
+     *                       lookup. If not, those dictionaries are not asked.
+     */
+    private boolean isValidWord(final CharSequence word, final boolean waitForLookups) {
         if (word == null || word.length() == 0) {
             return false;
         }
+        if (waitForLookups) {
+            waitForLookupOf(mMainDict);
+            waitForLookupOf(mUserDictionary);
+            waitForLookupOf(mContactsDictionary);
+        }
 
         if (BuildConfig.DEBUG) Log.v(TAG, "Suggest::isValidWord(%s) mMainDictionaryEnabled:%s mAutoTextEnabled: %s user-dictionary-enabled: %s contacts-dictionary-enabled: %s",
                 word, mMainDictionaryEnabled, mAutoTextEnabled, mUserDictionary != null, mContactsDictionary != null);
 
         if (mMainDictionaryEnabled || mAutoTextEnabled) {
-            final boolean validFromMain = (mMainDictionaryEnabled && mMainDict != null && mMainDict.isValidWord(word));
-            final boolean validFromUser = (mUserDictionary != null && mUserDictionary.isValidWord(word));
-            final boolean validFromContacts = (mContactsDictionary != null && mContactsDictionary.isValidWord(word));
+            final boolean validFromMain = (mMainDictionaryEnabled && mMainDict != null && isIdle(mMainDict) && mMainDict.isValidWord(word));
+            final boolean validFromUser = (mUserDictionary != null && isIdle(mUserDictionary) && mUserDictionary.isValidWord(word));
+            final boolean validFromContacts = (mContactsDictionary != null && isIdle(mContactsDictionary) && mContactsDictionary.isValidWord(word));
 
             if (BuildConfig.DEBUG) Log.v(TAG, "Suggest::isValidWord(%s)validFromMain: %s validFromUser: %s validFromContacts: %s",
                     word, validFromMain, validFromUser, validFromContacts);
@@ -488,32 +673,19 @@ public class Suggest implements Dictionary.WordCallback {
         }
     }
 
-    private void collectGarbage() {
-        int poolSize = mStringPool.size();
-        int garbageSize = mSuggestions.size();
-        while (poolSize < mPrefMaxSuggestions && garbageSize > 0) {
-            CharSequence garbage = mSuggestions.get(garbageSize - 1);
-            if (garbage != null && garbage instanceof StringBuilder) {
-                mStringPool.add(garbage);
-                poolSize++;
-            }
-            garbageSize--;
-        }
-        if (poolSize == mPrefMaxSuggestions + 1) {
-            Log.w(TAG, "String pool got too big: " + poolSize);
-        }
-        mSuggestions.clear();
-    }
-
     public DictionaryFactory getDictionaryFactory() {
         return mDictionaryFactory;
     }
 
     public boolean addWordToUserDictionary(String word) {
-        return mUserDictionary != null && mUserDictionary.addWord(word, 128);
+        if (mUserDictionary == null) return false;
+        waitForLookupOf(mUserDictionary);
+        return mUserDictionary.addWord(word, 128);
     }
 
     public void removeWordFromUserDictionary(String word) {
-        if (mUserDictionary != null) mUserDictionary.deleteWord(word);
+        if (mUserDictionary == null) return;
+        waitForLookupOf(mUserDictionary);
+        mUserDictionary.deleteWord(word);
     }
 }
@@ -19,9 +19,12 @@ package com.anysoftkeyboard.dictionaries;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
+import android.os.Process;
 import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.anysoftkeyboard.base.dictionaries.DictionaryPersistence;
 import com.anysoftkeyboard.base.dictionaries.EditableDictionary;
 import com.anysoftkeyboard.base.dictionaries.WordComposer;
 import com.anysoftkeyboard.base.dictionaries.WordsCursor;
@@ -35,12 +38,38 @@ import com.menny.android.anysoftkeyboard.R;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class UserDictionary extends EditableDictionary {
 
     private static final String TAG = "ASK_SUD";
+    private static final long NEXT_WORDS_LOADER_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Next-words are loaded by this thread, in parallel to the user-dictionary words,
+     * so a large next-words file will not delay the user-dictionary.
+     */
+    private static final ThreadPoolExecutor msNextWordsLoader = new ThreadPoolExecutor(0, 1, NEXT_WORDS_LOADER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "NextWordsLoader");
+        }
+    });
+
     private volatile BTreeDictionary mActualDictionary;
-    private NextWordDictionary mNextWordDictionary;
+    //only set once the next-words were loaded. Until then, there are no next-word suggestions.
+    private volatile NextWordDictionary mNextWordDictionary;
+    private final Object mNextWordsMonitor = new Object();
 
     private final Context mContext;
     private final String mLocale;
@@ -48,6 +77,7 @@ public class UserDictionary extends EditableDictionary {
     private final String mNextWordSuggestionType;
     private final int mMaxNextWordSuggestionsCount;
     private final int mMinWordUsage;
+    private final boolean mPreferNativeNextWordsEngine;
     private final List<String> mFallbackInitialSuggestions;
 
     public UserDictionary(Context context, String locale) {
@@ -60,6 +90,7 @@ public class UserDictionary extends EditableDictionary {
         mNextWordSuggestionType = Utils.getNextWordSuggestionTypeFromPrefs(resources, defaultSharedPreferences);
         mMaxNextWordSuggestionsCount = Utils.getNextWordSuggestionCountFromPrefs(resources, defaultSharedPreferences);
         mMinWordUsage = Utils.getNextWordSuggestionMinUsageFromPrefs(resources, defaultSharedPreferences);
+        mPreferNativeNextWordsEngine = Utils.getNextWordsNativeEngineFromPrefs(resources, defaultSharedPreferences);
         if (Utils.NEXT_WORD_SUGGESTION_WORDS_AND_PUNCTUATIONS.equals(mNextWordSuggestionType)) {
             mFallbackInitialSuggestions = Arrays.asList(resources.getStringArray(R.array.english_initial_suggestions));
         } else {
@@ -73,25 +104,41 @@ public class UserDictionary extends EditableDictionary {
     }
 
     public final void resetNextWordMemory() {
-        if (mNextWordDictionary != null) mNextWordDictionary.resetSentence();
+        final NextWordDictionary nextWordDictionary = mNextWordDictionary;
+        if (nextWordDictionary != null) nextWordDictionary.resetSentence();
     }
 
-    public final void getNextWords(String currentWord, int maxSuggestions, List<CharSequence> suggestionsHolder, @Nullable Iterable<String> localeSpecificPunctuations) {
-        if (mNextWordDictionary != null) {
-            for (String nextWordSuggestion : mNextWordDictionary.getNextWords(currentWord, mMaxNextWordSuggestionsCount, mMinWordUsage)) {
+    /**
+     * Adds the learned next-words of the given word to the holder, and their usage count
+     * to the matching position in the usages holder.
+     *
+     * @return the number of words added.
+     */
+    public final int getNextWords(String currentWord, int maxSuggestions, List<CharSequence> suggestionsHolder, int[] usagesHolder) {
+        int added = 0;
+        final NextWordDictionary nextWordDictionary = mNextWordDictionary;
+        if (nextWordDictionary != null) {
+            for (String nextWordSuggestion : nextWordDictionary.getNextWords(currentWord, mMaxNextWordSuggestionsCount, mMinWordUsage)) {
                 suggestionsHolder.add(nextWordSuggestion);
-                maxSuggestions--;
-                if (maxSuggestions == 0) return;
+                usagesHolder[added] = nextWordDictionary.getNextWordUsage(added);
+                added++;
+                if (added == maxSuggestions) break;
             }
+        }
+        return added;
+    }
 
-            if (Utils.NEXT_WORD_SUGGESTION_WORDS_AND_PUNCTUATIONS.equals(mNextWordSuggestionType)) {
-                if (localeSpecificPunctuations == null)
-                    localeSpecificPunctuations = mFallbackInitialSuggestions;
-                for (String evenMoreSuggestions : localeSpecificPunctuations) {
-                    suggestionsHolder.add(evenMoreSuggestions);
-                    maxSuggestions--;
-                    if (maxSuggestions == 0) return;
-                }
+    /**
+     * Adds the generic next-word suggestions (punctuations), if the user asked for them.
+     */
+    public final void getNextWordsFallbackSuggestions(int maxSuggestions, List<CharSequence> suggestionsHolder, @Nullable Iterable<String> localeSpecificPunctuations) {
+        if (mNextWordDictionary != null && Utils.NEXT_WORD_SUGGESTION_WORDS_AND_PUNCTUATIONS.equals(mNextWordSuggestionType)) {
+            if (localeSpecificPunctuations == null)
+                localeSpecificPunctuations = mFallbackInitialSuggestions;
+            for (String evenMoreSuggestions : localeSpecificPunctuations) {
+                if (maxSuggestions <= 0) return;
+                suggestionsHolder.add(evenMoreSuggestions);
+                maxSuggestions--;
             }
         }
     }
@@ -104,13 +151,15 @@ public class UserDictionary extends EditableDictionary {
     @Override
     protected final void closeAllResources() {
         if (mActualDictionary != null) mActualDictionary.close();
-        if (mNextWordDictionary != null) mNextWordDictionary.close();
+        synchronized (mNextWordsMonitor) {
+            //if the next-words are still loading, the loader will close them
+            if (mNextWordDictionary != null) mNextWordDictionary.close();
+        }
     }
 
     @Override
     protected final void loadAllResources() {
-        mNextWordDictionary = new NextWordDictionary(mContext, mLocale);
-        mNextWordDictionary.load();
+        loadNextWordDictionary();
 
         AndroidUserDictionary androidBuiltIn = null;
         try {
@@ -139,6 +188,30 @@ public class UserDictionary extends EditableDictionary {
         }
     }
 
+    private void loadNextWordDictionary() {
+        final NextWordDictionary nextWordDictionary = new NextWordDictionary(mContext, mLocale, mPreferNativeNextWordsEngine);
+        msNextWordsLoader.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    nextWordDictionary.load();
+                } catch (Exception e) {
+                    //not clearing the stored next-words, maybe they will load next time
+                    Log.w(TAG, e, "Failed to load the next-words for %s. There will be no next-words.", mLocale);
+                    return;
+                }
+                synchronized (mNextWordsMonitor) {
+                    if (isClosed()) {
+                        nextWordDictionary.close();
+                    } else {
+                        Log.d(TAG, "Next-words for %s were loaded.", mLocale);
+                        mNextWordDictionary = nextWordDictionary;
+                    }
+                }
+            }
+        });
+    }
+
     @Override
     public final boolean addWord(String word, int frequency) {
         if (mActualDictionary != null) {
@@ -151,6 +224,8 @@ public class UserDictionary extends EditableDictionary {
 
     @Override
     public final WordsCursor getWordsCursor() {
+        //the storage should have the words which were just added (or deleted)
+        DictionaryPersistence.getInstance().waitForPendingWrites();
         if (mActualDictionary != null)
             return mActualDictionary.getWordsCursor();
 
@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2016 Menny Even-Danan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.anysoftkeyboard.dictionaries;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A words trie which is stored in parallel primitive arrays, instead of a graph of node objects.
+ * A node is an index into those arrays, and the children of a node are kept in a contiguous block
+ * of a shared children-pool, sorted by character, so a child lookup is a binary-search.
+ * <p/>
+ * This class is not thread-safe, writes should be guarded by the owning dictionary.
+ */
+final class WordsTrie {
+    static final int ROOT = 0;
+    static final int NO_NODE = -1;
+
+    private static final int NOT_TERMINAL = -1;
+    private static final int INITIAL_NODES_CAPACITY = 64;
+    private static final int CHILDREN_BLOCK_INCREMENT = 2;
+
+    private char[] mCodes;
+    private int[] mFrequencies;
+    private int[] mChildrenOffsets;
+    private int[] mChildrenCounts;
+    private int[] mChildrenCapacities;
+    private int mNodesCount;
+
+    private int[] mFreeNodes;
+    private int mFreeNodesCount;
+
+    private int[] mChildrenPool;
+    private int mChildrenPoolSize;
+    private int mWastedChildrenSlots;
+
+    private int mWordsCount;
+    private int mModificationsCount;
+
+    WordsTrie(int initialRootCapacity) {
+        mCodes = new char[INITIAL_NODES_CAPACITY];
+        mFrequencies = new int[INITIAL_NODES_CAPACITY];
+        mChildrenOffsets = new int[INITIAL_NODES_CAPACITY];
+        mChildrenCounts = new int[INITIAL_NODES_CAPACITY];
+        mChildrenCapacities = new int[INITIAL_NODES_CAPACITY];
+        mFreeNodes = new int[INITIAL_NODES_CAPACITY];
+        mChildrenPool = new int[Math.max(INITIAL_NODES_CAPACITY, initialRootCapacity)];
+        //creating the root node
+        final int root = allocateNode((char) 0);
+        allocateChildrenBlock(root, initialRootCapacity);
+    }
+
+    private WordsTrie() {
+        //used when reading a stored trie
+    }
+
+    /**
+     * Creates a copy of the given trie. This is a plain arrays copy, so it is cheap
+     * compared to re-adding all the words.
+     */
+    WordsTrie(WordsTrie other) {
+        mCodes = other.mCodes.clone();
+        mFrequencies = other.mFrequencies.clone();
+        mChildrenOffsets = other.mChildrenOffsets.clone();
+        mChildrenCounts = other.mChildrenCounts.clone();
+        mChildrenCapacities = other.mChildrenCapacities.clone();
+        mNodesCount = other.mNodesCount;
+        mFreeNodes = other.mFreeNodes.clone();
+        mFreeNodesCount = other.mFreeNodesCount;
+        mChildrenPool = other.mChildrenPool.clone();
+        mChildrenPoolSize = other.mChildrenPoolSize;
+        mWastedChildrenSlots = other.mWastedChildrenSlots;
+        mWordsCount = other.mWordsCount;
+    }
+
+    char getCode(int node) {
+        return mCodes[node];
+    }
+
+    boolean isTerminal(int node) {
+        return mFrequencies[node] != NOT_TERMINAL;
+    }
+
+    int getFrequency(int node) {
+        final int frequency = mFrequencies[node];
+        return frequency == NOT_TERMINAL ? 0 : frequency;
+    }
+
+    int getChildrenCount(int node) {
+        return mChildrenCounts[node];
+    }
+
+    int getChild(int node, int childIndex) {
+        return mChildrenPool[mChildrenOffsets[node] + childIndex];
+    }
+
+    int getWordsCount() {
+        return mWordsCount;
+    }
+
+    int getNodesCount() {
+        return mNodesCount - mFreeNodesCount;
+    }
+
+    /**
+     * A counter which changes whenever a word is added or deleted. Used to tell whether a traversal
+     * state, which refers to nodes of this trie, is still valid.
+     */
+    int getModificationsCount() {
+        return mModificationsCount;
+    }
+
+    /**
+     * @return the child of the given node which has the given character, or {@link #NO_NODE}.
+     */
+    int findChild(int node, char code) {
+        final int childIndex = findChildIndex(node, code);
+        return childIndex < 0 ? NO_NODE : getChild(node, childIndex);
+    }
+
+    /**
+     * @return the node which ends the given word (terminal or not), or {@link #NO_NODE}.
+     */
+    int findNode(CharSequence word) {
+        final int length = word.length();
+        int node = ROOT;
+        for (int charIndex = 0; charIndex < length && node != NO_NODE; charIndex++) {
+            node = findChild(node, word.charAt(charIndex));
+        }
+        return node;
+    }
+
+    int getWordFrequency(CharSequence word) {
+        if (word.length() == 0) return 0;
+        final int node = findNode(word);
+        return node == NO_NODE ? 0 : getFrequency(node);
+    }
+
+    void addWord(CharSequence word, int frequency) {
+        final int length = word.length();
+        if (length == 0) return;
+        mModificationsCount++;
+        int node = ROOT;
+        for (int charIndex = 0; charIndex < length; charIndex++) {
+            final char code = word.charAt(charIndex);
+            final int childIndex = findChildIndex(node, code);
+            if (childIndex >= 0) {
+                node = getChild(node, childIndex);
+            } else {
+                final int newNode = allocateNode(code);
+                insertChild(node, -(childIndex + 1), newNode);
+                node = newNode;
+            }
+        }
+        if (!isTerminal(node)) mWordsCount++;
+        mFrequencies[node] = Math.max(0, frequency);
+    }
+
+    /**
+     * Removes the given word from the trie, and all the nodes that are no longer needed.
+     *
+     * @return true if the word was in the trie.
+     */
+    boolean deleteWord(CharSequence word) {
+        final int length = word.length();
+        if (length == 0) return false;
+        //path[i] is the parent of the node for the i-th character
+        final int[] path = new int[length + 1];
+        path[0] = ROOT;
+        for (int charIndex = 0; charIndex < length; charIndex++) {
+            final int child = findChild(path[charIndex], word.charAt(charIndex));
+            if (child == NO_NODE) return false;
+            path[charIndex + 1] = child;
+        }
+        final int wordNode = path[length];
+        if (!isTerminal(wordNode)) return false;
+
+        mFrequencies[wordNode] = NOT_TERMINAL;
+        mWordsCount--;
+        mModificationsCount++;
+        //removing nodes that are not leading to any word
+        for (int depth = length; depth > 0; depth--) {
+            final int node = path[depth];
+            if (isTerminal(node) || mChildrenCounts[node] > 0) break;
+            final int parent = path[depth - 1];
+            removeChild(parent, findChildIndex(parent, mCodes[node]));
+            freeNode(node);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the trie's arrays, as they are, to the given output. Can be read back with
+     * {@link #readFrom(ByteBuffer)}.
+     */
+    void writeTo(DataOutput output) throws IOException {
+        output.writeInt(mNodesCount);
+        output.writeInt(mFreeNodesCount);
+        output.writeInt(mChildrenPoolSize);
+        output.writeInt(mWastedChildrenSlots);
+        output.writeInt(mWordsCount);
+        for (int node = 0; node < mNodesCount; node++) output.writeChar(mCodes[node]);
+        writeInts(output, mFrequencies, mNodesCount);
+        writeInts(output, mChildrenOffsets, mNodesCount);
+        writeInts(output, mChildrenCounts, mNodesCount);
+        writeInts(output, mChildrenCapacities, mNodesCount);
+        writeInts(output, mFreeNodes, mFreeNodesCount);
+        writeInts(output, mChildrenPool, mChildrenPoolSize);
+    }
+
+    /**
+     * Reads a trie which was written by {@link #writeTo(DataOutput)}. The buffer is expected to be
+     * big-endian, and its position is moved to the end of the trie's data.
+     *
+     * @throws IllegalArgumentException if the stored trie is corrupt, or truncated.
+     */
+    static WordsTrie readFrom(ByteBuffer buffer) {
+        final WordsTrie trie = new WordsTrie();
+        trie.mNodesCount = buffer.getInt();
+        trie.mFreeNodesCount = buffer.getInt();
+        trie.mChildrenPoolSize = buffer.getInt();
+        trie.mWastedChildrenSlots = buffer.getInt();
+        trie.mWordsCount = buffer.getInt();
+        if (trie.mNodesCount < 1 || trie.mFreeNodesCount < 0 || trie.mFreeNodesCount > trie.mNodesCount
+                || trie.mChildrenPoolSize < 0 || trie.mWordsCount < 0) {
+            throw new IllegalArgumentException("Stored trie has invalid header.");
+        }
+        //checking the sizes before allocating, so a corrupt header will not run us out of memory
+        final long dataSize = 2L * trie.mNodesCount + 4L * (4L * trie.mNodesCount + trie.mFreeNodesCount + trie.mChildrenPoolSize);
+        if (dataSize > buffer.remaining()) {
+            throw new IllegalArgumentException("Stored trie is truncated: expected " + dataSize + " bytes, but only " + buffer.remaining() + " are left.");
+        }
+
+        trie.mCodes = new char[trie.mNodesCount];
+        buffer.asCharBuffer().get(trie.mCodes);
+        buffer.position(buffer.position() + 2 * trie.mNodesCount);
+        trie.mFrequencies = readInts(buffer, trie.mNodesCount);
+        trie.mChildrenOffsets = readInts(buffer, trie.mNodesCount);
+        trie.mChildrenCounts = readInts(buffer, trie.mNodesCount);
+        trie.mChildrenCapacities = readInts(buffer, trie.mNodesCount);
+        trie.mFreeNodes = readInts(buffer, trie.mFreeNodesCount);
+        trie.mChildrenPool = readInts(buffer, trie.mChildrenPoolSize);
+        trie.verifyStructure();
+        return trie;
+    }
+
+    /**
+     * Verifies that the nodes point into the arrays, so a corrupt trie fails here, and not
+     * while looking up words.
+     */
+    private void verifyStructure() {
+        for (int node = 0; node < mNodesCount; node++) {
+            final int offset = mChildrenOffsets[node];
+            final int capacity = mChildrenCapacities[node];
+            final int count = mChildrenCounts[node];
+            //a node without children (or a free one) may keep an old offset
+            if (capacity < 0 || count < 0 || count > capacity || (capacity > 0 && (offset < 0 || offset > mChildrenPoolSize - capacity))) {
+                throw new IllegalArgumentException("Stored trie node " + node + " has invalid children block.");
+            }
+            for (int childIndex = 0; childIndex < count; childIndex++) {
+                final int child = mChildrenPool[offset + childIndex];
+                if (child <= ROOT || child >= mNodesCount) {
+                    throw new IllegalArgumentException("Stored trie node " + node + " has invalid child " + child);
+                }
+            }
+        }
+        for (int freeIndex = 0; freeIndex < mFreeNodesCount; freeIndex++) {
+            if (mFreeNodes[freeIndex] <= ROOT || mFreeNodes[freeIndex] >= mNodesCount) {
+                throw new IllegalArgumentException("Stored trie has invalid free node " + mFreeNodes[freeIndex]);
+            }
+        }
+    }
+
+    private static void writeInts(DataOutput output, int[] array, int length) throws IOException {
+        for (int i = 0; i < length; i++) output.writeInt(array[i]);
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int length) {
+        final int[] array = new int[length];
+        buffer.asIntBuffer().get(array);
+        buffer.position(buffer.position() + 4 * length);
+        return array;
+    }
+
+    /**
+     * @return the index of the child in the node's children block, or (-(insertion point) - 1).
+     */
+    private int findChildIndex(int node, char code) {
+        final int[] pool = mChildrenPool;
+        final int offset = mChildrenOffsets[node];
+        int low = 0;
+        int high = mChildrenCounts[node] - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final char middleCode = mCodes[pool[offset + middle]];
+            if (middleCode < code) {
+                low = middle + 1;
+            } else if (middleCode > code) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void insertChild(int parent, int childIndex, int child) {
+        final int count = mChildrenCounts[parent];
+        if (count == mChildrenCapacities[parent]) {
+            //relocating the block to the end of the pool, with more room.
+            //Note: the pool may be re-allocated (or compacted) in the process, but the old array is left intact.
+            final int[] oldPool = mChildrenPool;
+            final int oldOffset = mChildrenOffsets[parent];
+            final int oldCapacity = mChildrenCapacities[parent];
+            allocateChildrenBlock(parent, oldCapacity + Math.max(CHILDREN_BLOCK_INCREMENT, oldCapacity / 2));
+            System.arraycopy(oldPool, oldOffset, mChildrenPool, mChildrenOffsets[parent], count);
+            mWastedChildrenSlots += oldCapacity;
+        }
+        final int offset = mChildrenOffsets[parent];
+        System.arraycopy(mChildrenPool, offset + childIndex, mChildrenPool, offset + childIndex + 1, count - childIndex);
+        mChildrenPool[offset + childIndex] = child;
+        mChildrenCounts[parent] = count + 1;
+    }
+
+    private void removeChild(int parent, int childIndex) {
+        final int offset = mChildrenOffsets[parent];
+        final int count = mChildrenCounts[parent] - 1;
+        System.arraycopy(mChildrenPool, offset + childIndex + 1, mChildrenPool, offset + childIndex, count - childIndex);
+        mChildrenCounts[parent] = count;
+    }
+
+    private void allocateChildrenBlock(int node, int capacity) {
+        if (mChildrenPoolSize + capacity > mChildrenPool.length) {
+            if (mWastedChildrenSlots > mChildrenPoolSize / 2) {
+                compactChildrenPool();
+            }
+            if (mChildrenPoolSize + capacity > mChildrenPool.length) {
+                mChildrenPool = grow(mChildrenPool, mChildrenPoolSize + capacity);
+            }
+        }
+        mChildrenOffsets[node] = mChildrenPoolSize;
+        mChildrenCapacities[node] = capacity;
+        mChildrenPoolSize += capacity;
+    }
+
+    private void compactChildrenPool() {
+        final int[] compacted = new int[mChildrenPool.length];
+        int compactedSize = 0;
+        for (int node = 0; node < mNodesCount; node++) {
+            final int capacity = mChildrenCapacities[node];
+            if (capacity == 0) continue;
+            System.arraycopy(mChildrenPool, mChildrenOffsets[node], compacted, compactedSize, mChildrenCounts[node]);
+            mChildrenOffsets[node] = compactedSize;
+            compactedSize += capacity;
+        }
+        mChildrenPool = compacted;
+        mChildrenPoolSize = compactedSize;
+        mWastedChildrenSlots = 0;
+    }
+
+    private int allocateNode(char code) {
+        final int node;
+        if (mFreeNodesCount > 0) {
+            mFreeNodesCount--;
+            node = mFreeNodes[mFreeNodesCount];
+        } else {
+            if (mNodesCount == mCodes.length) {
+                final int newCapacity = mNodesCount + (mNodesCount >> 1) + 1;
+                mCodes = grow(mCodes, newCapacity);
+                mFrequencies = grow(mFrequencies, newCapacity);
+                mChildrenOffsets = grow(mChildrenOffsets, newCapacity);
+                mChildrenCounts = grow(mChildrenCounts, newCapacity);
+                mChildrenCapacities = grow(mChildrenCapacities, newCapacity);
+            }
+            node = mNodesCount;
+            mNodesCount++;
+        }
+        mCodes[node] = code;
+        mFrequencies[node] = NOT_TERMINAL;
+        mChildrenOffsets[node] = 0;
+        mChildrenCounts[node] = 0;
+        mChildrenCapacities[node] = 0;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        mWastedChildrenSlots += mChildrenCapacities[node];
+        mChildrenCapacities[node] = 0;
+        mChildrenCounts[node] = 0;
+        mFrequencies[node] = NOT_TERMINAL;
+        if (mFreeNodesCount == mFreeNodes.length) {
+            mFreeNodes = grow(mFreeNodes, mFreeNodesCount + (mFreeNodesCount >> 1) + 1);
+        }
+        mFreeNodes[mFreeNodesCount] = node;
+        mFreeNodesCount++;
+    }
+
+    private static int[] grow(int[] array, int minimumCapacity) {
+        final int[] newArray = new int[Math.max(minimumCapacity, array.length + (array.length >> 1))];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static char[] grow(char[] array, int minimumCapacity) {
+        final char[] newArray = new char[Math.max(minimumCapacity, array.length + (array.length >> 1))];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2016 Menny Even-Danan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.anysoftkeyboard.dictionaries;
+
+import com.anysoftkeyboard.base.dictionaries.WordComposer;
+
+/**
+ * The states of a {@link WordsTrie} traversal for the typed word, kept between keystrokes.
+ * <p/>
+ * Level k holds the nodes which matched the first k typed positions (the children of matched nodes,
+ * and the nodes reached by skipping apostrophes). When a character is appended, only the last level is
+ * extended, and when characters are deleted (or changed) the levels after the unchanged prefix are
+ * dropped. So the cost of a keystroke depends on the new character, and not on the word's length.
+ * <p/>
+ * States are kept in parallel primitive arrays, a state's word is found by following its parent.
+ * This class is not thread-safe.
+ */
+final class WordsTrieFrontier {
+    private static final char QUOTE = '\'';
+    private static final int NO_PARENT = -1;
+    private static final int INITIAL_STATES_CAPACITY = 64;
+    private static final int INITIAL_CODES_CAPACITY = 8;
+
+    private final int mMaxDepth;
+
+    private WordsTrie mTrie;
+    private int mTrieModificationsCount;
+
+    //per level
+    private int mLevelsCount;
+    private final int[] mLevelStarts;
+    //the end of the level's matched states, before apostrophes were skipped
+    private final int[] mLevelMatchedEnds;
+    private final boolean[] mLevelSkippedQuotes;
+    private final int[][] mLevelCodes;
+    private final int[] mLevelCodesLengths;
+
+    //per state
+    private int mStatesCount;
+    private int[] mNodes = new int[INITIAL_STATES_CAPACITY];
+    private int[] mDepths = new int[INITIAL_STATES_CAPACITY];
+    private int[] mParents = new int[INITIAL_STATES_CAPACITY];
+    //the signal-to-noise of the state, including its attenuation
+    private float[] mSnrs = new float[INITIAL_STATES_CAPACITY];
+    private float[] mAttenuations = new float[INITIAL_STATES_CAPACITY];
+    //bit d is set if one of the nodes leading to this state was matched at depth d
+    private long[] mMatchedDepths = new long[INITIAL_STATES_CAPACITY];
+
+    /**
+     * @param maxDepth the deepest state to keep. Must not be more than 63.
+     */
+    WordsTrieFrontier(int maxDepth) {
+        mMaxDepth = maxDepth;
+        mLevelStarts = new int[maxDepth + 1];
+        mLevelMatchedEnds = new int[maxDepth + 1];
+        mLevelSkippedQuotes = new boolean[maxDepth + 1];
+        mLevelCodes = new int[maxDepth][];
+        mLevelCodesLengths = new int[maxDepth];
+    }
+
+    /**
+     * Brings the levels up to date with the typed codes, re-using the levels of the unchanged prefix.
+     *
+     * @return false if the typed word is too long to be tracked.
+     */
+    boolean update(WordsTrie trie, WordComposer codes) {
+        final int inputLength = codes.length();
+        if (inputLength > mMaxDepth) return false;
+
+        if (trie != mTrie || trie.getModificationsCount() != mTrieModificationsCount) {
+            mTrie = trie;
+            mTrieModificationsCount = trie.getModificationsCount();
+            mLevelsCount = 0;
+        }
+
+        int unchangedLevels = 0;
+        while (unchangedLevels < mLevelsCount && unchangedLevels < inputLength && isSameCodes(unchangedLevels, codes.getCodesAt(unchangedLevels))) {
+            unchangedLevels++;
+        }
+
+        if (unchangedLevels == 0) {
+            mStatesCount = 0;
+            addState(WordsTrie.ROOT, 0, NO_PARENT, 1.0f, 1.0f, 0L);
+            mLevelStarts[0] = 0;
+            mLevelMatchedEnds[0] = mStatesCount;
+        } else {
+            mStatesCount = mLevelMatchedEnds[unchangedLevels];
+        }
+        mLevelsCount = unchangedLevels;
+
+        while (mLevelsCount < inputLength) {
+            extendLevel(codes.getCodesAt(mLevelsCount));
+        }
+        return true;
+    }
+
+    private boolean isSameCodes(int level, int[] currentCodes) {
+        final int[] levelCodes = mLevelCodes[level];
+        final int length = mLevelCodesLengths[level];
+        for (int codeIndex = 0; codeIndex < length; codeIndex++) {
+            if (codeIndex >= currentCodes.length || currentCodes[codeIndex] != levelCodes[codeIndex])
+                return false;
+        }
+        return length == currentCodes.length || currentCodes[length] == -1;
+    }
+
+    private void storeLevelCodes(int level, int[] currentCodes) {
+        int length = 0;
+        while (length < currentCodes.length && currentCodes[length] != -1) length++;
+        if (mLevelCodes[level] == null || mLevelCodes[level].length < length) {
+            mLevelCodes[level] = new int[Math.max(INITIAL_CODES_CAPACITY, length)];
+        }
+        System.arraycopy(currentCodes, 0, mLevelCodes[level], 0, length);
+        mLevelCodesLengths[level] = length;
+    }
+
+    /**
+     * Matches the children of the last level's states with the next typed position, creating the next level.
+     */
+    private void extendLevel(int[] currentChars) {
+        final WordsTrie trie = mTrie;
+        final int level = mLevelsCount;
+        storeLevelCodes(level, currentChars);
+        final boolean skipQuotes = currentChars[0] != QUOTE;
+        //first, skipping apostrophes, which are added to this level
+        mStatesCount = mLevelMatchedEnds[level];
+        mLevelSkippedQuotes[level] = false;
+        if (skipQuotes) {
+            for (int state = mLevelStarts[level]; state < mStatesCount; state++) {
+                final int depth = mDepths[state];
+                if (depth >= mMaxDepth) continue;
+                final int quoteNode = trie.findChild(mNodes[state], QUOTE);
+                if (quoteNode != WordsTrie.NO_NODE && trie.getChildrenCount(quoteNode) > 0) {
+                    addState(quoteNode, depth + 1, state, mSnrs[state], 1.0f, mMatchedDepths[state]);
+                    mLevelSkippedQuotes[level] = true;
+                }
+            }
+        }
+        final int levelEnd = mStatesCount;
+        //now, matching
+        for (int state = mLevelStarts[level]; state < levelEnd; state++) {
+            final int parentNode = mNodes[state];
+            final int depth = mDepths[state];
+            if (depth >= mMaxDepth) continue;
+            final int count = trie.getChildrenCount(parentNode);
+            for (int i = 0; i < count; i++) {
+                final int node = trie.getChild(parentNode, i);
+                final char c = trie.getCode(node);
+                if (skipQuotes && c == QUOTE) continue;
+                final char lowerC = WordsTrieLookup.toLowerCase(c);
+                for (int j = 0; j < currentChars.length; j++) {
+                    if (currentChars[j] == -1) {
+                        break;
+                    }
+                    if (currentChars[j] == lowerC || currentChars[j] == c) {
+                        final float addedAttenuation = (j > 0 ? 1f : 3f);
+                        addState(node, depth + 1, state, mSnrs[state] * addedAttenuation, addedAttenuation, mMatchedDepths[state] | (1L << depth));
+                    }
+                }
+            }
+        }
+        mLevelsCount++;
+        mLevelStarts[mLevelsCount] = levelEnd;
+        mLevelMatchedEnds[mLevelsCount] = mStatesCount;
+    }
+
+    private void addState(int node, int depth, int parent, float snr, float attenuation, long matchedDepths) {
+        if (mStatesCount == mNodes.length) {
+            final int capacity = mStatesCount * 2;
+            mNodes = grow(mNodes, capacity);
+            mDepths = grow(mDepths, capacity);
+            mParents = grow(mParents, capacity);
+            mSnrs = grow(mSnrs, capacity);
+            mAttenuations = grow(mAttenuations, capacity);
+            long[] newMatchedDepths = new long[capacity];
+            System.arraycopy(mMatchedDepths, 0, newMatchedDepths, 0, mStatesCount);
+            mMatchedDepths = newMatchedDepths;
+        }
+        mNodes[mStatesCount] = node;
+        mDepths[mStatesCount] = depth;
+        mParents[mStatesCount] = parent;
+        mSnrs[mStatesCount] = snr;
+        mAttenuations[mStatesCount] = attenuation;
+        mMatchedDepths[mStatesCount] = matchedDepths;
+        mStatesCount++;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] newArray = new int[capacity];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static float[] grow(float[] array, int capacity) {
+        float[] newArray = new float[capacity];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    /**
+     * @return true if apostrophes were skipped in any of the levels before the given one.
+     */
+    boolean hasSkippedQuotes(int level) {
+        for (int previousLevel = 0; previousLevel < level; previousLevel++) {
+            if (mLevelSkippedQuotes[previousLevel]) return true;
+        }
+        return false;
+    }
+
+    int getLevelStart(int level) {
+        return mLevelStarts[level];
+    }
+
+    /**
+     * The end of the level's states. The last level has only matched states.
+     */
+    int getLevelEnd(int level) {
+        return level == mLevelsCount ? mLevelMatchedEnds[level] : mLevelStarts[level + 1];
+    }
+
+    int getNode(int state) {
+        return mNodes[state];
+    }
+
+    int getDepth(int state) {
+        return mDepths[state];
+    }
+
+    int getParent(int state) {
+        return mParents[state];
+    }
+
+    float getSnr(int state) {
+        return mSnrs[state];
+    }
+
+    /**
+     * The attenuation which was applied when the state's node was matched (1 for a skipped apostrophe).
+     */
+    float getAttenuation(int state) {
+        return mAttenuations[state];
+    }
+
+    boolean wasMatchedAtDepth(int state, int depth) {
+        return (mMatchedDepths[state] & (1L << depth)) != 0;
+    }
+
+    /**
+     * Writes the characters leading to the state (including it) into the given array.
+     */
+    void fillWord(int state, char[] word) {
+        while (state != NO_PARENT && mDepths[state] > 0) {
+            word[mDepths[state] - 1] = mTrie.getCode(mNodes[state]);
+            state = mParents[state];
+        }
+    }
+}
@@ -54,6 +54,18 @@ public class AndroidUserDictionary extends BTreeDictionary {
         return new WordsCursor(cursor);
     }
 
+    @Override
+    protected WordsCursor getWordsCursorForRow(long rowId) {
+        final String rowIdArg = Long.toString(rowId);
+        Cursor cursor = TextUtils.isEmpty(mLocale) ?
+                mContext.getContentResolver().query(Words.CONTENT_URI, PROJECTION, "(" + Words._ID + "=?) AND (" + Words.LOCALE + " IS NULL)", new String[]{rowIdArg}, null) :
+                mContext.getContentResolver().query(Words.CONTENT_URI, PROJECTION, "(" + Words._ID + "=?) AND ((" + Words.LOCALE + " IS NULL) or (" + Words.LOCALE + "=?))", new String[]{rowIdArg, mLocale}, null);
+        //will fall back to reading the entire storage
+        if (cursor == null) return null;
+
+        return new WordsCursor(cursor);
+    }
+
     @Override
     protected void AddWordToStorage(String word, int frequency) {
         if (TextUtils.isEmpty(word)) {
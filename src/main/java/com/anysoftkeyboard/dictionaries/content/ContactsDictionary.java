@@ -25,7 +25,9 @@ import android.content.Intent;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.MatrixCursor;
+import android.os.Build;
 import android.provider.ContactsContract.Contacts;
+import android.support.annotation.NonNull;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.NotificationManagerCompat;
 
@@ -37,6 +39,10 @@ import com.menny.android.anysoftkeyboard.R;
 
 import net.evendanan.chauffeur.lib.permissions.PermissionsFragmentChauffeurActivity;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
 @TargetApi(7)
 public class ContactsDictionary extends BTreeDictionary {
 
@@ -71,6 +77,16 @@ public class ContactsDictionary extends BTreeDictionary {
     protected static final String TAG = "ASK CDict";
 
     private static final String[] PROJECTION = {Contacts._ID, Contacts.DISPLAY_NAME, Contacts.STARRED, Contacts.TIMES_CONTACTED};
+    //there is no update timestamp before API 18, so a renamed contact is only noticed by its name
+    private static final String[] MARKER_PROJECTION = {Contacts._ID, Contacts.STARRED, Contacts.TIMES_CONTACTED, Contacts.DISPLAY_NAME};
+    private static final String[] MARKER_PROJECTION_API18 = {Contacts._ID, Contacts.STARRED, Contacts.TIMES_CONTACTED, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP};
+
+    private static final int MARKER_INDEX_STARRED = 1;
+    private static final int MARKER_INDEX_TIMES = 2;
+    private static final int MARKER_INDEX_LAST_UPDATED = 3;
+    private static final int MARKER_INDEX_DISPLAY_NAME = 3;
+
+    private static final String SNAPSHOT_FILENAME = "contacts_dictionary.snapshot";
 
     private static final int INDEX_STARRED = 2;
     private static final int INDEX_TIMES = 3;
@@ -116,10 +132,71 @@ public class ContactsDictionary extends BTreeDictionary {
         NotificationManagerCompat.from(mContext).notify(requestId, builder.build());
     }
 
+    @Override
+    protected File getStorageSnapshotFile() {
+        return new File(mContext.getCacheDir(), SNAPSHOT_FILENAME);
+    }
+
+    /**
+     * The marker is a hash of the numeric columns of the visible contacts, including their last-update timestamp,
+     * so no names are read. Before API 18 there is no such timestamp, and the display names are hashed instead,
+     * which is still cheaper than tokenizing them.
+     */
+    @Override
+    protected long getStorageChangeMarker() {
+        if (PermissionsFragmentChauffeurActivity.createIntentToPermissionsRequest(mContext, MainSettingsActivity.class, PermissionsRequestCodes.CONTACTS.getRequestCode(), Manifest.permission.READ_CONTACTS) != null) {
+            throw new RuntimeException("We do not have permission to read contacts!");
+        }
+        final boolean hasUpdateTimestamp = Build.VERSION.SDK_INT >= 18;
+        Cursor cursor = mContext.getContentResolver().query(Contacts.CONTENT_URI,
+                hasUpdateTimestamp ? MARKER_PROJECTION_API18 : MARKER_PROJECTION, Contacts.IN_VISIBLE_GROUP + "=?",
+                new String[]{"1"}, null);
+        if (cursor == null) return UNKNOWN_STORAGE_MARKER;
+        try {
+            long marker = cursor.getCount();
+            while (cursor.moveToNext()) {
+                marker = 31 * marker + cursor.getLong(0);
+                marker = 31 * marker + cursor.getInt(MARKER_INDEX_STARRED);
+                marker = 31 * marker + cursor.getInt(MARKER_INDEX_TIMES);
+                if (hasUpdateTimestamp) {
+                    marker = 31 * marker + cursor.getLong(MARKER_INDEX_LAST_UPDATED);
+                } else {
+                    final String displayName = cursor.getString(MARKER_INDEX_DISPLAY_NAME);
+                    marker = 31 * marker + (displayName == null ? 0 : displayName.hashCode());
+                }
+            }
+            return marker == UNKNOWN_STORAGE_MARKER ? 1 : marker;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected WordsCursor getWordsCursorForRow(long rowId) {
+        Cursor cursor = mContext.getContentResolver().query(Contacts.CONTENT_URI,
+                PROJECTION, "(" + Contacts._ID + "=?) AND (" + Contacts.IN_VISIBLE_GROUP + "=?)",
+                new String[]{Long.toString(rowId), "1"}, null);
+        //will fall back to reading the entire storage
+        if (cursor == null) return null;
+
+        return new ContactsWordsCursor(cursor);
+    }
+
     @Override
     protected void addWordFromStorage(String name, int frequency) {
         //the word in Contacts is actually the full name,
         //so, let's break it to individual words.
+        final List<String> words = new ArrayList<>();
+        getWordsOfStorageWord(name, words);
+        for (String word : words) {
+            int oldFrequency = getLoadedWordFrequency(word);
+            if (oldFrequency < frequency)//I had it better!
+                super.addWordFromStorage(word, frequency);
+        }
+    }
+
+    @Override
+    protected void getWordsOfStorageWord(@NonNull String name, @NonNull List<String> words) {
         int len = name.length();
 
         // TODO: Better tokenization for non-Latin writing systems
@@ -146,9 +223,7 @@ public class ContactsDictionary extends BTreeDictionary {
                 // capitalization of i.
                 final int wordLen = word.length();
                 if (wordLen < MAX_WORD_LENGTH && wordLen > 1) {
-                    int oldFrequency = getWordFrequency(word);
-                    if (oldFrequency < frequency)//I had it better!
-                        super.addWordFromStorage(word, frequency);
+                    words.add(word);
                 }
             }
         }
@@ -18,19 +18,19 @@ package com.anysoftkeyboard.dictionaries.sqlite;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.util.SparseArray;
 
 import com.anysoftkeyboard.base.dictionaries.WordComposer;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
 
 public class AbbreviationsDictionary extends SQLiteUserDictionaryBase {
 
     private static final int ABBR_MAX_WORD_LENGTH = 2048;
 
-    private final Map<CharSequence, List<String>> mAbbreviationsMap = new HashMap<>();
+    //only the abbreviations are interned, the exploded sentences are long, and are kept by their abbreviation
+    private final WordsLexicon mAbbreviationsLexicon = new WordsLexicon();
+    //abbreviation's lexicon ID to its exploded sentences
+    private final SparseArray<char[][]> mExplodedSentences = new SparseArray<>();
 
     public AbbreviationsDictionary(Context context, String locale) {
         super("AbbreviationsDictionary", context, locale);
@@ -60,24 +60,30 @@ public class AbbreviationsDictionary extends SQLiteUserDictionaryBase {
     }
 
     private void reportExplodedWords(WordCallback callback, String word) {
-        List<String> explodedStringsList = mAbbreviationsMap.get(word);
-        if (explodedStringsList != null) {
-            for(String explodedString : explodedStringsList)
-                callback.addWord(explodedString.toCharArray(), 0, explodedString.length(), MAX_WORD_FREQUENCY, this);
+        final int abbreviationId = mAbbreviationsLexicon.getId(word);
+        if (abbreviationId == WordsLexicon.NOT_A_WORD) return;
+        final char[][] explodedSentences = mExplodedSentences.get(abbreviationId);
+        if (explodedSentences == null) return;
+        for (char[] explodedSentence : explodedSentences) {
+            callback.addWord(explodedSentence, 0, explodedSentence.length, MAX_WORD_FREQUENCY, this);
         }
     }
 
     @Override
     protected void addWordFromStorage(String word, int frequency) {
         //not double storing the words in memory, so I'm not calling the super method
-        String key = getAbbreviation(word, frequency);
-        String value = getExplodedSentence(word, frequency);
-        if (mAbbreviationsMap.containsKey(key)) {
-            mAbbreviationsMap.get(key).add(value);
+        final String abbreviation = getAbbreviation(word, frequency);
+        int abbreviationId = mAbbreviationsLexicon.getId(abbreviation);
+        if (abbreviationId == WordsLexicon.NOT_A_WORD) abbreviationId = mAbbreviationsLexicon.intern(abbreviation);
+        final char[] explodedSentence = getExplodedSentence(word, frequency).toCharArray();
+        final char[][] explodedSentences = mExplodedSentences.get(abbreviationId);
+        if (explodedSentences == null) {
+            mExplodedSentences.put(abbreviationId, new char[][]{explodedSentence});
         } else {
-            List<String> list = new ArrayList<>(1);
-            list.add(value);
-            mAbbreviationsMap.put(key, list);
+            final char[][] moreExplodedSentences = new char[explodedSentences.length + 1][];
+            System.arraycopy(explodedSentences, 0, moreExplodedSentences, 0, explodedSentences.length);
+            moreExplodedSentences[explodedSentences.length] = explodedSentence;
+            mExplodedSentences.put(abbreviationId, moreExplodedSentences);
         }
     }
 
@@ -84,6 +84,11 @@ public abstract class SQLiteUserDictionaryBase extends BTreeDictionary {
             mStorage.deleteWord(word);
     }
 
+    @Override
+    protected final boolean isStorageObservable() {
+        return false;
+    }
+
     @Override
     protected final void registerObserver(ContentObserver dictionaryContentObserver, ContentResolver contentResolver) {
         //nothing to do here, the storage is internal and cannot be changed from the outside.
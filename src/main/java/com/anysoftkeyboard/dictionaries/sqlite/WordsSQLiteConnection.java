@@ -16,34 +16,81 @@
 
 package com.anysoftkeyboard.dictionaries.sqlite;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 
+import com.anysoftkeyboard.base.dictionaries.DictionaryPersistence;
 import com.anysoftkeyboard.base.dictionaries.WordsCursor;
 import com.anysoftkeyboard.utils.Log;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Words storage in SQLite. The database is opened once, and kept open until {@link #close()}.
+ * Added and deleted words are queued, and applied in one transaction by {@link DictionaryPersistence},
+ * so a burst of changes costs one commit. Reading the words applies the queued changes first.
+ * Changes which could not be applied by {@link #close()} are kept, and queued again by the next connection to the
+ * same database and locale.
+ */
 public class WordsSQLiteConnection extends SQLiteOpenHelper {
     private static final String TAG = "ASK SqliteCnnt";
     private final static String TABLE_NAME = "WORDS";//was FALL_BACK_USER_DICTIONARY;
+    private final static String WORD_LOCALE_INDEX_NAME = "WORDS_WORD_LOCALE";
+    //stored as the locale of words without one. Not NULL, since the unique (word, locale) index treats each NULL as distinct.
+    private static final String NO_LOCALE = "";
+    //a queued change with this frequency deletes the word
+    private static final int DELETE_WORD_FREQUENCY = -1;
+    //changes which could not be applied when their connection was closed, by database and locale
+    private static final HashMap<String, UnappliedChanges> msUnappliedChanges = new HashMap<>();
     protected final Context mContext;
     private final String mCurrentLocale;
     private final String mDbName;
 
+    private final ArrayList<String> mPendingWords = new ArrayList<>();
+    private int[] mPendingFrequencies = new int[16];
+    private final DictionaryPersistence.Write mApplyPendingChanges = new DictionaryPersistence.Write() {
+        @Override
+        public void write() {
+            applyPendingChanges();
+        }
+    };
+    //compiled for mStatementsDb
+    private SQLiteDatabase mStatementsDb;
+    private SQLiteStatement mUpsertStatement;
+    private SQLiteStatement mDeleteStatement;
+
     public WordsSQLiteConnection(Context context, String DbFilename, String currentLocale) {
-        super(context, DbFilename, null, 7);
+        super(context, DbFilename, null, 9);
         mContext = context;
-        mCurrentLocale = currentLocale;
+        mCurrentLocale = TextUtils.isEmpty(currentLocale) ? NO_LOCALE : currentLocale;
         mDbName = DbFilename;
+        final UnappliedChanges unappliedChanges;
+        synchronized (msUnappliedChanges) {
+            unappliedChanges = msUnappliedChanges.remove(getUnappliedChangesKey());
+        }
+        if (unappliedChanges != null) {
+            Log.d(TAG, "Queuing again %d changes which could not be applied to %s.", unappliedChanges.mWords.size(), mDbName);
+            for (int changeIndex = 0; changeIndex < unappliedChanges.mWords.size(); changeIndex++) {
+                queueChange(unappliedChanges.mWords.get(changeIndex), unappliedChanges.mFrequencies[changeIndex]);
+            }
+        }
+    }
+
+    private String getUnappliedChangesKey() {
+        return mDbName + "@" + mCurrentLocale;
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         synchronized (mDbName) {
             db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Words._ID + " INTEGER PRIMARY KEY," + Words.WORD + " TEXT," + Words.FREQUENCY + " INTEGER," + Words.LOCALE + " TEXT" + ");");
+            db.execSQL("CREATE UNIQUE INDEX " + WORD_LOCALE_INDEX_NAME + " ON " + TABLE_NAME + " (" + Words.WORD + "," + Words.LOCALE + ");");
         }
     }
 
@@ -78,47 +125,160 @@ public class WordsSQLiteConnection extends SQLiteOpenHelper {
                 Log.d(TAG, "Renaming the table's name to a generic one...");
                 db.execSQL("ALTER TABLE FALL_BACK_USER_DICTIONARY RENAME TO WORDS;");
             }
+            if (oldVersion < 8) {
+                Log.d(TAG, "Upgrading WordsSQLiteConnection to version 8: Unique words per locale...");
+                //words were keyed by their hash-code, so there could be duplicates. Keeping one of each.
+                db.execSQL("DELETE FROM WORDS WHERE _id NOT IN (SELECT MAX(_id) FROM WORDS GROUP BY word, locale);");
+                db.execSQL("CREATE UNIQUE INDEX WORDS_WORD_LOCALE ON WORDS (word,locale);");
+            }
+            if (oldVersion < 9) {
+                Log.d(TAG, "Upgrading WordsSQLiteConnection to version 9: Empty locale instead of NULL...");
+                //the unique index did not catch duplicates of words without a locale. Keeping one of each.
+                db.execSQL("DELETE FROM WORDS WHERE _id NOT IN (SELECT MAX(_id) FROM WORDS GROUP BY word, IFNULL(locale, ''));");
+                db.execSQL("UPDATE WORDS SET locale='' WHERE locale IS NULL;");
+            }
         }
     }
 
+    /**
+     * Queues the word to be added (or its frequency to be updated) for the current locale.
+     */
     public void addWord(String word, int freq) {
+        queueChange(word, freq);
+    }
+
+    /**
+     * Queues the word to be deleted, in all locales.
+     */
+    public void deleteWord(String word) {
+        queueChange(word, DELETE_WORD_FREQUENCY);
+    }
+
+    private void queueChange(String word, int frequency) {
         synchronized (mDbName) {
-            SQLiteDatabase db = getWritableDatabase();
-
-            ContentValues values = new ContentValues();
-            values.put(Words._ID, word.hashCode());// ensuring that any word is inserted once
-            values.put(Words.WORD, word);
-            values.put(Words.FREQUENCY, freq);
-            values.put(Words.LOCALE, mCurrentLocale);
-            long res = db.insert(TABLE_NAME, null, values);
-            if (res < 0) {
-                Log.e(TAG, "Unable to insert '" + word + "' to SQLite storage (" + mCurrentLocale + "@" + mDbName + ")! Result:" + res);
+            final int changeIndex = mPendingWords.size();
+            if (changeIndex == mPendingFrequencies.length) {
+                final int[] frequencies = new int[changeIndex * 2];
+                System.arraycopy(mPendingFrequencies, 0, frequencies, 0, changeIndex);
+                mPendingFrequencies = frequencies;
             }
-            db.close();
+            mPendingWords.add(word);
+            mPendingFrequencies[changeIndex] = frequency;
         }
+        //the pending apply is replaced, so the whole queue is applied once, after the changes submitted before it
+        DictionaryPersistence.getInstance().persist(this, mApplyPendingChanges);
     }
 
-    public void deleteWord(String word) {
+    /**
+     * Applies the queued changes in one transaction.
+     */
+    private void applyPendingChanges() {
         synchronized (mDbName) {
-            SQLiteDatabase db = getWritableDatabase();
+            final int changesCount = mPendingWords.size();
+            if (changesCount == 0) return;
+            try {
+                final SQLiteDatabase db = getWritableDatabase();
+                compileStatements(db);
+                db.beginTransaction();
+                try {
+                    for (int changeIndex = 0; changeIndex < changesCount; changeIndex++) {
+                        final String word = mPendingWords.get(changeIndex);
+                        final int frequency = mPendingFrequencies[changeIndex];
+                        if (frequency == DELETE_WORD_FREQUENCY) {
+                            mDeleteStatement.bindString(1, word);
+                            mDeleteStatement.execute();
+                        } else {
+                            mUpsertStatement.bindString(1, word);
+                            mUpsertStatement.bindLong(2, frequency);
+                            mUpsertStatement.bindString(3, mCurrentLocale);
+                            if (mUpsertStatement.executeInsert() < 0) {
+                                Log.e(TAG, "Unable to insert '" + word + "' to SQLite storage (" + mCurrentLocale + "@" + mDbName + ")!");
+                            }
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                Log.d(TAG, "Applied %d changes to %s.", changesCount, mDbName);
+                mPendingWords.clear();
+            } catch (SQLiteException e) {
+                //the transaction was rolled back, so all the changes are kept, and tried again on the next apply
+                Log.w(TAG, e, "Failed to apply %d changes to %s! Will try again later.", changesCount, mDbName);
+            }
+        }
+    }
+
+    private void compileStatements(SQLiteDatabase db) {
+        if (mStatementsDb == db) return;
+        closeStatements();
+        //the unique (word, locale) index makes this an update of an existing word
+        mUpsertStatement = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_NAME + " (" + Words.WORD + "," + Words.FREQUENCY + "," + Words.LOCALE + ") VALUES (?,?,?);");
+        mDeleteStatement = db.compileStatement("DELETE FROM " + TABLE_NAME + " WHERE " + Words.WORD + "=?;");
+        mStatementsDb = db;
+    }
 
-            db.delete(TABLE_NAME, Words.WORD + "=?", new String[]{word});
-            db.close();
+    private void closeStatements() {
+        if (mUpsertStatement != null) mUpsertStatement.close();
+        if (mDeleteStatement != null) mDeleteStatement.close();
+        mUpsertStatement = null;
+        mDeleteStatement = null;
+        mStatementsDb = null;
+    }
+
+    /**
+     * Applies the queued changes, and closes the database.
+     * Changes which could not be applied (after one more try) are kept for the next connection.
+     */
+    @Override
+    public void close() {
+        synchronized (mDbName) {
+            applyPendingChanges();
+            //the failure may be transient (say, the database was locked)
+            if (mPendingWords.size() > 0) applyPendingChanges();
+            if (mPendingWords.size() > 0) {
+                Log.w(TAG, "Closing %s with %d changes which could not be applied. Keeping them for the next connection.", mDbName, mPendingWords.size());
+                keepUnappliedChanges();
+                mPendingWords.clear();
+            }
+            closeStatements();
+            super.close();
         }
     }
 
+    /**
+     * @return the words of the current locale, including the queued changes. The database stays open when the cursor is closed.
+     */
     public WordsCursor getWordsCursor() {
         synchronized (mDbName) {
+            applyPendingChanges();
             SQLiteDatabase db = getReadableDatabase();
             Cursor c;
             if (TextUtils.isEmpty(mCurrentLocale)) {
-                //some language packs will not provide locale, and Android _may_ crash here
-                c = db.query(TABLE_NAME, new String[]{Words._ID, Words.WORD, Words.FREQUENCY}, "(" + Words.LOCALE + " IS NULL)", null, null, null, null);
+                //some language packs will not provide locale
+                c = db.query(TABLE_NAME, new String[]{Words._ID, Words.WORD, Words.FREQUENCY}, "(" + Words.LOCALE + "='')", null, null, null, null);
             } else {
-                c = db.query(TABLE_NAME, new String[]{Words._ID, Words.WORD, Words.FREQUENCY}, "(" + Words.LOCALE + " IS NULL) or (" + Words.LOCALE + "=?)", new String[]{mCurrentLocale}, null, null, null);
+                c = db.query(TABLE_NAME, new String[]{Words._ID, Words.WORD, Words.FREQUENCY}, "(" + Words.LOCALE + "='') or (" + Words.LOCALE + "=?)", new String[]{mCurrentLocale}, null, null, null);
             }
 
-            return new WordsCursor.SqliteWordsCursor(db, c);
+            return new WordsCursor(c);
+        }
+    }
+
+    private void keepUnappliedChanges() {
+        synchronized (msUnappliedChanges) {
+            UnappliedChanges unappliedChanges = msUnappliedChanges.get(getUnappliedChangesKey());
+            if (unappliedChanges == null) {
+                unappliedChanges = new UnappliedChanges();
+                msUnappliedChanges.put(getUnappliedChangesKey(), unappliedChanges);
+            }
+            final int changesCount = mPendingWords.size();
+            final int keptChangesCount = unappliedChanges.mWords.size();
+            final int[] frequencies = new int[keptChangesCount + changesCount];
+            System.arraycopy(unappliedChanges.mFrequencies, 0, frequencies, 0, keptChangesCount);
+            System.arraycopy(mPendingFrequencies, 0, frequencies, keptChangesCount, changesCount);
+            unappliedChanges.mWords.addAll(mPendingWords);
+            unappliedChanges.mFrequencies = frequencies;
         }
     }
 
@@ -129,6 +289,11 @@ public class WordsSQLiteConnection extends SQLiteOpenHelper {
         return mDbName;
     }
 
+    private static final class UnappliedChanges {
+        private final ArrayList<String> mWords = new ArrayList<>();
+        private int[] mFrequencies = new int[0];
+    }
+
     public static final class Words {
         public static final java.lang.String _ID = "_id";
         public static final java.lang.String WORD = "word";
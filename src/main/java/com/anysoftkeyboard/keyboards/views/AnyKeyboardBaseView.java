@@ -25,10 +25,13 @@ import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Paint.FontMetrics;
 import android.graphics.Point;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
@@ -38,11 +41,9 @@ import android.os.Message;
 import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.v4.util.ArrayMap;
 import android.support.v4.view.MotionEventCompat;
 import android.text.Layout.Alignment;
 import android.text.StaticLayout;
-import android.text.TextPaint;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.SparseArray;
@@ -81,9 +82,9 @@ import com.menny.android.anysoftkeyboard.BuildConfig;
 import com.menny.android.anysoftkeyboard.R;
 
 import java.lang.ref.WeakReference;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.Map;
 
 public class AnyKeyboardBaseView extends View implements
         PointerTracker.UIProxy, OnSharedPreferenceChangeListener {
@@ -97,6 +98,8 @@ public class AnyKeyboardBaseView extends View implements
 
     // Miscellaneous constants
     public static final int NOT_A_KEY = -1;
+    private static final int MAX_CACHED_LABEL_LAYOUTS = 64;
+    private static final int MAX_CACHED_LABEL_WIDTHS = 256;
 
     private final KeyDrawableStateProvider mDrawableStatesProvider;
 
@@ -117,6 +120,7 @@ public class AnyKeyboardBaseView extends View implements
     private FontMetrics mHintTextFM;
     private int mHintLabelAlign;
     private int mHintLabelVAlign;
+    private RenderConfig mRenderConfig;
     private String mHintOverflowLabel = null;
     private int mShadowColor;
     private int mShadowRadius;
@@ -187,9 +191,13 @@ public class AnyKeyboardBaseView extends View implements
      */
     private boolean mDrawPending;
     /**
-     * The dirty region in the keyboard bitmap
+     * The keys (indices in mKeys) which changed since they were last drawn into the keyboard bitmap
      */
-    private final Rect mDirtyRect = new Rect();
+    private final BitSet mDirtyKeys = new BitSet();
+    private boolean mAllKeysDirty = true;
+    private long mKeysRedrawCount;
+    private int mLastBufferDrawKeysCount;
+    private long mBufferDrawsCount;
     /**
      * The keyboard bitmap for faster updates
      */
@@ -199,14 +207,25 @@ public class AnyKeyboardBaseView extends View implements
      * the mBuffer.
      */
     protected boolean mKeyboardChanged;
-    private Key mInvalidatedKey;
+    /**
+     * Rendered keys, so when the whole keyboard is redrawn into the buffer, a key which looks like a key which
+     * was drawn before is blitted and not re-drawn. Single changed keys (pressed, released) are drawn directly
+     * into the buffer, since the buffer already keeps all the others.
+     * Depends on the theme, keyboard and size, so it is cleared when those change.
+     */
+    private final KeySpriteCache mKeySpriteCache = new KeySpriteCache();
+    private final KeySpriteCache.SpriteKey mKeySpriteKey = new KeySpriteCache.SpriteKey();
+    /**
+     * Layouts of the multi-character labels, so they are not laid out on every redraw.
+     */
+    private final TextLayoutCache mTextLayoutCache = new TextLayoutCache(MAX_CACHED_LABEL_LAYOUTS);
     /**
      * The canvas for the above mutable keyboard bitmap
      */
-    // private Canvas mCanvas;
+    private Canvas mCanvas;
+    private final Paint mClearPaint = new Paint();
     protected final Paint mPaint;
     private final Rect mKeyBackgroundPadding;
-    private final Rect mClipRegion = new Rect(0, 0, 0, 0);
     /*
      * NOTE: this field EXISTS ONLY AFTER THE CTOR IS FINISHED!
      */
@@ -483,6 +502,7 @@ public class AnyKeyboardBaseView extends View implements
         mPaint.setTextSize(mKeyTextSize);
         mPaint.setTextAlign(Align.CENTER);
         mPaint.setAlpha(255);
+        mClearPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
 
         mKeyBackgroundPadding = new Rect(0, 0, 0, 0);
         mKeyBackground.getPadding(mKeyBackgroundPadding);
@@ -504,9 +524,24 @@ public class AnyKeyboardBaseView extends View implements
 
         mKeyRepeatInterval = 50;
 
+        updateRenderConfig();
         AnyApplication.getConfig().addChangedListener(this);
     }
 
+    private void updateRenderConfig() {
+        mRenderConfig = RenderConfig.create(AnyApplication.getConfig()).withKeysTheme(
+                mKeyboardNameTextSize, mHintTextSize, mHintLabelAlign, mHintLabelVAlign,
+                mKeyTextColor, mKeyboardNameTextColor, mHintTextColor);
+    }
+
+    /**
+     * @return the settings and theme values used while drawing. Replaced when the settings change.
+     */
+    @NonNull
+    protected RenderConfig getRenderConfig() {
+        return mRenderConfig;
+    }
+
     protected KeyDetector createKeyDetector(final float slide) {
         return new MiniKeyboardKeyDetector(slide);
     }
@@ -1082,29 +1117,28 @@ public class AnyKeyboardBaseView extends View implements
         // Release the buffer, if any and it will be reallocated on the next
         // draw
         releaseDrawBuffer();
+        // pages of a third of the keyboard, up to one keyboard of pixels (on top of the buffer's)
+        mKeySpriteCache.setAtlasDimensions(w, h / 3, w * h);
     }
 
     protected void releaseDrawBuffer() {
         if (mBuffer != null)
             mBuffer.recycle();
         mBuffer = null;
+        mCanvas = null;
+        mAllKeysDirty = true;
     }
 
     private static class KeyboardDrawOperation implements MemRelatedOperation {
 
         private final AnyKeyboardBaseView mView;
-        private Canvas mCanvas;
 
         public KeyboardDrawOperation(AnyKeyboardBaseView keyboard) {
             mView = keyboard;
         }
 
-        public void setCanvas(Canvas canvas) {
-            mCanvas = canvas;
-        }
-
         public void operation() {
-            mView.onBufferDraw(mCanvas);
+            mView.onBufferDraw();
         }
     }
 
@@ -1115,7 +1149,6 @@ public class AnyKeyboardBaseView extends View implements
     @Override
     public void onDraw(final Canvas canvas) {
         super.onDraw(canvas);
-        mDrawOperation.setCanvas(canvas);
 
         if (mDrawPending || mBuffer == null || mKeyboardChanged) {
             GCUtils.getInstance().performOperationWithMemRetry(TAG, mDrawOperation, true);
@@ -1123,126 +1156,83 @@ public class AnyKeyboardBaseView extends View implements
         // maybe there is no buffer, since drawing was not done.
         if (mBuffer != null)
             canvas.drawBitmap(mBuffer, 0.0f, 0.0f, null);
+        // Overlay a dark rectangle to dim the keyboard
+        if (mMiniKeyboardPopup.isShowing()) {
+            mPaint.setColor((int) (mBackgroundDimAmount * 0xFF) << 24);
+            canvas.drawRect(0, 0, getWidth(), getHeight(), mPaint);
+        }
     }
 
-    private void onBufferDraw(Canvas canvas) {
-        if (mKeyboardChanged) {
-            invalidateAllKeys();
+    /**
+     * Draws the keys which changed since the last draw into the keyboard bitmap.
+     * All the keys are drawn when the keyboard, or the bitmap, is new.
+     */
+    private void onBufferDraw() {
+        final int width = getWidth();
+        final int height = getHeight();
+        if (width <= 0 || height <= 0)
+            return;
+
+        if (mBuffer == null || mKeyboardChanged) {
+            if (mBuffer == null || mBuffer.getWidth() != width || mBuffer.getHeight() != height) {
+                releaseDrawBuffer();
+                mBuffer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mCanvas = new Canvas(mBuffer);
+            }
+            mAllKeysDirty = true;
             mKeyboardChanged = false;
         }
 
-        canvas.getClipBounds(mDirtyRect);
+        final boolean drawAllKeys = mAllKeysDirty;
+        if (drawAllKeys)
+            mBuffer.eraseColor(Color.TRANSPARENT);
 
-        if (mKeyboard == null)
+        if (mKeyboard == null) {
+            onBufferDrawDone(0);
             return;
+        }
+
+        final Canvas canvas = mCanvas;
+        final BitSet dirtyKeys = mDirtyKeys;
+        int drawnKeysCount = 0;
 
-        final boolean drawKeyboardNameText = (mKeyboardNameTextSize > 1f)
-                && AnyApplication.getConfig().getShowKeyboardNameText();
-
-        final boolean drawHintText = (mHintTextSize > 1) && AnyApplication.getConfig().getShowHintTextOnKeys();
-
-        final boolean useCustomKeyTextColor = false;
-        // TODO: final boolean useCustomKeyTextColor =
-        // AnyApplication.getConfig().getUseCustomTextColorOnKeys();
-        final ColorStateList keyTextColor = useCustomKeyTextColor ? new ColorStateList(
-                new int[][]{{0}}, new int[]{0xFF6666FF})
-                : mKeyTextColor;
-        // TODO: ? AnyApplication.getConfig().getCustomKeyTextColorOnKeys() :
-        // mKeyTextColor;
-
-        final boolean useCustomHintColor = drawHintText && false;
-        // TODO: final boolean useCustomHintColor = drawHintText &&
-        // AnyApplication.getConfig().getUseCustomHintColorOnKeys();
-        final ColorStateList hintColor = useCustomHintColor ? new ColorStateList(
-                new int[][]{{0}}, new int[]{0xFFFF6666})
-                : mHintTextColor;
-        // TODO: ? AnyApplication.getConfig().getCustomHintColorOnKeys() :
-        // mHintTextColor;
-
-        // allow preferences to override theme settings for hint text position
-        final boolean useCustomHintAlign = drawHintText
-                && AnyApplication.getConfig().getUseCustomHintAlign();
-        final int hintAlign = useCustomHintAlign ? AnyApplication.getConfig()
-                .getCustomHintAlign() : mHintLabelAlign;
-        final int hintVAlign = useCustomHintAlign ? AnyApplication.getConfig()
-                .getCustomHintVAlign() : mHintLabelVAlign;
+        final RenderConfig renderConfig = mRenderConfig;
+        final boolean drawKeyboardNameText = renderConfig.drawKeyboardNameText;
+        final boolean drawHintText = renderConfig.drawHintText;
+        final ColorStateList keyTextColor = renderConfig.keyTextColor;
+        final ColorStateList keyboardNameTextColor = renderConfig.keyboardNameTextColor;
+        final ColorStateList hintColor = renderConfig.hintTextColor;
+        // preferences may override theme settings for hint text position
+        final int hintAlign = renderConfig.hintAlign;
+        final int hintVAlign = renderConfig.hintVAlign;
 
         final Paint paint = mPaint;
         final Drawable keyBackground = mKeyBackground;
-        final Rect clipRegion = mClipRegion;
         final int kbdPaddingLeft = getPaddingLeft();
         final int kbdPaddingTop = getPaddingTop();
         final Key[] keys = mKeys;
-        final Key invalidKey = mInvalidatedKey;
-
-        boolean drawSingleKey = false;
-        if (invalidKey != null && canvas.getClipBounds(clipRegion)) {
-            // TODO we should use Rect.inset and Rect.contains here.
-            // Is clipRegion completely contained within the invalidated key?
-            if (invalidKey.x + kbdPaddingLeft - 1 <= clipRegion.left
-                    && invalidKey.y + kbdPaddingTop - 1 <= clipRegion.top
-                    && invalidKey.x + invalidKey.width + kbdPaddingLeft + 1 >= clipRegion.right
-                    && invalidKey.y + invalidKey.height + kbdPaddingTop + 1 >= clipRegion.bottom) {
-                drawSingleKey = true;
-            }
-        }
 
-        for (Key keyBase : keys) {
-            final AnyKey key = (AnyKey) keyBase;
-            final boolean keyIsSpace = isSpaceKey(key);
-
-            if (drawSingleKey && (invalidKey != key)) {
+        for (int keyIndex = 0; keyIndex < keys.length; keyIndex++) {
+            if (!drawAllKeys && !dirtyKeys.get(keyIndex)) {
                 continue;
             }
-            if (!mDirtyRect.intersects(key.x + kbdPaddingLeft, key.y
-                    + kbdPaddingTop, key.x + key.width + kbdPaddingLeft, key.y
-                    + key.height + kbdPaddingTop)) {
-                continue;
+            final AnyKey key = (AnyKey) keys[keyIndex];
+            final boolean keyIsSpace = isSpaceKey(key);
+            drawnKeysCount++;
+
+            if (!drawAllKeys) {
+                // the key is drawn over its previous state
+                canvas.drawRect(key.x + kbdPaddingLeft, key.y + kbdPaddingTop,
+                        key.x + key.width + kbdPaddingLeft, key.y + key.height + kbdPaddingTop, mClearPaint);
             }
             int[] drawableState = key.getCurrentDrawableState(mDrawableStatesProvider);
 
-            if (keyIsSpace)
-                paint.setColor(mKeyboardNameTextColor.getColorForState(
-                        drawableState, 0xFF000000));
-            else
-                paint.setColor(keyTextColor.getColorForState(drawableState,
-                        0xFF000000));
-            keyBackground.setState(drawableState);
-
             // Switch the character to uppercase if shift is pressed
             CharSequence label = key.label == null ? null : adjustLabelToShiftState(key);
-
-            final Rect bounds = keyBackground.getBounds();
-            if ((key.width != bounds.right) || (key.height != bounds.bottom)) {
-                keyBackground.setBounds(0, 0, key.width, key.height);
-            }
-            canvas.translate(key.x + kbdPaddingLeft, key.y + kbdPaddingTop);
-            keyBackground.draw(canvas);
-
+            Drawable iconToDraw = null;
             if (TextUtils.isEmpty(label)) {
-                Drawable iconToDraw = getIconToDrawForKey(key, false);
+                iconToDraw = getIconToDrawForKey(key, false);
                 if (iconToDraw != null/* && shouldDrawIcon */) {
-                    //http://developer.android.com/reference/android/graphics/drawable/Drawable.html#getCurrent()
-                    //http://stackoverflow.com/a/103600/1324235
-                    final boolean is9Patch = iconToDraw.getCurrent() instanceof NinePatchDrawable;
-
-                    // Special handing for the upper-right number hint icons
-                    final int drawableWidth;
-                    final int drawableHeight;
-                    final int drawableX;
-                    final int drawableY;
-
-                    drawableWidth = is9Patch ? key.width : iconToDraw.getIntrinsicWidth();
-                    drawableHeight = is9Patch ? key.height : iconToDraw.getIntrinsicHeight();
-                    drawableX = (key.width + mKeyBackgroundPadding.left
-                            - mKeyBackgroundPadding.right - drawableWidth) / 2;
-                    drawableY = (key.height + mKeyBackgroundPadding.top
-                            - mKeyBackgroundPadding.bottom - drawableHeight) / 2;
-
-                    canvas.translate(drawableX, drawableY);
-                    iconToDraw.setBounds(0, 0, drawableWidth, drawableHeight);
-                    iconToDraw.draw(canvas);
-                    canvas.translate(-drawableX, -drawableY);
                     if (keyIsSpace && drawKeyboardNameText) {
                         // now a little hack, I'll set the label now, so it get
                         // drawn.
@@ -1254,6 +1244,59 @@ public class AnyKeyboardBaseView extends View implements
                     label = guessLabelForKey(key.getPrimaryCode());
                 }
             }
+            final String hintText = drawHintText ? getHintTextForKey(key, hintVAlign) : null;
+
+            canvas.translate(key.x + kbdPaddingLeft, key.y + kbdPaddingTop);
+            Canvas spriteCanvas = null;
+            if (drawAllKeys) {
+                // a key which looks exactly like a key which was drawn before is copied from the sprites atlas
+                mKeySpriteKey.set(drawableState, label, iconToDraw, hintText, keyIsSpace, key.getCodesCount() < 2,
+                        mKeyboard.isShifted(), key.width, key.height);
+                if (mKeySpriteCache.drawSprite(canvas, mKeySpriteKey)) {
+                    canvas.translate(-key.x - kbdPaddingLeft, -key.y - kbdPaddingTop);
+                    continue;
+                }
+                spriteCanvas = mKeySpriteCache.beginSprite(mKeySpriteKey);
+            }
+            final Canvas keyCanvas = spriteCanvas == null ? canvas : spriteCanvas;
+
+            if (keyIsSpace)
+                paint.setColor(keyboardNameTextColor.getColorForState(
+                        drawableState, 0xFF000000));
+            else
+                paint.setColor(keyTextColor.getColorForState(drawableState,
+                        0xFF000000));
+            keyBackground.setState(drawableState);
+
+            final Rect bounds = keyBackground.getBounds();
+            if ((key.width != bounds.right) || (key.height != bounds.bottom)) {
+                keyBackground.setBounds(0, 0, key.width, key.height);
+            }
+            keyBackground.draw(keyCanvas);
+
+            if (iconToDraw != null) {
+                //http://developer.android.com/reference/android/graphics/drawable/Drawable.html#getCurrent()
+                //http://stackoverflow.com/a/103600/1324235
+                final boolean is9Patch = iconToDraw.getCurrent() instanceof NinePatchDrawable;
+
+                // Special handing for the upper-right number hint icons
+                final int drawableWidth;
+                final int drawableHeight;
+                final int drawableX;
+                final int drawableY;
+
+                drawableWidth = is9Patch ? key.width : iconToDraw.getIntrinsicWidth();
+                drawableHeight = is9Patch ? key.height : iconToDraw.getIntrinsicHeight();
+                drawableX = (key.width + mKeyBackgroundPadding.left
+                        - mKeyBackgroundPadding.right - drawableWidth) / 2;
+                drawableY = (key.height + mKeyBackgroundPadding.top
+                        - mKeyBackgroundPadding.bottom - drawableHeight) / 2;
+
+                keyCanvas.translate(drawableX, drawableY);
+                iconToDraw.setBounds(0, 0, drawableWidth, drawableHeight);
+                iconToDraw.draw(keyCanvas);
+                keyCanvas.translate(-drawableX, -drawableY);
+            }
 
             if (label != null) {
                 // For characters, use large font. For labels like "Done", use
@@ -1299,135 +1342,86 @@ public class AnyKeyboardBaseView extends View implements
                 // so, we'll use the RTL secured drawing (via StaticLayout) for
                 // labels.
                 if (label.length() > 1
-                        && !AnyApplication.getConfig().workaround_alwaysUseDrawText()) {
+                        && !renderConfig.alwaysUseDrawText) {
                     // calculate Y coordinate of top of text based on center
                     // location
                     textY = centerY - ((labelHeight - paint.descent()) / 2);
-                    canvas.translate(textX, textY);
+                    keyCanvas.translate(textX, textY);
                     // RTL fix. But it costs, let do it when in need (more than
                     // 1 character)
-                    StaticLayout labelText = new StaticLayout(label,
-                            new TextPaint(paint), (int) textWidth,
-                            Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
-                    labelText.draw(canvas);
+                    StaticLayout labelText = mTextLayoutCache.getLayout(label,
+                            paint, (int) textWidth, Alignment.ALIGN_NORMAL);
+                    labelText.draw(keyCanvas);
                 } else {
                     // to get Y coordinate of baseline from center of text,
                     // first add half the height (to get to
                     // bottom of text), then subtract the part below the
                     // baseline. Note that fm.top is negative.
                     textY = centerY + ((labelHeight - paint.descent()) / 2);
-                    canvas.translate(textX, textY);
-                    canvas.drawText(label, 0, label.length(), 0, 0, paint);
+                    keyCanvas.translate(textX, textY);
+                    keyCanvas.drawText(label, 0, label.length(), 0, 0, paint);
                 }
-                canvas.translate(-textX, -textY);
+                keyCanvas.translate(-textX, -textY);
                 // (-)
 
                 // Turn off drop shadow
                 paint.setShadowLayer(0, 0, 0, 0);
             }
 
-            if (drawHintText) {
-                if ((key.popupCharacters != null && key.popupCharacters
-                        .length() > 0)
-                        || (key.popupResId != 0)
-                        || (key.longPressCode != 0)) {
-                    Align oldAlign = paint.getTextAlign();
-
-                    String hintText = null;
-
-                    if (key.hintLabel != null && key.hintLabel.length() > 0) {
-                        hintText = key.hintLabel.toString();
-                        // it is the responsibility of the keyboard layout
-                        // designer to ensure that they do
-                        // not put too many characters in the hint label...
-                    } else if (key.longPressCode != 0) {
-                        if (Character.isLetterOrDigit(key.longPressCode))
-                            hintText = Character
-                                    .toString((char) key.longPressCode);
-                    } else if (key.popupCharacters != null) {
-                        final String hintString = key.popupCharacters
-                                .toString();
-                        final int hintLength = hintString.length();
-                        if (hintLength <= 3)
-                            hintText = hintString;
-                    }
-
-                    // if hintText is still null, it means it didn't fit one of
-                    // the above
-                    // cases, so we should provide the hint using the default
-                    if (hintText == null) {
-                        if (mHintOverflowLabel != null)
-                            hintText = mHintOverflowLabel;
-                        else {
-                            // theme does not provide a defaultHintLabel
-                            // use ˙˙˙ if hints are above, ... if hints are
-                            // below
-                            // (to avoid being too close to main label/icon)
-                            if (hintVAlign == Gravity.TOP)
-                                hintText = "˙˙˙";
-                            else
-                                hintText = "...";
-                        }
-                    }
-
-                    if (mKeyboard.isShifted())
-                        hintText = hintText.toUpperCase(getKeyboard().getLocale());
-
-                    // now draw hint
-                    paint.setTypeface(Typeface.DEFAULT);
-                    paint.setColor(hintColor.getColorForState(drawableState, 0xFF000000));
-                    paint.setTextSize(mHintTextSize);
-                    // get the hint text font metrics so that we know the size
-                    // of the hint when
-                    // we try to position the main label (to try to make sure
-                    // they don't overlap)
-                    if (mHintTextFM == null) {
-                        mHintTextFM = paint.getFontMetrics();
-                    }
-
-                    final float hintX;
-                    final float hintY;
-
-                    // the (float) 0.5 value is added or subtracted to just give
-                    // a little more room
-                    // in case the theme designer didn't account for the hint
-                    // label location
-                    if (hintAlign == Gravity.START) {
-                        // left
-                        paint.setTextAlign(Align.LEFT);
-                        hintX = mKeyBackgroundPadding.left + 0.5f;
-                    } else if (hintAlign == Gravity.CENTER) {
-                        // center
-                        paint.setTextAlign(Align.CENTER);
-                        hintX = mKeyBackgroundPadding.left
-                                + (key.width - mKeyBackgroundPadding.left - mKeyBackgroundPadding.right) / 2;
-                    } else {
-                        // right
-                        paint.setTextAlign(Align.RIGHT);
-                        hintX = key.width - mKeyBackgroundPadding.right - 0.5f;
-                    }
+            if (hintText != null) {
+                Align oldAlign = paint.getTextAlign();
+
+                // now draw hint
+                paint.setTypeface(Typeface.DEFAULT);
+                paint.setColor(hintColor.getColorForState(drawableState, 0xFF000000));
+                paint.setTextSize(mHintTextSize);
+                // get the hint text font metrics so that we know the size
+                // of the hint when
+                // we try to position the main label (to try to make sure
+                // they don't overlap)
+                if (mHintTextFM == null) {
+                    mHintTextFM = paint.getFontMetrics();
+                }
 
-                    if (hintVAlign == Gravity.TOP) {
-                        // above
-                        hintY = mKeyBackgroundPadding.top - mHintTextFM.top + 0.5f;
-                    } else {
-                        // below
-                        hintY = key.height - mKeyBackgroundPadding.bottom - mHintTextFM.bottom - 0.5f;
-                    }
+                final float hintX;
+                final float hintY;
+
+                // the (float) 0.5 value is added or subtracted to just give
+                // a little more room
+                // in case the theme designer didn't account for the hint
+                // label location
+                if (hintAlign == Gravity.START) {
+                    // left
+                    paint.setTextAlign(Align.LEFT);
+                    hintX = mKeyBackgroundPadding.left + 0.5f;
+                } else if (hintAlign == Gravity.CENTER) {
+                    // center
+                    paint.setTextAlign(Align.CENTER);
+                    hintX = mKeyBackgroundPadding.left
+                            + (key.width - mKeyBackgroundPadding.left - mKeyBackgroundPadding.right) / 2;
+                } else {
+                    // right
+                    paint.setTextAlign(Align.RIGHT);
+                    hintX = key.width - mKeyBackgroundPadding.right - 0.5f;
+                }
 
-                    canvas.drawText(hintText, hintX, hintY, paint);
-                    paint.setTextAlign(oldAlign);
+                if (hintVAlign == Gravity.TOP) {
+                    // above
+                    hintY = mKeyBackgroundPadding.top - mHintTextFM.top + 0.5f;
+                } else {
+                    // below
+                    hintY = key.height - mKeyBackgroundPadding.bottom - mHintTextFM.bottom - 0.5f;
                 }
+
+                keyCanvas.drawText(hintText, hintX, hintY, paint);
+                paint.setTextAlign(oldAlign);
             }
 
+            if (spriteCanvas != null) mKeySpriteCache.endSprite(canvas);
+
             canvas.translate(-key.x - kbdPaddingLeft, -key.y - kbdPaddingTop);
         }
-        mInvalidatedKey = null;
-        // Overlay a dark rectangle to dim the keyboard
-        if (mMiniKeyboardPopup.isShowing()) {
-            paint.setColor((int) (mBackgroundDimAmount * 0xFF) << 24);
-            canvas.drawRect(0, 0, getWidth(), getHeight(), paint);
-        }
+        onBufferDrawDone(drawnKeysCount);
 
         /**code to show touch points
          if (FeaturesSet.DEBUG_LOG) {
@@ -1448,54 +1442,109 @@ public class AnyKeyboardBaseView extends View implements
          }
          }
          */
+    }
 
+    private void onBufferDrawDone(int drawnKeysCount) {
+        mDirtyKeys.clear();
+        mAllKeysDirty = false;
         mDrawPending = false;
-        mDirtyRect.setEmpty();
+        mBufferDrawsCount++;
+        mLastBufferDrawKeysCount = drawnKeysCount;
+        mKeysRedrawCount += drawnKeysCount;
     }
 
-    private static class TextWidthCacheValue {
-        private final float mTextSize;
-        private final float mTextWidth;
+    /**
+     * @return the number of keys which were drawn into the keyboard bitmap so far. For tests and benchmarks.
+     */
+    public long getKeysRedrawCount() {
+        return mKeysRedrawCount;
+    }
 
-        private TextWidthCacheValue(float textSize, float textWidth) {
-            mTextSize = textSize;
-            mTextWidth = textWidth;
-        }
+    /**
+     * @return the number of keys which were drawn in the last update of the keyboard bitmap. For tests and benchmarks.
+     */
+    public int getLastBufferDrawKeysCount() {
+        return mLastBufferDrawKeysCount;
+    }
 
-        public float setCachedValues(Paint paint) {
-            paint.setTextSize(mTextSize);
-            return mTextWidth;
-        }
+    /**
+     * @return the number of times the keyboard bitmap was updated so far. For tests and benchmarks.
+     */
+    public long getBufferDrawsCount() {
+        return mBufferDrawsCount;
     }
 
-    private static class TextWidthCacheKey {
-        private final CharSequence mLabel;
-        private final int mKeyWidth;
+    /**
+     * @return the number of key appearances in the sprites atlas. For tests.
+     */
+    int getKeySpritesCount() {
+        return mKeySpriteCache.getSpritesCount();
+    }
 
-        private TextWidthCacheKey(CharSequence label, int keyWidth) {
-            mLabel = label;
-            mKeyWidth = keyWidth;
+    /**
+     * @return the hint to draw on the key, or null if the key has no popup.
+     */
+    @Nullable
+    private String getHintTextForKey(AnyKey key, int hintVAlign) {
+        if ((key.popupCharacters == null || key.popupCharacters.length() == 0)
+                && (key.popupResId == 0)
+                && (key.longPressCode == 0)) {
+            return null;
         }
 
-        @Override
-        public int hashCode() {
-            return mLabel.hashCode() + mKeyWidth;
+        String hintText = null;
+
+        if (key.hintLabel != null && key.hintLabel.length() > 0) {
+            hintText = key.hintLabel.toString();
+            // it is the responsibility of the keyboard layout
+            // designer to ensure that they do
+            // not put too many characters in the hint label...
+        } else if (key.longPressCode != 0) {
+            if (Character.isLetterOrDigit(key.longPressCode))
+                hintText = Character
+                        .toString((char) key.longPressCode);
+        } else if (key.popupCharacters != null) {
+            final String hintString = key.popupCharacters
+                    .toString();
+            final int hintLength = hintString.length();
+            if (hintLength <= 3)
+                hintText = hintString;
+        }
+
+        // if hintText is still null, it means it didn't fit one of
+        // the above
+        // cases, so we should provide the hint using the default
+        if (hintText == null) {
+            if (mHintOverflowLabel != null)
+                hintText = mHintOverflowLabel;
+            else {
+                // theme does not provide a defaultHintLabel
+                // use ˙˙˙ if hints are above, ... if hints are
+                // below
+                // (to avoid being too close to main label/icon)
+                if (hintVAlign == Gravity.TOP)
+                    hintText = "˙˙˙";
+                else
+                    hintText = "...";
+            }
         }
 
-        @Override
-        public boolean equals(Object o) {
-            return (o instanceof TextWidthCacheKey
-                    && ((TextWidthCacheKey) o).mKeyWidth == mKeyWidth
-                    && ((TextWidthCacheKey) o).mLabel.equals(mLabel));
-        }
+        if (mKeyboard.isShifted())
+            hintText = hintText.toUpperCase(getKeyboard().getLocale());
+
+        return hintText;
     }
 
-    private final Map<TextWidthCacheKey, TextWidthCacheValue> mTextWidthCache = new ArrayMap<>();
+    /**
+     * The text size and width each label was fitted to, per key width. Reset per keyboard.
+     */
+    private final TextWidthCache mTextWidthCache = new TextWidthCache(MAX_CACHED_LABEL_WIDTHS);
 
     private float adjustTextSizeForLabel(final Paint paint, final CharSequence label, final int width) {
-        TextWidthCacheKey cacheKey = new TextWidthCacheKey(label, width);
-        if (mTextWidthCache.containsKey(cacheKey)) {
-            return mTextWidthCache.get(cacheKey).setCachedValues(paint);
+        final int cachedIndex = mTextWidthCache.indexOf(label, width);
+        if (cachedIndex != TextWidthCache.NOT_FOUND) {
+            paint.setTextSize(mTextWidthCache.getTextSize(cachedIndex));
+            return mTextWidthCache.getTextWidth(cachedIndex);
         }
         float textSize = paint.getTextSize();
         float textWidth = paint.measureText(label, 0, label.length());
@@ -1520,7 +1569,7 @@ public class AnyKeyboardBaseView extends View implements
             }
         }
 
-        mTextWidthCache.put(cacheKey, new TextWidthCacheValue(textSize, textWidth));
+        mTextWidthCache.put(label, width, textSize, textWidth);
         return textWidth;
     }
 
@@ -1548,6 +1597,7 @@ public class AnyKeyboardBaseView extends View implements
 
         // setting the icon/text
         setSpecialKeysIconsAndLabels();
+        invalidateAllKeys();
     }
 
     private void setSpecialKeysIconsAndLabels() {
@@ -1587,6 +1637,8 @@ public class AnyKeyboardBaseView extends View implements
         setSpecialKeyIconOrLabel(KeyCodes.KEYBOARD_MODE_CHANGE);
 
         mTextWidthCache.clear();
+        mKeySpriteCache.clear();
+        mTextLayoutCache.clear();
     }
 
     private void setSpecialKeyIconOrLabel(int keyCode) {
@@ -1784,7 +1836,7 @@ public class AnyKeyboardBaseView extends View implements
      * @see #invalidateKey(Key)
      */
     public void invalidateAllKeys() {
-        mDirtyRect.union(0, 0, getWidth(), getHeight());
+        mAllKeysDirty = true;
         mDrawPending = true;
         invalidate();
     }
@@ -1800,18 +1852,28 @@ public class AnyKeyboardBaseView extends View implements
     public void invalidateKey(Key key) {
         if (key == null)
             return;
-        mInvalidatedKey = key;
-        // TODO we should clean up this and record key's region to use in
-        // onBufferDraw.
-        mDirtyRect.union(key.x + getPaddingLeft(), key.y + getPaddingTop(),
-                key.x + key.width + getPaddingLeft(), key.y + key.height
-                        + getPaddingTop());
-        // doOnBufferDrawWithMemProtection(mCanvas);
+        final int keyIndex = indexOfKey(key);
+        if (keyIndex == NOT_A_KEY)
+            return;
+        // keys which change within the same frame are drawn together, and only them.
+        mDirtyKeys.set(keyIndex);
+        mDrawPending = true;
         invalidate(key.x + getPaddingLeft(), key.y + getPaddingTop(), key.x
                 + key.width + getPaddingLeft(), key.y + key.height
                 + getPaddingTop());
     }
 
+    private int indexOfKey(Key key) {
+        final Key[] keys = mKeys;
+        if (keys == null)
+            return NOT_A_KEY;
+        for (int keyIndex = 0; keyIndex < keys.length; keyIndex++) {
+            if (keys[keyIndex] == key)
+                return keyIndex;
+        }
+        return NOT_A_KEY;
+    }
+
     private boolean openPopupIfRequired(int keyIndex, PointerTracker tracker) {
         Key popupKey = tracker.getKey(keyIndex);
         if (popupKey == null)
@@ -2220,6 +2282,8 @@ public class AnyKeyboardBaseView extends View implements
             CompatUtils.unbindDrawable(d);
         }
         mKeysIcons.clear();
+        mKeySpriteCache.clear();
+        mTextLayoutCache.clear();
     }
 
     public void onViewNotRequired() {
@@ -2233,6 +2297,9 @@ public class AnyKeyboardBaseView extends View implements
         }
         mKeysIcons.clear();
         mKeysIconBuilders.clear();
+        mKeySpriteCache.clear();
+        mTextLayoutCache.clear();
+        releaseDrawBuffer();
         CompatUtils.unbindDrawable(mKeyBackground);
         mPreviewPopupManager.resetAllPreviews();
         CompatUtils.unbindDrawable(mPreviewPopupTheme.getPreviewKeyBackground());
@@ -2266,6 +2333,11 @@ public class AnyKeyboardBaseView extends View implements
 
         mAnimationLevel = AnyApplication.getConfig().getAnimationsLevel();
         mMiniKeyboardPopup.setAnimationStyle((mAnimationLevel == AnimationsLevel.None) ? 0 : R.style.MiniKeyboardAnimation);
+        updateRenderConfig();
+        // hints and labels settings change the way keys look
+        mKeySpriteCache.clear();
+        mTextLayoutCache.clear();
+        invalidateAllKeys();
     }
 
     public boolean dismissPopupKeyboard() {
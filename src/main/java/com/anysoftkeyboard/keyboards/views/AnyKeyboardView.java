@@ -370,7 +370,7 @@ public class AnyKeyboardView extends AnyKeyboardBaseView {
             Log.w(TAG, "Call for popTextOutOfKey with missing text argument!");
             return;
         }
-        if (!AnyApplication.getConfig().workaround_alwaysUseDrawText())
+        if (!getRenderConfig().alwaysUseDrawText)
             return;// not doing it with StaticLayout
 
         mPopOutTextReverting = false;
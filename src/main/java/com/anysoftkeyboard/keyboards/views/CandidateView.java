@@ -28,7 +28,6 @@ import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 import android.text.Layout.Alignment;
 import android.text.StaticLayout;
-import android.text.TextPaint;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.GestureDetector;
@@ -57,6 +56,7 @@ public class CandidateView extends View {
     private final int[] mWordWidth = new int[MAX_SUGGESTIONS];
     private final int[] mWordX = new int[MAX_SUGGESTIONS];
     private static final int SCROLL_PIXELS = 20;
+    private static final int MAX_CACHED_SUGGESTION_LAYOUTS = 2 * MAX_SUGGESTIONS;
     private final ArrayList<CharSequence> mSuggestions = new ArrayList<>();
     private final Drawable mSelectionHighlight;
     private final float mXGap;
@@ -64,7 +64,9 @@ public class CandidateView extends View {
     private final int mColorRecommended;
     private final int mColorOther;
     private final Paint mPaint;
-    private final TextPaint mTextPaint;
+    private final TextLayoutCache mTextLayoutCache = new TextLayoutCache(MAX_CACHED_SUGGESTION_LAYOUTS);
+    @NonNull
+    private RenderConfig mRenderConfig = RenderConfig.create(AnyApplication.getConfig());
     private final GestureDetector mGestureDetector;
     private AnySoftKeyboard mService;
     private boolean mNoticing = false;
@@ -144,7 +146,6 @@ public class CandidateView extends View {
         mPaint.setTextSize(fontSizePixel);
         mPaint.setStrokeWidth(0);
         mPaint.setTextAlign(Align.CENTER);
-        mTextPaint = new TextPaint(mPaint);
         final int minTouchableWidth = context.getResources().getDimensionPixelOffset(R.dimen.candidate_min_touchable_width);
         mGestureDetector = new GestureDetector(context, new CandidateStripGestureListener(minTouchableWidth));
         setWillNotDraw(false);
@@ -153,6 +154,21 @@ public class CandidateView extends View {
         scrollTo(0, getScrollY());
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // the layouts are bound to the theme's fonts, and a new theme comes with a new view.
+        mTextLayoutCache.clear();
+    }
+
+    /**
+     * Sets the settings used while drawing. Should be called when the settings change.
+     */
+    public void setRenderConfig(@NonNull RenderConfig renderConfig) {
+        mRenderConfig = renderConfig;
+        invalidate();
+    }
+
     /**
      * A connection back to the service to communicate with the text field
      */
@@ -194,6 +210,7 @@ public class CandidateView extends View {
         final int scrollX = getScrollX();
         final boolean scrolled = mScrolled;
         final boolean typedWordValid = mTypedWordValid;
+        final RenderConfig renderConfig = mRenderConfig;
 
         int x = 0;
         for (int i = 0; i < count; i++) {
@@ -243,7 +260,7 @@ public class CandidateView extends View {
 
             if (canvas != null) {
                 // (+)This is the trick to get RTL/LTR text correct
-                if (AnyApplication.getConfig().workaround_alwaysUseDrawText()) {
+                if (renderConfig.alwaysUseDrawText) {
                     final int y = (int) (height + paint.getTextSize() - paint.descent()) / 2;
                     canvas.drawText(suggestion, 0, wordLength, x + wordWidth / 2, y, paint);
                 } else {
@@ -253,12 +270,8 @@ public class CandidateView extends View {
                     float textY = y - bgPadding.bottom - bgPadding.top;
 
                     canvas.translate(textX, textY);
-                    mTextPaint.setTypeface(paint.getTypeface());
-                    mTextPaint.setColor(paint.getColor());
-
-                    StaticLayout suggestionText = new StaticLayout(suggestion,
-                            mTextPaint, wordWidth, Alignment.ALIGN_CENTER,
-                            1.0f, 0.0f, false);
+                    StaticLayout suggestionText = mTextLayoutCache.getLayout(suggestion,
+                            paint, wordWidth, Alignment.ALIGN_CENTER);
                     suggestionText.draw(canvas);
 
                     canvas.translate(-textX, -textY);
@@ -323,10 +336,8 @@ public class CandidateView extends View {
         clear();
         if (suggestions != null) {
             int insertCount = Math.min(suggestions.size(), MAX_SUGGESTIONS);
-            for (CharSequence suggestion : suggestions) {
-                mSuggestions.add(suggestion);
-                if (--insertCount == 0)
-                    break;
+            for (int suggestionIndex = 0; suggestionIndex < insertCount; suggestionIndex++) {
+                mSuggestions.add(suggestions.get(suggestionIndex));
             }
         }
         mShowingCompletions = completions;
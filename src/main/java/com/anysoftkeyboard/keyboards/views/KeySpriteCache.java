@@ -0,0 +1,318 @@
+package com.anysoftkeyboard.keyboards.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.anysoftkeyboard.utils.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps rendered keys (background, label or icon, and hint) in shared atlas bitmaps, so a key which
+ * looks exactly like a key which was drawn before is copied from the atlas, instead of being drawn again.
+ * <p/>
+ * A key's appearance is identified by a {@link SpriteKey}. The atlas is made of equally sized pages, filled
+ * row by row. When a new sprite does not fit and the pixels budget does not allow another page, the least recently
+ * used page is emptied and reused.
+ * <p/>
+ * The cache does not know about the theme: it should be cleared when the theme, keyboard or dimensions change.
+ * Not thread-safe, should be used on the UI thread.
+ */
+class KeySpriteCache {
+    private static final String TAG = "ASK KeySpriteCache";
+
+    /**
+     * Everything which affects the way a key is drawn.
+     * Mutable, so the same instance can be used for look-ups while drawing.
+     */
+    static final class SpriteKey {
+        private static final int[] NO_STATE = new int[0];
+
+        private int[] mDrawableState = NO_STATE;
+        private String mLabel;
+        private Drawable mIcon;
+        private int[] mIconState = NO_STATE;
+        private String mHintText;
+        private boolean mSpaceKey;
+        private boolean mSingleCodeKey;
+        private boolean mShifted;
+        private int mWidth;
+        private int mHeight;
+        private int mHashCode;
+
+        void set(@NonNull int[] drawableState, @Nullable CharSequence label, @Nullable Drawable icon, @Nullable String hintText,
+                 boolean spaceKey, boolean singleCodeKey, boolean shifted, int width, int height) {
+            mDrawableState = drawableState;
+            mLabel = label == null ? null : label.toString();
+            mIcon = icon;
+            mIconState = icon == null ? NO_STATE : icon.getState();
+            mHintText = hintText;
+            mSpaceKey = spaceKey;
+            mSingleCodeKey = singleCodeKey;
+            mShifted = shifted;
+            mWidth = width;
+            mHeight = height;
+
+            int hashCode = Arrays.hashCode(mDrawableState);
+            hashCode = 31 * hashCode + (mLabel == null ? 0 : mLabel.hashCode());
+            hashCode = 31 * hashCode + (mIcon == null ? 0 : System.identityHashCode(mIcon));
+            hashCode = 31 * hashCode + Arrays.hashCode(mIconState);
+            hashCode = 31 * hashCode + (mHintText == null ? 0 : mHintText.hashCode());
+            hashCode = 31 * hashCode + (mSpaceKey ? 1 : 0) + (mSingleCodeKey ? 2 : 0) + (mShifted ? 4 : 0);
+            hashCode = 31 * hashCode + mWidth;
+            mHashCode = 31 * hashCode + mHeight;
+        }
+
+        private SpriteKey copy() {
+            SpriteKey copy = new SpriteKey();
+            copy.mDrawableState = mDrawableState.clone();
+            copy.mLabel = mLabel;
+            copy.mIcon = mIcon;
+            copy.mIconState = mIconState.clone();
+            copy.mHintText = mHintText;
+            copy.mSpaceKey = mSpaceKey;
+            copy.mSingleCodeKey = mSingleCodeKey;
+            copy.mShifted = mShifted;
+            copy.mWidth = mWidth;
+            copy.mHeight = mHeight;
+            copy.mHashCode = mHashCode;
+            return copy;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SpriteKey)) return false;
+            SpriteKey other = (SpriteKey) o;
+            return other.mHashCode == mHashCode
+                    && other.mWidth == mWidth
+                    && other.mHeight == mHeight
+                    && other.mSpaceKey == mSpaceKey
+                    && other.mSingleCodeKey == mSingleCodeKey
+                    && other.mShifted == mShifted
+                    && other.mIcon == mIcon
+                    && TextUtils.equals(other.mLabel, mLabel)
+                    && TextUtils.equals(other.mHintText, mHintText)
+                    && Arrays.equals(other.mDrawableState, mDrawableState)
+                    && Arrays.equals(other.mIconState, mIconState);
+        }
+    }
+
+    private static final class AtlasPage {
+        private final Bitmap mBitmap;
+        private final Canvas mCanvas;
+        private final List<SpriteKey> mSpriteKeys = new ArrayList<>();
+        private int mRowTop;
+        private int mRowHeight;
+        private int mRowX;
+        private long mLastUsed;
+
+        private AtlasPage(Bitmap bitmap) {
+            mBitmap = bitmap;
+            mCanvas = new Canvas(bitmap);
+        }
+
+        private void reset() {
+            mBitmap.eraseColor(Color.TRANSPARENT);
+            mSpriteKeys.clear();
+            mRowTop = 0;
+            mRowHeight = 0;
+            mRowX = 0;
+        }
+    }
+
+    private static final class Sprite {
+        private final AtlasPage mPage;
+        private final Rect mSource;
+
+        private Sprite(AtlasPage page, Rect source) {
+            mPage = page;
+            mSource = source;
+        }
+    }
+
+    private final Map<SpriteKey, Sprite> mSprites = new HashMap<>();
+    private final List<AtlasPage> mPages = new ArrayList<>();
+    private final Rect mDestination = new Rect();
+    private int mPageWidth;
+    private int mPageHeight;
+    private int mPixelsBudget;
+    private long mUsageClock;
+    @Nullable
+    private Sprite mDrawingSprite;
+
+    private int mHitsCount;
+    private int mRenderedCount;
+    private int mEvictedPagesCount;
+
+    /**
+     * Sets the size of the atlas pages and the maximum number of pixels all pages may take.
+     * Clears the cache. A zero pixels budget disables the cache.
+     */
+    void setAtlasDimensions(int pageWidth, int pageHeight, int pixelsBudget) {
+        clear();
+        mPageWidth = pageWidth;
+        mPageHeight = pageHeight;
+        mPixelsBudget = pixelsBudget;
+    }
+
+    /**
+     * Draws the key's sprite at the canvas' origin, if it is in the cache.
+     *
+     * @return true if the sprite was drawn.
+     */
+    boolean drawSprite(@NonNull Canvas canvas, @NonNull SpriteKey key) {
+        final Sprite sprite = mSprites.get(key);
+        if (sprite == null) return false;
+        mHitsCount++;
+        sprite.mPage.mLastUsed = ++mUsageClock;
+        blit(canvas, sprite);
+        return true;
+    }
+
+    /**
+     * Allocates space for the key's sprite.
+     * The key should be drawn, at the origin, on the returned canvas, and then {@link #endSprite(Canvas)} should be called.
+     *
+     * @return the canvas to draw the sprite on, or null if the key can not be cached: the key should be drawn directly.
+     */
+    @Nullable
+    Canvas beginSprite(@NonNull SpriteKey key) {
+        final int width = key.mWidth;
+        final int height = key.mHeight;
+        if (width <= 0 || height <= 0 || width > mPageWidth || height > mPageHeight) return null;
+
+        AtlasPage page = findPageWithRoom(width, height);
+        if (page == null) page = createPage();
+        if (page == null) page = evictLeastRecentlyUsedPage();
+        if (page == null) return null;
+
+        if (page.mRowX + width > mPageWidth) {
+            page.mRowTop += page.mRowHeight;
+            page.mRowX = 0;
+            page.mRowHeight = 0;
+        }
+        final Rect source = new Rect(page.mRowX, page.mRowTop, page.mRowX + width, page.mRowTop + height);
+        page.mRowX += width;
+        page.mRowHeight = Math.max(page.mRowHeight, height);
+        page.mLastUsed = ++mUsageClock;
+
+        final SpriteKey storedKey = key.copy();
+        final Sprite sprite = new Sprite(page, source);
+        page.mSpriteKeys.add(storedKey);
+        mSprites.put(storedKey, sprite);
+        mDrawingSprite = sprite;
+        mRenderedCount++;
+
+        page.mCanvas.save();
+        page.mCanvas.clipRect(source);
+        page.mCanvas.translate(source.left, source.top);
+        return page.mCanvas;
+    }
+
+    /**
+     * Finishes the sprite which was started with {@link #beginSprite(SpriteKey)}, and draws it at the canvas' origin.
+     */
+    void endSprite(@NonNull Canvas canvas) {
+        final Sprite sprite = mDrawingSprite;
+        if (sprite == null) return;
+        mDrawingSprite = null;
+        sprite.mPage.mCanvas.restore();
+        blit(canvas, sprite);
+    }
+
+    private void blit(Canvas canvas, Sprite sprite) {
+        mDestination.set(0, 0, sprite.mSource.width(), sprite.mSource.height());
+        canvas.drawBitmap(sprite.mPage.mBitmap, sprite.mSource, mDestination, null);
+    }
+
+    @Nullable
+    private AtlasPage findPageWithRoom(int width, int height) {
+        for (int pageIndex = 0, pagesCount = mPages.size(); pageIndex < pagesCount; pageIndex++) {
+            final AtlasPage page = mPages.get(pageIndex);
+            final boolean fitsInRow = page.mRowX + width <= mPageWidth && page.mRowTop + height <= mPageHeight;
+            final boolean fitsInNextRow = page.mRowTop + page.mRowHeight + height <= mPageHeight;
+            if (fitsInRow || fitsInNextRow) return page;
+        }
+        return null;
+    }
+
+    @Nullable
+    private AtlasPage createPage() {
+        final long pagePixels = (long) mPageWidth * mPageHeight;
+        if ((mPages.size() + 1) * pagePixels > mPixelsBudget) return null;
+        try {
+            final AtlasPage page = new AtlasPage(Bitmap.createBitmap(mPageWidth, mPageHeight, Bitmap.Config.ARGB_8888));
+            mPages.add(page);
+            return page;
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "Not enough memory for another key sprites page, with %d pages. Disabling the cache.", mPages.size());
+            clear();
+            mPixelsBudget = 0;
+            return null;
+        }
+    }
+
+    @Nullable
+    private AtlasPage evictLeastRecentlyUsedPage() {
+        AtlasPage leastRecentlyUsed = null;
+        for (int pageIndex = 0, pagesCount = mPages.size(); pageIndex < pagesCount; pageIndex++) {
+            final AtlasPage page = mPages.get(pageIndex);
+            if (leastRecentlyUsed == null || page.mLastUsed < leastRecentlyUsed.mLastUsed) leastRecentlyUsed = page;
+        }
+        if (leastRecentlyUsed == null) return null;
+
+        for (int spriteIndex = 0, spritesCount = leastRecentlyUsed.mSpriteKeys.size(); spriteIndex < spritesCount; spriteIndex++) {
+            mSprites.remove(leastRecentlyUsed.mSpriteKeys.get(spriteIndex));
+        }
+        leastRecentlyUsed.reset();
+        mEvictedPagesCount++;
+        return leastRecentlyUsed;
+    }
+
+    /**
+     * Removes all sprites, and releases the atlas pages.
+     */
+    void clear() {
+        mSprites.clear();
+        for (int pageIndex = 0, pagesCount = mPages.size(); pageIndex < pagesCount; pageIndex++) {
+            mPages.get(pageIndex).mBitmap.recycle();
+        }
+        mPages.clear();
+        mDrawingSprite = null;
+    }
+
+    int getSpritesCount() {
+        return mSprites.size();
+    }
+
+    int getPagesCount() {
+        return mPages.size();
+    }
+
+    int getHitsCount() {
+        return mHitsCount;
+    }
+
+    int getRenderedCount() {
+        return mRenderedCount;
+    }
+
+    int getEvictedPagesCount() {
+        return mEvictedPagesCount;
+    }
+}
@@ -0,0 +1,91 @@
+package com.anysoftkeyboard.keyboards.views;
+
+import android.content.res.ColorStateList;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Gravity;
+
+import com.anysoftkeyboard.AskPrefs;
+
+/**
+ * An immutable snapshot of the settings (and theme values) the keyboard views read while drawing,
+ * so a frame reads plain fields instead of querying the configuration for every key.
+ * <p/>
+ * Should be created again when the settings, or the theme, change.
+ */
+public final class RenderConfig {
+    /**
+     * Draw all texts using Canvas.drawText, and not StaticLayout (a workaround for some devices).
+     */
+    public final boolean alwaysUseDrawText;
+    public final boolean drawKeyboardNameText;
+    public final boolean drawHintText;
+    /**
+     * Horizontal position of the hint on the key: a {@link Gravity} value.
+     */
+    public final int hintAlign;
+    /**
+     * Vertical position of the hint on the key: a {@link Gravity} value.
+     */
+    public final int hintVAlign;
+    /**
+     * The theme's colors. Null in a configuration which was not created with a keys theme.
+     */
+    @Nullable
+    public final ColorStateList keyTextColor;
+    @Nullable
+    public final ColorStateList keyboardNameTextColor;
+    @Nullable
+    public final ColorStateList hintTextColor;
+
+    private final boolean mUseCustomHintAlign;
+
+    private RenderConfig(boolean alwaysUseDrawText, boolean drawKeyboardNameText, boolean drawHintText,
+                         boolean useCustomHintAlign, int hintAlign, int hintVAlign,
+                         @Nullable ColorStateList keyTextColor, @Nullable ColorStateList keyboardNameTextColor,
+                         @Nullable ColorStateList hintTextColor) {
+        this.alwaysUseDrawText = alwaysUseDrawText;
+        this.drawKeyboardNameText = drawKeyboardNameText;
+        this.drawHintText = drawHintText;
+        mUseCustomHintAlign = useCustomHintAlign;
+        this.hintAlign = hintAlign;
+        this.hintVAlign = hintVAlign;
+        this.keyTextColor = keyTextColor;
+        this.keyboardNameTextColor = keyboardNameTextColor;
+        this.hintTextColor = hintTextColor;
+    }
+
+    /**
+     * Reads the current settings. The hint position is the custom one, if set, or the default.
+     */
+    @NonNull
+    public static RenderConfig create(@NonNull AskPrefs prefs) {
+        final boolean useCustomHintAlign = prefs.getUseCustomHintAlign();
+        return new RenderConfig(prefs.workaround_alwaysUseDrawText(),
+                prefs.getShowKeyboardNameText(),
+                prefs.getShowHintTextOnKeys(),
+                useCustomHintAlign,
+                useCustomHintAlign ? prefs.getCustomHintAlign() : Gravity.RIGHT,
+                useCustomHintAlign ? prefs.getCustomHintVAlign() : Gravity.BOTTOM,
+                null, null, null);
+    }
+
+    /**
+     * @return a copy of this configuration, which also considers the keys theme: texts which the theme sizes to
+     * nothing are not drawn, and the theme's hint position is used, unless the settings override it.
+     */
+    @NonNull
+    public RenderConfig withKeysTheme(float keyboardNameTextSize, float hintTextSize,
+                                      int themeHintAlign, int themeHintVAlign,
+                                      @NonNull ColorStateList keyTextColor,
+                                      @NonNull ColorStateList keyboardNameTextColor,
+                                      @NonNull ColorStateList hintTextColor) {
+        return new RenderConfig(alwaysUseDrawText,
+                drawKeyboardNameText && keyboardNameTextSize > 1f,
+                drawHintText && hintTextSize > 1f,
+                mUseCustomHintAlign,
+                mUseCustomHintAlign ? hintAlign : themeHintAlign,
+                mUseCustomHintAlign ? hintVAlign : themeHintVAlign,
+                keyTextColor, keyboardNameTextColor, hintTextColor);
+    }
+}
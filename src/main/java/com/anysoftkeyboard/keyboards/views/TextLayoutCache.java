@@ -0,0 +1,203 @@
+package com.anysoftkeyboard.keyboards.views;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+import android.support.v4.util.ArrayMap;
+import android.support.v4.util.LruCache;
+import android.text.Layout.Alignment;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+import java.util.Map;
+
+/**
+ * Keeps the {@link StaticLayout}s of drawn texts, so texts which are drawn again and again (key labels,
+ * suggestions) are not laid out and measured on every frame.
+ * <p/>
+ * Layouts are keyed by the text, the paint's text configuration, the width and the alignment. Layouts with the same
+ * paint configuration share the same {@link TextPaint}. Texts are compared by their characters, so spans are not part of
+ * the key: the layouts are built over an immutable copy of the text, without spans.
+ * Paint properties which can not be read (like the shadow layer) should not change during the cache's life-time:
+ * the cache should be cleared when the theme or the fonts change.
+ * Not thread-safe, should be used on the UI thread.
+ */
+class TextLayoutCache {
+    private static final int MAX_TEXT_PAINTS = 32;
+
+    private static final class PaintConfiguration {
+        private float mTextSize;
+        private Typeface mTypeface;
+        private int mColor;
+        private int mFlags;
+        private Paint.Align mTextAlign;
+        private float mTextScaleX;
+        private float mTextSkewX;
+        private int mHashCode;
+
+        private void set(Paint paint) {
+            mTextSize = paint.getTextSize();
+            mTypeface = paint.getTypeface();
+            mColor = paint.getColor();
+            mFlags = paint.getFlags();
+            mTextAlign = paint.getTextAlign();
+            mTextScaleX = paint.getTextScaleX();
+            mTextSkewX = paint.getTextSkewX();
+
+            int hashCode = Float.floatToIntBits(mTextSize);
+            hashCode = 31 * hashCode + (mTypeface == null ? 0 : mTypeface.hashCode());
+            hashCode = 31 * hashCode + mColor;
+            hashCode = 31 * hashCode + mFlags;
+            hashCode = 31 * hashCode + mTextAlign.hashCode();
+            hashCode = 31 * hashCode + Float.floatToIntBits(mTextScaleX);
+            mHashCode = 31 * hashCode + Float.floatToIntBits(mTextSkewX);
+        }
+
+        private PaintConfiguration copy() {
+            PaintConfiguration copy = new PaintConfiguration();
+            copy.mTextSize = mTextSize;
+            copy.mTypeface = mTypeface;
+            copy.mColor = mColor;
+            copy.mFlags = mFlags;
+            copy.mTextAlign = mTextAlign;
+            copy.mTextScaleX = mTextScaleX;
+            copy.mTextSkewX = mTextSkewX;
+            copy.mHashCode = mHashCode;
+            return copy;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PaintConfiguration)) return false;
+            PaintConfiguration other = (PaintConfiguration) o;
+            return other.mHashCode == mHashCode
+                    && other.mTextSize == mTextSize
+                    && other.mColor == mColor
+                    && other.mFlags == mFlags
+                    && other.mTextAlign == mTextAlign
+                    && other.mTextScaleX == mTextScaleX
+                    && other.mTextSkewX == mTextSkewX
+                    && (other.mTypeface == null ? mTypeface == null : other.mTypeface.equals(mTypeface));
+        }
+    }
+
+    private static final class LayoutKey {
+        //a String in the cached keys. The lookup key holds the caller's text, which may be mutable.
+        private CharSequence mText;
+        //shared per paint configuration, so the identity is enough
+        private TextPaint mTextPaint;
+        private int mWidth;
+        private Alignment mAlignment;
+        private int mHashCode;
+
+        private void set(CharSequence text, TextPaint textPaint, int width, Alignment alignment) {
+            mText = text;
+            mTextPaint = textPaint;
+            mWidth = width;
+            mAlignment = alignment;
+            //same as String.hashCode, without creating a String
+            int hashCode = 0;
+            for (int charIndex = 0, length = text.length(); charIndex < length; charIndex++) {
+                hashCode = 31 * hashCode + text.charAt(charIndex);
+            }
+            hashCode = 31 * hashCode + System.identityHashCode(textPaint);
+            hashCode = 31 * hashCode + width;
+            mHashCode = 31 * hashCode + alignment.hashCode();
+        }
+
+        private LayoutKey copy(String text) {
+            LayoutKey copy = new LayoutKey();
+            copy.mText = text;
+            copy.mTextPaint = mTextPaint;
+            copy.mWidth = mWidth;
+            copy.mAlignment = mAlignment;
+            copy.mHashCode = mHashCode;
+            return copy;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LayoutKey)) return false;
+            LayoutKey other = (LayoutKey) o;
+            return other.mHashCode == mHashCode
+                    && other.mTextPaint == mTextPaint
+                    && other.mWidth == mWidth
+                    && other.mAlignment == mAlignment
+                    && TextUtils.equals(other.mText, mText);
+        }
+    }
+
+    private final Map<PaintConfiguration, TextPaint> mTextPaints = new ArrayMap<>();
+    private final LruCache<LayoutKey, StaticLayout> mLayouts;
+    private final PaintConfiguration mLookupPaintConfiguration = new PaintConfiguration();
+    private final LayoutKey mLookupLayoutKey = new LayoutKey();
+
+    TextLayoutCache(int maxLayouts) {
+        mLayouts = new LruCache<>(maxLayouts);
+    }
+
+    /**
+     * @return the layout of the text, drawn with the paint's current text configuration, laid out in the given width.
+     */
+    @NonNull
+    StaticLayout getLayout(@NonNull CharSequence text, @NonNull Paint paint, int width, @NonNull Alignment alignment) {
+        mLookupPaintConfiguration.set(paint);
+        TextPaint textPaint = mTextPaints.get(mLookupPaintConfiguration);
+        if (textPaint == null) {
+            if (mTextPaints.size() >= MAX_TEXT_PAINTS) {
+                //the layouts are holding the paints, so they go too.
+                clear();
+            }
+            textPaint = new TextPaint(paint);
+            mTextPaints.put(mLookupPaintConfiguration.copy(), textPaint);
+        }
+
+        mLookupLayoutKey.set(text, textPaint, width, alignment);
+        StaticLayout layout = mLayouts.get(mLookupLayoutKey);
+        if (layout == null) {
+            //the caller's text may change later (suggestions are views over a reused buffer), so the layout
+            //is built over a copy, which is also the cached key's text.
+            final String immutableText = text.toString();
+            layout = new StaticLayout(immutableText, textPaint, width, alignment, 1.0f, 0.0f, false);
+            mLayouts.put(mLookupLayoutKey.copy(immutableText), layout);
+        }
+        //not holding the caller's text
+        mLookupLayoutKey.mText = null;
+        return layout;
+    }
+
+    /**
+     * Removes all layouts and paints. Should be called when the theme or fonts change.
+     */
+    void clear() {
+        mLayouts.evictAll();
+        mTextPaints.clear();
+    }
+
+    int getLayoutsCount() {
+        return mLayouts.size();
+    }
+
+    int getTextPaintsCount() {
+        return mTextPaints.size();
+    }
+
+    int getHitsCount() {
+        return mLayouts.hitCount();
+    }
+
+    int getMissesCount() {
+        return mLayouts.missCount();
+    }
+}
@@ -0,0 +1,107 @@
+package com.anysoftkeyboard.keyboards.views;
+
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the text size and width a label was fitted to, per key width.
+ * <p/>
+ * An open-addressing (linear probing) hash table over parallel primitive arrays: looking up a label
+ * does not allocate. The label's characters and the key width are hashed, and the label is compared on hit.
+ * The table has a fixed capacity: when it is full, it starts over empty.
+ * Not thread-safe, should be used on the UI thread.
+ */
+class TextWidthCache {
+    static final int NOT_FOUND = -1;
+
+    private final int mMask;
+    private final int mMaxEntries;
+    private final CharSequence[] mLabels;
+    private final int[] mKeyWidths;
+    private final int[] mHashes;
+    private final float[] mTextSizes;
+    private final float[] mTextWidths;
+    private int mEntriesCount;
+
+    /**
+     * @param capacity the number of slots in the table. Rounded up to a power of two.
+     *                 Up to three quarters of it are used.
+     */
+    TextWidthCache(int capacity) {
+        int slots = 2;
+        while (slots < capacity) slots <<= 1;
+        mMask = slots - 1;
+        mMaxEntries = (slots * 3) / 4;
+        mLabels = new CharSequence[slots];
+        mKeyWidths = new int[slots];
+        mHashes = new int[slots];
+        mTextSizes = new float[slots];
+        mTextWidths = new float[slots];
+    }
+
+    private static int hash(@NonNull CharSequence label, int keyWidth) {
+        int hash = keyWidth;
+        for (int charIndex = 0, length = label.length(); charIndex < length; charIndex++) {
+            hash = 31 * hash + label.charAt(charIndex);
+        }
+        //spreading the bits, since the low bits pick the slot
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return the slot of the label at the key width, to be used with {@link #getTextSize(int)} and
+     * {@link #getTextWidth(int)}; or {@link #NOT_FOUND}.
+     */
+    int indexOf(@NonNull CharSequence label, int keyWidth) {
+        final int hash = hash(label, keyWidth);
+        int slot = hash & mMask;
+        CharSequence slotLabel;
+        while ((slotLabel = mLabels[slot]) != null) {
+            if (mHashes[slot] == hash && mKeyWidths[slot] == keyWidth && TextUtils.equals(slotLabel, label)) {
+                return slot;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return NOT_FOUND;
+    }
+
+    float getTextSize(int slot) {
+        return mTextSizes[slot];
+    }
+
+    float getTextWidth(int slot) {
+        return mTextWidths[slot];
+    }
+
+    /**
+     * Stores the text size and width the label was fitted to at the key width. Should be called only after
+     * {@link #indexOf(CharSequence, int)} did not find the label.
+     */
+    void put(@NonNull CharSequence label, int keyWidth, float textSize, float textWidth) {
+        if (mEntriesCount >= mMaxEntries) clear();
+
+        final int hash = hash(label, keyWidth);
+        int slot = hash & mMask;
+        while (mLabels[slot] != null) {
+            slot = (slot + 1) & mMask;
+        }
+        //labels are usually Strings, but copying anything else which may change later
+        mLabels[slot] = label instanceof String ? label : label.toString();
+        mKeyWidths[slot] = keyWidth;
+        mHashes[slot] = hash;
+        mTextSizes[slot] = textSize;
+        mTextWidths[slot] = textWidth;
+        mEntriesCount++;
+    }
+
+    void clear() {
+        Arrays.fill(mLabels, null);
+        mEntriesCount = 0;
+    }
+
+    int size() {
+        return mEntriesCount;
+    }
+}
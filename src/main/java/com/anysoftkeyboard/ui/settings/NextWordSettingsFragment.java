@@ -8,12 +8,14 @@ import android.preference.PreferenceCategory;
 import android.support.annotation.Nullable;
 import android.support.v4.preference.PreferenceFragment;
 import android.text.TextUtils;
+import android.text.format.Formatter;
 import android.view.View;
 
 import com.anysoftkeyboard.dictionaries.DictionaryAddOnAndBuilder;
 import com.anysoftkeyboard.dictionaries.ExternalDictionaryFactory;
 import com.anysoftkeyboard.nextword.NextWordDictionary;
-import com.anysoftkeyboard.nextword.NextWordStatistics;
+import com.anysoftkeyboard.nextword.NextWordsFileStatistics;
+import com.anysoftkeyboard.nextword.NextWordsStorage;
 import com.menny.android.anysoftkeyboard.R;
 
 import net.evendanan.pushingpixels.AsyncTaskWithProgressWindow;
@@ -24,6 +26,9 @@ import java.util.List;
 
 public class NextWordSettingsFragment extends PreferenceFragment implements AsyncTaskOwner {
 
+    //next-words used fewer times than this are pruned
+    private static final int PRUNE_MIN_USED_COUNT = 2;
+
     private AsyncTask<Void, ProgressReport, List<String>> mNextWordStatsLoader;
     private final Preference.OnPreferenceClickListener mClearDataListener = new Preference.OnPreferenceClickListener() {
         @Override
@@ -39,10 +44,30 @@ public class NextWordSettingsFragment extends PreferenceFragment implements Asyn
                 protected Void doAsyncTask(Void[] params) throws Exception {
                     Context appContext = getActivity().getApplicationContext();
                     for (String locale : mDeviceLocales) {
-                        NextWordDictionary nextWordDictionary = new NextWordDictionary(appContext, locale);
-                        nextWordDictionary.load();
-                        nextWordDictionary.clearData();
-                        nextWordDictionary.close();
+                        new NextWordsStorage(appContext, locale).clear();
+                    }
+                    return null;
+                }
+            }.execute();
+            return true;
+        }
+    };
+    private final Preference.OnPreferenceClickListener mPruneDataListener = new Preference.OnPreferenceClickListener() {
+        @Override
+        public boolean onPreferenceClick(Preference preference) {
+            new AsyncTaskWithProgressWindow<Void, Void, Void, NextWordSettingsFragment>(NextWordSettingsFragment.this, true) {
+
+                @Override
+                protected void applyResults(Void o, Exception backgroundException) {
+                    loadUsageStatistics();
+                }
+
+                @Override
+                protected Void doAsyncTask(Void[] params) throws Exception {
+                    Context appContext = getActivity().getApplicationContext();
+                    for (String locale : mDeviceLocales) {
+                        //streams the stored file, so it does not load all the next-words into memory
+                        new NextWordsStorage(appContext, locale).pruneNextWords(PRUNE_MIN_USED_COUNT);
                     }
                     return null;
                 }
@@ -54,9 +79,9 @@ public class NextWordSettingsFragment extends PreferenceFragment implements Asyn
 
     private static class ProgressReport {
         public final DictionaryAddOnAndBuilder dictionaryBuilderByLocale;
-        public final NextWordStatistics nextWordStatistics;
+        public final NextWordsFileStatistics nextWordStatistics;
 
-        public ProgressReport(DictionaryAddOnAndBuilder dictionaryBuilderByLocale, NextWordStatistics nextWordStatistics) {
+        public ProgressReport(DictionaryAddOnAndBuilder dictionaryBuilderByLocale, NextWordsFileStatistics nextWordStatistics) {
             this.dictionaryBuilderByLocale = dictionaryBuilderByLocale;
             this.nextWordStatistics = nextWordStatistics;
         }
@@ -72,6 +97,9 @@ public class NextWordSettingsFragment extends PreferenceFragment implements Asyn
     public void onViewCreated(View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         findPreference("clear_next_word_data").setOnPreferenceClickListener(mClearDataListener);
+        findPreference("prune_next_word_data").setOnPreferenceClickListener(mPruneDataListener);
+        //the native library may be missing on some devices
+        findPreference(getString(R.string.settings_key_next_words_native_engine)).setEnabled(NextWordDictionary.isNativeEngineAvailable());
     }
 
     @Override
@@ -94,6 +122,7 @@ public class NextWordSettingsFragment extends PreferenceFragment implements Asyn
                 mStatsCategory = (PreferenceCategory) findPreference("next_word_stats");
                 mStatsCategory.removeAll();
                 findPreference("clear_next_word_data").setEnabled(false);
+                findPreference("prune_next_word_data").setEnabled(false);
             }
 
             @Override
@@ -111,10 +140,11 @@ public class NextWordSettingsFragment extends PreferenceFragment implements Asyn
                 for (String locale : deviceLocales) {
                     if (isCancelled()) return null;
                     final DictionaryAddOnAndBuilder dictionaryBuilderByLocale = ExternalDictionaryFactory.getDictionaryBuilderByLocale(locale, mApplicationContext);
-                    NextWordDictionary nextWordDictionary = new NextWordDictionary(mApplicationContext, dictionaryBuilderByLocale.getLanguage());
-                    nextWordDictionary.load();
+                    //reading the files one entry at a time, instead of loading all the next-words into a dictionary
+                    NextWordsStorage storage = new NextWordsStorage(mApplicationContext, dictionaryBuilderByLocale.getLanguage());
+                    final NextWordsFileStatistics statistics = storage.readStatistics(1);
                     if (isCancelled()) return null;
-                    publishProgress(new ProgressReport(dictionaryBuilderByLocale, nextWordDictionary.dumpDictionaryStatistics()));
+                    publishProgress(new ProgressReport(dictionaryBuilderByLocale, statistics));
                 }
 
                 return deviceLocales;
@@ -128,12 +158,21 @@ public class NextWordSettingsFragment extends PreferenceFragment implements Asyn
                     Preference localeData = new Preference(getActivity());
                     localeData.setKey(progressReport.dictionaryBuilderByLocale.getLanguage());
                     localeData.setTitle(progressReport.dictionaryBuilderByLocale.getLanguage() + " - " + progressReport.dictionaryBuilderByLocale.getName());
-                    if (progressReport.nextWordStatistics.firstWordCount == 0) {
+                    final NextWordsFileStatistics statistics = progressReport.nextWordStatistics;
+                    if (statistics.firstWordCount == 0 && statistics.journalUsagesCount == 0) {
                         localeData.setSummary(R.string.next_words_statistics_no_usage);
                     } else {
-                        localeData.setSummary(getString(R.string.next_words_statistics_count,
-                                progressReport.nextWordStatistics.firstWordCount,
-                                progressReport.nextWordStatistics.secondWordCount / progressReport.nextWordStatistics.firstWordCount));
+                        StringBuilder summary = new StringBuilder(getString(R.string.next_words_statistics_count,
+                                statistics.firstWordCount,
+                                statistics.firstWordCount == 0 ? 0 : statistics.secondWordCount / statistics.firstWordCount));
+                        summary.append('\n').append(getString(R.string.next_words_statistics_storage,
+                                statistics.journalUsagesCount,
+                                Formatter.formatShortFileSize(getActivity(), statistics.fileSize + statistics.journalSize)));
+                        if (!statistics.topNextWords.isEmpty()) {
+                            final NextWordsFileStatistics.NextWordUsage topNextWord = statistics.topNextWords.get(0);
+                            summary.append('\n').append(getString(R.string.next_words_statistics_top_next_word, topNextWord.word, topNextWord.nextWord));
+                        }
+                        localeData.setSummary(summary);
                     }
                     localeData.setPersistent(false);
 
@@ -145,6 +184,7 @@ public class NextWordSettingsFragment extends PreferenceFragment implements Asyn
             protected void onPostExecute(List<String> deviceLocale) {
                 super.onPostExecute(deviceLocale);
                 findPreference("clear_next_word_data").setEnabled(true);
+                findPreference("prune_next_word_data").setEnabled(true);
                 mDeviceLocales = deviceLocale;
             }
         }.execute();
@@ -141,6 +141,46 @@ public class IMEUtil {
         return dp[sl][tl];
     }
 
+    /**
+     * Same as {@link #editDistance(CharSequence, CharSequence)}, but only keeps three rows of the
+     * table, in the given array, so it does not allocate.
+     *
+     * @param reusableRows should have room for at least 3 * (t.length() + 1) entries.
+     */
+    public static int editDistance(CharSequence s, CharSequence t, int[] reusableRows) {
+        final int sl = s.length();
+        final int tl = t.length();
+        final int rowLength = tl + 1;
+        int beforePrevious = 0;
+        int previous = rowLength;
+        int current = 2 * rowLength;
+        for (int j = 0; j <= tl; j++) {
+            reusableRows[previous + j] = j;
+        }
+        for (int i = 0; i < sl; ++i) {
+            final char sc = Character.toLowerCase(s.charAt(i));
+            reusableRows[current] = i + 1;
+            for (int j = 0; j < tl; ++j) {
+                final char tc = Character.toLowerCase(t.charAt(j));
+                final int cost = sc == tc ? 0 : 1;
+                int distance = Math.min(reusableRows[previous + j + 1] + 1,
+                        Math.min(reusableRows[current + j] + 1, reusableRows[previous + j] + cost));
+                // Overwrite for transposition cases
+                if (i > 0 && j > 0
+                        && sc == Character.toLowerCase(t.charAt(j - 1))
+                        && tc == Character.toLowerCase(s.charAt(i - 1))) {
+                    distance = Math.min(distance, reusableRows[beforePrevious + j - 1] + cost);
+                }
+                reusableRows[current + j + 1] = distance;
+            }
+            final int oldest = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = oldest;
+        }
+        return reusableRows[previous + tl];
+    }
+
     /**
      * Remove duplicates from an array of strings.
      * <p/>
@@ -69,6 +69,10 @@ public class TestableAnySoftKeyboard extends SoftKeyboard {
         return mSpiedKeyboardSwitcher;
     }
 
+    public AnyKeyboardView getSpiedKeyboardView() {
+        return mSpiedKeyboardView;
+    }
+
     @Override
     public void onStartInput(EditorInfo attribute, boolean restarting) {
         mEditorInfo = attribute;
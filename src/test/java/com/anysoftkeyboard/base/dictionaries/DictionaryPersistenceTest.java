@@ -0,0 +1,132 @@
+package com.anysoftkeyboard.base.dictionaries;
+
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(AskGradleTestRunner.class)
+public class DictionaryPersistenceTest {
+
+    private DictionaryPersistence mPersistence;
+    private final List<String> mWritten = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        mPersistence = new DictionaryPersistence();
+    }
+
+    private DictionaryPersistence.Write recordingWrite(final String value) {
+        return new DictionaryPersistence.Write() {
+            @Override
+            public void write() {
+                synchronized (mWritten) {
+                    mWritten.add(value);
+                }
+            }
+        };
+    }
+
+    /**
+     * Holds the writer thread, so the writes submitted meanwhile stay pending.
+     */
+    private CountDownLatch blockWriter() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        mPersistence.persist(new Object(), new DictionaryPersistence.Write() {
+            @Override
+            public void write() throws Exception {
+                started.countDown();
+                release.await();
+            }
+        });
+        started.await();
+        return release;
+    }
+
+    @Test
+    public void testWritesInSubmissionOrder() {
+        for (int write = 0; write < 100; write++) {
+            mPersistence.persist(new Object(), recordingWrite("write" + write));
+        }
+        mPersistence.waitForPendingWrites();
+
+        Assert.assertEquals(100, mWritten.size());
+        for (int write = 0; write < 100; write++) {
+            Assert.assertEquals("write" + write, mWritten.get(write));
+        }
+        Assert.assertEquals(100, mPersistence.getSubmittedWritesCount());
+        Assert.assertEquals(0, mPersistence.getCoalescedWritesCount());
+    }
+
+    @Test
+    public void testCoalescesPendingWritesOfTheSameKey() throws Exception {
+        final CountDownLatch release = blockWriter();
+        mPersistence.persist("snapshot", recordingWrite("snapshot1"));
+        mPersistence.persist("append1", recordingWrite("append1"));
+        mPersistence.persist("snapshot", recordingWrite("snapshot2"));
+        mPersistence.persist("append2", recordingWrite("append2"));
+        mPersistence.persist("snapshot", recordingWrite("snapshot3"));
+        release.countDown();
+        mPersistence.waitForPendingWrites();
+
+        //the latest snapshot, after everything which was submitted before it
+        Assert.assertEquals(Arrays.asList("append1", "append2", "snapshot3"), mWritten);
+        Assert.assertEquals(2, mPersistence.getCoalescedWritesCount());
+    }
+
+    @Test
+    public void testFailedWriteDoesNotStopLaterWrites() {
+        mPersistence.persist(new Object(), new DictionaryPersistence.Write() {
+            @Override
+            public void write() throws Exception {
+                throw new java.io.IOException("disk is full");
+            }
+        });
+        mPersistence.persist(new Object(), recordingWrite("after failure"));
+        mPersistence.waitForPendingWrites();
+
+        Assert.assertEquals(Arrays.asList("after failure"), mWritten);
+    }
+
+    @Test
+    public void testWriteThrowingAnErrorDoesNotStopLaterWrites() {
+        mPersistence.persist(new Object(), new DictionaryPersistence.Write() {
+            @Override
+            public void write() {
+                //submitted while the drain is running, so it is still pending when the drain dies
+                mPersistence.persist(new Object(), recordingWrite("after error"));
+                throw new OutOfMemoryError("fake out of memory");
+            }
+        });
+        mPersistence.waitForPendingWrites();
+
+        Assert.assertEquals(Arrays.asList("after error"), mWritten);
+
+        mPersistence.persist(new Object(), recordingWrite("later"));
+        mPersistence.waitForPendingWrites();
+
+        Assert.assertEquals(Arrays.asList("after error", "later"), mWritten);
+    }
+
+    @Test
+    public void testWaitForPendingWritesFromAWrite() {
+        mPersistence.persist(new Object(), new DictionaryPersistence.Write() {
+            @Override
+            public void write() {
+                mPersistence.waitForPendingWrites();
+                mWritten.add("waited");
+            }
+        });
+        mPersistence.waitForPendingWrites();
+
+        Assert.assertEquals(Arrays.asList("waited"), mWritten);
+    }
+}
@@ -0,0 +1,86 @@
+package com.anysoftkeyboard.base.dictionaries;
+
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AskGradleTestRunner.class)
+public class WordsLexiconTest {
+
+    @Test
+    public void testInternReturnsStableIds() {
+        WordsLexicon lexicon = new WordsLexicon();
+        final int helloId = lexicon.intern("hello");
+        final int worldId = lexicon.intern(new StringBuilder("world"));
+        Assert.assertNotEquals(helloId, worldId);
+        Assert.assertEquals(helloId, lexicon.intern("hello"));
+        Assert.assertEquals(worldId, lexicon.getId("world"));
+        Assert.assertEquals(WordsLexicon.NOT_A_WORD, lexicon.getId("hell"));
+        Assert.assertEquals(2, lexicon.size());
+
+        Assert.assertEquals("hello", lexicon.getWord(helloId));
+        //the interned instance, not a copy
+        Assert.assertSame(lexicon.getWord(worldId), lexicon.getWord(worldId));
+    }
+
+    @Test
+    public void testKeepsIdsWhileGrowing() {
+        WordsLexicon lexicon = new WordsLexicon();
+        final int emptyId = lexicon.intern("");
+        for (int wordIndex = 0; wordIndex < 5000; wordIndex++) {
+            Assert.assertEquals(wordIndex + 1, lexicon.intern("word" + wordIndex));
+        }
+        for (int wordIndex = 0; wordIndex < 5000; wordIndex++) {
+            Assert.assertEquals(wordIndex + 1, lexicon.getId("word" + wordIndex));
+            Assert.assertEquals("word" + wordIndex, lexicon.getWord(wordIndex + 1));
+        }
+        Assert.assertEquals(emptyId, lexicon.getId(""));
+        Assert.assertEquals("", lexicon.getWord(emptyId));
+    }
+
+    @Test
+    public void testRemovesWordsWithoutReferences() {
+        WordsLexicon lexicon = new WordsLexicon();
+        final int helloId = lexicon.intern("hello");
+        Assert.assertEquals(helloId, lexicon.intern("hello"));
+        final long memorySize = lexicon.getEstimatedMemorySize();
+
+        lexicon.release(helloId);
+        Assert.assertEquals(helloId, lexicon.getId("hello"));
+        lexicon.release(helloId);
+        Assert.assertEquals(WordsLexicon.NOT_A_WORD, lexicon.getId("hello"));
+        Assert.assertEquals(0, lexicon.size());
+        Assert.assertEquals(0, lexicon.getEstimatedMemorySize());
+
+        //the ID is reused
+        Assert.assertEquals(helloId, lexicon.intern("world"));
+        Assert.assertEquals(memorySize, lexicon.getEstimatedMemorySize());
+    }
+
+    @Test
+    public void testFindsWordsAfterRemovals() {
+        WordsLexicon lexicon = new WordsLexicon();
+        final int[] wordIds = new int[5000];
+        for (int wordIndex = 0; wordIndex < wordIds.length; wordIndex++) {
+            wordIds[wordIndex] = lexicon.intern("word" + wordIndex);
+        }
+        for (int wordIndex = 0; wordIndex < wordIds.length; wordIndex += 3) {
+            lexicon.release(wordIds[wordIndex]);
+        }
+        for (int wordIndex = 0; wordIndex < wordIds.length; wordIndex++) {
+            final int expectedId = wordIndex % 3 == 0 ? WordsLexicon.NOT_A_WORD : wordIds[wordIndex];
+            Assert.assertEquals(expectedId, lexicon.getId("word" + wordIndex));
+        }
+        Assert.assertEquals(wordIds.length - (wordIds.length + 2) / 3, lexicon.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFailsToReleaseRemovedWord() {
+        WordsLexicon lexicon = new WordsLexicon();
+        final int helloId = lexicon.intern("hello");
+        lexicon.release(helloId);
+        lexicon.release(helloId);
+    }
+}
@@ -16,6 +16,11 @@
 
 package com.anysoftkeyboard.dictionaries;
 
+import android.net.Uri;
+
+import com.anysoftkeyboard.base.dictionaries.Dictionary;
+import com.anysoftkeyboard.base.dictionaries.DictionaryPersistence;
+import com.anysoftkeyboard.base.dictionaries.WordComposer;
 import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
 
 import org.junit.Assert;
@@ -24,7 +29,13 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RuntimeEnvironment;
 
-import static org.junit.Assert.assertNotNull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.assertTrue;
 
 @RunWith(AskGradleTestRunner.class)
@@ -51,7 +62,7 @@ public class BTreeDictionaryTest {
 			Assert.assertEquals(mDictionaryUnderTest.getWordFrequency(word), freq);
 		}
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 	}
 
 	@Test
@@ -59,29 +70,32 @@ public class BTreeDictionaryTest {
 		mDictionaryUnderTest.loadDictionary();
 
 		assertTrue(mDictionaryUnderTest.addWord("new", 23));
+		DictionaryPersistence.getInstance().waitForPendingWrites();
 		Assert.assertEquals("new", mDictionaryUnderTest.wordRequestedToAddedToStorage);
 		Assert.assertEquals(23, mDictionaryUnderTest.wordFrequencyRequestedToAddedToStorage);
 		assertTrue(mDictionaryUnderTest.isValidWord("new"));
 		Assert.assertEquals(mDictionaryUnderTest.getWordFrequency("new"), 23);
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 
 		assertTrue(mDictionaryUnderTest.addWord("new", 34));
+		DictionaryPersistence.getInstance().waitForPendingWrites();
 		Assert.assertEquals("new", mDictionaryUnderTest.wordRequestedToAddedToStorage);
 		Assert.assertEquals(34, mDictionaryUnderTest.wordFrequencyRequestedToAddedToStorage);
 		assertTrue(mDictionaryUnderTest.isValidWord("new"));
 		Assert.assertEquals(mDictionaryUnderTest.getWordFrequency("new"), 34);
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 
 		assertTrue(mDictionaryUnderTest.addWord("newa", 45));
 		assertTrue(mDictionaryUnderTest.isValidWord("newa"));
 		Assert.assertEquals(mDictionaryUnderTest.getWordFrequency("new"), 34);
 		Assert.assertEquals(mDictionaryUnderTest.getWordFrequency("newa"), 45);
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 
 		assertTrue(mDictionaryUnderTest.addWord("nea", 47));
+		DictionaryPersistence.getInstance().waitForPendingWrites();
 		Assert.assertEquals("nea", mDictionaryUnderTest.wordRequestedToAddedToStorage);
 		Assert.assertEquals(47, mDictionaryUnderTest.wordFrequencyRequestedToAddedToStorage);
 		assertTrue(mDictionaryUnderTest.isValidWord("nea"));
@@ -89,9 +103,10 @@ public class BTreeDictionaryTest {
 		Assert.assertEquals(mDictionaryUnderTest.getWordFrequency("newa"), 45);
 		Assert.assertEquals(mDictionaryUnderTest.getWordFrequency("nea"), 47);
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 
 		assertTrue(mDictionaryUnderTest.addWord("neabb", 50));
+		DictionaryPersistence.getInstance().waitForPendingWrites();
 		Assert.assertEquals("neabb", mDictionaryUnderTest.wordRequestedToAddedToStorage);
 		Assert.assertEquals(50, mDictionaryUnderTest.wordFrequencyRequestedToAddedToStorage);
 		assertTrue(mDictionaryUnderTest.isValidWord("neabb"));
@@ -102,12 +117,86 @@ public class BTreeDictionaryTest {
 		Assert.assertEquals(mDictionaryUnderTest.getWordFrequency("neabb"), 50);
 		Assert.assertEquals(mDictionaryUnderTest.getWordFrequency("neab"), 0);
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 	}
 
 	@Test
 	public void testOnStorageChanged() throws Exception {
+		mDictionaryUnderTest.loadDictionary();
+		assertTrue(mDictionaryUnderTest.isValidWord("hello"));
+		assertTrue(mDictionaryUnderTest.isValidWord("phone"));
+		assertTrue(mDictionaryUnderTest.isValidWord("laptop"));
+		final WordsTrie trieBeforeChange = mDictionaryUnderTest.getTrie();
+
+		//removing a row, changing a row and adding a new one
+		mDictionaryUnderTest.storage.remove(0);
+		mDictionaryUnderTest.storage.set(1, new Object[]{3, "phones", 200, "en"});
+		mDictionaryUnderTest.storage.set(6, new Object[]{8, "laptop", 90, "en"});
+		mDictionaryUnderTest.storage.add(new Object[]{11, "tablet", 100, "en"});
+		mDictionaryUnderTest.syncStorageDelta(null);
+
+		//the delta was applied to a new trie, the previous one was still serving lookups
+		Assert.assertNotSame(trieBeforeChange, mDictionaryUnderTest.getTrie());
+		assertTrue(trieBeforeChange.isTerminal(trieBeforeChange.findNode("hello")));
+
+		Assert.assertFalse(mDictionaryUnderTest.isValidWord("hello"));
+		Assert.assertFalse(mDictionaryUnderTest.isValidWord("phone"));
+		Assert.assertEquals(200, mDictionaryUnderTest.getWordFrequency("phones"));
+		Assert.assertEquals(90, mDictionaryUnderTest.getWordFrequency("laptop"));
+		Assert.assertEquals(100, mDictionaryUnderTest.getWordFrequency("tablet"));
+		Assert.assertEquals(255, mDictionaryUnderTest.getWordFrequency("AnySoftKeyboard"));
+		Assert.assertEquals(TestableBTreeDictionary.STORAGE.length, mDictionaryUnderTest.getTrie().getWordsCount());
+		//no storage writes while syncing
+		Assert.assertNull(mDictionaryUnderTest.wordRequestedToAddedToStorage);
+		Assert.assertNull(mDictionaryUnderTest.wordRequestedToBeDeletedFromStorage);
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
+	}
+
+	@Test
+	public void testOnStorageRowChanged() throws Exception {
+		mDictionaryUnderTest.loadDictionary();
+		mDictionaryUnderTest.storage.set(2, new Object[]{3, "phones", 200, "en"});
+		//this row was changed too, but we were not notified about it
+		mDictionaryUnderTest.storage.set(3, new Object[]{4, "things", 200, "en"});
+		mDictionaryUnderTest.syncStorageDelta(Uri.parse("content://user_dictionary/words/3"));
+
+		Assert.assertFalse(mDictionaryUnderTest.isValidWord("phone"));
+		assertTrue(mDictionaryUnderTest.isValidWord("phones"));
+		assertTrue(mDictionaryUnderTest.isValidWord("thing"));
+		Assert.assertFalse(mDictionaryUnderTest.isValidWord("things"));
+
+		//deleted row
+		mDictionaryUnderTest.storage.remove(0);
+		mDictionaryUnderTest.syncStorageDelta(Uri.parse("content://user_dictionary/words/1"));
+		Assert.assertFalse(mDictionaryUnderTest.isValidWord("hello"));
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
+	}
+
+	@Test
+	public void testOnStorageChangedReAddsOnlyRowsOfTheRemovedWords() throws Exception {
+		final List<String> addedWords = new ArrayList<>();
+		mDictionaryUnderTest = new TestableBTreeDictionary("TEST", RuntimeEnvironment.application) {
+			@Override
+			protected void addWordFromStorage(String word, int frequency) {
+				addedWords.add(word);
+				super.addWordFromStorage(word, frequency);
+			}
+		};
+		mDictionaryUnderTest.storage.clear();
+		mDictionaryUnderTest.storage.add(new Object[]{1, "car", 100, "en"});
+		mDictionaryUnderTest.storage.add(new Object[]{2, "cart", 50, "en"});
+		mDictionaryUnderTest.storage.add(new Object[]{3, "car", 30, "en"});
+		mDictionaryUnderTest.loadDictionary();
+		addedWords.clear();
 
+		mDictionaryUnderTest.storage.remove(0);
+		mDictionaryUnderTest.syncStorageDelta(null);
+
+		//the other row of "car" provides it again, "cart" only contains it
+		Assert.assertEquals(Arrays.asList("car"), addedWords);
+		Assert.assertEquals(30, mDictionaryUnderTest.getWordFrequency("car"));
+		Assert.assertEquals(50, mDictionaryUnderTest.getWordFrequency("cart"));
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 	}
 
 	@Test
@@ -119,9 +208,10 @@ public class BTreeDictionaryTest {
 		assertTrue(mDictionaryUnderTest.isValidWord(word));
 		mDictionaryUnderTest.deleteWord(word);
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord(word));
+		DictionaryPersistence.getInstance().waitForPendingWrites();
 		Assert.assertEquals(mDictionaryUnderTest.wordRequestedToBeDeletedFromStorage, word);
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 
 		//re-adding
 		assertTrue(mDictionaryUnderTest.addWord(word, wordFreq + 1));
@@ -130,9 +220,10 @@ public class BTreeDictionaryTest {
 		mDictionaryUnderTest.wordRequestedToBeDeletedFromStorage = null;
 		mDictionaryUnderTest.deleteWord(word);
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord(word));
+		DictionaryPersistence.getInstance().waitForPendingWrites();
 		Assert.assertEquals(mDictionaryUnderTest.wordRequestedToBeDeletedFromStorage, word);
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 
 		//a new one
 		word = "new";
@@ -142,16 +233,17 @@ public class BTreeDictionaryTest {
 		mDictionaryUnderTest.wordRequestedToBeDeletedFromStorage = null;
 		mDictionaryUnderTest.deleteWord(word);
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord(word));
+		DictionaryPersistence.getInstance().waitForPendingWrites();
 		Assert.assertEquals(mDictionaryUnderTest.wordRequestedToBeDeletedFromStorage, word);
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 
 		//none existing
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord("fail"));
 		mDictionaryUnderTest.deleteWord("fail");
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord("fail"));
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 
 		//deleting part of the root
 		mDictionaryUnderTest.addWord("root", 1);
@@ -160,7 +252,7 @@ public class BTreeDictionaryTest {
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord("roo"));
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord("rooti"));
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 
 		mDictionaryUnderTest.deleteWord("root");
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord("roo"));
@@ -169,7 +261,7 @@ public class BTreeDictionaryTest {
 		assertTrue(mDictionaryUnderTest.isValidWord("rooting"));
 		assertTrue(mDictionaryUnderTest.isValidWord("rootina"));
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 
 		mDictionaryUnderTest.deleteWord("rooting");
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord("root"));
@@ -177,7 +269,7 @@ public class BTreeDictionaryTest {
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord("rooting"));
 		assertTrue(mDictionaryUnderTest.isValidWord("rootina"));
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 
 		mDictionaryUnderTest.addWord("root", 1);
 		assertTrue(mDictionaryUnderTest.isValidWord("root"));
@@ -185,7 +277,7 @@ public class BTreeDictionaryTest {
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord("rooti"));
 		assertTrue(mDictionaryUnderTest.isValidWord("rootina"));
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
 
 		mDictionaryUnderTest.deleteWord("rootina");
 		assertTrue(mDictionaryUnderTest.isValidWord("root"));
@@ -193,28 +285,196 @@ public class BTreeDictionaryTest {
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord("rooti"));
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord("rootina"));
 		//checking validity of the internal structure
-		assetNodeArrayIsValid(mDictionaryUnderTest.getRoot());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
+	}
+
+	private void assertTrieIsValid(WordsTrie trie) {
+		assertTrieNodeIsValid(trie, WordsTrie.ROOT);
+	}
+
+	private void assertTrieNodeIsValid(WordsTrie trie, int node) {
+		final int childrenCount = trie.getChildrenCount(node);
+		assertTrue(childrenCount >= 0);
+		for (int i = 0; i < childrenCount; i++) {
+			final int child = trie.getChild(node, i);
+			assertTrue(child > WordsTrie.ROOT);
+			//children are sorted, so we can binary-search them
+			if (i > 0) assertTrue(trie.getCode(trie.getChild(node, i - 1)) < trie.getCode(child));
+			//a leaf must be a word
+			if (trie.getChildrenCount(child) == 0) assertTrue(trie.isTerminal(child));
+			assertTrieNodeIsValid(trie, child);
+		}
 	}
 
-	private void assetNodeArrayIsValid(BTreeDictionary.NodeArray root) {
-		assertTrue(root.length >= 0);
-		assertTrue(root.length <= root.data.length);
-		for (int i = 0; i < root.length; i++) {
-			assertNotNull(root.data[i]);
-			if (root.data[i].children != null)//it may be null.
-				assetNodeArrayIsValid(root.data[i].children);
+	@Test
+	public void testManyWords() throws Exception {
+		mDictionaryUnderTest.loadDictionary();
+		final int wordsInStorage = mDictionaryUnderTest.getTrie().getWordsCount();
+		Assert.assertEquals(TestableBTreeDictionary.STORAGE.length, wordsInStorage);
+
+		for (int i = 0; i < 3000; i++) {
+			assertTrue(mDictionaryUnderTest.addWord("word" + Integer.toString(i, 7), 1 + (i % 255)));
+		}
+		Assert.assertEquals(wordsInStorage + 3000, mDictionaryUnderTest.getTrie().getWordsCount());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
+
+		for (int i = 0; i < 3000; i += 2) {
+			mDictionaryUnderTest.deleteWord("word" + Integer.toString(i, 7));
+		}
+		Assert.assertEquals(wordsInStorage + 1500, mDictionaryUnderTest.getTrie().getWordsCount());
+		assertTrieIsValid(mDictionaryUnderTest.getTrie());
+
+		for (int i = 0; i < 3000; i++) {
+			final String word = "word" + Integer.toString(i, 7);
+			if (i % 2 == 0) {
+				Assert.assertFalse(mDictionaryUnderTest.isValidWord(word));
+			} else {
+				Assert.assertEquals(1 + (i % 255), mDictionaryUnderTest.getWordFrequency(word));
+			}
+		}
+		for (int row = 0; row < TestableBTreeDictionary.STORAGE.length; row++) {
+			assertTrue(mDictionaryUnderTest.isValidWord((String) TestableBTreeDictionary.STORAGE[row][1]));
 		}
 	}
 
+	@Test
+	public void testLoadFromStorageSnapshot() throws Exception {
+		final File snapshotFile = new File(RuntimeEnvironment.application.getCacheDir(), "test_dictionary.snapshot");
+		snapshotFile.delete();
+		mDictionaryUnderTest.storageSnapshotFile = snapshotFile;
+		mDictionaryUnderTest.storageMarker = 1234;
+		mDictionaryUnderTest.loadDictionary();
+		assertTrue(snapshotFile.exists());
+		Assert.assertEquals(1, mDictionaryUnderTest.storageReadsCount);
+		mDictionaryUnderTest.close();
+
+		TestableBTreeDictionary loadedDictionary = new TestableBTreeDictionary("TEST", RuntimeEnvironment.application);
+		loadedDictionary.storageSnapshotFile = snapshotFile;
+		loadedDictionary.storageMarker = 1234;
+		loadedDictionary.loadDictionary();
+		//the storage was not read, all words came from the snapshot
+		Assert.assertEquals(0, loadedDictionary.storageReadsCount);
+		for (int row = 0; row < TestableBTreeDictionary.STORAGE.length; row++) {
+			final String word = (String) TestableBTreeDictionary.STORAGE[row][1];
+			final int freq = ((Integer) TestableBTreeDictionary.STORAGE[row][2]).intValue();
+			Assert.assertEquals(freq, loadedDictionary.getWordFrequency(word));
+		}
+		assertTrieIsValid(loadedDictionary.getTrie());
+
+		//storage rows were restored too, so a delta can be applied
+		loadedDictionary.storage.remove(0);
+		loadedDictionary.storageMarker = 5678;
+		loadedDictionary.syncStorageDelta(null);
+		Assert.assertFalse(loadedDictionary.isValidWord((String) TestableBTreeDictionary.STORAGE[0][1]));
+		assertTrue(loadedDictionary.isValidWord((String) TestableBTreeDictionary.STORAGE[1][1]));
+		loadedDictionary.close();
+
+		//a snapshot with a corrupt header is deleted, and the storage is read
+		RandomAccessFile corruptSnapshot = new RandomAccessFile(snapshotFile, "rw");
+		//the trie's nodes count, after the magic, version and storage marker
+		corruptSnapshot.seek(16);
+		corruptSnapshot.writeInt(Integer.MAX_VALUE);
+		corruptSnapshot.close();
+		loadedDictionary = new TestableBTreeDictionary("TEST", RuntimeEnvironment.application);
+		loadedDictionary.storageSnapshotFile = snapshotFile;
+		loadedDictionary.storageMarker = 1234;
+		loadedDictionary.loadDictionary();
+		Assert.assertEquals(1, loadedDictionary.storageReadsCount);
+		assertTrue(loadedDictionary.isValidWord((String) TestableBTreeDictionary.STORAGE[0][1]));
+		loadedDictionary.close();
+
+		//a corrupted snapshot is deleted, and the storage is read
+		new FileOutputStream(snapshotFile).close();
+		loadedDictionary = new TestableBTreeDictionary("TEST", RuntimeEnvironment.application);
+		loadedDictionary.storageSnapshotFile = snapshotFile;
+		loadedDictionary.storageMarker = 1234;
+		loadedDictionary.loadDictionary();
+		Assert.assertEquals(1, loadedDictionary.storageReadsCount);
+		assertTrue(loadedDictionary.isValidWord((String) TestableBTreeDictionary.STORAGE[0][1]));
+		loadedDictionary.close();
+		snapshotFile.delete();
+	}
+
 	@Test
 	public void testClose() throws Exception {
 		mDictionaryUnderTest.loadDictionary();
 
 		assertTrue(mDictionaryUnderTest.isValidWord((String) TestableBTreeDictionary.STORAGE[0][1]));
 		mDictionaryUnderTest.close();
+		DictionaryPersistence.getInstance().waitForPendingWrites();
 		assertTrue(mDictionaryUnderTest.storageIsClosed);
 		Assert.assertFalse(mDictionaryUnderTest.isValidWord((String) TestableBTreeDictionary.STORAGE[0][1]));
 		Assert.assertEquals(mDictionaryUnderTest.getWordFrequency((String) TestableBTreeDictionary.STORAGE[0][1]), 0);
 		Assert.assertFalse(mDictionaryUnderTest.addWord("fail", 1));
 	}
+
+	private static List<String> getWords(Dictionary dictionary, WordComposer composer) {
+		final List<String> words = new ArrayList<>();
+		dictionary.getWords(composer, new Dictionary.WordCallback() {
+			@Override
+			public boolean addWord(char[] word, int wordOffset, int wordLength, int frequency, Dictionary from) {
+				words.add(new String(word, wordOffset, wordLength) + ":" + frequency);
+				return true;
+			}
+		});
+		return words;
+	}
+
+	private static void type(WordComposer composer, String text) {
+		for (int charIndex = 0; charIndex < text.length(); charIndex++) {
+			final char c = text.charAt(charIndex);
+			composer.add(c, new int[]{c});
+		}
+	}
+
+	private List<String> getWordsFromScratch(String typedWord) throws Exception {
+		TestableBTreeDictionary freshDictionary = new TestableBTreeDictionary("FRESH", RuntimeEnvironment.application);
+		freshDictionary.loadDictionary();
+		freshDictionary.addWord("he'll", 100);
+		freshDictionary.addWord("help", 90);
+		WordComposer composer = new WordComposer();
+		type(composer, typedWord);
+		return getWords(freshDictionary, composer);
+	}
+
+	@Test
+	public void testGetWordsContinuesFromPreviousKeystroke() throws Exception {
+		mDictionaryUnderTest.loadDictionary();
+		mDictionaryUnderTest.addWord("he'll", 100);
+		mDictionaryUnderTest.addWord("help", 90);
+		WordComposer composer = new WordComposer();
+
+		type(composer, "he");
+		Assert.assertEquals(getWordsFromScratch("he"), getWords(mDictionaryUnderTest, composer));
+		type(composer, "l");
+		final List<String> words = getWords(mDictionaryUnderTest, composer);
+		Assert.assertEquals(getWordsFromScratch("hel"), words);
+		Assert.assertEquals(3, words.size());
+		Assert.assertTrue(words.toString(), words.contains("he'll:2700"));
+		type(composer, "l");
+		Assert.assertEquals(getWordsFromScratch("hell"), getWords(mDictionaryUnderTest, composer));
+
+		composer.deleteLast();
+		composer.deleteLast();
+		Assert.assertEquals(getWordsFromScratch("he"), getWords(mDictionaryUnderTest, composer));
+		type(composer, "lp");
+		Assert.assertEquals(getWordsFromScratch("help"), getWords(mDictionaryUnderTest, composer));
+
+		composer.reset();
+		type(composer, "phon");
+		Assert.assertEquals(getWordsFromScratch("phon"), getWords(mDictionaryUnderTest, composer));
+	}
+
+	@Test
+	public void testGetWordsSeesWordsAddedWhileTyping() throws Exception {
+		mDictionaryUnderTest.loadDictionary();
+		WordComposer composer = new WordComposer();
+		type(composer, "hel");
+		Assert.assertEquals(1, getWords(mDictionaryUnderTest, composer).size());
+
+		mDictionaryUnderTest.addWord("helium", 20);
+		Assert.assertEquals(2, getWords(mDictionaryUnderTest, composer).size());
+		mDictionaryUnderTest.deleteWord("helium");
+		Assert.assertEquals(1, getWords(mDictionaryUnderTest, composer).size());
+	}
 }
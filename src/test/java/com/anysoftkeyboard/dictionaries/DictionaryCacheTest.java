@@ -0,0 +1,185 @@
+package com.anysoftkeyboard.dictionaries;
+
+import android.support.annotation.NonNull;
+
+import com.anysoftkeyboard.base.dictionaries.Dictionary;
+import com.anysoftkeyboard.base.dictionaries.WordComposer;
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AskGradleTestRunner.class)
+public class DictionaryCacheTest {
+    //room for exactly two idle dictionaries
+    private static final int MEMORY_BUDGET = 2 * 256 * 1024;
+    //room for one idle dictionary with native memory
+    private static final int NATIVE_MEMORY_BUDGET = 1000;
+    private static final int NATIVE_DICTIONARY_SIZE = 600;
+
+    private DictionaryCache mDictionaryCacheUnderTest;
+    private int mCreatedDictionariesCount;
+
+    @Before
+    public void setup() {
+        mDictionaryCacheUnderTest = new DictionaryCache(MEMORY_BUDGET, NATIVE_MEMORY_BUDGET) {
+            @Override
+            int getHeapSize(Dictionary dictionary) {
+                //the Java side of a native dictionary is negligible here
+                return ((FakeDictionary) dictionary).mNativeSize > 0 ? 0 : super.getHeapSize(dictionary);
+            }
+
+            @Override
+            int getNativeSize(Dictionary dictionary) {
+                return ((FakeDictionary) dictionary).mNativeSize;
+            }
+        };
+        mCreatedDictionariesCount = 0;
+    }
+
+    private Dictionary acquire(String key) throws Exception {
+        return acquire(key, 0);
+    }
+
+    private Dictionary acquire(String key, final int nativeSize) throws Exception {
+        return mDictionaryCacheUnderTest.acquire(key, new DictionaryCache.DictionaryCreator() {
+            @NonNull
+            @Override
+            public Dictionary createDictionary() {
+                mCreatedDictionariesCount++;
+                return new FakeDictionary(nativeSize);
+            }
+        });
+    }
+
+    @Test
+    public void testSharesInUseDictionary() throws Exception {
+        Dictionary first = acquire("en");
+        Dictionary second = acquire("en");
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, mCreatedDictionariesCount);
+
+        mDictionaryCacheUnderTest.release(first);
+        Assert.assertFalse(first.isClosed());
+        mDictionaryCacheUnderTest.release(second);
+        Assert.assertFalse(first.isClosed());
+    }
+
+    @Test
+    public void testReusesReleasedDictionary() throws Exception {
+        Dictionary english = acquire("en");
+        mDictionaryCacheUnderTest.release(english);
+        Dictionary hebrew = acquire("iw");
+        mDictionaryCacheUnderTest.release(hebrew);
+
+        Assert.assertSame(english, acquire("en"));
+        Assert.assertSame(hebrew, acquire("iw"));
+        Assert.assertEquals(2, mCreatedDictionariesCount);
+        Assert.assertFalse(english.isClosed());
+        Assert.assertFalse(hebrew.isClosed());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedIdleDictionary() throws Exception {
+        Dictionary english = acquire("en");
+        Dictionary hebrew = acquire("iw");
+        Dictionary russian = acquire("ru");
+        mDictionaryCacheUnderTest.release(english);
+        mDictionaryCacheUnderTest.release(hebrew);
+        Assert.assertFalse(english.isClosed());
+
+        mDictionaryCacheUnderTest.release(russian);
+        Assert.assertTrue(english.isClosed());
+        Assert.assertFalse(hebrew.isClosed());
+        Assert.assertFalse(russian.isClosed());
+
+        Dictionary newEnglish = acquire("en");
+        Assert.assertNotSame(english, newEnglish);
+        Assert.assertEquals(4, mCreatedDictionariesCount);
+    }
+
+    @Test
+    public void testDoesNotReuseClosedDictionary() throws Exception {
+        Dictionary english = acquire("en");
+        english.close();
+
+        Dictionary newEnglish = acquire("en");
+        Assert.assertNotSame(english, newEnglish);
+        Assert.assertFalse(newEnglish.isClosed());
+    }
+
+    @Test
+    public void testEvictIdleDictionaries() throws Exception {
+        Dictionary english = acquire("en");
+        Dictionary hebrew = acquire("iw");
+        mDictionaryCacheUnderTest.release(english);
+
+        mDictionaryCacheUnderTest.evictIdleDictionaries();
+        Assert.assertTrue(english.isClosed());
+        Assert.assertFalse(hebrew.isClosed());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedNativeDictionaryOverTheNativeBudget() throws Exception {
+        Dictionary english = acquire("en", NATIVE_DICTIONARY_SIZE);
+        Dictionary hebrew = acquire("iw");
+        Dictionary russian = acquire("ru", NATIVE_DICTIONARY_SIZE);
+        mDictionaryCacheUnderTest.release(english);
+        mDictionaryCacheUnderTest.release(hebrew);
+        Assert.assertFalse(english.isClosed());
+
+        mDictionaryCacheUnderTest.release(russian);
+        Assert.assertTrue(english.isClosed());
+        Assert.assertFalse(hebrew.isClosed());
+        Assert.assertFalse(russian.isClosed());
+
+        //reusing the idle dictionary gives back its native memory
+        Assert.assertSame(russian, acquire("ru", NATIVE_DICTIONARY_SIZE));
+        Dictionary newEnglish = acquire("en", NATIVE_DICTIONARY_SIZE);
+        mDictionaryCacheUnderTest.release(newEnglish);
+        Assert.assertFalse(newEnglish.isClosed());
+        Assert.assertFalse(russian.isClosed());
+    }
+
+    @Test
+    public void testNativeDictionariesDoNotTakeTheHeapBudget() throws Exception {
+        Dictionary english = acquire("en");
+        Dictionary hebrew = acquire("iw");
+        Dictionary russian = acquire("ru", NATIVE_DICTIONARY_SIZE);
+        mDictionaryCacheUnderTest.release(english);
+        mDictionaryCacheUnderTest.release(hebrew);
+        mDictionaryCacheUnderTest.release(russian);
+
+        Assert.assertFalse(english.isClosed());
+        Assert.assertFalse(hebrew.isClosed());
+        Assert.assertFalse(russian.isClosed());
+    }
+
+    private static class FakeDictionary extends Dictionary {
+        final int mNativeSize;
+
+        FakeDictionary(int nativeSize) {
+            super("FAKE");
+            mNativeSize = nativeSize;
+        }
+
+        @Override
+        public void getWords(WordComposer composer, WordCallback callback) {
+        }
+
+        @Override
+        public boolean isValidWord(CharSequence word) {
+            return false;
+        }
+
+        @Override
+        protected void closeAllResources() {
+        }
+
+        @Override
+        protected void loadAllResources() {
+        }
+    }
+}
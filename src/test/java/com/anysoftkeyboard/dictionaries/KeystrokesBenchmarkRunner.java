@@ -0,0 +1,55 @@
+package com.anysoftkeyboard.dictionaries;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures a keystroke path which needs Android classes, so it can not be in the (plain JVM) JMH benchmarks
+ * module, and runs under Robolectric instead. It reports what the JMH benchmarks report: throughput,
+ * latency percentiles and the bytes allocated per operation.
+ * Robolectric instruments the Android classes, so the numbers should only be compared with other runs
+ * of the same benchmark.
+ */
+final class KeystrokesBenchmarkRunner {
+    interface Operation {
+        void run(int operationIndex);
+    }
+
+    private KeystrokesBenchmarkRunner() {
+    }
+
+    static void run(String name, int warmupCount, int measuredCount, Operation operation) {
+        for (int operationIndex = 0; operationIndex < warmupCount; operationIndex++) {
+            operation.run(operationIndex);
+        }
+
+        final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final long[] durations = new long[measuredCount];
+        final long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        for (int operationIndex = 0; operationIndex < measuredCount; operationIndex++) {
+            final long operationStart = System.nanoTime();
+            operation.run(warmupCount + operationIndex);
+            durations[operationIndex] = System.nanoTime() - operationStart;
+        }
+        final long totalDuration = System.nanoTime() - start;
+        final long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        Arrays.sort(durations);
+        System.out.println(String.format(Locale.US,
+                "%s: %.1f ops/ms, p50 %.2f us, p90 %.2f us, p99 %.2f us, p99.9 %.2f us, max %.2f us, %d bytes/op",
+                name, measuredCount * 1000000.0 / totalDuration,
+                percentile(durations, 0.5), percentile(durations, 0.9), percentile(durations, 0.99), percentile(durations, 0.999),
+                durations[measuredCount - 1] / 1000.0, allocated / measuredCount));
+    }
+
+    /**
+     * @return the duration, in microseconds, which the given fraction of the (sorted) durations is within.
+     */
+    private static double percentile(long[] sortedDurations, double fraction) {
+        final int index = Math.min(sortedDurations.length - 1, (int) Math.ceil(fraction * sortedDurations.length) - 1);
+        return sortedDurations[Math.max(0, index)] / 1000.0;
+    }
+}
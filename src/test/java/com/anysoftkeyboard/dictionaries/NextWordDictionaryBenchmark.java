@@ -0,0 +1,87 @@
+package com.anysoftkeyboard.dictionaries;
+
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.preference.PreferenceManager;
+
+import com.anysoftkeyboard.base.dictionaries.WordComposer;
+import com.anysoftkeyboard.nextword.NextWordDictionary;
+import com.anysoftkeyboard.nextword.Utils;
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link NextWordDictionary#getNextWords(String, int, int)} on every word typed by the keystrokes stream,
+ * as the keyboard does when a word is picked. The words are learned as they are typed, and the
+ * usages are written to the journal, in the background.
+ * Only runs when asked for, see build.gradle.
+ */
+@RunWith(AskGradleTestRunner.class)
+public class NextWordDictionaryBenchmark {
+    private static final int WARMUP_WORDS = 20 * 1000;
+    private static final int MEASURED_WORDS = 50 * 1000;
+
+    private final List<String> mTypedWords = new ArrayList<>();
+    private int mMaxNextWords;
+    private int mMinWordUsage;
+    private int mNextWordsCount;
+
+    @Before
+    public void setup() throws Exception {
+        //the same as UserDictionary
+        final Resources resources = RuntimeEnvironment.application.getResources();
+        final SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(RuntimeEnvironment.application);
+        mMaxNextWords = Utils.getNextWordSuggestionCountFromPrefs(resources, sharedPreferences);
+        mMinWordUsage = Utils.getNextWordSuggestionMinUsageFromPrefs(resources, sharedPreferences);
+
+        KeystrokesStream keystrokes = new KeystrokesStream(42);
+        WordComposer wordComposer = new WordComposer();
+        //the words are picked before measuring, so creating their strings is not measured
+        while (mTypedWords.size() < WARMUP_WORDS + MEASURED_WORDS) {
+            final int keystroke = keystrokes.nextKeystroke();
+            if (keystroke == KeystrokesStream.SEPARATOR) {
+                if (wordComposer.length() > 0) mTypedWords.add(wordComposer.getTypedWord().toString());
+                wordComposer.reset();
+            } else if (keystroke == KeystrokesStream.DELETE) {
+                wordComposer.deleteLast();
+            } else {
+                wordComposer.add(keystroke, keystrokes.getNearbyCodes((char) keystroke));
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkJavaEngine() {
+        runBenchmark("NextWordDictionary.getNextWords (Java engine)", new NextWordDictionary(RuntimeEnvironment.application, "en", false));
+    }
+
+    @Test
+    public void benchmarkNativeEngine() {
+        if (!NextWordDictionary.isNativeEngineAvailable()) return;
+        runBenchmark("NextWordDictionary.getNextWords (native engine)", new NextWordDictionary(RuntimeEnvironment.application, "en", true));
+    }
+
+    private void runBenchmark(String name, final NextWordDictionary nextWordDictionary) {
+        nextWordDictionary.load();
+        try {
+            KeystrokesBenchmarkRunner.run(name, WARMUP_WORDS, MEASURED_WORDS, new KeystrokesBenchmarkRunner.Operation() {
+                @Override
+                public void run(int operationIndex) {
+                    for (String nextWord : nextWordDictionary.getNextWords(mTypedWords.get(operationIndex), mMaxNextWords, mMinWordUsage)) {
+                        mNextWordsCount++;
+                    }
+                }
+            });
+        } finally {
+            nextWordDictionary.close();
+        }
+        System.out.println(name + ": suggested " + mNextWordsCount + " next-words.");
+    }
+}
@@ -0,0 +1,164 @@
+package com.anysoftkeyboard.dictionaries;
+
+import android.os.SystemClock;
+
+import com.anysoftkeyboard.base.dictionaries.Dictionary;
+import com.anysoftkeyboard.base.dictionaries.WordComposer;
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AskGradleTestRunner.class)
+public class ParallelWordsLookupTest {
+    private static final long RELEASE_DELAY = 50;
+
+    private ParallelWordsLookup mLookupUnderTest;
+    private BlockingDictionary mDictionary;
+    private WordComposer mWordComposer;
+
+    @Before
+    public void setup() {
+        mLookupUnderTest = new ParallelWordsLookup(2);
+        mDictionary = new BlockingDictionary();
+        mWordComposer = new WordComposer();
+        typeWord("hel");
+    }
+
+    @After
+    public void tearDown() {
+        mDictionary.mRelease.countDown();
+    }
+
+    private void typeWord(String word) {
+        mWordComposer.reset();
+        for (int charIndex = 0; charIndex < word.length(); charIndex++) {
+            final char c = word.charAt(charIndex);
+            mWordComposer.add(c, new int[]{c});
+        }
+    }
+
+    /**
+     * Starts a lookup whose deadline has already passed, so waiting for it will not wait for the blocked dictionary.
+     */
+    private void lookup(int sourceIndex, Dictionary dictionary) {
+        mLookupUnderTest.startLookup(sourceIndex, dictionary, mWordComposer, 4, false, mWordComposer.getTypedWord(), Locale.ENGLISH, SystemClock.uptimeMillis());
+    }
+
+    private void waitForLookups() {
+        mLookupUnderTest.waitForLookups(SystemClock.uptimeMillis());
+    }
+
+    @Test
+    public void testDropsLookupWhichMissedTheDeadline() throws Exception {
+        mLookupUnderTest.beginLookup();
+        lookup(0, mDictionary);
+        Assert.assertTrue(mDictionary.mStarted.await(1, TimeUnit.SECONDS));
+        waitForLookups();
+
+        Assert.assertNull(mLookupUnderTest.getCandidates(0));
+        Assert.assertTrue(mLookupUnderTest.isBusy(mDictionary));
+    }
+
+    @Test
+    public void testWorkerLooksUpItsOwnCopyOfTheWord() throws Exception {
+        mLookupUnderTest.beginLookup();
+        lookup(0, mDictionary);
+        Assert.assertTrue(mDictionary.mStarted.await(1, TimeUnit.SECONDS));
+        //the next keystroke, while the worker is still running
+        typeWord("help");
+        mDictionary.mRelease.countDown();
+        mLookupUnderTest.waitForDictionary(mDictionary);
+
+        Assert.assertEquals("hel", mDictionary.mLookedUpWord);
+    }
+
+    @Test
+    public void testDoesNotHandBusyDictionaryToAnotherLookup() throws Exception {
+        mLookupUnderTest.beginLookup();
+        lookup(0, mDictionary);
+        Assert.assertTrue(mDictionary.mStarted.await(1, TimeUnit.SECONDS));
+        waitForLookups();
+
+        //the same dictionary, in another source
+        mLookupUnderTest.beginLookup();
+        lookup(1, mDictionary);
+        waitForLookups();
+        Assert.assertNull(mLookupUnderTest.getCandidates(1));
+        Assert.assertEquals(1, mDictionary.mLookupsCount.get());
+
+        mDictionary.mRelease.countDown();
+        mLookupUnderTest.waitForDictionary(mDictionary);
+        Assert.assertFalse(mLookupUnderTest.isBusy(mDictionary));
+    }
+
+    @Test
+    public void testWaitForDictionaryBlocksUntilWorkerIsDone() throws Exception {
+        mLookupUnderTest.beginLookup();
+        lookup(0, mDictionary);
+        Assert.assertTrue(mDictionary.mStarted.await(1, TimeUnit.SECONDS));
+        waitForLookups();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(RELEASE_DELAY);
+                } catch (InterruptedException e) {
+                    //releasing anyway
+                }
+                mDictionary.mRelease.countDown();
+            }
+        }).start();
+        mLookupUnderTest.waitForDictionary(mDictionary);
+
+        Assert.assertTrue(mDictionary.mDone);
+        Assert.assertFalse(mLookupUnderTest.isBusy(mDictionary));
+    }
+
+    private static class BlockingDictionary extends Dictionary {
+        private final CountDownLatch mStarted = new CountDownLatch(1);
+        private final CountDownLatch mRelease = new CountDownLatch(1);
+        private final AtomicInteger mLookupsCount = new AtomicInteger();
+        private volatile String mLookedUpWord;
+        private volatile boolean mDone;
+
+        BlockingDictionary() {
+            super("BLOCKING");
+        }
+
+        @Override
+        public void getWords(WordComposer composer, WordCallback callback) {
+            mLookupsCount.incrementAndGet();
+            mStarted.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            mLookedUpWord = composer.getTypedWord().toString();
+            mDone = true;
+        }
+
+        @Override
+        public boolean isValidWord(CharSequence word) {
+            return false;
+        }
+
+        @Override
+        protected void closeAllResources() {
+        }
+
+        @Override
+        protected void loadAllResources() {
+        }
+    }
+}
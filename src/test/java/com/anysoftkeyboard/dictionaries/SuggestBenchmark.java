@@ -0,0 +1,105 @@
+package com.anysoftkeyboard.dictionaries;
+
+import android.content.res.XmlResourceParser;
+
+import com.anysoftkeyboard.base.dictionaries.Dictionary;
+import com.anysoftkeyboard.base.dictionaries.WordComposer;
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+import com.menny.android.anysoftkeyboard.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * {@link Suggest#getSuggestions(WordComposer, boolean)} on every keystroke, with the whole English
+ * words-list as the main dictionary, and the English auto-text.
+ * Only runs when asked for, see build.gradle.
+ */
+@RunWith(AskGradleTestRunner.class)
+public class SuggestBenchmark {
+    private static final int WARMUP_KEYSTROKES = 20 * 1000;
+    private static final int MEASURED_KEYSTROKES = 50 * 1000;
+
+    private KeystrokesStream mKeystrokes;
+    private WordComposer mWordComposer;
+    private Suggest mSuggest;
+
+    @Before
+    public void setup() throws Exception {
+        mKeystrokes = new KeystrokesStream(42);
+        mWordComposer = new WordComposer();
+        mSuggest = new Suggest(RuntimeEnvironment.application);
+        //quick-fixes (auto-text) are on, as by default
+        mSuggest.setCorrectionMode(true, true, 1, 1, 2);
+
+        XmlResourceParser parser = RuntimeEnvironment.application.getResources().getXml(R.xml.en_autotext);
+        final AutoText autoText;
+        try {
+            autoText = new AutoText(parser);
+        } finally {
+            parser.close();
+        }
+        DictionaryAddOnAndBuilder builder = Mockito.mock(DictionaryAddOnAndBuilder.class);
+        Mockito.doReturn("BENCHMARK").when(builder).getId();
+        Mockito.doReturn("en").when(builder).getLanguage();
+        Mockito.doReturn(new WordsListDictionary(mKeystrokes)).when(builder).createDictionary();
+        Mockito.doReturn(autoText).when(builder).createAutoText();
+        mSuggest.setMainDictionary(RuntimeEnvironment.application, builder);
+    }
+
+    @After
+    public void tearDown() {
+        mSuggest.closeDictionaries();
+    }
+
+    @Test
+    public void benchmarkSuggestionsForKeystroke() {
+        KeystrokesBenchmarkRunner.run("Suggest.getSuggestions", WARMUP_KEYSTROKES, MEASURED_KEYSTROKES, new KeystrokesBenchmarkRunner.Operation() {
+            @Override
+            public void run(int operationIndex) {
+                mKeystrokes.typeNextKeystroke(mWordComposer);
+                //after a separator, the keyboard asks for the next-words instead
+                if (mWordComposer.length() == 0) return;
+                mSuggest.getSuggestions(mWordComposer, false);
+            }
+        });
+    }
+
+    /**
+     * The words-list in a {@link WordsTrie}, looked up the way {@link BTreeDictionary} does it,
+     * without its storage.
+     */
+    private static class WordsListDictionary extends Dictionary {
+        private final WordsTrie mTrie = new WordsTrie(256);
+        private final WordsTrieLookup mLookup = new WordsTrieLookup(BTreeDictionary.MAX_WORD_LENGTH, FULL_WORD_FREQ_MULTIPLIER, INCLUDE_TYPED_WORD_IF_VALID);
+
+        WordsListDictionary(KeystrokesStream keystrokes) {
+            super("BENCHMARK");
+            for (int wordIndex = 0; wordIndex < keystrokes.words.size(); wordIndex++) {
+                mTrie.addWord(keystrokes.words.get(wordIndex), keystrokes.frequencies.get(wordIndex));
+            }
+        }
+
+        @Override
+        public void getWords(WordComposer composer, WordCallback callback) {
+            mLookup.getWords(mTrie, composer, callback, this);
+        }
+
+        @Override
+        public boolean isValidWord(CharSequence word) {
+            return mTrie.getWordFrequency(word) > 0;
+        }
+
+        @Override
+        protected void closeAllResources() {
+        }
+
+        @Override
+        protected void loadAllResources() {
+        }
+    }
+}
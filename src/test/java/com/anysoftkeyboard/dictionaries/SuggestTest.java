@@ -0,0 +1,186 @@
+package com.anysoftkeyboard.dictionaries;
+
+import com.anysoftkeyboard.base.dictionaries.Dictionary;
+import com.anysoftkeyboard.base.dictionaries.WordComposer;
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+
+@RunWith(AskGradleTestRunner.class)
+public class SuggestTest {
+    private static final int ALLOCATION_CHECK_ROUNDS = 1000;
+
+    private Suggest mSuggestUnderTest;
+    private WordComposer mWordComposer;
+
+    @Before
+    public void setup() throws Exception {
+        mSuggestUnderTest = new Suggest(RuntimeEnvironment.application);
+        //no abbreviations, so only the main dictionary is queried
+        mSuggestUnderTest.setCorrectionMode(false, true, 1, 1, 2);
+
+        setMainDictionary("en", new FakeDictionary("hell", 100, "hello", 90, "help", 80, "Hel", 10, "HELLO", 5));
+
+        mWordComposer = new WordComposer();
+        typeWord("hel");
+    }
+
+    private void setMainDictionary(String language, Dictionary dictionary) throws Exception {
+        DictionaryAddOnAndBuilder builder = Mockito.mock(DictionaryAddOnAndBuilder.class);
+        //the dictionaries are shared by id and language
+        Mockito.doReturn("FAKE_" + language).when(builder).getId();
+        Mockito.doReturn(language).when(builder).getLanguage();
+        Mockito.doReturn(dictionary).when(builder).createDictionary();
+        mSuggestUnderTest.setMainDictionary(RuntimeEnvironment.application, builder);
+    }
+
+    @After
+    public void tearDown() {
+        mSuggestUnderTest.closeDictionaries();
+        DictionaryCache.getInstance().evictIdleDictionaries();
+    }
+
+    private void typeWord(String word) {
+        mWordComposer.reset();
+        for (int charIndex = 0; charIndex < word.length(); charIndex++) {
+            final char c = word.charAt(charIndex);
+            mWordComposer.add(c, new int[]{c});
+        }
+    }
+
+    private static String[] toStrings(List<CharSequence> suggestions) {
+        String[] strings = new String[suggestions.size()];
+        for (int suggestionIndex = 0; suggestionIndex < strings.length; suggestionIndex++) {
+            strings[suggestionIndex] = suggestions.get(suggestionIndex).toString();
+        }
+        return strings;
+    }
+
+    @Test
+    public void testSuggestionsOrder() {
+        List<CharSequence> suggestions = mSuggestUnderTest.getSuggestions(mWordComposer, false);
+        //the typed word, and the same-word-different-case at the top. The rest by frequency.
+        Assert.assertArrayEquals(new String[]{"hel", "Hel", "hell", "hello", "help", "HELLO"}, toStrings(suggestions));
+        Assert.assertTrue(mSuggestUnderTest.hasMinimalCorrection());
+    }
+
+    @Test
+    public void testSuggestionsLimit() {
+        mSuggestUnderTest.setMaxSuggestions(2);
+        List<CharSequence> suggestions = mSuggestUnderTest.getSuggestions(mWordComposer, false);
+        Assert.assertArrayEquals(new String[]{"hel", "Hel", "hell"}, toStrings(suggestions));
+    }
+
+    @Test
+    public void testSuggestionsAreCapitalizedAsTyped() {
+        typeWord("Hel");
+        mWordComposer.setFirstCharCapitalized(true);
+        List<CharSequence> suggestions = mSuggestUnderTest.getSuggestions(mWordComposer, false);
+        //the typed word is not repeated
+        Assert.assertArrayEquals(new String[]{"Hel", "Hell", "Hello", "Help", "HELLO"}, toStrings(suggestions));
+    }
+
+    @Test
+    public void testSuggestionsAreCapitalizedByTheDictionaryLocale() throws Exception {
+        setMainDictionary("tr", new FakeDictionary("iyi", 100));
+        typeWord("\u0130Y");
+        List<CharSequence> suggestions = mSuggestUnderTest.getSuggestions(mWordComposer, false);
+        //Turkish dotted capital I
+        Assert.assertArrayEquals(new String[]{"\u0130Y", "\u0130Y\u0130"}, toStrings(suggestions));
+
+        setMainDictionary("de", new FakeDictionary("stra\u00dfe", 100));
+        typeWord("STR");
+        suggestions = mSuggestUnderTest.getSuggestions(mWordComposer, false);
+        //the upper-case of the sharp s is longer
+        Assert.assertArrayEquals(new String[]{"STR", "STRASSE"}, toStrings(suggestions));
+    }
+
+    @Test
+    public void testCompareCaseInsensitiveUsesTheLocale() {
+        //Turkish dotless i
+        Assert.assertTrue(Suggest.compareCaseInsensitive("\u0131rmak", "Irmak".toCharArray(), 0, 5, new Locale("tr")));
+        Assert.assertFalse(Suggest.compareCaseInsensitive("irmak", "Irmak".toCharArray(), 0, 5, new Locale("tr")));
+        Assert.assertTrue(Suggest.compareCaseInsensitive("irmak", "Irmak".toCharArray(), 0, 5, Locale.ENGLISH));
+        Assert.assertFalse(Suggest.compareCaseInsensitive("hel", "Help".toCharArray(), 0, 4, Locale.ENGLISH));
+    }
+
+    @Test
+    public void testClosesIdleDictionariesWhenClosingDictionaries() throws Exception {
+        FakeDictionary dictionary = new FakeDictionary("hell", 100);
+        setMainDictionary("de", dictionary);
+        //switching away keeps the dictionary as idle
+        setMainDictionary("en", new FakeDictionary("hell", 100));
+        Assert.assertFalse(dictionary.isClosed());
+
+        mSuggestUnderTest.closeDictionaries();
+        Assert.assertTrue(dictionary.isClosed());
+    }
+
+    @Test
+    public void testDoesNotAllocateWhenGettingSuggestions() {
+        final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        //warming up: the suggestions list view is created on first use
+        mSuggestUnderTest.getSuggestions(mWordComposer, false);
+        mSuggestUnderTest.getSuggestions(mWordComposer, false);
+
+        //calibrating the measuring itself
+        final long measuringStart = threadMXBean.getThreadAllocatedBytes(threadId);
+        final long measuringOverhead = threadMXBean.getThreadAllocatedBytes(threadId) - measuringStart;
+
+        final long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int round = 0; round < ALLOCATION_CHECK_ROUNDS; round++) {
+            mSuggestUnderTest.getSuggestions(mWordComposer, false);
+        }
+        final long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore - measuringOverhead;
+
+        //a single String per call would be way more than a byte per call
+        Assert.assertTrue("Allocated " + allocated + " bytes in " + ALLOCATION_CHECK_ROUNDS + " calls.", allocated < ALLOCATION_CHECK_ROUNDS);
+        Assert.assertEquals(6, mSuggestUnderTest.getSuggestions(mWordComposer, false).size());
+    }
+
+    private static class FakeDictionary extends Dictionary {
+        private final char[][] mWords;
+        private final int[] mFrequencies;
+
+        FakeDictionary(Object... wordsAndFrequencies) {
+            super("FAKE");
+            mWords = new char[wordsAndFrequencies.length / 2][];
+            mFrequencies = new int[mWords.length];
+            for (int wordIndex = 0; wordIndex < mWords.length; wordIndex++) {
+                mWords[wordIndex] = ((String) wordsAndFrequencies[2 * wordIndex]).toCharArray();
+                mFrequencies[wordIndex] = (Integer) wordsAndFrequencies[2 * wordIndex + 1];
+            }
+        }
+
+        @Override
+        public void getWords(WordComposer composer, WordCallback callback) {
+            for (int wordIndex = 0; wordIndex < mWords.length; wordIndex++) {
+                if (!callback.addWord(mWords[wordIndex], 0, mWords[wordIndex].length, mFrequencies[wordIndex], this)) return;
+            }
+        }
+
+        @Override
+        public boolean isValidWord(CharSequence word) {
+            return false;
+        }
+
+        @Override
+        protected void closeAllResources() {
+        }
+
+        @Override
+        protected void loadAllResources() {
+        }
+    }
+}
@@ -8,7 +8,12 @@ import android.database.ContentObserver;
 import com.anysoftkeyboard.base.dictionaries.WordsCursor;
 import com.anysoftkeyboard.dictionaries.sqlite.WordsSQLiteConnection;
 
+import java.io.File;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class TestableBTreeDictionary extends BTreeDictionary{
     public static final Object[][] STORAGE = {
@@ -28,17 +33,21 @@ public class TestableBTreeDictionary extends BTreeDictionary{
     public String wordRequestedToAddedToStorage = null;
     public int wordFrequencyRequestedToAddedToStorage = -1;
     public boolean storageIsClosed = false;
+    public final List<Object[]> storage = new ArrayList<>(Arrays.asList(STORAGE));
+    public int storageReadsCount = 0;
+    public File storageSnapshotFile = null;
+    public long storageMarker = UNKNOWN_STORAGE_MARKER;
 
-    private Field mRootsField;
+    private Field mTrieField;
 
     protected TestableBTreeDictionary(String dictionaryName, Context context) throws NoSuchFieldException {
         super(dictionaryName, context);
-        mRootsField = BTreeDictionary.class.getDeclaredField("mRoots");
-        mRootsField.setAccessible(true);
+        mTrieField = BTreeDictionary.class.getDeclaredField("mTrie");
+        mTrieField.setAccessible(true);
     }
 
-    public NodeArray getRoot() throws IllegalAccessException {
-        return (NodeArray) mRootsField.get(this);
+    public WordsTrie getTrie() throws IllegalAccessException {
+        return (WordsTrie) mTrieField.get(this);
     }
 
     @Override
@@ -54,11 +63,34 @@ public class TestableBTreeDictionary extends BTreeDictionary{
     @Override
     public WordsCursor getWordsCursor() {
         storageIsClosed = false;
+        storageReadsCount++;
+        return createWordsCursor(storage);
+    }
+
+    @Override
+    protected WordsCursor getWordsCursorForRow(long rowId) {
+        for (Object[] row : storage) {
+            if (((Integer) row[0]).longValue() == rowId) return createWordsCursor(Collections.singletonList(row));
+        }
+        return createWordsCursor(Collections.<Object[]>emptyList());
+    }
+
+    @Override
+    protected File getStorageSnapshotFile() {
+        return storageSnapshotFile;
+    }
+
+    @Override
+    protected long getStorageChangeMarker() {
+        return storageMarker;
+    }
+
+    private static WordsCursor createWordsCursor(final List<Object[]> rows) {
         return new WordsCursor(new AbstractCursor() {
 
             @Override
             public int getCount() {
-                return STORAGE.length;
+                return rows.size();
             }
 
             @Override
@@ -73,37 +105,37 @@ public class TestableBTreeDictionary extends BTreeDictionary{
 
             @Override
             public String getString(int column) {
-                return (String)STORAGE[getPosition()][column];
+                return (String)rows.get(getPosition())[column];
             }
 
             @Override
             public short getShort(int column) {
-                return (Short)STORAGE[getPosition()][column];
+                return (Short)rows.get(getPosition())[column];
             }
 
             @Override
             public int getInt(int column) {
-                return (Integer)STORAGE[getPosition()][column];
+                return (Integer)rows.get(getPosition())[column];
             }
 
             @Override
             public long getLong(int column) {
-                return (Long)STORAGE[getPosition()][column];
+                return (Long)rows.get(getPosition())[column];
             }
 
             @Override
             public float getFloat(int column) {
-                return (Float)STORAGE[getPosition()][column];
+                return (Float)rows.get(getPosition())[column];
             }
 
             @Override
             public double getDouble(int column) {
-                return (Double)STORAGE[getPosition()][column];
+                return (Double)rows.get(getPosition())[column];
             }
 
             @Override
             public boolean isNull(int column) {
-                return STORAGE[getPosition()][column] == null;
+                return rows.get(getPosition())[column] == null;
             }
         });
     }
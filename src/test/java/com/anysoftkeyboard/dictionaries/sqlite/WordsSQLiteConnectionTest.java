@@ -0,0 +1,173 @@
+package com.anysoftkeyboard.dictionaries.sqlite;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import com.anysoftkeyboard.base.dictionaries.DictionaryPersistence;
+import com.anysoftkeyboard.base.dictionaries.WordsCursor;
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(AskGradleTestRunner.class)
+public class WordsSQLiteConnectionTest {
+
+    private WordsSQLiteConnection mConnection;
+
+    @Before
+    public void setup() {
+        mConnection = new WordsSQLiteConnection(RuntimeEnvironment.application, "test_words.db", "en");
+    }
+
+    @After
+    public void tearDown() {
+        mConnection.close();
+        RuntimeEnvironment.application.deleteDatabase("test_words.db");
+    }
+
+    private static Map<String, Integer> readWords(WordsSQLiteConnection connection) {
+        Map<String, Integer> words = new HashMap<>();
+        WordsCursor wordsCursor = connection.getWordsCursor();
+        try {
+            if (wordsCursor.getCursor().moveToFirst()) {
+                while (!wordsCursor.getCursor().isAfterLast()) {
+                    Assert.assertNull("word " + wordsCursor.getCurrentWord() + " is stored twice",
+                            words.put(wordsCursor.getCurrentWord(), wordsCursor.getCurrentWordFrequency()));
+                    wordsCursor.getCursor().moveToNext();
+                }
+            }
+        } finally {
+            wordsCursor.close();
+        }
+        return words;
+    }
+
+    @Test
+    public void testAddsWordsWithTheSameHashCode() {
+        Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+        mConnection.addWord("Aa", 10);
+        mConnection.addWord("BB", 20);
+
+        Map<String, Integer> words = readWords(mConnection);
+        Assert.assertEquals(2, words.size());
+        Assert.assertEquals(10, words.get("Aa").intValue());
+        Assert.assertEquals(20, words.get("BB").intValue());
+    }
+
+    @Test
+    public void testAddingAgainUpdatesTheFrequency() {
+        mConnection.addWord("hello", 10);
+        mConnection.addWord("hello", 30);
+        mConnection.addWord("world", 5);
+
+        Map<String, Integer> words = readWords(mConnection);
+        Assert.assertEquals(2, words.size());
+        Assert.assertEquals(30, words.get("hello").intValue());
+    }
+
+    @Test
+    public void testDeleteWord() {
+        mConnection.addWord("hello", 10);
+        mConnection.addWord("world", 5);
+        mConnection.deleteWord("hello");
+        mConnection.deleteWord("not there");
+
+        Map<String, Integer> words = readWords(mConnection);
+        Assert.assertEquals(1, words.size());
+        Assert.assertTrue(words.containsKey("world"));
+
+        //deleting and adding again, as the dictionaries do
+        mConnection.deleteWord("world");
+        mConnection.addWord("world", 7);
+        Assert.assertEquals(7, readWords(mConnection).get("world").intValue());
+    }
+
+    @Test
+    public void testAppliesQueuedChangesInTheBackground() {
+        for (int wordIndex = 0; wordIndex < 100; wordIndex++) {
+            mConnection.addWord("word" + wordIndex, 1 + wordIndex);
+        }
+        DictionaryPersistence.getInstance().waitForPendingWrites();
+
+        //a new connection sees the changes, so they were written
+        WordsSQLiteConnection otherConnection = new WordsSQLiteConnection(RuntimeEnvironment.application, "test_words.db", "en");
+        try {
+            Map<String, Integer> words = readWords(otherConnection);
+            Assert.assertEquals(100, words.size());
+            Assert.assertEquals(100, words.get("word99").intValue());
+        } finally {
+            otherConnection.close();
+        }
+    }
+
+    @Test
+    public void testCloseAppliesQueuedChanges() {
+        mConnection.addWord("hello", 10);
+        mConnection.close();
+
+        mConnection = new WordsSQLiteConnection(RuntimeEnvironment.application, "test_words.db", "en");
+        Assert.assertEquals(10, readWords(mConnection).get("hello").intValue());
+    }
+
+    @Test
+    public void testCloseKeepsChangesWhichCouldNotBeApplied() {
+        WordsSQLiteConnection failingConnection = new WordsSQLiteConnection(RuntimeEnvironment.application, "test_words.db", "en") {
+            @Override
+            public SQLiteDatabase getWritableDatabase() {
+                throw new SQLiteException("fake locked database");
+            }
+        };
+        failingConnection.addWord("hello", 10);
+        failingConnection.deleteWord("world");
+        failingConnection.close();
+
+        //the next connection to the same database and locale applies them
+        mConnection.close();
+        mConnection = new WordsSQLiteConnection(RuntimeEnvironment.application, "test_words.db", "en");
+        Map<String, Integer> words = readWords(mConnection);
+        Assert.assertEquals(1, words.size());
+        Assert.assertEquals(10, words.get("hello").intValue());
+    }
+
+    @Test
+    public void testAddingAgainWithoutLocaleUpdatesTheFrequency() {
+        WordsSQLiteConnection noLocale = new WordsSQLiteConnection(RuntimeEnvironment.application, "test_words.db", null);
+        try {
+            noLocale.addWord("hello", 10);
+            noLocale.addWord("hello", 30);
+            //readWords fails on a word which is stored twice
+            Map<String, Integer> words = readWords(noLocale);
+            Assert.assertEquals(1, words.size());
+            Assert.assertEquals(30, words.get("hello").intValue());
+        } finally {
+            noLocale.close();
+        }
+        //words without a locale are read in all locales
+        Assert.assertEquals(30, readWords(mConnection).get("hello").intValue());
+    }
+
+    @Test
+    public void testWordsOfOtherLocalesAreNotRead() {
+        WordsSQLiteConnection otherLocale = new WordsSQLiteConnection(RuntimeEnvironment.application, "test_words.db", "iw");
+        try {
+            otherLocale.addWord("shalom", 10);
+            otherLocale.addWord("hello", 3);
+            Assert.assertEquals(2, readWords(otherLocale).size());
+        } finally {
+            otherLocale.close();
+        }
+        mConnection.addWord("hello", 20);
+
+        Map<String, Integer> words = readWords(mConnection);
+        Assert.assertEquals(1, words.size());
+        Assert.assertEquals(20, words.get("hello").intValue());
+    }
+}
@@ -0,0 +1,100 @@
+package com.anysoftkeyboard.keyboards.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import com.anysoftkeyboard.AnySoftKeyboardBaseTest;
+import com.anysoftkeyboard.keyboards.Keyboard;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class AnyKeyboardViewDirtyKeysTest extends AnySoftKeyboardBaseTest {
+    private static final int VIEW_WIDTH = 480;
+    private static final int VIEW_HEIGHT = 300;
+
+    private AnyKeyboardView mViewUnderTest;
+    private Canvas mCanvas;
+    private List<Keyboard.Key> mKeys;
+
+    @Before
+    public void setUpView() {
+        mViewUnderTest = mAnySoftKeyboardUnderTest.getSpiedKeyboardView();
+        Assert.assertNotNull(mViewUnderTest);
+        mViewUnderTest.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        mCanvas = new Canvas(Bitmap.createBitmap(VIEW_WIDTH, VIEW_HEIGHT, Bitmap.Config.ARGB_8888));
+        mKeys = mViewUnderTest.getKeyboard().getKeys();
+        Assert.assertTrue(mKeys.size() > 4);
+        //first draw is of the whole keyboard
+        mViewUnderTest.onDraw(mCanvas);
+    }
+
+    @Test
+    public void testDrawsAllKeysFirst() {
+        Assert.assertEquals(mKeys.size(), mViewUnderTest.getLastBufferDrawKeysCount());
+        Assert.assertEquals(mKeys.size(), mViewUnderTest.getKeysRedrawCount());
+    }
+
+    @Test
+    public void testDrawsOnlyTheInvalidatedKeys() {
+        final long drawsCount = mViewUnderTest.getBufferDrawsCount();
+        mViewUnderTest.invalidateKey(mKeys.get(1));
+        mViewUnderTest.invalidateKey(mKeys.get(3));
+        mViewUnderTest.invalidateKey(mKeys.get(1));
+        mViewUnderTest.onDraw(mCanvas);
+
+        Assert.assertEquals(drawsCount + 1, mViewUnderTest.getBufferDrawsCount());
+        Assert.assertEquals(2, mViewUnderTest.getLastBufferDrawKeysCount());
+        Assert.assertEquals(mKeys.size() + 2, mViewUnderTest.getKeysRedrawCount());
+    }
+
+    @Test
+    public void testInvalidatedKeysAreNotAddedToTheSpritesAtlas() {
+        final int spritesCount = mViewUnderTest.getKeySpritesCount();
+        Assert.assertTrue(spritesCount > 0);
+        mViewUnderTest.invalidateKey(mKeys.get(1));
+        mViewUnderTest.onDraw(mCanvas);
+
+        Assert.assertEquals(1, mViewUnderTest.getLastBufferDrawKeysCount());
+        Assert.assertEquals(spritesCount, mViewUnderTest.getKeySpritesCount());
+    }
+
+    @Test
+    public void testDoesNotRedrawKeysWhenNothingChanged() {
+        final long drawsCount = mViewUnderTest.getBufferDrawsCount();
+        final long keysRedrawCount = mViewUnderTest.getKeysRedrawCount();
+        mViewUnderTest.onDraw(mCanvas);
+
+        Assert.assertEquals(drawsCount, mViewUnderTest.getBufferDrawsCount());
+        Assert.assertEquals(keysRedrawCount, mViewUnderTest.getKeysRedrawCount());
+    }
+
+    @Test
+    public void testIgnoresKeysNotInTheKeyboard() {
+        final long drawsCount = mViewUnderTest.getBufferDrawsCount();
+        mViewUnderTest.invalidateKey(null);
+        mViewUnderTest.onDraw(mCanvas);
+
+        Assert.assertEquals(drawsCount, mViewUnderTest.getBufferDrawsCount());
+    }
+
+    @Test
+    public void testInvalidateAllKeysDrawsAllKeys() {
+        mViewUnderTest.invalidateKey(mKeys.get(1));
+        mViewUnderTest.invalidateAllKeys();
+        mViewUnderTest.onDraw(mCanvas);
+
+        Assert.assertEquals(mKeys.size(), mViewUnderTest.getLastBufferDrawKeysCount());
+    }
+
+    @Test
+    public void testSizeChangeDrawsAllKeys() {
+        mViewUnderTest.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT + 10);
+        mViewUnderTest.onDraw(mCanvas);
+
+        Assert.assertEquals(mKeys.size(), mViewUnderTest.getLastBufferDrawKeysCount());
+    }
+}
@@ -0,0 +1,120 @@
+package com.anysoftkeyboard.keyboards.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AskGradleTestRunner.class)
+public class KeySpriteCacheTest {
+    private static final int[] NORMAL_STATE = new int[]{};
+    private static final int[] PRESSED_STATE = new int[]{android.R.attr.state_pressed};
+
+    private KeySpriteCache mCache;
+    private Canvas mCanvas;
+
+    @Before
+    public void setup() {
+        mCache = new KeySpriteCache();
+        //pages of 100x50, up to two pages
+        mCache.setAtlasDimensions(100, 50, 100 * 50 * 2);
+        mCanvas = new Canvas(Bitmap.createBitmap(200, 200, Bitmap.Config.ARGB_8888));
+    }
+
+    private static KeySpriteCache.SpriteKey spriteKey(int[] state, String label, int width, int height) {
+        KeySpriteCache.SpriteKey key = new KeySpriteCache.SpriteKey();
+        key.set(state, label, null, null, false, true, false, width, height);
+        return key;
+    }
+
+    /**
+     * Draws the key, the way the keyboard view does.
+     *
+     * @return true if the key was taken from the cache.
+     */
+    private boolean drawKey(KeySpriteCache.SpriteKey key) {
+        if (mCache.drawSprite(mCanvas, key)) return true;
+        Canvas spriteCanvas = mCache.beginSprite(key);
+        if (spriteCanvas != null) mCache.endSprite(mCanvas);
+        return false;
+    }
+
+    @Test
+    public void testSameAppearanceIsRenderedOnce() {
+        Assert.assertFalse(drawKey(spriteKey(NORMAL_STATE, "a", 10, 20)));
+        Assert.assertTrue(drawKey(spriteKey(NORMAL_STATE, "a", 10, 20)));
+        Assert.assertTrue(drawKey(spriteKey(new int[]{}, "a", 10, 20)));
+
+        Assert.assertFalse(drawKey(spriteKey(PRESSED_STATE, "a", 10, 20)));
+        Assert.assertFalse(drawKey(spriteKey(NORMAL_STATE, "b", 10, 20)));
+        Assert.assertFalse(drawKey(spriteKey(NORMAL_STATE, "a", 11, 20)));
+
+        Assert.assertEquals(4, mCache.getSpritesCount());
+        Assert.assertEquals(4, mCache.getRenderedCount());
+        Assert.assertEquals(2, mCache.getHitsCount());
+        Assert.assertEquals(1, mCache.getPagesCount());
+    }
+
+    @Test
+    public void testKeyStateIsCopied() {
+        int[] state = new int[]{android.R.attr.state_pressed};
+        KeySpriteCache.SpriteKey key = spriteKey(state, "a", 10, 20);
+        drawKey(key);
+        //the drawable state arrays are changed by the keys
+        state[0] = android.R.attr.state_checked;
+
+        Assert.assertTrue(drawKey(spriteKey(PRESSED_STATE, "a", 10, 20)));
+    }
+
+    @Test
+    public void testLargerThanPageIsNotCached() {
+        Assert.assertNull(mCache.beginSprite(spriteKey(NORMAL_STATE, "a", 101, 20)));
+        Assert.assertNull(mCache.beginSprite(spriteKey(NORMAL_STATE, "a", 10, 51)));
+        Assert.assertEquals(0, mCache.getSpritesCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedPageWhenOverBudget() {
+        //each page fits two rows of four keys
+        for (int keyIndex = 0; keyIndex < 16; keyIndex++) {
+            Assert.assertFalse(drawKey(spriteKey(NORMAL_STATE, "key" + keyIndex, 25, 25)));
+        }
+        Assert.assertEquals(2, mCache.getPagesCount());
+        Assert.assertEquals(16, mCache.getSpritesCount());
+        Assert.assertEquals(0, mCache.getEvictedPagesCount());
+
+        //using the first page, so the second is the least recently used
+        Assert.assertTrue(drawKey(spriteKey(NORMAL_STATE, "key0", 25, 25)));
+        Assert.assertFalse(drawKey(spriteKey(NORMAL_STATE, "key16", 25, 25)));
+
+        Assert.assertEquals(2, mCache.getPagesCount());
+        Assert.assertEquals(1, mCache.getEvictedPagesCount());
+        Assert.assertEquals(9, mCache.getSpritesCount());
+        Assert.assertTrue(drawKey(spriteKey(NORMAL_STATE, "key7", 25, 25)));
+        Assert.assertFalse(drawKey(spriteKey(NORMAL_STATE, "key8", 25, 25)));
+    }
+
+    @Test
+    public void testClear() {
+        drawKey(spriteKey(NORMAL_STATE, "a", 10, 20));
+        mCache.clear();
+
+        Assert.assertEquals(0, mCache.getSpritesCount());
+        Assert.assertEquals(0, mCache.getPagesCount());
+        Assert.assertFalse(drawKey(spriteKey(NORMAL_STATE, "a", 10, 20)));
+    }
+
+    @Test
+    public void testZeroBudgetDisablesTheCache() {
+        mCache.setAtlasDimensions(100, 50, 0);
+
+        Assert.assertFalse(drawKey(spriteKey(NORMAL_STATE, "a", 10, 20)));
+        Assert.assertFalse(drawKey(spriteKey(NORMAL_STATE, "a", 10, 20)));
+        Assert.assertEquals(0, mCache.getPagesCount());
+    }
+}
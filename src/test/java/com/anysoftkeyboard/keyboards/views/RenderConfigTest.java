@@ -0,0 +1,82 @@
+package com.anysoftkeyboard.keyboards.views;
+
+import android.content.res.ColorStateList;
+import android.view.Gravity;
+
+import com.anysoftkeyboard.AskPrefs;
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+@RunWith(AskGradleTestRunner.class)
+public class RenderConfigTest {
+    private static final ColorStateList KEY_COLOR = ColorStateList.valueOf(0xFF000000);
+    private static final ColorStateList NAME_COLOR = ColorStateList.valueOf(0xFF111111);
+    private static final ColorStateList HINT_COLOR = ColorStateList.valueOf(0xFF222222);
+
+    private AskPrefs mPrefs;
+
+    @Before
+    public void setup() {
+        mPrefs = Mockito.mock(AskPrefs.class);
+        Mockito.doReturn(true).when(mPrefs).getShowKeyboardNameText();
+        Mockito.doReturn(true).when(mPrefs).getShowHintTextOnKeys();
+        Mockito.doReturn(Gravity.CENTER).when(mPrefs).getCustomHintAlign();
+        Mockito.doReturn(Gravity.TOP).when(mPrefs).getCustomHintVAlign();
+    }
+
+    private RenderConfig createWithTheme(float keyboardNameTextSize, float hintTextSize) {
+        return RenderConfig.create(mPrefs).withKeysTheme(keyboardNameTextSize, hintTextSize, Gravity.RIGHT, Gravity.BOTTOM,
+                KEY_COLOR, NAME_COLOR, HINT_COLOR);
+    }
+
+    @Test
+    public void testReadsSettings() {
+        Mockito.doReturn(true).when(mPrefs).workaround_alwaysUseDrawText();
+        RenderConfig config = RenderConfig.create(mPrefs);
+
+        Assert.assertTrue(config.alwaysUseDrawText);
+        Assert.assertTrue(config.drawKeyboardNameText);
+        Assert.assertTrue(config.drawHintText);
+        Assert.assertNull(config.keyTextColor);
+    }
+
+    @Test
+    public void testIsASnapshot() {
+        RenderConfig config = RenderConfig.create(mPrefs);
+        Mockito.doReturn(false).when(mPrefs).getShowHintTextOnKeys();
+
+        Assert.assertTrue(config.drawHintText);
+        Assert.assertFalse(RenderConfig.create(mPrefs).drawHintText);
+    }
+
+    @Test
+    public void testUsesThemeHintPositionUnlessCustom() {
+        RenderConfig config = createWithTheme(10f, 10f);
+        Assert.assertEquals(Gravity.RIGHT, config.hintAlign);
+        Assert.assertEquals(Gravity.BOTTOM, config.hintVAlign);
+        Assert.assertSame(KEY_COLOR, config.keyTextColor);
+        Assert.assertSame(NAME_COLOR, config.keyboardNameTextColor);
+        Assert.assertSame(HINT_COLOR, config.hintTextColor);
+
+        Mockito.doReturn(true).when(mPrefs).getUseCustomHintAlign();
+        config = createWithTheme(10f, 10f);
+        Assert.assertEquals(Gravity.CENTER, config.hintAlign);
+        Assert.assertEquals(Gravity.TOP, config.hintVAlign);
+    }
+
+    @Test
+    public void testDoesNotDrawTextsWhichTheThemeDoesNotSize() {
+        RenderConfig config = createWithTheme(0f, 1f);
+        Assert.assertFalse(config.drawKeyboardNameText);
+        Assert.assertFalse(config.drawHintText);
+
+        config = createWithTheme(12f, 8f);
+        Assert.assertTrue(config.drawKeyboardNameText);
+        Assert.assertTrue(config.drawHintText);
+    }
+}
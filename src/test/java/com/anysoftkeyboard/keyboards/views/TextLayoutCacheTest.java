@@ -0,0 +1,107 @@
+package com.anysoftkeyboard.keyboards.views;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.Layout.Alignment;
+import android.text.StaticLayout;
+
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AskGradleTestRunner.class)
+public class TextLayoutCacheTest {
+
+    private TextLayoutCache mCache;
+    private Paint mPaint;
+
+    @Before
+    public void setup() {
+        mCache = new TextLayoutCache(4);
+        mPaint = new Paint();
+        mPaint.setTextSize(20f);
+        mPaint.setColor(0xFF000000);
+    }
+
+    @Test
+    public void testReusesLayoutOfSameTextPaintAndWidth() {
+        StaticLayout layout = mCache.getLayout("Done", mPaint, 100, Alignment.ALIGN_NORMAL);
+        Assert.assertSame(layout, mCache.getLayout(new StringBuilder("Done"), mPaint, 100, Alignment.ALIGN_NORMAL));
+
+        Assert.assertNotSame(layout, mCache.getLayout("Done", mPaint, 90, Alignment.ALIGN_NORMAL));
+        Assert.assertNotSame(layout, mCache.getLayout("Done", mPaint, 100, Alignment.ALIGN_CENTER));
+        Assert.assertNotSame(layout, mCache.getLayout("Go", mPaint, 100, Alignment.ALIGN_NORMAL));
+
+        Assert.assertEquals(1, mCache.getHitsCount());
+        Assert.assertEquals(4, mCache.getLayoutsCount());
+    }
+
+    @Test
+    public void testPaintConfigurationIsPartOfTheKey() {
+        StaticLayout layout = mCache.getLayout("Done", mPaint, 100, Alignment.ALIGN_NORMAL);
+
+        mPaint.setTypeface(Typeface.DEFAULT_BOLD);
+        StaticLayout boldLayout = mCache.getLayout("Done", mPaint, 100, Alignment.ALIGN_NORMAL);
+        Assert.assertNotSame(layout, boldLayout);
+        mPaint.setColor(0xFFFF0000);
+        Assert.assertNotSame(boldLayout, mCache.getLayout("Done", mPaint, 100, Alignment.ALIGN_NORMAL));
+        Assert.assertEquals(3, mCache.getTextPaintsCount());
+
+        //back to the first configuration
+        mPaint.setTypeface(null);
+        mPaint.setColor(0xFF000000);
+        Assert.assertSame(layout, mCache.getLayout("Done", mPaint, 100, Alignment.ALIGN_NORMAL));
+        Assert.assertEquals(3, mCache.getTextPaintsCount());
+    }
+
+    @Test
+    public void testLayoutPaintIsNotChangedByLaterPaintChanges() {
+        StaticLayout layout = mCache.getLayout("Done", mPaint, 100, Alignment.ALIGN_NORMAL);
+        mPaint.setTextSize(40f);
+
+        Assert.assertEquals(20f, layout.getPaint().getTextSize(), 0f);
+    }
+
+    @Test
+    public void testLayoutIsNotChangedByLaterTextChanges() {
+        StringBuilder text = new StringBuilder("Done");
+        StaticLayout layout = mCache.getLayout(text, mPaint, 100, Alignment.ALIGN_NORMAL);
+        //like a suggestion view, which shows another suggestion later
+        text.setLength(0);
+        text.append("Go");
+
+        Assert.assertEquals("Done", layout.getText().toString());
+        StaticLayout otherLayout = mCache.getLayout(text, mPaint, 100, Alignment.ALIGN_NORMAL);
+        Assert.assertNotSame(layout, otherLayout);
+        Assert.assertEquals("Go", otherLayout.getText().toString());
+        Assert.assertSame(layout, mCache.getLayout("Done", mPaint, 100, Alignment.ALIGN_NORMAL));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        StaticLayout first = mCache.getLayout("first", mPaint, 100, Alignment.ALIGN_NORMAL);
+        StaticLayout second = mCache.getLayout("second", mPaint, 100, Alignment.ALIGN_NORMAL);
+        mCache.getLayout("third", mPaint, 100, Alignment.ALIGN_NORMAL);
+        mCache.getLayout("fourth", mPaint, 100, Alignment.ALIGN_NORMAL);
+        //using the first, so the second is the least recently used
+        Assert.assertSame(first, mCache.getLayout("first", mPaint, 100, Alignment.ALIGN_NORMAL));
+        mCache.getLayout("fifth", mPaint, 100, Alignment.ALIGN_NORMAL);
+
+        Assert.assertEquals(4, mCache.getLayoutsCount());
+        Assert.assertSame(first, mCache.getLayout("first", mPaint, 100, Alignment.ALIGN_NORMAL));
+        Assert.assertNotSame(second, mCache.getLayout("second", mPaint, 100, Alignment.ALIGN_NORMAL));
+    }
+
+    @Test
+    public void testClear() {
+        StaticLayout layout = mCache.getLayout("Done", mPaint, 100, Alignment.ALIGN_NORMAL);
+        mCache.clear();
+
+        Assert.assertEquals(0, mCache.getLayoutsCount());
+        Assert.assertEquals(0, mCache.getTextPaintsCount());
+        Assert.assertNotSame(layout, mCache.getLayout("Done", mPaint, 100, Alignment.ALIGN_NORMAL));
+    }
+}
@@ -0,0 +1,85 @@
+package com.anysoftkeyboard.keyboards.views;
+
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AskGradleTestRunner.class)
+public class TextWidthCacheTest {
+
+    private TextWidthCache mCache;
+
+    @Before
+    public void setup() {
+        mCache = new TextWidthCache(8);
+    }
+
+    @Test
+    public void testPutAndFind() {
+        Assert.assertEquals(TextWidthCache.NOT_FOUND, mCache.indexOf("Done", 100));
+        mCache.put("Done", 100, 20f, 80f);
+        mCache.put("Done", 50, 10f, 40f);
+
+        final int index = mCache.indexOf(new StringBuilder("Done"), 100);
+        Assert.assertNotEquals(TextWidthCache.NOT_FOUND, index);
+        Assert.assertEquals(20f, mCache.getTextSize(index), 0f);
+        Assert.assertEquals(80f, mCache.getTextWidth(index), 0f);
+
+        final int otherWidthIndex = mCache.indexOf("Done", 50);
+        Assert.assertEquals(10f, mCache.getTextSize(otherWidthIndex), 0f);
+        Assert.assertEquals(40f, mCache.getTextWidth(otherWidthIndex), 0f);
+
+        Assert.assertEquals(TextWidthCache.NOT_FOUND, mCache.indexOf("Done", 60));
+        Assert.assertEquals(TextWidthCache.NOT_FOUND, mCache.indexOf("Go", 100));
+    }
+
+    @Test
+    public void testCollidingLabels() {
+        Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+        mCache.put("Aa", 10, 1f, 2f);
+        mCache.put("BB", 10, 3f, 4f);
+
+        Assert.assertEquals(2f, mCache.getTextWidth(mCache.indexOf("Aa", 10)), 0f);
+        Assert.assertEquals(4f, mCache.getTextWidth(mCache.indexOf("BB", 10)), 0f);
+    }
+
+    @Test
+    public void testStoresACopyOfMutableLabels() {
+        StringBuilder label = new StringBuilder("Done");
+        mCache.put(label, 100, 20f, 80f);
+        label.setLength(0);
+        label.append("Go");
+
+        Assert.assertNotEquals(TextWidthCache.NOT_FOUND, mCache.indexOf("Done", 100));
+        Assert.assertEquals(TextWidthCache.NOT_FOUND, mCache.indexOf("Go", 100));
+    }
+
+    @Test
+    public void testStartsOverWhenFull() {
+        //8 slots, up to 6 entries
+        for (int labelIndex = 0; labelIndex < 6; labelIndex++) {
+            mCache.put("label" + labelIndex, 100, 1f, labelIndex);
+        }
+        Assert.assertEquals(6, mCache.size());
+        for (int labelIndex = 0; labelIndex < 6; labelIndex++) {
+            Assert.assertEquals(labelIndex, mCache.getTextWidth(mCache.indexOf("label" + labelIndex, 100)), 0f);
+        }
+
+        mCache.put("label6", 100, 1f, 6f);
+        Assert.assertEquals(1, mCache.size());
+        Assert.assertEquals(TextWidthCache.NOT_FOUND, mCache.indexOf("label0", 100));
+        Assert.assertNotEquals(TextWidthCache.NOT_FOUND, mCache.indexOf("label6", 100));
+    }
+
+    @Test
+    public void testClear() {
+        mCache.put("Done", 100, 20f, 80f);
+        mCache.clear();
+
+        Assert.assertEquals(0, mCache.size());
+        Assert.assertEquals(TextWidthCache.NOT_FOUND, mCache.indexOf("Done", 100));
+    }
+}
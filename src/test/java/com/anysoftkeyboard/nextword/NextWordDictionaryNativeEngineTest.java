@@ -0,0 +1,66 @@
+package com.anysoftkeyboard.nextword;
+
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Runs the {@link NextWordDictionaryTest} flows with the native engine. The native library is built
+ * for the machine running the tests by the buildHostNextWordsJni task, when the tests run with
+ * -PhostNextWordsJni. Otherwise, these tests are skipped.
+ */
+@RunWith(AskGradleTestRunner.class)
+public class NextWordDictionaryNativeEngineTest extends NextWordDictionaryTest {
+
+    @Override
+    protected NextWordDictionary createNextWordDictionary() {
+        Assume.assumeTrue(NextWordDictionary.isNativeEngineAvailable());
+        return new NextWordDictionary(RuntimeEnvironment.application, "en",
+                new NativeNextWordsEngine(Utils.getNextWordsMemoryBudget(RuntimeEnvironment.application)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFailsWhenUsedAfterClose() {
+        Assume.assumeTrue(NextWordDictionary.isNativeEngineAvailable());
+        NativeNextWordsEngine engine = new NativeNextWordsEngine(Utils.getNextWordsMemoryBudget(RuntimeEnvironment.application));
+        engine.close();
+
+        engine.markNextWordAsUsed("hello", "world");
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedWhenOverMemoryBudget() {
+        Assume.assumeTrue(NextWordDictionary.isNativeEngineAvailable());
+        //the memory of a few words, without a budget
+        NativeNextWordsEngine sizeSample = new NativeNextWordsEngine(0);
+        for (int wordIndex = 0; wordIndex < 100; wordIndex++) {
+            sizeSample.markNextWordAsUsed("word" + wordIndex, "next" + wordIndex);
+        }
+        final long memoryBudget = sizeSample.getEstimatedMemorySize();
+        sizeSample.close();
+
+        NativeNextWordsEngine engine = new NativeNextWordsEngine(memoryBudget);
+        final String[] nextWords = new String[8];
+        final int[] usedCounts = new int[8];
+        for (int wordIndex = 0; wordIndex < 1000; wordIndex++) {
+            engine.markNextWordAsUsed("word" + wordIndex, "next" + wordIndex);
+            //a word which is used all the time is never the least recently used
+            engine.markNextWordAsUsed("hello", "world");
+            Assert.assertTrue(engine.getEstimatedMemorySize() <= memoryBudget);
+        }
+
+        Assert.assertTrue(engine.getEvictionsCount() > 0);
+        Assert.assertTrue(engine.getFirstWordsCount() < 1000);
+        Assert.assertEquals(NextWordsEngine.WORD_NOT_FOUND, engine.getNextWords("word0", 0, nextWords, usedCounts, 8));
+        Assert.assertEquals(1, engine.getNextWords("hello", 0, nextWords, usedCounts, 8));
+        Assert.assertEquals("world", nextWords[0]);
+        Assert.assertEquals(1000, usedCounts[0]);
+        Assert.assertEquals(1, engine.getNextWords("word999", 0, nextWords, usedCounts, 8));
+        Assert.assertEquals("next999", nextWords[0]);
+        engine.close();
+    }
+}
@@ -1,5 +1,6 @@
 package com.anysoftkeyboard.nextword;
 
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
 import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
 
 import org.junit.Assert;
@@ -8,6 +9,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RuntimeEnvironment;
 
+import java.io.File;
 import java.util.Iterator;
 
 @RunWith(AskGradleTestRunner.class)
@@ -16,7 +18,11 @@ public class NextWordDictionaryTest {
 
     @Before
     public void setup() {
-        mNextWordDictionaryUnderTest = new NextWordDictionary(RuntimeEnvironment.application, "en");
+        mNextWordDictionaryUnderTest = createNextWordDictionary();
+    }
+
+    protected NextWordDictionary createNextWordDictionary() {
+        return new NextWordDictionary(RuntimeEnvironment.application, "en", false);
     }
 
     @Test
@@ -85,7 +91,7 @@ public class NextWordDictionaryTest {
         mNextWordDictionaryUnderTest.close();
         mNextWordDictionaryUnderTest = null;
 
-        NextWordDictionary loadedDictionary = new NextWordDictionary(RuntimeEnvironment.application, "en");
+        NextWordDictionary loadedDictionary = createNextWordDictionary();
         loadedDictionary.load();
 
         assertHasNextWordsForWord(loadedDictionary, "hello", "menny");
@@ -112,6 +118,191 @@ public class NextWordDictionaryTest {
         mNextWordDictionaryUnderTest.close();
     }
 
+    @Test
+    public void testDropsNextWordsClearedFromTheStorage() throws Exception {
+        mNextWordDictionaryUnderTest.load();
+
+        for (int usage = 0; usage < NextWordsJournal.EVENTS_PER_BATCH + 1; usage++) {
+            mNextWordDictionaryUnderTest.getNextWords("hello", 8, 0);
+            mNextWordDictionaryUnderTest.getNextWords("menny", 8, 0);
+        }
+        //cleared (from the settings) while the dictionary is open
+        new NextWordsStorage(RuntimeEnvironment.application, "en").clear();
+
+        assertHasNextWordsForWord(mNextWordDictionaryUnderTest, "hello");
+        Assert.assertEquals(0, mNextWordDictionaryUnderTest.dumpDictionaryStatistics().firstWordCount);
+        Assert.assertEquals(0, mNextWordDictionaryUnderTest.dumpDictionaryStatistics().secondWordCount);
+        mNextWordDictionaryUnderTest.close();
+
+        NextWordDictionary loadedDictionary = createNextWordDictionary();
+        loadedDictionary.load();
+
+        Assert.assertEquals(0, loadedDictionary.dumpDictionaryStatistics().secondWordCount);
+        assertHasNextWordsForWord(loadedDictionary, "menny");
+
+        loadedDictionary.close();
+    }
+
+    @Test
+    public void testKeepsUsagesWithoutClose() throws Exception {
+        mNextWordDictionaryUnderTest.load();
+
+        for (int usage = 0; usage < NextWordsJournal.EVENTS_PER_BATCH; usage++) {
+            mNextWordDictionaryUnderTest.getNextWords("hello", 8, 0);
+            mNextWordDictionaryUnderTest.getNextWords("menny", 8, 0);
+        }
+        //not closing, as if the process was killed
+
+        NextWordDictionary loadedDictionary = createNextWordDictionary();
+        loadedDictionary.load();
+
+        assertHasNextWordsForWord(loadedDictionary, "hello", "menny");
+        assertHasNextWordsForWord(loadedDictionary, "menny", "hello");
+
+        loadedDictionary.close();
+    }
+
+    @Test
+    public void testLoadAgainAfterCompaction() throws Exception {
+        mNextWordDictionaryUnderTest.load();
+
+        int journalBytes = 0;
+        for (int wordIndex = 0; journalBytes < NextWordsJournal.COMPACTION_THRESHOLD_BYTES * 2; wordIndex++) {
+            final String word = "word" + (wordIndex % 100);
+            mNextWordDictionaryUnderTest.getNextWords(word, 8, 0);
+            journalBytes += 2 * (word.length() + 1);
+        }
+        assertHasNextWordsForWord(mNextWordDictionaryUnderTest, "word42", "word43");
+        final int firstWordCount = mNextWordDictionaryUnderTest.dumpDictionaryStatistics().firstWordCount;
+        Assert.assertEquals(100, firstWordCount);
+        mNextWordDictionaryUnderTest.close();
+
+        NextWordDictionary loadedDictionary = createNextWordDictionary();
+        loadedDictionary.load();
+
+        Assert.assertEquals(firstWordCount, loadedDictionary.dumpDictionaryStatistics().firstWordCount);
+        assertHasNextWordsForWord(loadedDictionary, "word42", "word43");
+
+        loadedDictionary.close();
+    }
+
+    @Test
+    public void testKeepsJournalWhenCompactionFails() throws Exception {
+        mNextWordDictionaryUnderTest.load();
+        //a (not empty) directory where the next-words are written aside, so storing them fails
+        final File tempFile = RuntimeEnvironment.application.getFileStreamPath("next_words_en.txt.tmp");
+        final File blockingFile = new File(tempFile, "blocking");
+        Assert.assertTrue(tempFile.mkdirs());
+        Assert.assertTrue(blockingFile.createNewFile());
+        try {
+            int journalBytes = 0;
+            for (int wordIndex = 0; journalBytes < NextWordsJournal.COMPACTION_THRESHOLD_BYTES * 2; wordIndex++) {
+                final String word = "word" + (wordIndex % 100);
+                mNextWordDictionaryUnderTest.getNextWords(word, 8, 0);
+                journalBytes += 2 * (word.length() + 1);
+            }
+            mNextWordDictionaryUnderTest.close();
+            NextWordsJournal.waitForPendingWrites();
+        } finally {
+            Assert.assertTrue(blockingFile.delete());
+            Assert.assertTrue(tempFile.delete());
+        }
+        Assert.assertFalse(RuntimeEnvironment.application.getFileStreamPath("next_words_en.txt").exists());
+
+        NextWordDictionary loadedDictionary = createNextWordDictionary();
+        loadedDictionary.load();
+
+        Assert.assertEquals(100, loadedDictionary.dumpDictionaryStatistics().firstWordCount);
+        assertHasNextWordsForWord(loadedDictionary, "word42", "word43");
+
+        loadedDictionary.close();
+    }
+
+    @Test
+    public void testEvictsLeastUsedWhenOverMemoryBudget() throws Exception {
+        final NextWordsContainer sizeSample = new NextWordsContainer(new WordsLexicon(), "word0");
+        sizeSample.markWordAsUsed("next");
+        //room for about ten words
+        NextWordDictionary nextWordDictionary = new NextWordDictionary(RuntimeEnvironment.application, "en",
+                new LfuNextWordsEvictionPolicy(), 10 * sizeSample.getEstimatedMemorySize());
+        nextWordDictionary.load();
+
+        for (int wordIndex = 0; wordIndex < 100; wordIndex++) {
+            //hello is used all the time
+            assertHasNextWordsForWord(nextWordDictionary, "hello", wordIndex == 0 ? new String[0] : new String[]{"next"});
+            nextWordDictionary.getNextWords("next", 8, 0);
+            nextWordDictionary.resetSentence();
+            nextWordDictionary.getNextWords("word" + wordIndex, 8, 0);
+            nextWordDictionary.getNextWords("next", 8, 0);
+            nextWordDictionary.resetSentence();
+        }
+
+        NextWordStatistics statistics = nextWordDictionary.dumpDictionaryStatistics();
+        Assert.assertTrue(statistics.firstWordCount < 12);
+        Assert.assertTrue(statistics.evictionsCount > 80);
+        Assert.assertTrue(statistics.estimatedMemorySize <= statistics.memoryBudget);
+        Assert.assertEquals(400, statistics.lookupsCount);
+        Assert.assertTrue(statistics.getLookupHitRate() > 0.2f);
+        //the last typed words are kept too
+        assertHasNextWordsForWord(nextWordDictionary, "word99", "next");
+
+        nextWordDictionary.close();
+    }
+
+    @Test
+    public void testEvictsOthersWhenTheUsedNextWordsAreTheLeastUsed() throws Exception {
+        final NextWordsContainer sizeSample = new NextWordsContainer(new WordsLexicon(), "word0");
+        sizeSample.markWordAsUsed("next");
+        //room for about ten words
+        NextWordDictionary nextWordDictionary = new NextWordDictionary(RuntimeEnvironment.application, "en",
+                new LfuNextWordsEvictionPolicy(), 10 * sizeSample.getEstimatedMemorySize());
+        nextWordDictionary.load();
+        //filling the budget with words which were used more than once
+        for (int usage = 0; usage < 3; usage++) {
+            for (int wordIndex = 0; wordIndex < 9; wordIndex++) {
+                nextWordDictionary.getNextWords("word" + wordIndex, 8, 0);
+                nextWordDictionary.getNextWords("next", 8, 0);
+                nextWordDictionary.resetSentence();
+            }
+        }
+        Assert.assertEquals(0, nextWordDictionary.dumpDictionaryStatistics().evictionsCount);
+
+        //a new word is the least used, but it is the one being used, so others are evicted
+        nextWordDictionary.getNextWords("new", 8, 0);
+        nextWordDictionary.getNextWords("next", 8, 0);
+        nextWordDictionary.resetSentence();
+
+        NextWordStatistics statistics = nextWordDictionary.dumpDictionaryStatistics();
+        Assert.assertTrue(statistics.estimatedMemorySize <= statistics.memoryBudget);
+        Assert.assertTrue(statistics.evictionsCount > 0);
+        assertHasNextWordsForWord(nextWordDictionary, "new", "next");
+
+        nextWordDictionary.close();
+    }
+
+    @Test
+    public void testEvictedNextWordsAreChargedUntilTheyLeaveTheLexicon() throws Exception {
+        final NextWordsContainer sizeSample = new NextWordsContainer(new WordsLexicon(), "word0");
+        sizeSample.markWordAsUsed("next0");
+        //room for about ten words, without their next-words' spelling
+        NextWordDictionary nextWordDictionary = new NextWordDictionary(RuntimeEnvironment.application, "en",
+                new LfuNextWordsEvictionPolicy(), 10 * sizeSample.getEstimatedMemorySize());
+        nextWordDictionary.load();
+
+        for (int wordIndex = 0; wordIndex < 100; wordIndex++) {
+            nextWordDictionary.getNextWords("word" + wordIndex, 8, 0);
+            nextWordDictionary.getNextWords("next" + wordIndex, 8, 0);
+            nextWordDictionary.resetSentence();
+        }
+
+        NextWordStatistics statistics = nextWordDictionary.dumpDictionaryStatistics();
+        Assert.assertTrue(statistics.firstWordCount < 10);
+        Assert.assertTrue(statistics.estimatedMemorySize <= statistics.memoryBudget);
+        assertHasNextWordsForWord(nextWordDictionary, "word99", "next99");
+
+        nextWordDictionary.close();
+    }
+
     private static void assertHasNextWordsForWord(NextWordDictionary nextWordDictionaryUnderTest, String word, String... expectedNextWords) throws Exception {
         Iterator<String> nextWordsIterator = nextWordDictionaryUnderTest.getNextWords(word, 8, 0).iterator();
         for (String expectedNextWord : expectedNextWords) {
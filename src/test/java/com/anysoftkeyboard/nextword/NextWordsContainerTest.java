@@ -0,0 +1,109 @@
+package com.anysoftkeyboard.nextword;
+
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(AskGradleTestRunner.class)
+public class NextWordsContainerTest {
+    private static final WordsLexicon LEXICON = new WordsLexicon();
+
+
+    @Test
+    public void testNewWordsAreAddedAfterOnceUsedWords() {
+        NextWordsContainer container = new NextWordsContainer(LEXICON, "hello");
+        container.markWordAsUsed("you");
+        container.markWordAsUsed("you");
+        container.markWordAsUsed("there");
+        container.markWordAsUsed("world");
+
+        assertNextWords(container, "there:1", "world:1", "you:2");
+    }
+
+    @Test
+    public void testUsedWordMovesPastLessUsedWords() {
+        NextWordsContainer container = new NextWordsContainer(LEXICON, "hello", Arrays.asList("you", "there", "world"));
+        assertNextWords(container, "you:3", "there:3", "world:3");
+
+        container.markWordAsUsed("you");
+        assertNextWords(container, "there:3", "world:3", "you:4");
+
+        container.markWordAsUsed("there");
+        assertNextWords(container, "world:3", "there:4", "you:4");
+
+        container.markWordAsUsed("world");
+        container.markWordAsUsed("world");
+        assertNextWords(container, "there:4", "you:4", "world:5");
+    }
+
+    @Test
+    public void testOrderMatchesComparator() {
+        final Random random = new Random(1);
+        final String[] words = new String[40];
+        for (int wordIndex = 0; wordIndex < words.length; wordIndex++) {
+            words[wordIndex] = "word" + wordIndex;
+        }
+        NextWordsContainer container = new NextWordsContainer(LEXICON, "hello");
+        //the previous implementation: a list which is (stable) sorted on every read
+        List<NextWord> expected = new ArrayList<>();
+        final NextWord.NextWordComparator comparator = new NextWord.NextWordComparator();
+
+        for (int round = 0; round < 2000; round++) {
+            //skewed, so some words are used a lot more than others
+            final String word = words[(int) (words.length * Math.pow(random.nextDouble(), 3))];
+            container.markWordAsUsed(word);
+            NextWord expectedNextWord = null;
+            for (NextWord nextWord : expected) {
+                if (nextWord.nextWord.equals(word)) expectedNextWord = nextWord;
+            }
+            if (expectedNextWord == null) {
+                expected.add(new NextWord(word));
+            } else {
+                expectedNextWord.markAsUsed();
+            }
+            Collections.sort(expected, comparator);
+
+            Assert.assertEquals(expected.size(), container.size());
+            for (int index = 0; index < container.size(); index++) {
+                Assert.assertEquals(expected.get(index).nextWord, container.getNextWord(index));
+                Assert.assertEquals(expected.get(index).getUsedCount(), container.getUsedCount(index));
+            }
+        }
+    }
+
+    @Test
+    public void testReleaseGivesBackLexiconWords() {
+        WordsLexicon lexicon = new WordsLexicon();
+        NextWordsContainer container = new NextWordsContainer(lexicon, "hello");
+        container.markWordAsUsed("you");
+        container.markWordAsUsed("you");
+        container.markWordAsUsed("world");
+        NextWordsContainer copy = container.copy();
+        Assert.assertEquals(2, lexicon.size());
+
+        container.release();
+        Assert.assertEquals(0, container.size());
+        //the copy still references them
+        assertNextWords(copy, "world:1", "you:2");
+        Assert.assertEquals(2, lexicon.size());
+
+        copy.release();
+        Assert.assertEquals(0, lexicon.size());
+    }
+
+    private static void assertNextWords(NextWordsContainer container, String... expectedNextWords) {
+        Assert.assertEquals(expectedNextWords.length, container.size());
+        for (int index = 0; index < expectedNextWords.length; index++) {
+            Assert.assertEquals(expectedNextWords[index], container.getNextWord(index) + ":" + container.getUsedCount(index));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.anysoftkeyboard.nextword;
+
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AskGradleTestRunner.class)
+public class NextWordsEvictionPolicyTest {
+    private static final WordsLexicon LEXICON = new WordsLexicon();
+
+
+    private static NextWordsContainer[] addContainers(NextWordsEvictionPolicy policy, int count) {
+        NextWordsContainer[] containers = new NextWordsContainer[count];
+        for (int containerIndex = 0; containerIndex < count; containerIndex++) {
+            containers[containerIndex] = new NextWordsContainer(LEXICON, "word" + containerIndex);
+            policy.onAdded(containers[containerIndex]);
+        }
+        return containers;
+    }
+
+    @Test
+    public void testLruEvictsLeastRecentlyUsed() {
+        NextWordsEvictionPolicy policy = new LruNextWordsEvictionPolicy();
+        Assert.assertNull(policy.getEvictionCandidate(null));
+        NextWordsContainer[] containers = addContainers(policy, 3);
+
+        Assert.assertSame(containers[0], policy.getEvictionCandidate(null));
+        policy.onUsed(containers[0]);
+        Assert.assertSame(containers[1], policy.getEvictionCandidate(null));
+        policy.onRemoved(containers[1]);
+        Assert.assertSame(containers[2], policy.getEvictionCandidate(null));
+        policy.onUsed(containers[2]);
+        Assert.assertSame(containers[0], policy.getEvictionCandidate(null));
+
+        policy.clear();
+        Assert.assertNull(policy.getEvictionCandidate(null));
+    }
+
+    @Test
+    public void testLfuEvictsLeastFrequentlyUsed() {
+        NextWordsEvictionPolicy policy = new LfuNextWordsEvictionPolicy();
+        Assert.assertNull(policy.getEvictionCandidate(null));
+        NextWordsContainer[] containers = addContainers(policy, 3);
+
+        Assert.assertSame(containers[0], policy.getEvictionCandidate(null));
+        policy.onUsed(containers[0]);
+        policy.onUsed(containers[0]);
+        policy.onUsed(containers[1]);
+        //word2 was never used
+        Assert.assertSame(containers[2], policy.getEvictionCandidate(null));
+        policy.onRemoved(containers[2]);
+        Assert.assertSame(containers[1], policy.getEvictionCandidate(null));
+        //same usage, word0 was used less recently
+        policy.onUsed(containers[1]);
+        Assert.assertSame(containers[0], policy.getEvictionCandidate(null));
+        //a new word is the least used
+        NextWordsContainer newContainer = new NextWordsContainer(LEXICON, "new");
+        policy.onAdded(newContainer);
+        Assert.assertSame(newContainer, policy.getEvictionCandidate(null));
+
+        policy.clear();
+        Assert.assertNull(policy.getEvictionCandidate(null));
+    }
+
+    @Test
+    public void testSkipsExcludedCandidate() {
+        for (NextWordsEvictionPolicy policy : new NextWordsEvictionPolicy[]{new LruNextWordsEvictionPolicy(), new LfuNextWordsEvictionPolicy()}) {
+            NextWordsContainer[] containers = addContainers(policy, 3);
+            policy.onUsed(containers[1]);
+            policy.onUsed(containers[2]);
+            policy.onUsed(containers[2]);
+
+            Assert.assertSame(containers[1], policy.getEvictionCandidate(containers[0]));
+            Assert.assertSame(containers[0], policy.getEvictionCandidate(containers[1]));
+            policy.onRemoved(containers[1]);
+            //the next one is in another bucket of the LFU policy
+            Assert.assertSame(containers[2], policy.getEvictionCandidate(containers[0]));
+            policy.onRemoved(containers[2]);
+            Assert.assertNull(policy.getEvictionCandidate(containers[0]));
+        }
+    }
+
+    @Test
+    public void testLfuDecaysOldUsages() {
+        NextWordsEvictionPolicy policy = new LfuNextWordsEvictionPolicy();
+        NextWordsContainer[] containers = addContainers(policy, 2);
+        //word0 was used a lot, a long time ago
+        for (int usage = 0; usage < 100; usage++) policy.onUsed(containers[0]);
+        Assert.assertSame(containers[1], policy.getEvictionCandidate(null));
+        //now, only word1 is used
+        for (int usage = 0; usage < 1000; usage++) policy.onUsed(containers[1]);
+        Assert.assertSame(containers[0], policy.getEvictionCandidate(null));
+
+        for (NextWordsContainer container : containers) policy.onRemoved(container);
+        Assert.assertNull(policy.getEvictionCandidate(null));
+    }
+}
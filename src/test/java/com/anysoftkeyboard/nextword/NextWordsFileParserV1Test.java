@@ -2,6 +2,7 @@ package com.anysoftkeyboard.nextword;
 
 import android.content.Context;
 
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
 import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
 
 import org.junit.Assert;
@@ -18,17 +19,19 @@ import java.util.Map;
 
 @RunWith(AskGradleTestRunner.class)
 public class NextWordsFileParserV1Test {
+    private static final WordsLexicon LEXICON = new WordsLexicon();
+
 
     @Test
     public void testFlow() throws Exception {
         Map<String, NextWordsContainer> words = new HashMap<>();
-        words.put("hello", new NextWordsContainer("hello", Collections.singletonList("is")));
-        words.put("is", new NextWordsContainer("is", Collections.singletonList("it")));
-        words.put("it", new NextWordsContainer("it", Collections.singletonList("me")));
-        words.put("me", new NextWordsContainer("me", Collections.singletonList("you")));
-        words.put("you", new NextWordsContainer("you", Collections.singletonList("looking")));
-        words.put("looking", new NextWordsContainer("looking", Collections.singletonList("for")));
-        words.put("for", new NextWordsContainer("for", Arrays.asList("hello", "me")));
+        words.put("hello", new NextWordsContainer(LEXICON, "hello", Collections.singletonList("is")));
+        words.put("is", new NextWordsContainer(LEXICON, "is", Collections.singletonList("it")));
+        words.put("it", new NextWordsContainer(LEXICON, "it", Collections.singletonList("me")));
+        words.put("me", new NextWordsContainer(LEXICON, "me", Collections.singletonList("you")));
+        words.put("you", new NextWordsContainer(LEXICON, "you", Collections.singletonList("looking")));
+        words.put("looking", new NextWordsContainer(LEXICON, "looking", Collections.singletonList("for")));
+        words.put("for", new NextWordsContainer(LEXICON, "for", Arrays.asList("hello", "me")));
 
         OutputStream outputStream = RuntimeEnvironment.application.openFileOutput("next_words_test.txt", Context.MODE_PRIVATE);
         NextWordsFileParserV1 parserV1 = new NextWordsFileParserV1();
@@ -41,15 +44,13 @@ public class NextWordsFileParserV1Test {
         //reading VERSION
         Assert.assertEquals(1, inputStream.read());
         //reading the rest of the dictionary
-        Iterable<NextWordsContainer> loadedWords = parserV1.loadStoredNextWords(inputStream);
+        Iterable<NextWordsContainer> loadedWords = parserV1.loadStoredNextWords(LEXICON, inputStream);
         for (NextWordsContainer loadedWord : loadedWords) {
             Assert.assertTrue(words.containsKey(loadedWord.word));
             NextWordsContainer word = words.get(loadedWord.word);
-            Assert.assertEquals(word.getNextWordSuggestions().size(), loadedWord.getNextWordSuggestions().size());
-            for (int nextWordIndex = 0; nextWordIndex<word.getNextWordSuggestions().size(); nextWordIndex++) {
-                NextWord nextWord = word.getNextWordSuggestions().get(nextWordIndex);
-                NextWord loadedNextWord = loadedWord.getNextWordSuggestions().get(nextWordIndex);
-                Assert.assertEquals(nextWord.nextWord, loadedNextWord.nextWord);
+            Assert.assertEquals(word.size(), loadedWord.size());
+            for (int nextWordIndex = 0; nextWordIndex<word.size(); nextWordIndex++) {
+                Assert.assertEquals(word.getNextWord(nextWordIndex), loadedWord.getNextWord(nextWordIndex));
             }
             words.remove(loadedWord.word);
         }
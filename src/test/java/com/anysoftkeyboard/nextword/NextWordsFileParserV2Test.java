@@ -0,0 +1,150 @@
+package com.anysoftkeyboard.nextword;
+
+import android.content.Context;
+
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(AskGradleTestRunner.class)
+public class NextWordsFileParserV2Test {
+    private static final WordsLexicon LEXICON = new WordsLexicon();
+
+
+    private static Map<String, NextWordsContainer> createNextWords() {
+        Map<String, NextWordsContainer> words = new HashMap<>();
+        words.put("hello", new NextWordsContainer(LEXICON, "hello", Collections.singletonList("is")));
+        words.put("is", new NextWordsContainer(LEXICON, "is", Collections.singletonList("it")));
+        words.put("it", new NextWordsContainer(LEXICON, "it", Collections.singletonList("me")));
+        words.put("me", new NextWordsContainer(LEXICON, "me", Collections.singletonList("you")));
+        words.put("you", new NextWordsContainer(LEXICON, "you", Collections.singletonList("looking")));
+        words.put("looking", new NextWordsContainer(LEXICON, "looking", Collections.singletonList("for")));
+        NextWordsContainer forContainer = new NextWordsContainer(LEXICON, "for", Arrays.asList("hello", "me"));
+        for (int usage = 0; usage < 200; usage++) forContainer.markWordAsUsed("ünïcode");
+        words.put("for", forContainer);
+        return words;
+    }
+
+    private static StoredNextWords storeAndLoad(Map<String, NextWordsContainer> words) throws Exception {
+        OutputStream outputStream = RuntimeEnvironment.application.openFileOutput("next_words_test.txt", Context.MODE_PRIVATE);
+        NextWordsFileParserV2 parserV2 = new NextWordsFileParserV2();
+        parserV2.storeNextWords(words.values(), outputStream);
+
+        outputStream.flush();
+        outputStream.close();
+
+        InputStream inputStream = RuntimeEnvironment.application.openFileInput("next_words_test.txt");
+        //reading VERSION
+        Assert.assertEquals(2, inputStream.read());
+        //reading the rest of the dictionary
+        StoredNextWords loadedWords = parserV2.loadStoredNextWords(LEXICON, inputStream);
+        inputStream.close();
+        return loadedWords;
+    }
+
+    private static void assertSameNextWords(NextWordsContainer word, NextWordsContainer loadedWord) {
+        Assert.assertEquals(word.word, loadedWord.word);
+        Assert.assertEquals(word.size(), loadedWord.size());
+        for (int nextWordIndex = 0; nextWordIndex < word.size(); nextWordIndex++) {
+            Assert.assertEquals(word.getNextWord(nextWordIndex), loadedWord.getNextWord(nextWordIndex));
+            Assert.assertEquals(word.getUsedCount(nextWordIndex), loadedWord.getUsedCount(nextWordIndex));
+        }
+    }
+
+    @Test
+    public void testFlow() throws Exception {
+        Map<String, NextWordsContainer> words = createNextWords();
+        StoredNextWords loadedWords = storeAndLoad(words);
+
+        Assert.assertEquals(words.size(), loadedWords.size());
+        for (NextWordsContainer loadedWord : loadedWords) {
+            Assert.assertTrue(words.containsKey(loadedWord.word));
+            assertSameNextWords(words.get(loadedWord.word), loadedWord);
+            words.remove(loadedWord.word);
+        }
+
+        Assert.assertEquals(0, words.size());
+    }
+
+    @Test
+    public void testTakeReadsOnlyTheAskedWord() throws Exception {
+        Map<String, NextWordsContainer> words = createNextWords();
+        StoredNextWords loadedWords = storeAndLoad(words);
+
+        assertSameNextWords(words.get("for"), loadedWords.take("for"));
+        Assert.assertNull(loadedWords.take("for"));
+        Assert.assertNull(loadedWords.take("bye"));
+        Assert.assertEquals(words.size() - 1, loadedWords.size());
+        for (NextWordsContainer loadedWord : loadedWords) {
+            Assert.assertNotEquals("for", loadedWord.word);
+            assertSameNextWords(words.get(loadedWord.word), loadedWord);
+        }
+    }
+
+    private static StoredNextWords load(int... fileBytes) throws Exception {
+        byte[] bytes = new byte[fileBytes.length];
+        for (int byteIndex = 0; byteIndex < bytes.length; byteIndex++) bytes[byteIndex] = (byte) fileBytes[byteIndex];
+        return new NextWordsFileParserV2().loadStoredNextWords(LEXICON, new ByteArrayInputStream(bytes));
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailsOnCountLargerThanTheFile() throws Exception {
+        //Integer.MAX_VALUE strings
+        load(0xFF, 0xFF, 0xFF, 0xFF, 0x07);
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailsOnNegativeNumber() throws Exception {
+        //one string, with a length of -1
+        load(0x01, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F);
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailsOnEntryOffsetOutOfTheFile() throws Exception {
+        //the string "a", and its entry at offset 100
+        load(0x01, 0x01, 'a', 0x01, 0x00, 100, 0x00);
+    }
+
+    @Test
+    public void testSkipsCorruptEntry() throws Exception {
+        //the string "a", and its entry with 127 next-words
+        StoredNextWords loadedWords = load(0x01, 0x01, 'a', 0x01, 0x00, 0x00, 0x7F, 0x00, 0x01);
+        Assert.assertEquals(1, loadedWords.size());
+
+        Assert.assertNull(loadedWords.take("a"));
+        Assert.assertEquals(0, loadedWords.size());
+    }
+
+    @Test
+    public void testMigratesVersion1File() throws Exception {
+        OutputStream outputStream = RuntimeEnvironment.application.openFileOutput("next_words_en.txt", Context.MODE_PRIVATE);
+        new NextWordsFileParserV1().storeNextWords(createNextWords().values(), outputStream);
+        outputStream.close();
+
+        NextWordDictionary nextWordDictionary = new NextWordDictionary(RuntimeEnvironment.application, "en");
+        nextWordDictionary.load();
+        Assert.assertEquals("me", nextWordDictionary.getNextWords("it", 8, 0).iterator().next());
+        Assert.assertEquals(7, nextWordDictionary.dumpDictionaryStatistics().firstWordCount);
+        //storing in the current version
+        nextWordDictionary.clearData();
+        nextWordDictionary.close();
+        NextWordsJournal.waitForPendingWrites();
+
+        InputStream inputStream = RuntimeEnvironment.application.openFileInput("next_words_en.txt");
+        Assert.assertEquals(2, inputStream.read());
+        inputStream.close();
+    }
+}
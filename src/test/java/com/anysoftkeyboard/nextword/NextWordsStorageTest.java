@@ -0,0 +1,181 @@
+package com.anysoftkeyboard.nextword;
+
+import android.content.Context;
+
+import com.anysoftkeyboard.base.dictionaries.WordsLexicon;
+import com.menny.android.anysoftkeyboard.AskGradleTestRunner;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AskGradleTestRunner.class)
+public class NextWordsStorageTest {
+    private static final WordsLexicon LEXICON = new WordsLexicon();
+
+    private NextWordsStorage mStorage;
+
+    @Before
+    public void setup() {
+        mStorage = new NextWordsStorage(RuntimeEnvironment.application, "en");
+        mStorage.clear();
+    }
+
+    private static List<NextWordsContainer> createNextWords() {
+        List<NextWordsContainer> words = new ArrayList<>();
+        NextWordsContainer hello = new NextWordsContainer(LEXICON, "hello");
+        hello.markWordAsUsed("you");
+        hello.markWordAsUsed("world");
+        hello.markWordAsUsed("world");
+        hello.markWordAsUsed("world");
+        words.add(hello);
+        NextWordsContainer how = new NextWordsContainer(LEXICON, "how");
+        how.markWordAsUsed("are");
+        how.markWordAsUsed("are");
+        how.markWordAsUsed("ünïcode");
+        words.add(how);
+        NextWordsContainer once = new NextWordsContainer(LEXICON, "once");
+        once.markWordAsUsed("upon");
+        words.add(once);
+        return words;
+    }
+
+    @Test
+    public void testReadStatisticsEmpty() {
+        NextWordsFileStatistics statistics = mStorage.readStatistics(3);
+        Assert.assertEquals(0, statistics.firstWordCount);
+        Assert.assertEquals(0, statistics.secondWordCount);
+        Assert.assertEquals(0, statistics.journalUsagesCount);
+        Assert.assertEquals(0, statistics.fileSize);
+        Assert.assertTrue(statistics.topNextWords.isEmpty());
+    }
+
+    @Test
+    public void testReadStatistics() {
+        mStorage.storeNextWords(createNextWords());
+        NextWordsJournal journal = new NextWordsJournal(mStorage);
+        journal.append("hello", "there");
+        journal.append("once", "more");
+        journal.flush();
+
+        NextWordsFileStatistics statistics = mStorage.readStatistics(3);
+        Assert.assertEquals(3, statistics.firstWordCount);
+        Assert.assertEquals(5, statistics.secondWordCount);
+        Assert.assertEquals(2, statistics.journalUsagesCount);
+        Assert.assertTrue(statistics.fileSize > 0);
+        Assert.assertTrue(statistics.journalSize > 0);
+
+        Assert.assertEquals(3, statistics.topNextWords.size());
+        assertNextWordUsage(statistics.topNextWords.get(0), "hello", "world", 3);
+        assertNextWordUsage(statistics.topNextWords.get(1), "how", "are", 2);
+        //same usage count as the others, but read first
+        assertNextWordUsage(statistics.topNextWords.get(2), "hello", "you", 1);
+
+        Assert.assertTrue(mStorage.readStatistics(0).topNextWords.isEmpty());
+        Assert.assertEquals(5, mStorage.readStatistics(0).secondWordCount);
+    }
+
+    @Test
+    public void testReadStatisticsOfVersion1File() throws Exception {
+        OutputStream outputStream = RuntimeEnvironment.application.openFileOutput("next_words_en.txt", Context.MODE_PRIVATE);
+        new NextWordsFileParserV1().storeNextWords(Arrays.asList(
+                new NextWordsContainer(LEXICON, "hello", Arrays.asList("you", "world")),
+                new NextWordsContainer(LEXICON, "once", Arrays.asList("upon"))), outputStream);
+        outputStream.close();
+
+        NextWordsFileStatistics statistics = mStorage.readStatistics(1);
+        Assert.assertEquals(2, statistics.firstWordCount);
+        Assert.assertEquals(3, statistics.secondWordCount);
+        Assert.assertEquals(1, statistics.topNextWords.size());
+        assertNextWordUsage(statistics.topNextWords.get(0), "hello", "you", 2);
+    }
+
+    @Test
+    public void testClear() {
+        mStorage.storeNextWords(createNextWords());
+        NextWordsJournal journal = new NextWordsJournal(mStorage);
+        journal.append("hello", "there");
+        journal.flush();
+
+        mStorage.clear();
+
+        NextWordsFileStatistics statistics = mStorage.readStatistics(3);
+        Assert.assertEquals(0, statistics.firstWordCount);
+        Assert.assertEquals(0, statistics.journalUsagesCount);
+        Assert.assertEquals(0, mStorage.loadStoredNextWords(LEXICON).size());
+    }
+
+    @Test
+    public void testFailedStoreKeepsStoredNextWords() throws Exception {
+        mStorage.storeNextWords(createNextWords());
+        //a (not empty) directory where the next-words are written aside, so writing them fails
+        final File tempFile = RuntimeEnvironment.application.getFileStreamPath("next_words_en.txt.tmp");
+        final File blockingFile = new File(tempFile, "blocking");
+        Assert.assertTrue(tempFile.mkdirs());
+        Assert.assertTrue(blockingFile.createNewFile());
+        try {
+            Assert.assertFalse(mStorage.storeSerializedNextWords(mStorage.serializeNextWords(new ArrayList<NextWordsContainer>())));
+        } finally {
+            Assert.assertTrue(blockingFile.delete());
+            Assert.assertTrue(tempFile.delete());
+        }
+
+        StoredNextWords storedNextWords = mStorage.loadStoredNextWords(LEXICON);
+        Assert.assertEquals(3, storedNextWords.size());
+        Assert.assertEquals(2, storedNextWords.take("hello").size());
+    }
+
+    @Test
+    public void testPruneNextWords() {
+        mStorage.storeNextWords(createNextWords());
+
+        Assert.assertEquals(3, mStorage.pruneNextWords(2));
+        //nothing left to prune
+        Assert.assertEquals(0, mStorage.pruneNextWords(2));
+
+        StoredNextWords storedNextWords = mStorage.loadStoredNextWords(LEXICON);
+        Assert.assertEquals(2, storedNextWords.size());
+        NextWordsContainer hello = storedNextWords.take("hello");
+        Assert.assertEquals(1, hello.size());
+        Assert.assertEquals("world", hello.getNextWord(0));
+        Assert.assertEquals(3, hello.getUsedCount(0));
+        NextWordsContainer how = storedNextWords.take("how");
+        Assert.assertEquals(1, how.size());
+        Assert.assertEquals("are", how.getNextWord(0));
+        Assert.assertNull(storedNextWords.take("once"));
+
+        NextWordsFileStatistics statistics = mStorage.readStatistics(1);
+        Assert.assertEquals(2, statistics.firstWordCount);
+        Assert.assertEquals(2, statistics.secondWordCount);
+        assertNextWordUsage(statistics.topNextWords.get(0), "hello", "world", 3);
+    }
+
+    @Test
+    public void testPruneVersion1File() throws Exception {
+        OutputStream outputStream = RuntimeEnvironment.application.openFileOutput("next_words_en.txt", Context.MODE_PRIVATE);
+        new NextWordsFileParserV1().storeNextWords(Arrays.asList(
+                new NextWordsContainer(LEXICON, "hello", Arrays.asList("you", "world")),
+                new NextWordsContainer(LEXICON, "once", Arrays.asList("upon"))), outputStream);
+        outputStream.close();
+
+        Assert.assertEquals(1, mStorage.pruneNextWords(2));
+
+        StoredNextWords storedNextWords = mStorage.loadStoredNextWords(LEXICON);
+        Assert.assertEquals(1, storedNextWords.size());
+        Assert.assertEquals(2, storedNextWords.take("hello").size());
+    }
+
+    private static void assertNextWordUsage(NextWordsFileStatistics.NextWordUsage usage, String word, String nextWord, int usedCount) {
+        Assert.assertEquals(word, usage.word);
+        Assert.assertEquals(nextWord, usage.nextWord);
+        Assert.assertEquals(usedCount, usage.usedCount);
+    }
+}